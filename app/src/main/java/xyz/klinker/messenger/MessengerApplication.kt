@@ -50,6 +50,9 @@ class MessengerApplication : FirebaseApplication(), ApiErrorPersister, AccountIn
 
         TimeUtils.setupNightTheme()
         NotificationUtils.createNotificationChannels(this)
+        TelephonyReconciler.register(this)
+        ContactLookupCache.register(this)
+        ReceiveLatencyTracer.register(this)
 
         if (Settings.quickCompose) {
             QuickComposeNotificationService.start(this)
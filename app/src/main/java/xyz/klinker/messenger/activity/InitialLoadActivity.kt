@@ -42,9 +42,10 @@ import xyz.klinker.messenger.api.implementation.LoginActivity
 import xyz.klinker.messenger.api.implementation.firebase.AnalyticsHelper
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.Settings
-import xyz.klinker.messenger.shared.data.model.Contact
+import xyz.klinker.messenger.shared.data.pojo.PendingBackfill
 import xyz.klinker.messenger.shared.service.ApiDownloadService
 import xyz.klinker.messenger.shared.service.ApiUploadService
+import xyz.klinker.messenger.shared.service.jobs.HistoryBackfillWork
 import xyz.klinker.messenger.shared.util.*
 import xyz.klinker.messenger.shared.util.listener.ProgressUpdateListener
 
@@ -226,14 +227,20 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
 
             val source = DataSource
 
+            // only the latest page of each conversation is imported here. The rest of the history
+            // is brought in by the HistoryBackfillWork once the app is open.
             val conversations = SmsMmsUtils.queryConversations(context)
-            try {
-                source.insertConversations(conversations, context, this@InitialLoadActivity)
+            val pending = ArrayList<PendingBackfill>()
+            val timings = try {
+                source.insertConversations(conversations, context, this@InitialLoadActivity, FIRST_PAGE_SIZE, pending)
             } catch (e: Exception) {
                 source.ensureActionable(this)
-                source.insertConversations(conversations, context, this@InitialLoadActivity)
+                pending.clear()
+                source.insertConversations(conversations, context, this@InitialLoadActivity, FIRST_PAGE_SIZE, pending)
             }
 
+            Log.v("initial_load", "conversation import: $timings, ${pending.size} to backfill")
+
             handler!!.post { progress.isIndeterminate = true }
 
             val contacts = ContactUtils.queryContacts(context, source).toMutableList()
@@ -241,6 +248,9 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
 
             source.insertContacts(this, contacts, null)
 
+            HistoryBackfillWork.start(context, pending, startUploadAfterSync)
+            startUploadAfterSync = false
+
             val importTime = TimeUtils.now - startTime
             AnalyticsHelper.importFinished(this, importTime)
             Log.v("initial_load", "load took $importTime ms")
@@ -290,5 +300,6 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
     companion object {
         const val UPLOAD_AFTER_SYNC = "upload_after_sync"
         private const val SETUP_REQUEST = 54321
+        private const val FIRST_PAGE_SIZE = 50
     }
 }
@@ -20,7 +20,7 @@ class ComposeVCardSender(private val activity: ComposeActivity) {
         val cursor = DataSource.searchMessages(activity, data)
 
         if (cursor != null && cursor.moveToFirst()) {
-            DataSource.updateMessageData(activity, cursor.getLong(0), uri!!.toString())
+            DataSource.updateMessageData(activity, cursor.getLong(0), uri!!.toString(), mimeType)
         }
 
         CursorUtil.closeSilent(cursor)
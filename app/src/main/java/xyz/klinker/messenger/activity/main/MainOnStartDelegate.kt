@@ -7,7 +7,6 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import xyz.klinker.messenger.activity.MessengerActivity
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.service.jobs.ScheduledMessageJob
-import xyz.klinker.messenger.shared.util.CursorUtil
 import xyz.klinker.messenger.utils.TextAnywhereConversationCardApplier
 
 class MainOnStartDelegate(private val activity: MessengerActivity) {
@@ -56,9 +55,7 @@ class MainOnStartDelegate(private val activity: MessengerActivity) {
 
     private fun dismissAllActiveNotifications() {
         Thread {
-            val c = DataSource.getUnseenMessages(activity)
-            val count = c.count
-            CursorUtil.closeSilent(c)
+            val count = DataSource.getUnseenMessageCount(activity)
 
             if (count > 1) {
                 // since the notification functionality here is not nearly as good as 7.0,
@@ -22,9 +22,9 @@ class ReplyDataProvider(private val activity: MarshmallowReplyActivity) {
         val cursor = DataSource.getMessages(activity, conversationId)
 
         if (cursor.moveToLast()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
 
                 if (!MimeType.isExpandedMedia(message.mimeType)) {
                     messages.add(message)
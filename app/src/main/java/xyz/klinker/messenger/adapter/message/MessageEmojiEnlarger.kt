@@ -3,7 +3,7 @@ package xyz.klinker.messenger.adapter.message
 import xyz.klinker.messenger.adapter.view_holder.MessageViewHolder
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
-import xyz.klinker.messenger.shared.util.Regex
+import xyz.klinker.messenger.shared.util.MessageTextAnalyzer
 
 class MessageEmojiEnlarger {
 
@@ -16,5 +16,9 @@ class MessageEmojiEnlarger {
     }
 
     private fun isNotEmpty(message: Message) = message.data!!.isNotEmpty()
-    private fun onlyHasEmojis(message: Message) = message.data!!.replace(Regex.EMOJI.toRegex(), "").isEmpty()
+    private fun onlyHasEmojis(message: Message) = if (MessageTextAnalyzer.isAnalyzed(message.renderHints)) {
+        MessageTextAnalyzer.has(message.renderHints, MessageTextAnalyzer.EMOJI_ONLY)
+    } else {
+        MessageTextAnalyzer.isOnlyEmojis(message.data!!)
+    }
 }
\ No newline at end of file
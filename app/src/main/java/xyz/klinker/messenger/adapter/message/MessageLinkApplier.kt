@@ -15,6 +15,7 @@ import xyz.klinker.messenger.fragment.message.MessageListFragment
 import xyz.klinker.messenger.fragment.bottom_sheet.LinkLongClickFragment
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.MessageTextAnalyzer
 import xyz.klinker.messenger.shared.util.PhoneNumberUtils
 import xyz.klinker.messenger.shared.util.Regex
 import xyz.klinker.messenger.shared.util.media.parsers.ArticleParser
@@ -34,11 +35,27 @@ class MessageLinkApplier(private val fragment: MessageListFragment, private val
         }
 
         holder.message?.movementMethod = TouchableMovementMethod()
-        holder.message?.applyLinks(
-                buildEmailsLink(holder, linkColor),
-                buildWebUrlsLink(holder, linkColor),
-                buildPhoneNumbersLink(holder, linkColor)
-        )
+
+        val hints = message.renderHints
+        if (!MessageTextAnalyzer.isAnalyzed(hints)) {
+            holder.message?.applyLinks(
+                    buildEmailsLink(holder, linkColor),
+                    buildWebUrlsLink(holder, linkColor),
+                    buildPhoneNumbersLink(holder, linkColor)
+            )
+
+            return
+        }
+
+        // only build the links that the analyzer found something for, when the message was saved
+        val links = mutableListOf<Link>()
+        if (MessageTextAnalyzer.has(hints, MessageTextAnalyzer.EMAIL)) links.add(buildEmailsLink(holder, linkColor))
+        if (MessageTextAnalyzer.has(hints, MessageTextAnalyzer.LINK)) links.add(buildWebUrlsLink(holder, linkColor))
+        if (MessageTextAnalyzer.has(hints, MessageTextAnalyzer.PHONE)) links.add(buildPhoneNumbersLink(holder, linkColor))
+
+        if (links.isNotEmpty()) {
+            holder.message?.applyLinks(*links.toTypedArray())
+        }
     }
 
     private fun buildEmailsLink(holder: MessageViewHolder, linkColor: Int): Link {
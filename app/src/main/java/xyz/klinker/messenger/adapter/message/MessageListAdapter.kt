@@ -66,6 +66,8 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
     private val imageHeight: Int = DensityUtil.toPx(activity, 350)
     private val imageWidth: Int = DensityUtil.toPx(activity, 350)
 
+    private var messageMapper: Message.Mapper? = null
+
     var snackbar: Snackbar? = null
 
     val messages: Cursor
@@ -146,8 +148,8 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
             return
         }
 
-        val message = Message()
-        message.fillFromCursor(dataProvider.messages)
+        val message = getMessageMapper().map()
+        dataProvider.applyTypeOverride(message)
 
         holder.messageId = message.id
         holder.mimeType = message.mimeType
@@ -220,12 +222,23 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
         }
     }
 
+    private fun getMessageMapper(): Message.Mapper {
+        // the data provider swaps in a new cursor whenever the list is reloaded, so the column
+        // positions only need to be resolved again when that happens.
+        val mapper = messageMapper
+        return if (mapper != null && mapper.cursor === dataProvider.messages) {
+            mapper
+        } else {
+            Message.Mapper(dataProvider.messages).also { messageMapper = it }
+        }
+    }
+
     override fun getItemCount() = try { dataProvider.messages.count } catch (e: Exception) { 0 }
 
     override fun getItemViewType(position: Int): Int {
         try {
             dataProvider.messages.moveToPosition(position)
-            var type = dataProvider.messages.getInt(dataProvider.messages.getColumnIndex(Message.COLUMN_TYPE))
+            var type = dataProvider.currentType()
             val mimeType = dataProvider.messages.getString(dataProvider.messages.getColumnIndex(Message.COLUMN_MIME_TYPE))
             val time = dataProvider.messages.getLong(dataProvider.messages.getColumnIndex(Message.COLUMN_TIMESTAMP))
 
@@ -278,6 +291,14 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
         dataProvider.addMessage(recycler, newMessages)
     }
 
+    fun prependMessages(recycler: RecyclerView, newMessages: Cursor) {
+        dataProvider.prependMessages(recycler, newMessages)
+    }
+
+    fun onMessageTypeChanged(messageId: Long, type: Int) {
+        dataProvider.onMessageTypeChanged(messageId, type)
+    }
+
     override fun onMessageDeleted(context: Context, conversationId: Long, position: Int) {
         dataProvider.onMessageDeleted(context, conversationId, position)
     }
@@ -23,11 +23,18 @@ class MessageListDataProvider(private val adapter: MessageListAdapter, private v
 
     var messages = initialCursor
 
+    /**
+     * Message types that have changed since the cursor was loaded. These get dropped whenever a new
+     * cursor is swapped in, since it will already have them.
+     */
+    private val typeOverrides = HashMap<Long, Int>()
+
     fun addMessage(recycler: RecyclerView, newMessages: Cursor) {
         val initialCount = adapter.itemCount
 
         CursorUtil.closeSilent(messages)
         messages = newMessages
+        typeOverrides.clear()
 
         val finalCount = adapter.itemCount
 
@@ -71,6 +78,87 @@ class MessageListDataProvider(private val adapter: MessageListAdapter, private v
         }
     }
 
+    /**
+     * Swaps in a cursor that has older messages above the ones that are showing now, keeping the
+     * rows that were on screen where they are.
+     */
+    fun prependMessages(recycler: RecyclerView, newMessages: Cursor) {
+        val initialCount = adapter.itemCount
+        val firstId = if (messages.moveToFirst()) messages.getLong(messages.getColumnIndex(Message.COLUMN_ID)) else -1L
+
+        val manager = recycler.layoutManager as LinearLayoutManager
+        val anchorPosition = manager.findFirstVisibleItemPosition()
+        val anchorOffset = manager.findViewByPosition(anchorPosition)?.top ?: 0
+
+        CursorUtil.closeSilent(messages)
+        messages = newMessages
+        typeOverrides.clear()
+
+        val added = findPosition(firstId)
+        val finalCount = adapter.itemCount
+
+        if (added == -1 || finalCount - added < initialCount) {
+            // the old first message is gone, so the rows can't be lined up
+            adapter.notifyDataSetChanged()
+            return
+        }
+
+        if (added == 0 && finalCount == initialCount) {
+            return
+        }
+
+        if (added > 0) {
+            adapter.notifyItemRangeInserted(0, added)
+        }
+
+        if (finalCount - added > initialCount) {
+            // something was received while the archive was being read
+            adapter.notifyItemRangeInserted(initialCount + added, finalCount - added - initialCount)
+        }
+
+        if (anchorPosition != RecyclerView.NO_POSITION) {
+            manager.scrollToPositionWithOffset(anchorPosition + added, anchorOffset)
+        }
+    }
+
+    /**
+     * Applies a new type to a single message, rather than re-querying the whole conversation.
+     */
+    fun onMessageTypeChanged(messageId: Long, type: Int) {
+        val position = findPosition(messageId)
+        if (position != -1) {
+            typeOverrides[messageId] = type
+            adapter.notifyItemChanged(position)
+        }
+    }
+
+    /**
+     * Gets the type of the message at the cursor's current position.
+     */
+    fun currentType(): Int {
+        val type = messages.getInt(messages.getColumnIndex(Message.COLUMN_TYPE))
+        return if (typeOverrides.isEmpty()) type
+        else typeOverrides[messages.getLong(messages.getColumnIndex(Message.COLUMN_ID))] ?: type
+    }
+
+    fun applyTypeOverride(message: Message) {
+        typeOverrides[message.id]?.let { message.type = it }
+    }
+
+    private fun findPosition(messageId: Long): Int {
+        // status changes are almost always for the latest messages, so search from the bottom
+        val idIndex = messages.getColumnIndex(Message.COLUMN_ID)
+        if (messages.moveToLast()) {
+            do {
+                if (messages.getLong(idIndex) == messageId) {
+                    return messages.position
+                }
+            } while (messages.moveToPrevious())
+        }
+
+        return -1
+    }
+
     fun onMessageDeleted(context: Context, conversationId: Long, position: Int) {
         val source = DataSource
 
@@ -19,7 +19,6 @@ package xyz.klinker.messenger.fragment
 import android.content.Context
 import android.content.Intent
 import android.os.Bundle
-import android.os.Handler
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -33,6 +32,7 @@ import xyz.klinker.messenger.activity.MessengerActivity
 import xyz.klinker.messenger.adapter.search.SearchAdapter
 import xyz.klinker.messenger.shared.MessengerActivityExtras
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.QueryScope
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.util.listener.SearchListener
@@ -46,6 +46,8 @@ class SearchFragment : Fragment(), SearchListener {
     private var conversationColor: Int? = null
     private var query: String? = null
 
+    private val queries: QueryScope by lazy { QueryScope(lifecycle) }
+
     var list: RecyclerView? = null
     private val adapter: SearchAdapter by lazy { SearchAdapter(query, null, null, this, conversationColor) }
 
@@ -77,22 +79,20 @@ class SearchFragment : Fragment(), SearchListener {
     }
 
     private fun loadSearch() {
-        val handler = Handler()
-
-        Thread {
-            val activity = activity
+        val activity = activity ?: return
+        val query = query
 
-            val conversations = if (activity != null && conversationColor == null) {
+        // typing fires a search for every character, only the results for the latest one are shown
+        queries.load("search", {
+            val conversations = if (conversationColor == null) {
                 DataSource.searchConversationsAsList(activity, query, 60).toMutableList()
             } else mutableListOf()
 
-            val messages = if (activity != null) {
-                if (conversationId == null) DataSource.searchMessagesAsList(activity, query, 60).toMutableList()
-                else DataSource.searchConversationMessagesAsList(activity, query, conversationId!!, 60).toMutableList()
-            } else mutableListOf()
+            val messages = if (conversationId == null) DataSource.searchMessagesAsList(activity, query, 60).toMutableList()
+            else DataSource.searchConversationMessagesAsList(activity, query, conversationId!!, 60).toMutableList()
 
-            handler.post { setSearchResults(conversations, messages) }
-        }.start()
+            Pair(conversations, messages)
+        }, { results -> setSearchResults(results.first, results.second) })
     }
 
     private fun setSearchResults(conversations: MutableList<Conversation>, messages: MutableList<Message>) {
@@ -1,6 +1,5 @@
 package xyz.klinker.messenger.fragment.conversation
 
-import android.os.Handler
 import android.util.Log
 import android.view.View
 import androidx.fragment.app.FragmentActivity
@@ -14,6 +13,7 @@ import xyz.klinker.messenger.fragment.FolderConversationListFragment
 import xyz.klinker.messenger.fragment.PrivateConversationListFragment
 import xyz.klinker.messenger.fragment.UnreadConversationListFragment
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.QueryScope
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.util.ColorUtils
@@ -25,6 +25,7 @@ class ConversationRecyclerViewManager(private val fragment: ConversationListFrag
 
     private val activity: FragmentActivity? by lazy { fragment.activity }
     private val layoutManager: FixedScrollLinearLayoutManager by lazy { FixedScrollLinearLayoutManager(activity) }
+    private val queries: QueryScope by lazy { QueryScope(fragment.lifecycle) }
     var adapter: ConversationListAdapter? = null
 
     val recyclerView: RecyclerView by lazy { fragment.rootView!!.findViewById<View>(R.id.recycler_view) as RecyclerView }
@@ -42,32 +43,25 @@ class ConversationRecyclerViewManager(private val fragment: ConversationListFrag
     fun loadConversations() {
         fragment.swipeHelper.clearPending()
 
-        val handler = Handler()
-        Thread {
-            val startTime = TimeUtils.now
-
-            if (activity == null) {
-                return@Thread
-            }
+        if (activity == null) {
+            return
+        }
 
+        queries.load("conversations", {
+            val startTime = TimeUtils.now
             val conversations = getCursorSafely()
 
             Log.v("conversation_load", "load took ${TimeUtils.now - startTime} ms")
-
-            if (activity == null) {
-                return@Thread
-            }
-
-            handler.post {
-                setConversations(conversations.toMutableList())
-                fragment.lastRefreshTime = TimeUtils.now
-
-                try {
-                    (activity!!.application as MessengerApplication).refreshDynamicShortcuts()
-                } catch (e: Exception) {
-                }
+            conversations
+        }, { conversations ->
+            setConversations(conversations.toMutableList())
+            fragment.lastRefreshTime = TimeUtils.now
+
+            try {
+                (activity!!.application as MessengerApplication).refreshDynamicShortcuts()
+            } catch (e: Exception) {
             }
-        }.start()
+        })
     }
 
     fun canScroll(scrollable: Boolean) { layoutManager.setCanScroll(scrollable) }
@@ -11,6 +11,7 @@ import xyz.klinker.messenger.activity.MessengerActivity
 import xyz.klinker.messenger.adapter.conversation.ConversationListAdapter
 import xyz.klinker.messenger.fragment.ArchivedConversationListFragment
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.QueryScope
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.util.SnackbarAnimationFix
 import xyz.klinker.messenger.utils.swipe_to_dismiss.SwipeTouchHelper
@@ -121,9 +122,9 @@ class ConversationSwipeHelper(private val fragment: ConversationListFragment) {
         list.addAll(pendingDelete)
         pendingDelete.clear()
 
-        Thread {
+        QueryScope.background {
             list.forEach { performDeleteOperation(it) }
-        }.start()
+        }
     }
 
     private fun dismissArchiveSnackbar() {
@@ -133,9 +134,9 @@ class ConversationSwipeHelper(private val fragment: ConversationListFragment) {
         list.addAll(pendingArchive)
         pendingArchive.clear()
 
-        Thread {
+        QueryScope.background {
             list.forEach { performArchiveOperation(it) }
-        }.start()
+        }
     }
 
     private fun performDeleteOperation(conversation: Conversation) {
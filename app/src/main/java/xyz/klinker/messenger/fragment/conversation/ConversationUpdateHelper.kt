@@ -3,6 +3,8 @@ package xyz.klinker.messenger.fragment.conversation
 import androidx.fragment.app.FragmentActivity
 import xyz.klinker.messenger.R
 import xyz.klinker.messenger.shared.MessengerActivityExtras
+import xyz.klinker.messenger.shared.data.DataChange
+import xyz.klinker.messenger.shared.data.DataChangeBus
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
@@ -14,6 +16,13 @@ class ConversationUpdateHelper(private val fragment: ConversationListFragment) {
 
     private val activity: FragmentActivity? by lazy { fragment.activity }
     private val updatedReceiver: ConversationListUpdatedReceiver = ConversationListUpdatedReceiver(fragment)
+    private val dataChangeListener = object : DataChangeBus.Listener {
+        override fun onDataChanged(change: DataChange) {
+            if (change is DataChange.ConversationSnippetChanged && activity != null) {
+                updatedReceiver.onSnippetChanged(activity!!, change)
+            }
+        }
+    }
 
     var newConversationTitle: String? = null
     var updateInfo: ConversationUpdateInfo? = null
@@ -52,8 +61,15 @@ class ConversationUpdateHelper(private val fragment: ConversationListFragment) {
         }
     }
 
-    fun createReceiver() { activity?.registerReceiver(updatedReceiver, ConversationListUpdatedReceiver.intentFilter) }
-    fun destroyReceiver() { activity?.unregisterReceiver(updatedReceiver) }
+    fun createReceiver() {
+        activity?.registerReceiver(updatedReceiver, ConversationListUpdatedReceiver.intentFilter)
+        DataChangeBus.register(dataChangeListener)
+    }
+
+    fun destroyReceiver() {
+        DataChangeBus.unregister(dataChangeListener)
+        activity?.unregisterReceiver(updatedReceiver)
+    }
 
     fun broadcastUpdateInfo() {
         if (updateInfo != null) {
@@ -9,6 +9,7 @@ import androidx.fragment.app.FragmentActivity
 import xyz.klinker.messenger.R
 import xyz.klinker.messenger.fragment.conversation.ConversationListFragment
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.QueryScope
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.model.Draft
 import xyz.klinker.messenger.shared.data.pojo.ConversationUpdateInfo
@@ -32,7 +33,7 @@ class DraftManager(private val fragment: MessageListFragment) {
         if (activity != null) drafts = DataSource.getDrafts(activity!!, argManager.conversationId)
         if (drafts.isNotEmpty()) {
             val activity = this.activity!!
-            Thread {
+            QueryScope.background {
                 val updatedSnippet = DataSource.deleteDrafts(activity, argManager.conversationId)
                 if (updatedSnippet != null) {
                     activity.runOnUiThread {
@@ -42,7 +43,7 @@ class DraftManager(private val fragment: MessageListFragment) {
                         }
                     }
                 }
-            }.start()
+            }
         }
     }
 
@@ -41,6 +41,8 @@ import xyz.klinker.messenger.fragment.message.send.PermissionHelper
 import xyz.klinker.messenger.fragment.message.send.SendMessageManager
 import xyz.klinker.messenger.fragment.message.load.ViewInitializerDeferred
 import xyz.klinker.messenger.fragment.message.load.ViewInitializerNonDeferred
+import xyz.klinker.messenger.shared.data.DataChange
+import xyz.klinker.messenger.shared.data.DataChangeBus
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
 import xyz.klinker.messenger.shared.service.notification.NotificationConstants
@@ -75,6 +77,13 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
     var rootView: View? = null
 
     private var updatedReceiver: MessageListUpdatedReceiver? = null
+    private val dataChangeListener = object : DataChangeBus.Listener {
+        override fun onDataChanged(change: DataChange) {
+            if (change is DataChange.MessageTypeChanged) {
+                messageLoader.adapter?.onMessageTypeChanged(change.messageId, change.type)
+            }
+        }
+    }
     private var detailsChoiceDialog: AlertDialog? = null
 
     private var extraMarginTop = 0
@@ -123,6 +132,7 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
         updatedReceiver = MessageListUpdatedReceiver(this)
         fragmentActivity?.registerReceiver(updatedReceiver,
                 MessageListUpdatedReceiver.intentFilter)
+        DataChangeBus.register(dataChangeListener)
 
         if (extraMarginLeft != 0 || extraMarginTop != 0) {
             val params = view.layoutParams as ViewGroup.MarginLayoutParams
@@ -173,6 +183,8 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
             updatedReceiver = null
         }
 
+        DataChangeBus.unregister(dataChangeListener)
+
         draftManager.createDrafts()
         multiSelect.clearActionMode()
     }
@@ -228,6 +240,8 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
             updatedReceiver = null
         }
 
+        DataChangeBus.unregister(dataChangeListener)
+
         return false
     }
 
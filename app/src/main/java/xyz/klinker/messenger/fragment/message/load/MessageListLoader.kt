@@ -20,6 +20,7 @@ import xyz.klinker.messenger.fragment.message.MessageListFragment
 import xyz.klinker.messenger.fragment.message.ConversationInformationUpdater
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.QueryScope
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Contact
 import xyz.klinker.messenger.shared.data.model.Message
@@ -47,9 +48,16 @@ class MessageListLoader(private val fragment: MessageListFragment) {
     private var contactMap: Map<String, Contact>? = null
     private var contactByNameMap: Map<String, Contact>? = null
     
-    private val listRefreshMonitor = MessageListRefreshMonitor()
+    private val queries: QueryScope by lazy { QueryScope(fragment.lifecycle) }
     private var limitMessagesBasedOnPreviousSize = true
     var messageLoadedCount = -1
+
+    // the archive is only read once the user scrolls past the oldest message in the main table,
+    // and only if the conversation has anything in it, so that the normal loads stay on the small
+    // table. Each scroll to the top after that brings in another page of older messages.
+    private var includeArchive = false
+    private var hasOlderMessages = true
+    private var loadingOlderMessages = false
     
     fun initRecycler() {
         ColorUtils.changeRecyclerOverscrollColors(messageList, argManager.color)
@@ -71,125 +79,178 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                 if (pastVisibleItems + visibleItemCount >= totalItemCount) {
                     adapter?.snackbar?.dismiss()
                 }
+
+                if (dy < 0 && adapter != null && manager.findFirstCompletelyVisibleItemPosition() == 0) {
+                    loadOlderMessages()
+                }
             }
         })
     }
 
-    fun loadMessages(addedNewMessage: Boolean = false) {
+    fun loadMessages(addedNewMessage: Boolean = false, loadingOlder: Boolean = false) {
+        if (activity == null) {
+            return
+        }
+
         val handler = Handler()
-        Thread {
+        val firstLoad = adapter == null
+
+        // the count is only read and written on the main thread, so a load that gets discarded
+        // can't change what the next one asks for
+        val limitBasedOnPreviousSize = limitMessagesBasedOnPreviousSize
+        val limit = when {
+            messageLoadedCount == -1 -> MESSAGE_LIMIT
+            loadingOlder -> messageLoadedCount + MESSAGE_LIMIT
+            addedNewMessage -> messageLoadedCount + 1
+            else -> messageLoadedCount
+        }
+
+        // a message opened from search may have been archived already
+        val includeArchive = includeArchive || argManager.messageToOpen != -1L
+
+        queries.load("messages", {
             PerformanceProfiler.logEvent("loading messages")
+            draftManager.loadDrafts()
+
+            val cursor: Cursor
+            var smallConversation = false
+            val limited = argManager.limitMessages && argManager.messageToOpen == -1L &&
+                    (limitBasedOnPreviousSize || includeArchive)
+            if (limited) {
+                // weird logic with the counts for this. If we just load the MESSAGE_LIMIT each time,
+                // then the adapter gets screwed up and can display the wrong messages, since recycler views
+                // are meant to be "smart" about managing state.
+                // So, if we send a message, or a message is received, we should increment the number of messages
+                // that we are reading from the database, to account for this.
+
+                cursor = DataSource.getMessageCursorWithLimit(activity!!, argManager.conversationId, limit, includeArchive)
+
+                if (cursor.count < MESSAGE_LIMIT && !includeArchive) {
+                    // When the conversations are small enough, then we shouldn't need to do this
+                    // this is just a slight cleanup to remove the extra size check that happens in the
+                    // above data load. If it isn't necessary, then we shouldn't do it
+                    smallConversation = true
+                }
+            } else {
+                cursor = DataSource.getMessages(activity!!, argManager.conversationId, includeArchive)
+            }
+
+            val numbers = argManager.phoneNumbers
+            val title = argManager.title
 
-            if (activity == null) {
-                return@Thread
+            if (contactMap == null || contactByNameMap == null) {
+                val contacts = DataSource.getContacts(activity!!, numbers)
+                val contactsByName = DataSource.getContactsByNames(activity!!, title)
+                contactMap = fillMapByNumber(numbers, contacts)
+                contactByNameMap = fillMapByName(title, contactsByName)
             }
 
-            try {
-                listRefreshMonitor.incrementRefreshThreadsCount()
-                draftManager.loadDrafts()
-
-                val cursor: Cursor
-                if (argManager.limitMessages && argManager.messageToOpen == -1L && limitMessagesBasedOnPreviousSize) {
-                    // weird logic with the counts for this. If we just load the MESSAGE_LIMIT each time,
-                    // then the adapter gets screwed up and can display the wrong messages, since recycler views
-                    // are meant to be "smart" about managing state.
-                    // So, if we send a message, or a message is received, we should increment the number of messages
-                    // that we are reading from the database, to account for this.
-
-                    cursor = DataSource.getMessageCursorWithLimit(activity!!, argManager.conversationId,
-                            when {
-                                messageLoadedCount == -1 -> MESSAGE_LIMIT
-                                addedNewMessage -> messageLoadedCount + 1
-                                else -> messageLoadedCount
-                            }
-                    )
+            val position = findMessagePositionFromId(cursor)
 
-                    if (cursor.count < MESSAGE_LIMIT) {
-                        // When the conversations are small enough, then we shouldn't need to do this
-                        // this is just a slight cleanup to remove the extra size check that happens in the
-                        // above data load. If it isn't necessary, then we shouldn't do it
-                        limitMessagesBasedOnPreviousSize = false
-                    }
-                } else {
-                    cursor = DataSource.getMessages(activity!!, argManager.conversationId)
-                }
+            PerformanceProfiler.logEvent("finished loading messages")
 
-                messageLoadedCount = cursor.count
+            val justUpdatingSendingStatus = !firstLoad && !addedNewMessage
+            if (Settings.smartReplies && !justUpdatingSendingStatus) {
+                loadSmartReplies(cursor, handler, firstLoad)
+            }
 
-                val numbers = argManager.phoneNumbers
-                val title = argManager.title
+            PerformanceProfiler.logEvent("finished prepping smart replies")
+            LoadedMessages(cursor, position, smallConversation, limited && cursor.count >= limit)
+        }, { loaded ->
+            messageLoadedCount = loaded.cursor.count
+            loadingOlderMessages = false
+            if (loadingOlder) {
+                hasOlderMessages = loaded.filledLimit
+            }
 
-                if (contactMap == null || contactByNameMap == null) {
-                    val contacts = DataSource.getContacts(activity!!, numbers)
-                    val contactsByName = DataSource.getContactsByNames(activity!!, title)
-                    contactMap = fillMapByNumber(numbers, contacts)
-                    contactByNameMap = fillMapByName(title, contactsByName)
-                }
+            if (loaded.smallConversation) {
+                limitMessagesBasedOnPreviousSize = false
+            }
 
-                val position = findMessagePositionFromId(cursor)
-
-                PerformanceProfiler.logEvent("finished loading messages")
-
-                val firstLoad = adapter == null
-                val justUpdatingSendingStatus = !firstLoad && !addedNewMessage
-                if (Settings.smartReplies && !justUpdatingSendingStatus) {
-                    try {
-                        val list = mutableListOf<FirebaseTextMessage>()
-                        if (cursor.moveToLast()) {
-                            do {
-                                val message = Message()
-                                message.fillFromCursor(cursor)
-
-                                if (MimeType.TEXT_PLAIN == message.mimeType) {
-                                    if (message.type == Message.TYPE_RECEIVED) {
-                                        list.add(FirebaseTextMessage.createForRemoteUser(message.data!!, message.timestamp, message.from ?: fragment.argManager.title))
-                                    } else {
-                                        if (list.size == 0) {
-                                            // only provide suggestions when the latest message is received
-                                            handler.post { smartReplyManager.hideContainer() }
-                                            break
-                                        }
-
-                                        list.add(FirebaseTextMessage.createForLocalUser(message.data!!, message.timestamp))
-                                    }
-                                }
-                            } while (cursor.moveToPrevious() && list.size < 10)
-                        }
+            if (loadingOlder && adapter != null) {
+                adapter?.prependMessages(messageList, loaded.cursor)
+            } else {
+                setMessages(loaded.cursor, contactMap!!, contactByNameMap!!)
+            }
 
-                        val smartReply = FirebaseNaturalLanguage.getInstance().smartReply
-                        smartReply.suggestReplies(list.asReversed())
-                                .addOnSuccessListener { result ->
-                                    handler.post { smartReplyManager.applySuggestions(result.suggestions, firstLoad) }
-                                }
-                    } catch (e: Throwable) {
-                        e.printStackTrace()
-                    }
-                }
+            draftManager.applyDrafts()
 
-                PerformanceProfiler.logEvent("finished prepping smart replies")
+            if (loaded.position != -1) {
+                messageList.scrollToPosition(loaded.position)
+            }
 
-                handler.post {
-                    setMessages(cursor, contactMap!!, contactByNameMap!!)
-                    draftManager.applyDrafts()
+            QueryScope.background { informationUpdater.update() }
 
-                    if (position != -1) {
-                        messageList.scrollToPosition(position)
+            if (NotificationConstants.CONVERSATION_ID_OPEN == argManager.conversationId) {
+                handler.postDelayed({
+                    // this could happen in the background, we don't want to dismiss that then!
+                    if (NotificationConstants.CONVERSATION_ID_OPEN == argManager.conversationId) {
+                        fragment.notificationManager.dismissNotification()
+                        fragment.notificationManager.dismissOnStartup = false
                     }
-                }
+                }, 1000)
+            }
+        }, { discarded -> discarded.cursor.closeSilent() })
+    }
 
-                informationUpdater.update()
+    /**
+     * Brings in the next page of archived messages for the conversation, above the ones that are
+     * loaded now. Nothing is read from the archive if the conversation has nothing in it.
+     */
+    fun loadOlderMessages() {
+        if (!hasOlderMessages || loadingOlderMessages || activity == null) {
+            return
+        }
 
-                if (NotificationConstants.CONVERSATION_ID_OPEN == argManager.conversationId) {
-                    Thread.sleep(1000)
+        loadingOlderMessages = true
+        if (includeArchive) {
+            loadMessages(loadingOlder = true)
+            return
+        }
 
-                    // this could happen in the background, we don't want to dismiss that then!
-                    fragment.notificationManager.dismissNotification()
-                    fragment.notificationManager.dismissOnStartup = false
-                }
-            } catch (e: Exception) {
-                e.printStackTrace()
+        queries.load("archive", { DataSource.hasArchivedMessages(activity!!, argManager.conversationId) }, { archived ->
+            if (archived) {
+                includeArchive = true
+                loadMessages(loadingOlder = true)
+            } else {
+                hasOlderMessages = false
+                loadingOlderMessages = false
             }
-        }.start()
+        })
+    }
+
+    private fun loadSmartReplies(cursor: Cursor, handler: Handler, firstLoad: Boolean) {
+        try {
+            val list = mutableListOf<FirebaseTextMessage>()
+            if (cursor.moveToLast()) {
+                val mapper = Message.Mapper(cursor)
+                do {
+                    val message = mapper.map()
+
+                    if (MimeType.TEXT_PLAIN == message.mimeType) {
+                        if (message.type == Message.TYPE_RECEIVED) {
+                            list.add(FirebaseTextMessage.createForRemoteUser(message.data!!, message.timestamp, message.from ?: fragment.argManager.title))
+                        } else {
+                            if (list.size == 0) {
+                                // only provide suggestions when the latest message is received
+                                handler.post { smartReplyManager.hideContainer() }
+                                break
+                            }
+
+                            list.add(FirebaseTextMessage.createForLocalUser(message.data!!, message.timestamp))
+                        }
+                    }
+                } while (cursor.moveToPrevious() && list.size < 10)
+            }
+
+            val smartReply = FirebaseNaturalLanguage.getInstance().smartReply
+            smartReply.suggestReplies(list.asReversed())
+                    .addOnSuccessListener { result ->
+                        handler.post { smartReplyManager.applySuggestions(result.suggestions, firstLoad) }
+                    }
+        } catch (e: Throwable) {
+            e.printStackTrace()
+        }
     }
 
     private fun fillMapByName(title: String?, contacts: List<Contact>) = try {
@@ -235,6 +296,9 @@ class MessageListLoader(private val fragment: MessageListFragment) {
         }
     }
     
+    private class LoadedMessages(val cursor: Cursor, val position: Int, val smallConversation: Boolean,
+                                 val filledLimit: Boolean)
+
     companion object {
         const val MESSAGE_LIMIT = 8000
     }
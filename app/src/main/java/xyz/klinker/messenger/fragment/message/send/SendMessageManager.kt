@@ -329,7 +329,7 @@ class SendMessageManager(private val fragment: MessageListFragment) {
                 Thread {
                     val imageUri = sendUtils.send(activity, "", argManager.phoneNumbers, it.uri, it.mimeType)
                     if (imageUri != null) {
-                        DataSource.updateMessageData(activity, messageId, imageUri.toString())
+                        DataSource.updateMessageData(activity, messageId, imageUri.toString(), it.mimeType)
                     }
                 }.start()
             }
@@ -27,10 +27,12 @@ import android.os.Bundle
 import android.view.View
 import android.widget.Toast
 import androidx.fragment.app.FragmentActivity
+import xyz.klinker.messenger.BuildConfig
 import xyz.klinker.messenger.R
 import xyz.klinker.messenger.activity.MessengerActivity
 import xyz.klinker.messenger.adapter.ChangelogAdapter
 import xyz.klinker.messenger.adapter.OpenSourceAdapter
+import xyz.klinker.messenger.shared.util.ReceiveLatencyTracer
 import xyz.klinker.messenger.shared.util.xml.ChangelogParser
 import xyz.klinker.messenger.shared.util.xml.OpenSourceParser
 
@@ -81,6 +83,14 @@ class AboutFragment : MaterialPreferenceFragmentCompat() {
                     true
                 }
 
+        if (BuildConfig.DEBUG) {
+            findPreference(getString(R.string.pref_about_device_info))
+                    .setOnPreferenceClickListener {
+                        displayReceiveLatency()
+                        true
+                    }
+        }
+
         findPreference(getString(R.string.pref_about_changelog))
                 .setOnPreferenceClickListener {
                     displayChangelog()
@@ -141,6 +151,24 @@ class AboutFragment : MaterialPreferenceFragmentCompat() {
                 Toast.LENGTH_SHORT).show()
     }
 
+    /**
+     * Shows how long it has been taking for received messages to get to their notifications, for
+     * debug builds. Release builds can dump them over adb through ReceiveLatencyDumpReceiver.
+     */
+    private fun displayReceiveLatency() {
+        if (fragmentActivity == null) {
+            return
+        }
+
+        val dump = ReceiveLatencyTracer.dump()
+        AlertDialog.Builder(fragmentActivity!!)
+                .setTitle(R.string.receive_latency)
+                .setMessage(dump)
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.copy_all_text) { _, _ -> copyToClipboard(dump) }
+                .show()
+    }
+
     /**
      * Shows the apps changelog in a dialog box.
      */
@@ -144,7 +144,9 @@ class ConversationsMultiSelectDelegate(private val fragment: ConversationListFra
                 R.id.menu_mute_conversation -> {
                     handled = true
 
-                    for (conversation in selectedConversations) {
+                    for (selected in selectedConversations) {
+                        // the list only loads what it displays, so write back the full conversation
+                        val conversation = source.getConversation(activity!!, selected.id) ?: continue
                         conversation.mute = !conversation.mute
                         source.updateConversationSettings(activity!!, conversation)
                     }
@@ -154,7 +156,8 @@ class ConversationsMultiSelectDelegate(private val fragment: ConversationListFra
                 R.id.menu_pin_conversation -> {
                     handled = true
 
-                    for (conversation in selectedConversations) {
+                    for (selected in selectedConversations) {
+                        val conversation = source.getConversation(activity!!, selected.id) ?: continue
                         conversation.pinned = !conversation.pinned
                         source.updateConversationSettings(activity!!, conversation)
                     }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import org.junit.Test;
+
+import kotlin.Unit;
+import xyz.klinker.messenger.MessengerSuite;
+import xyz.klinker.messenger.shared.data.model.Conversation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationCacheTest extends MessengerSuite {
+
+    private ConversationCache cache = new ConversationCache(2);
+
+    @Test
+    public void countsHitsAndMisses() {
+        assertNull(cache.get(1));
+        cache.put(conversation(1));
+        assertNotNull(cache.get(1));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.put(conversation(1));
+        cache.put(conversation(2));
+        cache.get(1);
+        cache.put(conversation(3));
+
+        assertEquals(2, cache.getSize());
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void handsOutCopies() {
+        cache.put(conversation(1));
+        cache.get(1).setSnippet("changed outside of the cache");
+
+        assertEquals("snippet", cache.get(1).getSnippet());
+    }
+
+    @Test
+    public void updatesCachedConversation() {
+        cache.put(conversation(1));
+        cache.update(1, conversation -> {
+            conversation.setSnippet("updated");
+            return Unit.INSTANCE;
+        });
+
+        assertEquals("updated", cache.get(1).getSnippet());
+    }
+
+    @Test
+    public void updateIgnoresMissingConversation() {
+        cache.update(1, conversation -> {
+            conversation.setSnippet("updated");
+            return Unit.INSTANCE;
+        });
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void dropsReadsThatRacedWithAnUpdate() {
+        long stamp = cache.stamp();
+        cache.update(1, conversation -> {
+            conversation.setSnippet("updated");
+            return Unit.INSTANCE;
+        });
+
+        assertFalse(cache.put(conversation(1), stamp));
+        assertNull(cache.get(1));
+
+        assertTrue(cache.put(conversation(1), cache.stamp()));
+        assertNotNull(cache.get(1));
+    }
+
+    @Test
+    public void removeAndClear() {
+        cache.put(conversation(1));
+        cache.put(conversation(2));
+
+        cache.remove(1);
+        assertNull(cache.get(1));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+
+    private Conversation conversation(long id) {
+        Conversation conversation = new Conversation();
+        conversation.setId(id);
+        conversation.setTitle("Luke Klinker");
+        conversation.setSnippet("snippet");
+        return conversation;
+    }
+}
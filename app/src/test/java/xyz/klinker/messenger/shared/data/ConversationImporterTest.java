@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import android.content.ContentResolver;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.Telephony;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import xyz.klinker.messenger.MessengerRealDataSuite;
+import xyz.klinker.messenger.shared.data.model.Conversation;
+import xyz.klinker.messenger.shared.data.pojo.ImportTimings;
+import xyz.klinker.messenger.shared.data.pojo.PendingBackfill;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConversationImporterTest extends MessengerRealDataSuite {
+
+    @Test
+    public void countsEveryConversationThroughASmallQueue() {
+        int initialSize = source.getUnarchivedConversations(context).getCount();
+        List<Integer> progress = new ArrayList<>();
+
+        // there is no telephony provider here, so every conversation comes back without messages
+        ImportTimings timings = new ConversationImporter(context, source.get_database(), 3, 1)
+                .importConversations(DataSourceTest.getFakeConversations(context.getResources()),
+                        (current, max) -> progress.add(current));
+
+        assertEquals(7, timings.getConversations());
+        assertEquals(0, timings.getMessages());
+        assertEquals(7, progress.size());
+        assertEquals(7, (int) progress.get(6));
+        assertEquals(initialSize, source.getUnarchivedConversations(context).getCount());
+    }
+
+    @Test
+    public void backfillSkipsTheMessagesFromTheFirstPage() {
+        // 150 messages, where the oldest 100 were all sent at the same time. The first page of 100
+        // ends half way through those, so the backfill has to sort out which of them are new.
+        long boundary = 1500000000000L;
+        List<Object[]> messages = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            long date = i < 50 ? boundary + 50 - i : boundary;
+            messages.add(new Object[]{1000L - i, "message " + i, date, 1, Telephony.Sms.MESSAGE_TYPE_INBOX,
+                    null, null, Telephony.Sms.STATUS_NONE});
+        }
+
+        List<PendingBackfill> pending = importFirstPage(messages);
+
+        assertEquals(1, pending.size());
+        assertEquals(boundary, pending.get(0).getBefore());
+
+        assertEquals(50, source.backfillConversation(context, pending.get(0)));
+        assertEquals(150, source.getMessages(context, pending.get(0).getConversationId()).getCount());
+    }
+
+    @Test
+    public void backfillCanBeRunAgainAfterItCommitted() {
+        // the work can be stopped after the backfill is written, but before the checkpoint is cleared
+        long boundary = 1500000000000L;
+        List<Object[]> messages = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            messages.add(new Object[]{1000L - i, "message " + i, boundary + 100 - i, 1, Telephony.Sms.MESSAGE_TYPE_INBOX,
+                    null, null, Telephony.Sms.STATUS_NONE});
+        }
+
+        List<PendingBackfill> pending = importFirstPage(messages);
+
+        assertEquals(50, source.backfillConversation(context, pending.get(0)));
+        assertEquals(0, source.backfillConversation(context, pending.get(0)));
+        assertEquals(150, source.getMessages(context, pending.get(0).getConversationId()).getCount());
+    }
+
+    @Test
+    public void skipsTheBackfillForADeletedConversation() {
+        assertEquals(0, source.backfillConversation(context, new PendingBackfill(1, 12345, 0)));
+    }
+
+    @Test
+    public void serializesPendingBackfills() {
+        PendingBackfill backfill = new PendingBackfill(12, 34, 1500000000000L);
+        assertEquals(backfill, PendingBackfill.Companion.deserialize(backfill.serialize()));
+        assertEquals(null, PendingBackfill.Companion.deserialize("12:34"));
+    }
+
+    private List<PendingBackfill> importFirstPage(List<Object[]> messages) {
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(resolver.query(any(Uri.class), any(String[].class), nullable(String.class), nullable(String[].class), nullable(String.class)))
+                .thenAnswer(invocation -> {
+                    MatrixCursor cursor = new MatrixCursor((String[]) invocation.getArgument(1));
+                    for (Object[] message : messages) {
+                        cursor.addRow(message);
+                    }
+
+                    return cursor;
+                });
+        doReturn(resolver).when(context).getContentResolver();
+
+        Conversation conversation = DataSourceTest.getFakeConversations(context.getResources()).get(0);
+        conversation.setId(99);
+
+        List<PendingBackfill> pending = new ArrayList<>();
+        ImportTimings timings = new ConversationImporter(context, source.get_database(), 1, 1, 100)
+                .importConversations(Collections.singletonList(conversation), null, pending);
+
+        assertEquals(100, timings.getMessages());
+        return pending;
+    }
+}
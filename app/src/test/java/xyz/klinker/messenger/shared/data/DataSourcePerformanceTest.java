@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.model.Message;
+import xyz.klinker.messenger.shared.util.LargeAccountGenerator;
+import xyz.klinker.messenger.shared.util.SmsMmsUtils;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Times the hot DataSource operations against a generated account, and writes the results as
+ * json so that they can be compared from release to release.
+ * <p/>
+ * This is skipped in the normal test run. Give it a size to run it, for example:
+ * ./gradlew :app:testDebugUnitTest --tests '*DataSourcePerformanceTest' -Pperf.messages=100000
+ * <p/>
+ * The results are written to app/build/perf/datasource-[messages].json.
+ */
+public class DataSourcePerformanceTest extends MessengerRobolectricSuite {
+
+    private static final int ITERATIONS = 20;
+    private static final int WRITE_ITERATIONS = 5;
+    private static final int INSERT_BURST = 100;
+
+    private Context context = RuntimeEnvironment.application;
+    private DataSource source = DataSource.INSTANCE;
+    private LargeAccountGenerator generator;
+    private List<Result> results = new ArrayList<>();
+    private long generateMillis;
+
+    @Before
+    public void setUp() {
+        String size = System.getProperty("perf.messages");
+        assumeTrue(size != null && !size.isEmpty());
+
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        new DatabaseSQLiteHelper(context).onCreate(database);
+
+        generator = new LargeAccountGenerator(Integer.parseInt(size));
+        long start = System.nanoTime();
+        generator.generate(database);
+        generateMillis = (System.nanoTime() - start) / 1000000;
+
+        source.set_database(database);
+    }
+
+    @Test
+    public void hotOperations() throws IOException {
+        final long busiest = generator.getBusiestConversationId();
+
+        time("conversation_list", ITERATIONS, iteration ->
+                count(source.getUnarchivedConversations(context)));
+        time("message_page", ITERATIONS, iteration ->
+                count(source.getMessageCursorWithLimit(context, busiest, 100)));
+        time("media_gallery", ITERATIONS, iteration ->
+                source.getMediaMessages(context, busiest).size());
+        time("search", ITERATIONS, iteration ->
+                count(source.searchMessages(context, "dinner")));
+        time("find_conversation_by_number", ITERATIONS, iteration -> {
+            int conversation = Math.floorMod(iteration * 37, generator.getConversationCount());
+            Long id = source.findConversationId(context, generator.getPhoneNumbers(conversation));
+            assertTrue(id != null);
+            return 1;
+        });
+        time("create_id_matcher", ITERATIONS, iteration -> {
+            for (int i = 0; i < generator.getConversationCount(); i++) {
+                SmsMmsUtils.INSTANCE.createIdMatcher(generator.getPhoneNumbers(i));
+            }
+
+            return generator.getConversationCount();
+        });
+        time("insert_burst", WRITE_ITERATIONS, iteration -> {
+            for (int i = 0; i < INSERT_BURST; i++) {
+                source.insertMessage(context, message(i), busiest, false, false);
+            }
+
+            return INSERT_BURST;
+        });
+        time("cleanup", WRITE_ITERATIONS, iteration ->
+                source.cleanupOldMessages(context, generator.getTimestampAtFraction(0.01 * (iteration + 1)), false));
+
+        writeResults();
+    }
+
+    private void time(String name, int iterations, Operation operation) {
+        operation.run(-1);
+
+        long[] nanos = new long[iterations];
+        long rows = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            rows += operation.run(i);
+            nanos[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(nanos);
+        results.add(new Result(name, iterations, rows / iterations, nanos));
+    }
+
+    private void writeResults() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"suite\": \"").append(getClass().getSimpleName()).append("\",\n");
+        json.append("  \"messages\": ").append(generator.getMessageCount()).append(",\n");
+        json.append("  \"conversations\": ").append(generator.getConversationCount()).append(",\n");
+        json.append("  \"seed\": ").append(LargeAccountGenerator.DEFAULT_SEED).append(",\n");
+        json.append("  \"generate_ms\": ").append(generateMillis).append(",\n");
+        json.append("  \"operations\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            json.append("    ").append(results.get(i).toJson());
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n");
+        json.append("}\n");
+
+        File folder = new File(System.getProperty("perf.output", "build/perf"));
+        assertTrue(folder.isDirectory() || folder.mkdirs());
+
+        File output = new File(folder, "datasource-" + generator.getMessageCount() + ".json");
+        try (FileWriter writer = new FileWriter(output)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private int count(Cursor cursor) {
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private Message message(int index) {
+        Message message = new Message();
+        message.setType(Message.TYPE_RECEIVED);
+        message.setData("performance test message " + index);
+        message.setTimestamp(LargeAccountGenerator.START_TIMESTAMP + index);
+        message.setMimeType(MimeType.INSTANCE.getTEXT_PLAIN());
+        message.setRead(true);
+        message.setSeen(true);
+        message.setSentDeviceId(-1);
+        return message;
+    }
+
+    private interface Operation {
+        /**
+         * @param iteration the iteration being timed, or -1 for the warm up.
+         * @return the number of rows that the operation touched.
+         */
+        int run(int iteration);
+    }
+
+    private static class Result {
+        private final String name;
+        private final int iterations;
+        private final long rows;
+        private final long[] sortedNanos;
+
+        Result(String name, int iterations, long rows, long[] sortedNanos) {
+            this.name = name;
+            this.iterations = iterations;
+            this.rows = rows;
+            this.sortedNanos = sortedNanos;
+        }
+
+        private double millis(double percentile) {
+            int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+            return sortedNanos[Math.max(0, index)] / 1000000.0;
+        }
+
+        String toJson() {
+            return String.format(Locale.US, "{\"name\": \"%s\", \"iterations\": %d, \"rows\": %d, " +
+                            "\"p50_ms\": %.3f, \"p95_ms\": %.3f, \"max_ms\": %.3f}",
+                    name, iterations, rows, millis(0.5), millis(0.95), millis(1.0));
+        }
+    }
+}
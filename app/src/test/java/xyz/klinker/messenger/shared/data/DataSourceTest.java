@@ -184,7 +184,7 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void getConversations() {
-        when(database.query("conversation", null, "archive=? AND private_notifications=?", new String[]{"0", "0"}, null, null,
+        when(database.query("conversation", Conversation.LIST_PROJECTION, "archive=? AND private_notifications=?", new String[]{"0", "0"}, null, null,
                 "pinned desc, timestamp desc")).thenReturn(cursor);
 
         assertEquals(cursor, source.getUnarchivedConversations(context));
@@ -258,21 +258,21 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void getPinnedConversations() {
-        when(database.query("conversation", null, "pinned=1", null, null, null, "timestamp desc"))
+        when(database.query("conversation", Conversation.LIST_PROJECTION, "pinned=1", null, null, null, "timestamp desc"))
                 .thenReturn(cursor);
         assertEquals(cursor, source.getPinnedConversations(context));
     }
 
     @Test
     public void getArchivedConversations() {
-        when(database.query("conversation", null, "archive=1 AND private_notifications=0", null, null, null, "timestamp desc"))
+        when(database.query("conversation", Conversation.LIST_PROJECTION, "archive=1 AND private_notifications=0", null, null, null, "timestamp desc"))
                 .thenReturn(cursor);
         assertEquals(cursor, source.getArchivedConversations(context));
     }
 
     @Test
     public void getPrivateConversations() {
-        when(database.query("conversation", null, "private_notifications=1", null, null, null, "timestamp desc"))
+        when(database.query("conversation", Conversation.LIST_PROJECTION, "private_notifications=1", null, null, null, "timestamp desc"))
                 .thenReturn(cursor);
         assertEquals(cursor, source.getPrivateConversations(context));
     }
@@ -390,14 +390,14 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void getMediaMessages() {
-        when(database.query("message", null, "conversation_id=? AND (mime_type LIKE 'image/%' OR mime_type LIKE 'video/%' OR mime_type LIKE 'audio/%') AND data NOT LIKE 'firebase %'",
+        when(database.query("message", null, "conversation_id=? AND media_kind in (1, 2, 3) AND data NOT LIKE 'firebase %'",
                 new String[]{"1"}, null, null, "timestamp asc")).thenReturn(cursor);
         assertNotNull(source.getMediaMessages(context, 1));
     }
 
     @Test
     public void getAllMediaMessages() {
-        when(database.query("message", null, "mime_type!=? AND mime_type!=? AND mime_type!=? AND mime_type!=? AND mime_type!=?", new String[]{"text/plain", "media/web", "media/youtube-v2", "media/twitter", "media/map"}, null, null,
+        when(database.query("message", null, "media_kind != 0", null, null, null,
                 "timestamp desc LIMIT 20")).thenReturn(cursor);
         assertEquals(cursor, source.getAllMediaMessages(context, 20));
     }
@@ -482,7 +482,8 @@ public class DataSourceTest extends MessengerRobolectricSuite {
     public void cleanupMessages() {
         source.cleanupOldMessages(context, 1, false);
 
-        verify(database).delete("message", "timestamp<?", new String[]{"1"});
+        verify(database).delete("message", "_id in (select _id from message where timestamp<? limit 500)",
+                new String[]{"1"});
         verify(database).delete("conversation", "timestamp<?", new String[]{"1"});
     }
 
@@ -544,7 +545,7 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void getUnseenMessages() {
-        when(database.query("message", null, "seen=0", null, null, null, "timestamp asc"))
+        when(database.query("message", Message.NOTIFICATION_PROJECTION, "seen=0", null, null, null, "timestamp asc"))
                 .thenReturn(cursor);
 
         assertEquals(cursor, source.getUnseenMessages(context));
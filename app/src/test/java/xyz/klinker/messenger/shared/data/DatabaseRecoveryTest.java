@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseRecoveryTest extends MessengerRobolectricSuite {
+
+    private Context context = RuntimeEnvironment.application;
+    private List<SQLiteDatabase> discarded = new ArrayList<>();
+    private CountDownLatch reopened = new CountDownLatch(1);
+
+    private DatabaseRecovery recovery = new DatabaseRecovery(context -> {
+        reopened.countDown();
+        return SQLiteDatabase.create(null);
+    }, database -> {
+        discarded.add(database);
+        return Unit.INSTANCE;
+    });
+
+    @Test
+    public void leavesHealthyConnectionOpen() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+
+        assertFalse(recovery.recover(context, database));
+        assertTrue(database.isOpen());
+        assertEquals(0, discarded.size());
+    }
+
+    @Test
+    public void discardsAndReopensClosedConnection() throws Exception {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        database.close();
+
+        assertTrue(recovery.recover(context, database));
+        assertSame(database, discarded.get(0));
+        assertTrue(reopened.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void missingConnectionIsUnhealthy() {
+        assertFalse(recovery.isHealthy(null));
+    }
+}
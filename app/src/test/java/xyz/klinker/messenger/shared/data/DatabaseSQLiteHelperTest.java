@@ -80,6 +80,10 @@ public class DatabaseSQLiteHelperTest extends MessengerRobolectricSuite {
         verify(database).execSQL(new AutoReply().getCreateStatement());
         verify(database).execSQL(new RetryableRequest().getCreateStatement());
         verify(database).execSQL(new Message().getIndexStatements()[0]);
+        verify(database).execSQL(new Message().getIndexStatements()[1]);
+        verify(database).execSQL(new Message().getIndexStatements()[2]);
+        verify(database).execSQL(new Message().getIndexStatements()[3]);
+        verify(database).execSQL(new Message().getIndexStatements()[4]);
         verify(database).execSQL(new Conversation().getIndexStatements()[0]);
         verify(database).execSQL(new Draft().getIndexStatements()[0]);
         verifyNoMoreInteractions(database);
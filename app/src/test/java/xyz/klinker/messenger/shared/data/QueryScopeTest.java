@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryScopeTest extends MessengerRobolectricSuite {
+
+    private QueryScope scope = new QueryScope(null);
+    private List<String> delivered = new ArrayList<>();
+    private List<String> discarded = new ArrayList<>();
+    private CountDownLatch started = new CountDownLatch(1);
+
+    @Test
+    public void deliversResult() {
+        load("first", null);
+        waitFor(1);
+
+        assertEquals("first", delivered.get(0));
+    }
+
+    @Test
+    public void onlyDeliversLatestResultForKey() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        load("stale", release);
+        started.await(1, TimeUnit.SECONDS);
+        load("latest", null);
+
+        release.countDown();
+        waitFor(2);
+
+        assertEquals(1, delivered.size());
+        assertEquals("latest", delivered.get(0));
+        assertEquals("stale", discarded.get(0));
+    }
+
+    @Test
+    public void dropsResultsAfterCancel() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        load("cancelled", release);
+        started.await(1, TimeUnit.SECONDS);
+
+        scope.cancel();
+        release.countDown();
+        waitFor(1);
+
+        assertEquals(0, delivered.size());
+        assertEquals("cancelled", discarded.get(0));
+    }
+
+    private void load(String result, CountDownLatch wait) {
+        scope.load("key", () -> {
+            if (wait != null) {
+                started.countDown();
+
+                try {
+                    wait.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+
+            return result;
+        }, value -> {
+            delivered.add(value);
+            return Unit.INSTANCE;
+        }, value -> {
+            discarded.add(value);
+            return Unit.INSTANCE;
+        });
+    }
+
+    private void waitFor(int results) {
+        long end = System.currentTimeMillis() + 2000;
+        while (delivered.size() + discarded.size() < results && System.currentTimeMillis() < end) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+            }
+        }
+
+        assertTrue(delivered.size() + discarded.size() >= results);
+    }
+}
@@ -16,15 +16,30 @@
 
 package xyz.klinker.messenger.shared.data;
 
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
+import android.net.Uri;
 
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
 
 import xyz.klinker.messenger.MessengerRealDataSuite;
 import xyz.klinker.messenger.shared.data.model.AutoReply;
@@ -37,14 +52,24 @@ import xyz.klinker.messenger.shared.data.model.Message;
 import xyz.klinker.messenger.shared.data.model.RetryableRequest;
 import xyz.klinker.messenger.shared.data.model.ScheduledMessage;
 import xyz.klinker.messenger.shared.data.model.Template;
+import xyz.klinker.messenger.shared.data.pojo.SpaceReclaimed;
+import xyz.klinker.messenger.shared.data.pojo.WriterStats;
 import xyz.klinker.messenger.shared.util.ColorUtils;
+import xyz.klinker.messenger.shared.util.ContactLookupCache;
+import xyz.klinker.messenger.shared.util.SmsMmsUtils;
 import xyz.klinker.messenger.shared.util.TimeUtils;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class SQLiteQueryTest extends MessengerRealDataSuite {
 
@@ -270,6 +295,23 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         Assert.assertEquals(1, newSize - initialSize);
     }
 
+    @Test
+    public void conversationListLeavesOutSettings() {
+        Cursor cursor = source.getUnarchivedConversations(context);
+
+        assertTrue(cursor.getColumnIndex(Conversation.COLUMN_TITLE) != -1);
+        assertEquals(-1, cursor.getColumnIndex(Conversation.COLUMN_RINGTONE));
+        cursor.close();
+    }
+
+    @Test
+    public void unseenMessageCount() {
+        Cursor cursor = source.getUnseenMessages(context);
+
+        assertEquals(cursor.getCount(), source.getUnseenMessageCount(context));
+        cursor.close();
+    }
+
     @Test
     public void getConversations() {
         List<String> titles = new ArrayList<>();
@@ -311,6 +353,23 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals(2, source.getUnreadConversationCount(context));
     }
 
+    @Test
+    public void unreadConversationCountFollowsWrites() {
+        assertEquals(2, source.getUnreadConversationCount(context));
+
+        source.readConversation(context, 1, false);
+        assertEquals(1, source.getUnreadConversationCount(context));
+
+        source.updateConversation(context, 4, false, 2000, "test", "text/plain", false, false);
+        assertEquals(2, source.getUnreadConversationCount(context));
+
+        source.archiveConversation(context, 3, true, false);
+        assertEquals(1, source.getUnreadConversationCount(context));
+
+        source.markConversationAsUnread(context, 1, false);
+        assertEquals(2, source.getUnreadConversationCount(context));
+    }
+
     @Test
     public void findConversationByNumber() {
         Long id = source.findConversationId(context, "11111");
@@ -430,6 +489,87 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals("Picture Message", conversation.getSnippet());
     }
 
+    @Test
+    public void enrichConversation() {
+        Conversation before = source.getConversation(context, 1);
+        ColorSet colors = new ColorSet();
+        colors.setColor(Color.RED);
+        colors.setColorDark(Color.BLACK);
+        colors.setColorLight(Color.WHITE);
+        colors.setColorAccent(Color.BLUE);
+
+        assertNotNull(source.enrichConversation(context, before, "enriched title", null, colors, false));
+        Conversation conversation = source.getConversation(context, 1);
+        assertEquals("enriched title", conversation.getTitle());
+        assertEquals(before.getImageUri(), conversation.getImageUri());
+        assertEquals(Color.RED, conversation.getColors().getColor());
+        assertEquals(before.getSnippet(), conversation.getSnippet());
+
+        assertNull(source.enrichConversation(context, conversation, "enriched title", null, null, false));
+    }
+
+    @Test
+    public void enrichConversationKeepsChangesFromTheUser() {
+        Conversation placeholder = source.getConversation(context, 1);
+        source.updateConversationTitle(context, 1, "renamed by the user", false);
+
+        ColorSet colors = new ColorSet();
+        colors.setColor(Color.RED);
+        Conversation enriched = source.enrichConversation(context, placeholder, "enriched title", null, colors, false);
+
+        assertEquals("renamed by the user", enriched.getTitle());
+        assertEquals(Color.RED, enriched.getColors().getColor());
+
+        Conversation conversation = source.getConversation(context, 1);
+        assertEquals("renamed by the user", conversation.getTitle());
+        assertEquals(Color.RED, conversation.getColors().getColor());
+    }
+
+    @Test
+    public void insertMessageNewConversation_usesCachedContactName() {
+        ContactLookupCache.INSTANCE.invalidate();
+        doReturn(contacts("Aaron Klinker")).when(context).getContentResolver();
+        ContactLookupCache.INSTANCE.lookup(context, "4444444");
+
+        // the provider no longer has the contact, so the name can only come from the cache
+        doReturn(contacts(null)).when(context).getContentResolver();
+        long conversationId = source.insertMessage(getFakeMessage(), "4444444", context, false);
+
+        assertEquals("Aaron Klinker", source.getConversation(context, conversationId).getTitle());
+    }
+
+    @Test
+    public void insertMessageNewConversation_enrichesUncachedContactName() throws Exception {
+        ContactLookupCache.INSTANCE.invalidate();
+        doReturn(contacts("Aaron Klinker")).when(context).getContentResolver();
+
+        // work manager isn't set up here, so the enrichment falls back to the background thread
+        long conversationId = source.insertMessage(getFakeMessage(), "4444444", context, false);
+
+        CountDownLatch enriched = new CountDownLatch(1);
+        QueryScope.background(() -> {
+            enriched.countDown();
+            return Unit.INSTANCE;
+        });
+        assertTrue(enriched.await(5, TimeUnit.SECONDS));
+
+        assertEquals("Aaron Klinker", source.getConversation(context, conversationId).getTitle());
+    }
+
+    private ContentResolver contacts(String name) {
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(resolver.query(any(Uri.class), any(String[].class), nullable(String.class), nullable(String[].class), nullable(String.class)))
+                .thenAnswer(invocation -> {
+                    MatrixCursor cursor = new MatrixCursor((String[]) invocation.getArgument(1));
+                    if (name != null) {
+                        cursor.addRow(new Object[]{name, 1L, null});
+                    }
+
+                    return cursor;
+                });
+        return resolver;
+    }
+
     @Test
     public void getMessages() {
         assertNotSame(0, source.getMessages(context, 1L).getCount());
@@ -463,6 +603,71 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals(2, source.getAllMediaMessages(context, 20).getCount());
     }
 
+    @Test
+    public void mediaKindStoredOnInsert() {
+        Message video = getFakeMessage();
+        video.setData("content://mms/part/10");
+        video.setMimeType("video/mp4");
+        source.insertMessage(context, video, 2, false);
+
+        Message vcard = getFakeMessage();
+        vcard.setData("content://mms/part/11");
+        vcard.setMimeType("text/vcard");
+        source.insertMessage(context, vcard, 2, false);
+
+        assertEquals(1, source.getMediaMessages(context, 2).size());
+        assertEquals(4, source.getAllMediaMessages(context, 20).getCount());
+    }
+
+    @Test
+    public void findMessagesWithContent() {
+        Message message = getFakeMessage();
+        message.setData("  are you   coming over? ");
+        message.setTimestamp(10000);
+        source.insertMessage(context, message, 2, false);
+
+        assertEquals(1, source.findMessagesWithContent(context, 2, "are you coming over?", "text/plain", 10500, 1000).size());
+        assertEquals(0, source.findMessagesWithContent(context, 2, "are you coming over?", "text/plain", 20000, 1000).size());
+        assertEquals(0, source.findMessagesWithContent(context, 1, "are you coming over?", "text/plain", 10000, 1000).size());
+        assertEquals(0, source.findMessagesWithContent(context, 2, "are you coming over", "text/plain", 10000, 1000).size());
+    }
+
+    @Test
+    public void findMessagesWithContent_comparesTextWithoutHash() {
+        Message message = getFakeMessage();
+        message.setData("from before the hash column");
+        message.setTimestamp(10000);
+        long id = source.insertMessage(context, message, 2, false);
+        source.get_database().execSQL("UPDATE message SET content_hash = NULL WHERE _id = " + id);
+
+        assertEquals(1, source.findMessagesWithContent(context, 2, "from before the hash column", "text/plain", 10000, 1000).size());
+        assertEquals(0, source.findMessagesWithContent(context, 2, "something else", "text/plain", 10000, 1000).size());
+    }
+
+    @Test
+    public void findMessagesWithContent_storedWebSenderMessage() {
+        Message message = getFakeMessage();
+        message.setData("[Web발신]\nyour code is 1234");
+        message.setTimestamp(10000);
+        source.insertMessage(context, message, 2, false);
+
+        String body = SmsMmsUtils.INSTANCE.storedSms("1234", "[Web발신]\nyour code is 1234").getSecond();
+        assertEquals(1, source.findMessagesWithContent(context, 2, body, "text/plain", 10000, 1000).size());
+    }
+
+    @Test
+    public void mediaQueriesUsePartialIndexes() {
+        Cursor plan = source.get_database().rawQuery("EXPLAIN QUERY PLAN SELECT * FROM message WHERE conversation_id=? AND " +
+                Message.GALLERY_SELECTION + " AND data NOT LIKE 'firebase %' ORDER BY timestamp asc", new String[]{"4"});
+        plan.moveToFirst();
+        assertTrue(plan.getString(plan.getColumnIndex("detail")).contains("gallery_message_index"));
+        plan.close();
+
+        assertEquals(Message.MEDIA_KIND_IMAGE, Message.mediaKind("image/jpg"));
+        assertEquals(Message.MEDIA_KIND_NONE, Message.mediaKind("media/web"));
+        assertEquals(Message.MEDIA_KIND_OTHER, Message.mediaKind("text/vcard"));
+    }
+
     @Test
     public void getFirebaseMediaMessages() {
         assertEquals(1, source.getFirebaseMediaMessages(context).getCount());
@@ -494,6 +699,15 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals(Message.TYPE_SENT, messages.getInt(messages.getColumnIndex(Message.COLUMN_TYPE)));
     }
 
+    @Test
+    public void updateMessageDataOnlyAnalyzesText() {
+        source.updateMessageData(context, 1, "file:///data/user/0/xyz.klinker.messenger/files/1.jpg", "image/jpeg");
+        assertEquals(0, source.getMessage(context, 1).getRenderHints());
+
+        source.updateMessageData(context, 1, "see you at 5", "text/plain");
+        assertTrue(source.getMessage(context, 1).getRenderHints() != 0);
+    }
+
     @Test
     public void updateMessageTimestamp() {
         source.updateMessageTimestamp(context, 1, 200012L, false);
@@ -543,6 +757,65 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals("1111111", conversation.getPhoneNumbers());
     }
 
+    @Test
+    public void insertMessageBatch() {
+        int initialMessageSize = source.getMessages(context, 1L).getCount();
+        int initialConversationSize = source.getUnarchivedConversations(context).getCount();
+
+        Message older = getFakeMessage();
+        older.setData("older message");
+        older.setTimestamp(2000);
+        Message newer = getFakeMessage();
+        newer.setType(Message.TYPE_RECEIVED);
+        newer.setData("newer message");
+        newer.setTimestamp(3000);
+        Message group = getFakeMessage();
+
+        Set<Long> conversationIds = source.insertMessages(context, Arrays.asList(newer, older, group),
+                Arrays.asList("1111111", "1111111", "1111111, 3333333"), false);
+
+        assertEquals(2, conversationIds.size());
+        assertTrue(conversationIds.contains(1L));
+        assertTrue(conversationIds.contains(4L));
+        assertEquals(initialConversationSize, source.getUnarchivedConversations(context).getCount());
+        assertEquals(2, source.getMessages(context, 1L).getCount() - initialMessageSize);
+        assertEquals("newer message", source.getConversation(context, 1L).getSnippet());
+    }
+
+    @Test
+    public void insertMessageBatch_leavesOutFailedInserts() {
+        String snippet = source.getConversation(context, 2L).getSnippet();
+
+        Message fresh = getFakeMessage();
+        fresh.setConversationId(1L);
+        fresh.setTimestamp(TimeUtils.INSTANCE.getNow() + 1000);
+        Message duplicate = getFakeMessage();
+        duplicate.setId(1L);
+        duplicate.setConversationId(2L);
+        duplicate.setData("duplicate message");
+        duplicate.setTimestamp(TimeUtils.INSTANCE.getNow() + 1000);
+
+        Set<Long> conversationIds = source.insertMessageBatch(context, Arrays.asList(fresh, duplicate), false);
+
+        assertEquals(1, conversationIds.size());
+        assertTrue(conversationIds.contains(1L));
+        assertEquals(snippet, source.getConversation(context, 2L).getSnippet());
+    }
+
+    @Test
+    public void insertMessageBatch_stripsWebSenderPrefix() {
+        Message message = getFakeMessage();
+        message.setType(Message.TYPE_RECEIVED);
+        message.setConversationId(1L);
+        message.setData("[Web발신]\nfrom the web");
+        message.setTimestamp(TimeUtils.INSTANCE.getNow() + 1000);
+
+        source.insertMessageBatch(context, Collections.singletonList(message), false);
+
+        assertEquals("from the web", source.getMessage(context, message.getId()).getData());
+        assertEquals("from the web", source.getConversation(context, 1L).getSnippet());
+    }
+
     @Test
     public void insertMessageExistingGroupConversation() {
         int initialMessageSize = source.getMessages(context, 4L).getCount();
@@ -689,6 +962,188 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals(2, initialConversationSize - newConversationSize);
     }
 
+    @Test
+    public void reclaimFreeSpace() {
+        File file = new File(context.getCacheDir(), "reclaim.db");
+        file.delete();
+
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        new DatabaseSQLiteHelper(context).onCreate(database);
+        source.set_database(database);
+
+        char[] body = new char[2000];
+        Arrays.fill(body, 'a');
+        for (int i = 0; i < 500; i++) {
+            ContentValues values = new ContentValues();
+            values.put(Message.COLUMN_ID, i + 1);
+            values.put(Message.COLUMN_CONVERSATION_ID, 1);
+            values.put(Message.COLUMN_TYPE, Message.TYPE_RECEIVED);
+            values.put(Message.COLUMN_DATA, new String(body));
+            values.put(Message.COLUMN_TIMESTAMP, 100);
+            values.put(Message.COLUMN_MIME_TYPE, MimeType.INSTANCE.getTEXT_PLAIN());
+            database.insert(Message.TABLE, null, values);
+        }
+
+        source.cleanupOldMessages(context, 750, false);
+        long before = file.length();
+        SpaceReclaimed reclaimed = source.reclaimFreeSpace(context);
+
+        assertTrue(reclaimed.getBytes() > 0);
+        assertTrue(file.length() < before);
+
+        database.close();
+        file.delete();
+    }
+
+    @Test
+    public void reclaimFreeSpace_onlyConvertsWhenAllowed() {
+        source.cleanupOldMessages(context, 750, false);
+
+        assertEquals(0, source.reclaimFreeSpace(context, false).getBytes());
+        assertEquals(0, pragma("auto_vacuum"));
+
+        source.reclaimFreeSpace(context, true);
+        assertEquals(2, pragma("auto_vacuum"));
+    }
+
+    private long pragma(String name) {
+        Cursor cursor = source.get_database().rawQuery("PRAGMA " + name, null);
+        cursor.moveToFirst();
+        long value = cursor.getLong(0);
+        cursor.close();
+        return value;
+    }
+
+    @Test
+    public void archiveOldMessages() {
+        context.deleteDatabase("archive.db");
+        int initialMessageSize = source.getMessageCount(context);
+        int initialConversationSize = source.getMessages(context, 1).getCount();
+
+        int archived = source.archiveOldMessages(context, 600);
+
+        assertTrue(archived > 0);
+        assertEquals(initialMessageSize - archived, source.getMessageCount(context));
+        assertEquals(initialConversationSize, source.getMessages(context, 1, true).getCount());
+        assertEquals(1, source.searchMessages(context, "How is").getCount());
+    }
+
+    @Test
+    public void archivedMessagesCanBeLoadedBack() {
+        context.deleteDatabase("archive.db");
+        List<Message> media = source.getMediaMessages(context, 1);
+        Cursor all = source.getMessages(context, 1, true);
+        all.moveToFirst();
+        long oldestId = all.getLong(all.getColumnIndex(Message.COLUMN_ID));
+        int total = all.getCount();
+        all.close();
+
+        assertTrue(source.archiveOldMessages(context, 600) > 0);
+        assertTrue(source.getMessages(context, 1).getCount() < total);
+        assertTrue(source.hasArchivedMessages(context, 1));
+        assertFalse(source.hasArchivedMessages(context, 12345));
+
+        // the message list only reads the archive once it is scrolled past the main table
+        Cursor newest = source.getMessageCursorWithLimit(context, 1, 1, true);
+        assertEquals(1, newest.getCount());
+        newest.close();
+
+        Cursor paged = source.getMessageCursorWithLimit(context, 1, total, true);
+        assertEquals(total, paged.getCount());
+        paged.moveToFirst();
+        assertEquals(oldestId, paged.getLong(paged.getColumnIndex(Message.COLUMN_ID)));
+        paged.close();
+
+        assertNotNull(source.getMessage(context, oldestId));
+        assertEquals(media.size(), source.getMediaMessages(context, 1).size());
+    }
+
+    @Test
+    public void archiveHasTheGalleryIndex() {
+        context.deleteDatabase("archive.db");
+        source.archiveOldMessages(context, 600);
+
+        Cursor index = source.get_database().rawQuery("SELECT name FROM archive.sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{"archive_gallery_message_index"});
+        assertEquals(1, index.getCount());
+        index.close();
+    }
+
+    @Test
+    public void clearTablesDeletesArchivedMessages() {
+        context.deleteDatabase("archive.db");
+        assertTrue(source.archiveOldMessages(context, 600) > 0);
+
+        source.clearTables(context);
+        assertEquals(0, source.getMessages(context, 1, true).getCount());
+    }
+
+    @Test
+    public void smallWritesShareACommit() throws Exception {
+        DatabaseWriter writer = new DatabaseWriter(c -> source.get_database(), 4, 64);
+        CountDownLatch release = new CountDownLatch(1);
+
+        writer.submit(context, database -> {
+            try {
+                release.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+            }
+
+            return 0;
+        });
+
+        List<Future<Integer>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            writes.add(writer.submit(context, database -> {
+                ContentValues values = new ContentValues(1);
+                values.put(Message.COLUMN_SEEN, 1);
+                return database.update(Message.TABLE, values, "_id=?", new String[] { "2" });
+            }));
+        }
+
+        release.countDown();
+        for (Future<Integer> write : writes) {
+            assertEquals(1, (int) write.get(1, TimeUnit.SECONDS));
+        }
+
+        WriterStats stats = writer.stats();
+        assertEquals(51, stats.getWrites());
+        assertTrue(stats.getCommits() <= 3);
+    }
+
+    @Test
+    public void updateMessageTypePublishesChange() {
+        final List<DataChange> changes = new ArrayList<>();
+        DataChangeBus.Listener listener = changes::add;
+        DataChangeBus.INSTANCE.register(listener);
+
+        source.updateMessageType(context, 2, Message.TYPE_ERROR, false);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        DataChangeBus.INSTANCE.unregister(listener);
+
+        assertEquals(1, changes.size());
+        assertEquals(new DataChange.MessageTypeChanged(2, Message.TYPE_ERROR), changes.get(0));
+    }
+
+    @Test
+    public void insertMessagePublishesTheSnippetChange() {
+        final List<DataChange> changes = new ArrayList<>();
+        DataChangeBus.Listener listener = changes::add;
+        DataChangeBus.INSTANCE.register(listener);
+
+        Message message = getFakeMessage();
+        message.setType(Message.TYPE_RECEIVED);
+        message.setData("new message");
+        message.setRead(false);
+        message.setTimestamp(TimeUtils.INSTANCE.getNow());
+        source.insertMessage(context, message, 1, true, false);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        DataChangeBus.INSTANCE.unregister(listener);
+
+        assertTrue(changes.contains(new DataChange.ConversationSnippetChanged(1, "new message", false, message.getTimestamp())));
+    }
+
     @Test
     public void cleanupConversationMessages() {
         int initialMessageSize = source.getMessageCount(context);
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import xyz.klinker.messenger.MessengerSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnreadCounterTest extends MessengerSuite {
+
+    private UnreadCounter counter;
+
+    @Before
+    public void setUp() {
+        counter = new UnreadCounter();
+        counter.reconcile(Arrays.asList(1L, 2L, 3L), Collections.singletonList(3L), counter.stamp());
+    }
+
+    @Test
+    public void mutedConversationsAreNotCounted() {
+        assertTrue(counter.isLoaded());
+        assertEquals(2, counter.getCount());
+
+        counter.setMuted(3, false);
+        assertEquals(3, counter.getCount());
+    }
+
+    @Test
+    public void followsReadState() {
+        counter.setRead(1, true, false);
+        assertEquals(1, counter.getCount());
+
+        counter.setRead(4, false, false);
+        assertEquals(2, counter.getCount());
+
+        counter.setRead(4, false, true);
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test
+    public void removesConversation() {
+        counter.remove(2);
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test
+    public void invalidate() {
+        counter.invalidate();
+
+        assertFalse(counter.isLoaded());
+        assertEquals(0, counter.getCount());
+    }
+
+    @Test
+    public void dropsReconcileThatRacedWithAChange() {
+        counter.invalidate();
+        long stamp = counter.stamp();
+        counter.setRead(4, false, false);
+
+        assertFalse(counter.reconcile(Arrays.asList(1L, 2L), Collections.<Long>emptyList(), stamp));
+        assertFalse(counter.isLoaded());
+
+        assertTrue(counter.reconcile(Arrays.asList(1L, 2L, 4L), Collections.<Long>emptyList(), counter.stamp()));
+        assertEquals(3, counter.getCount());
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2017 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data.model;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CursorMapperTest extends MessengerRobolectricSuite {
+
+    private static final String CONVO_TITLE = "convo_title";
+    private static final String[] MESSAGE_COLUMNS = new String[]{
+            Message.COLUMN_ID,
+            Message.COLUMN_CONVERSATION_ID,
+            Message.COLUMN_TYPE,
+            Message.COLUMN_DATA,
+            Message.COLUMN_TIMESTAMP,
+            Message.COLUMN_MIME_TYPE,
+            Message.COLUMN_READ,
+            Message.COLUMN_SEEN,
+            Message.COLUMN_FROM,
+            Message.COLUMN_COLOR,
+            Message.COLUMN_SIM_NUMBER,
+            Message.COLUMN_SENT_DEVICE,
+            CONVO_TITLE
+    };
+
+    private static final String[] CONVERSATION_COLUMNS = new String[]{
+            Conversation.COLUMN_ID,
+            Conversation.COLUMN_COLOR,
+            Conversation.COLUMN_COLOR_DARK,
+            Conversation.COLUMN_COLOR_LIGHT,
+            Conversation.COLUMN_COLOR_ACCENT,
+            Conversation.COLUMN_LED_COLOR,
+            Conversation.COLUMN_PINNED,
+            Conversation.COLUMN_READ,
+            Conversation.COLUMN_TIMESTAMP,
+            Conversation.COLUMN_TITLE,
+            Conversation.COLUMN_PHONE_NUMBERS,
+            Conversation.COLUMN_SNIPPET,
+            Conversation.COLUMN_RINGTONE,
+            Conversation.COLUMN_IMAGE_URI,
+            Conversation.COLUMN_ID_MATCHER,
+            Conversation.COLUMN_MUTE,
+            Conversation.COLUMN_ARCHIVED,
+            Conversation.COLUMN_PRIVATE,
+            Conversation.COLUMN_SIM_SUBSCRIPTION_ID,
+            Conversation.COLUMN_FOLDER_ID
+    };
+
+    @Test
+    public void mapsFullMessageProjection() {
+        Cursor cursor = messageCursor(MESSAGE_COLUMNS, String.valueOf(Color.RED), String.valueOf(Color.BLUE));
+        Message.Mapper mapper = new Message.Mapper(cursor);
+
+        cursor.moveToFirst();
+        Message first = mapper.map();
+        assertEquals(Color.RED, (int) first.getColor());
+        assertMatches(fillByName(new Message(), cursor), first);
+
+        cursor.moveToNext();
+        Message second = mapper.map();
+        assertEquals(2, second.getId());
+        assertEquals(Color.BLUE, (int) second.getColor());
+        assertMatches(fillByName(new Message(), cursor), second);
+    }
+
+    @Test
+    public void colorThatCantBeParsedIsNull() {
+        Cursor cursor = messageCursor(MESSAGE_COLUMNS, "not a color", null);
+        Message.Mapper mapper = new Message.Mapper(cursor);
+
+        cursor.moveToFirst();
+        assertNull(mapper.map().getColor());
+        cursor.moveToNext();
+        assertNull(mapper.map().getColor());
+    }
+
+    @Test
+    public void skipsColumnsThatArentInTheNotificationProjection() {
+        Cursor cursor = messageCursor(Message.NOTIFICATION_PROJECTION, null, null);
+        cursor.moveToFirst();
+
+        Message message = new Message();
+        message.setType(Message.TYPE_SENT);
+        message.setRead(true);
+        message.setColor(Color.GREEN);
+        new Message.Mapper(cursor).fill(message);
+
+        assertEquals(1, message.getId());
+        assertEquals(5, message.getConversationId());
+        assertEquals("first message", message.getData());
+        assertEquals("Luke Klinker", message.getFrom());
+        assertEquals(Message.TYPE_SENT, message.getType());
+        assertTrue(message.getRead());
+        assertEquals(Color.GREEN, (int) message.getColor());
+        assertMatches(fillByName(new Message(), cursor), new Message.Mapper(cursor).map());
+    }
+
+    @Test
+    public void mapsFullConversationProjection() {
+        Cursor cursor = conversationCursor(CONVERSATION_COLUMNS);
+        cursor.moveToFirst();
+
+        Conversation conversation = new Conversation.Mapper(cursor).map();
+
+        assertEquals("uri", conversation.getRingtoneUri());
+        assertEquals("11493", conversation.getIdMatcher());
+        assertNull(conversation.getSimSubscriptionId());
+        assertMatches(fillByName(new Conversation(), cursor), conversation);
+    }
+
+    @Test
+    public void skipsColumnsThatArentInTheListProjection() {
+        Cursor cursor = conversationCursor(Conversation.LIST_PROJECTION);
+        cursor.moveToFirst();
+
+        Conversation conversation = new Conversation();
+        conversation.setRingtoneUri("old ringtone");
+        conversation.setLedColor(Color.WHITE);
+        new Conversation.Mapper(cursor).fill(conversation);
+
+        assertEquals(1, conversation.getId());
+        assertEquals("Luke Klinker", conversation.getTitle());
+        assertEquals("old ringtone", conversation.getRingtoneUri());
+        assertEquals(Color.WHITE, conversation.getLedColor());
+        assertMatches(fillByName(new Conversation(), cursor), new Conversation.Mapper(cursor).map());
+    }
+
+    private Cursor messageCursor(String[] projection, String firstColor, String secondColor) {
+        MatrixCursor cursor = new MatrixCursor(projection);
+        addRow(cursor, new Object[][]{
+                {Message.COLUMN_ID, 1L}, {Message.COLUMN_CONVERSATION_ID, 5L},
+                {Message.COLUMN_TYPE, Message.TYPE_RECEIVED}, {Message.COLUMN_DATA, "first message"},
+                {Message.COLUMN_TIMESTAMP, 1000L}, {Message.COLUMN_MIME_TYPE, "text/plain"},
+                {Message.COLUMN_READ, 1}, {Message.COLUMN_SEEN, 0}, {Message.COLUMN_FROM, "Luke Klinker"},
+                {Message.COLUMN_COLOR, firstColor}, {Message.COLUMN_SIM_NUMBER, "5159911493"},
+                {Message.COLUMN_SENT_DEVICE, 10L}, {CONVO_TITLE, "Luke"},
+                {Message.COLUMN_RENDER_HINTS, 0}
+        });
+        addRow(cursor, new Object[][]{
+                {Message.COLUMN_ID, 2L}, {Message.COLUMN_CONVERSATION_ID, 5L},
+                {Message.COLUMN_TYPE, Message.TYPE_SENT}, {Message.COLUMN_DATA, "second message"},
+                {Message.COLUMN_TIMESTAMP, 2000L}, {Message.COLUMN_MIME_TYPE, "image/jpg"},
+                {Message.COLUMN_READ, 0}, {Message.COLUMN_SEEN, 1}, {Message.COLUMN_FROM, null},
+                {Message.COLUMN_COLOR, secondColor}, {Message.COLUMN_SIM_NUMBER, null},
+                {Message.COLUMN_SENT_DEVICE, -1L}, {CONVO_TITLE, null},
+                {Message.COLUMN_RENDER_HINTS, 0}
+        });
+        return cursor;
+    }
+
+    private Cursor conversationCursor(String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection);
+        addRow(cursor, new Object[][]{
+                {Conversation.COLUMN_ID, 1L}, {Conversation.COLUMN_COLOR, Color.RED},
+                {Conversation.COLUMN_COLOR_DARK, Color.BLUE}, {Conversation.COLUMN_COLOR_LIGHT, Color.YELLOW},
+                {Conversation.COLUMN_COLOR_ACCENT, Color.GREEN}, {Conversation.COLUMN_LED_COLOR, Color.RED},
+                {Conversation.COLUMN_PINNED, 1}, {Conversation.COLUMN_READ, 0},
+                {Conversation.COLUMN_TIMESTAMP, 1000L}, {Conversation.COLUMN_TITLE, "Luke Klinker"},
+                {Conversation.COLUMN_PHONE_NUMBERS, "(515) 991-1493"}, {Conversation.COLUMN_SNIPPET, "Hey!"},
+                {Conversation.COLUMN_RINGTONE, "uri"}, {Conversation.COLUMN_IMAGE_URI, "image_uri"},
+                {Conversation.COLUMN_ID_MATCHER, "11493"}, {Conversation.COLUMN_MUTE, 1},
+                {Conversation.COLUMN_ARCHIVED, 0}, {Conversation.COLUMN_PRIVATE, 1},
+                {Conversation.COLUMN_SIM_SUBSCRIPTION_ID, -1}, {Conversation.COLUMN_FOLDER_ID, 3L}
+        });
+        return cursor;
+    }
+
+    /**
+     * Adds a row with the values for whichever of the columns are in the cursor's projection.
+     */
+    private void addRow(MatrixCursor cursor, Object[][] values) {
+        Object[] row = new Object[cursor.getColumnCount()];
+        for (Object[] value : values) {
+            int index = cursor.getColumnIndex((String) value[0]);
+            if (index != -1) {
+                row[index] = value[1];
+            }
+        }
+
+        cursor.addRow(row);
+    }
+
+    /**
+     * How the models were filled before the mappers, by looking up the name of every column.
+     */
+    private Message fillByName(Message message, Cursor cursor) {
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            switch (cursor.getColumnName(i)) {
+                case Message.COLUMN_ID: message.setId(cursor.getLong(i)); break;
+                case Message.COLUMN_CONVERSATION_ID: message.setConversationId(cursor.getLong(i)); break;
+                case Message.COLUMN_TYPE: message.setType(cursor.getInt(i)); break;
+                case Message.COLUMN_DATA: message.setData(cursor.getString(i)); break;
+                case Message.COLUMN_TIMESTAMP: message.setTimestamp(cursor.getLong(i)); break;
+                case Message.COLUMN_MIME_TYPE: message.setMimeType(cursor.getString(i)); break;
+                case Message.COLUMN_READ: message.setRead(cursor.getInt(i) == 1); break;
+                case Message.COLUMN_SEEN: message.setSeen(cursor.getInt(i) == 1); break;
+                case Message.COLUMN_FROM: message.setFrom(cursor.getString(i)); break;
+                case Message.COLUMN_SIM_NUMBER: message.setSimPhoneNumber(cursor.getString(i)); break;
+                case Message.COLUMN_SENT_DEVICE: message.setSentDeviceId(cursor.getLong(i)); break;
+                case CONVO_TITLE: message.setNullableConvoTitle(cursor.getString(i)); break;
+                case Message.COLUMN_COLOR:
+                    try {
+                        message.setColor(Integer.parseInt(cursor.getString(i)));
+                    } catch (NumberFormatException e) {
+                        message.setColor(null);
+                    }
+                    break;
+            }
+        }
+
+        return message;
+    }
+
+    private Conversation fillByName(Conversation conversation, Cursor cursor) {
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            switch (cursor.getColumnName(i)) {
+                case Conversation.COLUMN_ID: conversation.setId(cursor.getLong(i)); break;
+                case Conversation.COLUMN_COLOR: conversation.getColors().setColor(cursor.getInt(i)); break;
+                case Conversation.COLUMN_COLOR_DARK: conversation.getColors().setColorDark(cursor.getInt(i)); break;
+                case Conversation.COLUMN_COLOR_LIGHT: conversation.getColors().setColorLight(cursor.getInt(i)); break;
+                case Conversation.COLUMN_COLOR_ACCENT: conversation.getColors().setColorAccent(cursor.getInt(i)); break;
+                case Conversation.COLUMN_LED_COLOR: conversation.setLedColor(cursor.getInt(i)); break;
+                case Conversation.COLUMN_PINNED: conversation.setPinned(cursor.getInt(i) == 1); break;
+                case Conversation.COLUMN_READ: conversation.setRead(cursor.getInt(i) == 1); break;
+                case Conversation.COLUMN_TIMESTAMP: conversation.setTimestamp(cursor.getLong(i)); break;
+                case Conversation.COLUMN_TITLE: conversation.setTitle(cursor.getString(i)); break;
+                case Conversation.COLUMN_PHONE_NUMBERS: conversation.setPhoneNumbers(cursor.getString(i)); break;
+                case Conversation.COLUMN_SNIPPET: conversation.setSnippet(cursor.getString(i)); break;
+                case Conversation.COLUMN_RINGTONE: conversation.setRingtoneUri(cursor.getString(i)); break;
+                case Conversation.COLUMN_IMAGE_URI: conversation.setImageUri(cursor.getString(i)); break;
+                case Conversation.COLUMN_ID_MATCHER: conversation.setIdMatcher(cursor.getString(i)); break;
+                case Conversation.COLUMN_MUTE: conversation.setMute(cursor.getInt(i) == 1); break;
+                case Conversation.COLUMN_ARCHIVED: conversation.setArchive(cursor.getInt(i) == 1); break;
+                case Conversation.COLUMN_PRIVATE: conversation.setPrivate(cursor.getInt(i) == 1); break;
+                case Conversation.COLUMN_SIM_SUBSCRIPTION_ID:
+                    conversation.setSimSubscriptionId(cursor.getInt(i) == -1 ? null : cursor.getInt(i));
+                    break;
+                case Conversation.COLUMN_FOLDER_ID: conversation.setFolderId(cursor.getLong(i)); break;
+            }
+        }
+
+        return conversation;
+    }
+
+    private void assertMatches(Message expected, Message actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getConversationId(), actual.getConversationId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getData(), actual.getData());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getMimeType(), actual.getMimeType());
+        assertEquals(expected.getRead(), actual.getRead());
+        assertEquals(expected.getSeen(), actual.getSeen());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getColor(), actual.getColor());
+        assertEquals(expected.getSimPhoneNumber(), actual.getSimPhoneNumber());
+        assertEquals(expected.getSentDeviceId(), actual.getSentDeviceId());
+        assertEquals(expected.getNullableConvoTitle(), actual.getNullableConvoTitle());
+    }
+
+    private void assertMatches(Conversation expected, Conversation actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getColors().getColor(), actual.getColors().getColor());
+        assertEquals(expected.getColors().getColorDark(), actual.getColors().getColorDark());
+        assertEquals(expected.getColors().getColorLight(), actual.getColors().getColorLight());
+        assertEquals(expected.getColors().getColorAccent(), actual.getColors().getColorAccent());
+        assertEquals(expected.getLedColor(), actual.getLedColor());
+        assertEquals(expected.getPinned(), actual.getPinned());
+        assertEquals(expected.getRead(), actual.getRead());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getPhoneNumbers(), actual.getPhoneNumbers());
+        assertEquals(expected.getSnippet(), actual.getSnippet());
+        assertEquals(expected.getRingtoneUri(), actual.getRingtoneUri());
+        assertEquals(expected.getImageUri(), actual.getImageUri());
+        assertEquals(expected.getIdMatcher(), actual.getIdMatcher());
+        assertEquals(expected.getMute(), actual.getMute());
+        assertEquals(expected.getArchive(), actual.getArchive());
+        assertEquals(expected.getPrivate(), actual.getPrivate());
+        assertEquals(expected.getSimSubscriptionId(), actual.getSimSubscriptionId());
+        assertEquals(expected.getFolderId(), actual.getFolderId());
+    }
+}
@@ -0,0 +1,74 @@
+package xyz.klinker.messenger.shared.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.pojo.ContactLookup;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class ContactLookupCacheTest extends MessengerRobolectricSuite {
+
+    private Context context = RuntimeEnvironment.application;
+    private ContactLookupCache cache = ContactLookupCache.INSTANCE;
+
+    @Before
+    public void setUp() {
+        cache.invalidate();
+    }
+
+    @Test
+    public void cachesNumbersThatArentContacts() {
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+
+        // there is no contacts provider here, so nothing is found
+        ContactLookup lookup = cache.lookup(context, "(515) 991-1493");
+        assertFalse(lookup.getFound());
+        assertEquals(misses + 1, cache.getMisses());
+
+        assertSame(lookup, cache.lookup(context, "5159911493"));
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void looksUpAgainAfterInvalidating() {
+        cache.lookup(context, "5159911493");
+        long misses = cache.getMisses();
+
+        cache.invalidate();
+        cache.lookup(context, "5159911493");
+
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void doesntCacheLookupThatRacedWithAChange() {
+        Context context = spy(this.context);
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(resolver.query(any(Uri.class), any(String[].class), nullable(String.class), nullable(String[].class), nullable(String.class)))
+                .thenAnswer(invocation -> {
+                    // the contacts change while the provider is being queried
+                    cache.invalidate();
+                    return new MatrixCursor((String[]) invocation.getArgument(1));
+                });
+        doReturn(resolver).when(context).getContentResolver();
+
+        assertFalse(cache.lookup(context, "5159911493").getFound());
+        assertNull(cache.peek("5159911493"));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Locale;
+import java.util.Random;
+
+import xyz.klinker.messenger.shared.data.MimeType;
+import xyz.klinker.messenger.shared.data.model.Conversation;
+import xyz.klinker.messenger.shared.data.model.Draft;
+import xyz.klinker.messenger.shared.data.model.Message;
+
+/**
+ * Fills a database with a large, realistic looking account, for timing the DataSource against
+ * something closer to what a heavy user has on their phone than the fixtures are.
+ * <p/>
+ * The output only depends on the seed and the number of messages, so two runs of the same size
+ * produce the same database, and timings can be compared between releases. There is roughly
+ * one conversation for every hundred messages. A few conversations get most of the traffic,
+ * about a fifth of them are group chats, and some of the messages are media, link previews or
+ * still waiting to be downloaded from firebase.
+ */
+public class LargeAccountGenerator {
+
+    public static final long DEFAULT_SEED = 20200101L;
+    public static final long START_TIMESTAMP = 1500000000000L;
+
+    private static final String[] FIRST_NAMES = new String[]{"Luke", "Aaron", "Jake", "Emily",
+            "Sarah", "Kate", "Mike", "Chris", "Jess", "Alex", "Sam", "Taylor", "Jordan", "Casey"};
+    private static final String[] LAST_NAMES = new String[]{"Klinker", "Smith", "Johnson", "Brown",
+            "Miller", "Davis", "Garcia", "Wilson", "Moore", "Clark", "Lewis", "Walker", "Young"};
+    private static final String[] WORDS = new String[]{"hey", "what's", "up", "are", "you", "coming",
+            "over", "tonight", "dinner", "at", "seven", "sounds", "good", "see", "then", "running",
+            "late", "sorry", "traffic", "is", "bad", "did", "get", "my", "message", "the", "dog",
+            "new", "app", "grill", "call", "me", "when", "free", "lol", "ok", "thanks", "love",
+            "it", "tomorrow", "morning", "work", "weekend", "game", "movie", "coffee", "pizza"};
+    private static final int[] COLORS = new int[]{0xFF2196F3, 0xFFF44336, 0xFF4CAF50,
+            0xFF9C27B0, 0xFFFF9800, 0xFF607D8B};
+
+    private final Random random;
+    private final int messages;
+    private final int conversations;
+
+    private long[] conversationTimestamps;
+    private String[] conversationSnippets;
+    private String[] conversationNumbers;
+
+    public LargeAccountGenerator(int messages) {
+        this(messages, DEFAULT_SEED);
+    }
+
+    public LargeAccountGenerator(int messages, long seed) {
+        this.random = new Random(seed);
+        this.messages = messages;
+        this.conversations = Math.max(10, messages / 100);
+    }
+
+    public int getMessageCount() {
+        return messages;
+    }
+
+    public int getConversationCount() {
+        return conversations;
+    }
+
+    /**
+     * The phone numbers for a generated conversation, formatted the way that they are stored.
+     * Only valid after {@link #generate(SQLiteDatabase)}.
+     */
+    public String getPhoneNumbers(int conversation) {
+        return conversationNumbers[conversation];
+    }
+
+    /**
+     * The id of the conversation that got the most messages.
+     */
+    public long getBusiestConversationId() {
+        return 1;
+    }
+
+    /**
+     * The timestamp that the given fraction of the messages are older than.
+     */
+    public long getTimestampAtFraction(double fraction) {
+        return START_TIMESTAMP + (long) (messages * fraction) * TimeUtils.INSTANCE.getMINUTE();
+    }
+
+    public void generate(SQLiteDatabase database) {
+        conversationTimestamps = new long[conversations];
+        conversationSnippets = new String[conversations];
+        conversationNumbers = new String[conversations];
+
+        database.beginTransaction();
+        try {
+            insertMessages(database);
+            insertConversations(database);
+            insertDrafts(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private void insertMessages(SQLiteDatabase database) {
+        SQLiteStatement insert = database.compileStatement("insert into " + Message.TABLE + " (" +
+                Message.COLUMN_ID + ", " + Message.COLUMN_CONVERSATION_ID + ", " +
+                Message.COLUMN_TYPE + ", " + Message.COLUMN_DATA + ", " +
+                Message.COLUMN_TIMESTAMP + ", " + Message.COLUMN_MIME_TYPE + ", " +
+                Message.COLUMN_READ + ", " + Message.COLUMN_SEEN + ", " +
+                Message.COLUMN_FROM + ", " + Message.COLUMN_SENT_DEVICE + ", " +
+                Message.COLUMN_MEDIA_KIND + ", " + Message.COLUMN_CONTENT_HASH + ", " +
+                Message.COLUMN_RENDER_HINTS + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        for (int i = 0; i < messages; i++) {
+            int conversation = pickConversation();
+            long timestamp = START_TIMESTAMP + i * TimeUtils.INSTANCE.getMINUTE();
+            boolean received = random.nextBoolean();
+            boolean unread = received && i > messages - conversations / 2;
+
+            String mimeType;
+            String data;
+            int kind = random.nextInt(100);
+            if (kind < 4) {
+                mimeType = MimeType.INSTANCE.getIMAGE_JPEG();
+                data = random.nextInt(10) == 0 ? "firebase -1" : "content://mms/part/" + i;
+            } else if (kind < 5) {
+                mimeType = MimeType.INSTANCE.getVIDEO_MP4();
+                data = "content://mms/part/" + i;
+            } else if (kind < 6) {
+                mimeType = MimeType.INSTANCE.getMEDIA_ARTICLE();
+                data = "{\"title\":\"" + sentence(4) + "\",\"web_link\":\"https://klinkerapps.com/" + i + "\"}";
+            } else {
+                mimeType = MimeType.INSTANCE.getTEXT_PLAIN();
+                data = sentence(3 + random.nextInt(12));
+            }
+
+            insert.clearBindings();
+            insert.bindLong(1, i + 1);
+            insert.bindLong(2, conversation + 1);
+            insert.bindLong(3, received ? Message.TYPE_RECEIVED : Message.TYPE_SENT);
+            insert.bindString(4, data);
+            insert.bindLong(5, timestamp);
+            insert.bindString(6, mimeType);
+            insert.bindLong(7, unread ? 0 : 1);
+            insert.bindLong(8, unread ? 0 : 1);
+            if (received && conversation % 5 == 0) {
+                insert.bindString(9, name(random.nextInt(FIRST_NAMES.length)));
+            } else {
+                insert.bindNull(9);
+            }
+            insert.bindLong(10, -1);
+            insert.bindLong(11, Message.mediaKind(mimeType));
+            insert.bindLong(12, Message.contentHash(data));
+            insert.bindLong(13, MessageTextAnalyzer.INSTANCE.analyze(mimeType, data));
+            insert.executeInsert();
+
+            conversationTimestamps[conversation] = timestamp;
+            conversationSnippets[conversation] = mimeType.equals(MimeType.INSTANCE.getTEXT_PLAIN()) ? data : "";
+        }
+    }
+
+    private void insertConversations(SQLiteDatabase database) {
+        SQLiteStatement insert = database.compileStatement("insert into " + Conversation.TABLE + " (" +
+                Conversation.COLUMN_ID + ", " + Conversation.COLUMN_COLOR + ", " +
+                Conversation.COLUMN_COLOR_DARK + ", " + Conversation.COLUMN_COLOR_LIGHT + ", " +
+                Conversation.COLUMN_COLOR_ACCENT + ", " + Conversation.COLUMN_PINNED + ", " +
+                Conversation.COLUMN_READ + ", " + Conversation.COLUMN_TIMESTAMP + ", " +
+                Conversation.COLUMN_TITLE + ", " + Conversation.COLUMN_PHONE_NUMBERS + ", " +
+                Conversation.COLUMN_SNIPPET + ", " + Conversation.COLUMN_ID_MATCHER + ", " +
+                Conversation.COLUMN_MUTE + ", " + Conversation.COLUMN_ARCHIVED + ") " +
+                "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        for (int i = 0; i < conversations; i++) {
+            int members = i % 5 == 0 ? 2 + random.nextInt(5) : 1;
+            StringBuilder title = new StringBuilder();
+            StringBuilder numbers = new StringBuilder();
+            for (int member = 0; member < members; member++) {
+                int contact = i * 7 + member;
+                if (member > 0) {
+                    title.append(", ");
+                    numbers.append(", ");
+                }
+
+                title.append(name(contact));
+                numbers.append(phoneNumber(contact));
+            }
+
+            conversationNumbers[i] = numbers.toString();
+            int color = COLORS[i % COLORS.length];
+
+            insert.clearBindings();
+            insert.bindLong(1, i + 1);
+            insert.bindLong(2, color);
+            insert.bindLong(3, color);
+            insert.bindLong(4, color);
+            insert.bindLong(5, color);
+            insert.bindLong(6, i < 3 ? 1 : 0);
+            insert.bindLong(7, random.nextInt(10) == 0 ? 0 : 1);
+            insert.bindLong(8, conversationTimestamps[i]);
+            insert.bindString(9, title.toString());
+            insert.bindString(10, conversationNumbers[i]);
+            insert.bindString(11, conversationSnippets[i] == null ? "" : conversationSnippets[i]);
+            insert.bindString(12, SmsMmsUtils.INSTANCE.createIdMatcher(conversationNumbers[i]).getDefault());
+            insert.bindLong(13, random.nextInt(20) == 0 ? 1 : 0);
+            insert.bindLong(14, random.nextInt(10) == 0 ? 1 : 0);
+            insert.executeInsert();
+        }
+    }
+
+    private void insertDrafts(SQLiteDatabase database) {
+        SQLiteStatement insert = database.compileStatement("insert into " + Draft.TABLE + " (" +
+                Draft.COLUMN_ID + ", " + Draft.COLUMN_CONVERSATION_ID + ", " +
+                Draft.COLUMN_DATA + ", " + Draft.COLUMN_MIME_TYPE + ") values (?, ?, ?, ?)");
+
+        for (int i = 0; i < conversations; i += 20) {
+            insert.clearBindings();
+            insert.bindLong(1, i + 1);
+            insert.bindLong(2, i + 1);
+            insert.bindString(3, sentence(5));
+            insert.bindString(4, MimeType.INSTANCE.getTEXT_PLAIN());
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * Skews the traffic towards the first conversations, so that a handful of them hold most of
+     * the messages, like they do on a real phone.
+     */
+    private int pickConversation() {
+        double skew = random.nextDouble();
+        return (int) (skew * skew * skew * conversations);
+    }
+
+    private String sentence(int words) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return builder.toString();
+    }
+
+    private static String name(int contact) {
+        return FIRST_NAMES[contact % FIRST_NAMES.length] + " " +
+                LAST_NAMES[(contact / FIRST_NAMES.length) % LAST_NAMES.length];
+    }
+
+    private static String phoneNumber(int contact) {
+        return "+1515" + String.format(Locale.US, "%07d", 1000000 + contact);
+    }
+}
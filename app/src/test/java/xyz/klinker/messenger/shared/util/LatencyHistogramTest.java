@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import org.junit.Test;
+
+import xyz.klinker.messenger.MessengerSuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest extends MessengerSuite {
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.percentile(0.5));
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        long p50 = histogram.percentile(0.5);
+        long p99 = histogram.percentile(0.99);
+        assertTrue("p50 was " + p50, p50 >= 500 && p50 <= 500 * 1.25);
+        assertTrue("p99 was " + p99, p99 >= 990 && p99 <= 990 * 1.25);
+        assertEquals(1000, histogram.getCount());
+    }
+
+    @Test
+    public void overflowBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUtils.INSTANCE.getHOUR());
+        assertEquals(Long.MAX_VALUE, histogram.percentile(0.5));
+    }
+
+    @Test
+    public void serializes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(50);
+        histogram.record(5000);
+
+        LatencyHistogram copy = LatencyHistogram.Companion.deserialize(histogram.serialize());
+        assertEquals(histogram.serialize(), copy.serialize());
+        assertEquals(3, copy.getCount());
+    }
+
+    @Test
+    public void ignoresBadSerializations() {
+        assertNull(LatencyHistogram.Companion.deserialize(null));
+        assertNull(LatencyHistogram.Companion.deserialize("1,2,3"));
+    }
+}
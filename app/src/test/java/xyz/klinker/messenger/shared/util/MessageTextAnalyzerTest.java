@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import android.util.Patterns;
+
+import org.junit.Test;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.MimeType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTextAnalyzerTest extends MessengerRobolectricSuite {
+
+    private static final String[] MESSAGES = new String[]{
+            "", "hey what's up", "see you at 7.30", "check out https://klinkerapps.com/pulse",
+            "pulsesms.app is down", "email me at luke@klinkerapps.com", "call me at (515) 555-1234",
+            "my number is +1 515.555.1234", "123456 is your Uber code", "Your verification code is 1234",
+            "😀", "😀😀❤", "😀 😀", "hi 😀",
+            "\ud83d", "❤", "a.b@c", "1 234", "v1.2.3"
+    };
+
+    private final MessageTextAnalyzer analyzer = MessageTextAnalyzer.INSTANCE;
+
+    @Test
+    public void plainTextIsOnlyAnalyzed() {
+        assertEquals(MessageTextAnalyzer.ANALYZED, analyzer.analyze("hey what's up"));
+    }
+
+    @Test
+    public void otherMimeTypesAreNotAnalyzed() {
+        assertEquals(0, analyzer.analyze(MimeType.INSTANCE.getIMAGE_JPEG(), "content://mms/part/1"));
+        assertTrue(analyzer.isAnalyzed(analyzer.analyze(MimeType.INSTANCE.getTEXT_PLAIN(), "hey")));
+    }
+
+    @Test
+    public void findsEachKind() {
+        assertTrue(analyzer.has(analyzer.analyze("check out https://klinkerapps.com/pulse"), MessageTextAnalyzer.LINK));
+        assertTrue(analyzer.has(analyzer.analyze("email me at luke@klinkerapps.com"), MessageTextAnalyzer.EMAIL));
+        assertTrue(analyzer.has(analyzer.analyze("call me at (515) 555-1234"), MessageTextAnalyzer.PHONE));
+        assertTrue(analyzer.has(analyzer.analyze("123456 is your Uber code"), MessageTextAnalyzer.OTP));
+        assertTrue(analyzer.has(analyzer.analyze("😀❤"), MessageTextAnalyzer.EMOJI_ONLY));
+        assertFalse(analyzer.has(analyzer.analyze("hi 😀"), MessageTextAnalyzer.EMOJI_ONLY));
+    }
+
+    @Test
+    public void matchesTheOriginalPatterns() {
+        for (String message : MESSAGES) {
+            int hints = analyzer.analyze(message);
+
+            assertEquals(message, Regex.INSTANCE.getWEB_URL().matcher(message).find(),
+                    analyzer.has(hints, MessageTextAnalyzer.LINK));
+            assertEquals(message, Patterns.EMAIL_ADDRESS.matcher(message).find(),
+                    analyzer.has(hints, MessageTextAnalyzer.EMAIL));
+            assertEquals(message, Regex.INSTANCE.getPHONE().matcher(message).find(),
+                    analyzer.has(hints, MessageTextAnalyzer.PHONE));
+            assertEquals(message, OneTimePasswordParser.INSTANCE.getOtp(message) != null,
+                    analyzer.has(hints, MessageTextAnalyzer.OTP));
+            assertEquals(message, !message.isEmpty() && message.replaceAll(Regex.INSTANCE.getEMOJI(), "").isEmpty(),
+                    analyzer.has(hints, MessageTextAnalyzer.EMOJI_ONLY));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.Telephony;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.pojo.MmsPart;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class MmsBatchResolverTest extends MessengerRobolectricSuite {
+
+    // the parts for three mms, in the order that the provider might hand them back
+    private static final Object[][] PARTS = new Object[][]{
+            {"1", "application/smil", null, "<smil/>", 5L},
+            {"2", "text/plain", null, "first", 6L},
+            {"3", "image/jpeg", "/data/part3", null, 5L},
+            {"4", "text/plain", null, " hello ", 5L},
+            {"5", "image/png", "/data/part5", null, 7L},
+            {"6", "text/plain", null, "   ", 7L},
+            {"7", "text/plain", null, "third", 7L},
+            {"8", "image/gif", "/data/part8", null, 6L}
+    };
+
+    private Context context;
+    private int partQueries;
+
+    @Before
+    public void setUp() {
+        context = spy(RuntimeEnvironment.application);
+        partQueries = 0;
+
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(resolver.query(any(Uri.class), nullable(String[].class), nullable(String.class), nullable(String[].class), nullable(String.class)))
+                .thenAnswer(invocation -> {
+                    Uri uri = invocation.getArgument(0);
+                    String[] projection = invocation.getArgument(1);
+                    MatrixCursor cursor = new MatrixCursor(projection);
+
+                    if (uri.toString().equals("content://mms/part")) {
+                        partQueries++;
+                        String selection = invocation.getArgument(2);
+                        List<String> ids = Arrays.asList(selection.replaceAll("[^0-9,]", "").split(","));
+                        for (Object[] part : PARTS) {
+                            if (ids.contains(String.valueOf(part[4]))) {
+                                cursor.addRow(part);
+                            }
+                        }
+                    } else if (uri.toString().endsWith("/addr")) {
+                        cursor.addRow(new Object[]{"5159911493", 106});
+                    }
+
+                    return cursor;
+                });
+
+        doReturn(resolver).when(context).getContentResolver();
+        ContactLookupCache.INSTANCE.invalidate();
+    }
+
+    @Test
+    public void groupsInterleavedParts() {
+        Map<Long, List<MmsPart>> parts = SmsMmsUtils.INSTANCE.queryMmsParts(context, Arrays.asList(5L, 6L, 7L));
+
+        assertEquals(1, partQueries);
+        assertEquals(3, parts.size());
+        assertEquals(Arrays.asList(part(0), part(2), part(3)), parts.get(5L));
+        assertEquals(Arrays.asList(part(1), part(7)), parts.get(6L));
+        assertEquals(Arrays.asList(part(4), part(5), part(6)), parts.get(7L));
+    }
+
+    @Test
+    public void matchesTheUnbatchedValues() {
+        Cursor messages = messages();
+        List<Long> mmsIds = SmsMmsUtils.INSTANCE.getMmsIds(messages, messages.getCount());
+        assertEquals(Arrays.asList(5L, 6L, 7L, 8L), mmsIds);
+
+        MmsBatchResolver resolver = new MmsBatchResolver(context, 2);
+        resolver.prefetch(mmsIds);
+        assertEquals(2, partQueries);
+
+        while (messages.moveToNext()) {
+            if (messages.isNull(messages.getColumnIndex(Telephony.Mms.MESSAGE_BOX))) {
+                continue;
+            }
+
+            List<ContentValues> batched = SmsMmsUtils.INSTANCE.processMessage(messages, 1, context, resolver);
+            List<ContentValues> unbatched = SmsMmsUtils.INSTANCE.processMessage(messages, 1, context, null);
+
+            assertEquals(unbatched, batched);
+        }
+
+        // the unbatched path still queries once per mms
+        assertEquals(6, partQueries);
+    }
+
+    private Cursor messages() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{Telephony.MmsSms._ID, Telephony.Sms.BODY,
+                Telephony.Sms.DATE, Telephony.Sms.READ, Telephony.Sms.TYPE, Telephony.Mms.MESSAGE_BOX,
+                Telephony.Mms.MESSAGE_TYPE, Telephony.Sms.STATUS});
+        cursor.addRow(new Object[]{5L, null, 1000L, 1, null, Telephony.Mms.MESSAGE_BOX_INBOX, 132, null});
+        cursor.addRow(new Object[]{40L, "an sms in between", 1500000L, 1, Telephony.Sms.MESSAGE_TYPE_INBOX, null, null, 0});
+        cursor.addRow(new Object[]{6L, null, 2000L, 0, null, Telephony.Mms.MESSAGE_BOX_SENT, 128, null});
+        cursor.addRow(new Object[]{7L, null, 3000L, 1, null, Telephony.Mms.MESSAGE_BOX_INBOX, 132, null});
+        // has no parts at all
+        cursor.addRow(new Object[]{8L, null, 4000L, 1, null, Telephony.Mms.MESSAGE_BOX_INBOX, 132, null});
+        return cursor;
+    }
+
+    private MmsPart part(int index) {
+        Object[] part = PARTS[index];
+        return new MmsPart((String) part[0], (String) part[1], (String) part[2], (String) part[3]);
+    }
+}
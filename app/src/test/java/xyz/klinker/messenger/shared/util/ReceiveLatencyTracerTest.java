@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReceiveLatencyTracerTest extends MessengerRobolectricSuite {
+
+    private final ReceiveLatencyTracer tracer = ReceiveLatencyTracer.INSTANCE;
+
+    @Before
+    public void setUp() {
+        tracer.reset();
+    }
+
+    @Test
+    public void attachesToTheCurrentThread() {
+        ReceiveLatencyTracer.Trace trace = tracer.begin(ReceiveLatencyTracer.Source.SMS);
+        assertNull(tracer.current());
+
+        trace.attach();
+        assertSame(trace, tracer.current());
+
+        trace.detach();
+        assertNull(tracer.current());
+    }
+
+    @Test
+    public void finishedTracesAreDumped() {
+        ReceiveLatencyTracer.Trace trace = tracer.begin(ReceiveLatencyTracer.Source.MMS);
+        trace.record(ReceiveLatencyTracer.SPAN_INSERT, 12000000L);
+        trace.finish();
+        trace.finish();
+
+        String dump = tracer.dump();
+        assertTrue(dump, dump.contains("mms: n=1,"));
+        assertTrue(dump, dump.contains("insert: n=1, p50=<=12 ms"));
+        assertTrue(dump, dump.contains("insert=12"));
+        assertTrue(dump, dump.contains("contact lookups:"));
+    }
+
+    @Test
+    public void unfinishedTracesAreDropped() {
+        ReceiveLatencyTracer.Trace trace = tracer.begin(ReceiveLatencyTracer.Source.FIREBASE);
+        trace.attach();
+        trace.record(ReceiveLatencyTracer.SPAN_BLACKLIST, 1000000L);
+        trace.detach();
+
+        assertFalse(tracer.dump().contains("firebase"));
+    }
+}
@@ -18,8 +18,15 @@ package xyz.klinker.messenger.shared.util;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.IdMatcher;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class SmsMmsUtilsTest extends MessengerRobolectricSuite {
@@ -73,4 +80,71 @@ public class SmsMmsUtilsTest extends MessengerRobolectricSuite {
         assertEquals("5159911493, 661223", SmsMmsUtils.INSTANCE.stripDuplicatePhoneNumbers("5159911493, 661223, 661223"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void createIdMatcherIsTheSameAsTheOriginal() {
+        String[] numbers = new String[]{"", "+15154211555", "+(515) (991)-1493", "5154196726, 5154808532, 5159911493",
+                "jklinker1@gmail.com", "987 654 3210", "1 987-654-3210", "55544", "HP-BHKPOS", "+44 20/7946 0958",
+                "515-991-1493, ", ", 5159911493", "5159911493, , 661223", "661223, 5159911493, jklinker1@gmail.com",
+                "*86", "#121#", "+1 (515) 991-1493, +1 (515) 991-1493", "١٢٣٤٥٦٧٨٩٠", "5159911493,5154808532"};
+
+        for (String number : numbers) {
+            IdMatcher expected = originalIdMatcher(number);
+            IdMatcher actual = SmsMmsUtils.INSTANCE.createIdMatcher(number);
+            assertArrayEquals(number, expected.getAllMatchers(), actual.getAllMatchers());
+        }
+    }
+
+    /**
+     * The regex based implementation that createIdMatcher() replaced. The matchers are stored in
+     * the database, so the new one has to keep producing exactly the same output.
+     */
+    private static IdMatcher originalIdMatcher(String phoneNumbers) {
+        List<String> split = new ArrayList<>(Arrays.asList(phoneNumbers.split(", ", -1)));
+        while (!split.isEmpty() && split.get(split.size() - 1).isEmpty()) {
+            split.remove(split.size() - 1);
+        }
+
+        List<String> five = new ArrayList<>();
+        List<String> seven = new ArrayList<>();
+        List<String> sevenNoFormatting = new ArrayList<>();
+        List<String> eight = new ArrayList<>();
+        List<String> eightNoFormatting = new ArrayList<>();
+        List<String> ten = new ArrayList<>();
+
+        for (String number : split) {
+            String stripped = number.replaceAll("-", "").replaceAll(" ", "").replaceAll("/+", "");
+            String noFormatting = PhoneNumberUtils.INSTANCE.clearFormatting(stripped);
+
+            five.add(originalSuffix(stripped, 5));
+            seven.add(originalSuffix(stripped, 7));
+            sevenNoFormatting.add(originalSuffix(noFormatting, 7));
+            eight.add(originalSuffix(stripped, 8));
+            eightNoFormatting.add(originalSuffix(noFormatting, 8));
+            ten.add(originalSuffix(stripped, 10));
+        }
+
+        return new IdMatcher(originalJoin(five), originalJoin(seven), originalJoin(sevenNoFormatting),
+                originalJoin(eight), originalJoin(eightNoFormatting), originalJoin(ten));
+    }
+
+    private static String originalSuffix(String number, int digits) {
+        if (number.contains("@")) {
+            return number;
+        } else if (number.length() >= digits) {
+            return number.substring(number.length() - digits);
+        } else {
+            return number;
+        }
+    }
+
+    private static String originalJoin(List<String> matchers) {
+        Collections.sort(matchers);
+
+        StringBuilder builder = new StringBuilder();
+        for (String matcher : matchers) {
+            builder.append(matcher);
+        }
+
+        return builder.toString();
+    }
+}
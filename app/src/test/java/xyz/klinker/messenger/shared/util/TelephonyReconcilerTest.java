@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util;
+
+import android.content.ContentResolver;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.Telephony;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xyz.klinker.messenger.MessengerRealDataSuite;
+import xyz.klinker.messenger.shared.data.model.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TelephonyReconcilerTest extends MessengerRealDataSuite {
+
+    private static final long HIGHEST_ID = 10;
+
+    private List<Object[]> smsRows = new ArrayList<>();
+
+    @Before
+    public void setUpProvider() {
+        ContentResolver resolver = mock(ContentResolver.class);
+        when(resolver.query(any(Uri.class), any(String[].class), nullable(String.class), nullable(String[].class), nullable(String.class)))
+                .thenAnswer(invocation -> {
+                    Uri uri = invocation.getArgument(0);
+                    String[] projection = invocation.getArgument(1);
+                    if (!uri.equals(Telephony.Sms.CONTENT_URI)) {
+                        return null;
+                    }
+
+                    MatrixCursor cursor = new MatrixCursor(projection);
+                    if (projection.length == 1) {
+                        cursor.addRow(new Object[]{HIGHEST_ID});
+                        return cursor;
+                    }
+
+                    long after = Long.parseLong(((String[]) invocation.getArgument(3))[0]);
+                    for (Object[] row : smsRows) {
+                        if ((long) row[0] > after) {
+                            cursor.addRow(row);
+                        }
+                    }
+
+                    return cursor;
+                });
+
+        doReturn(resolver).when(context).getContentResolver();
+    }
+
+    @Test
+    public void skipsSmsThatPulseWrote() {
+        int conversations = source.getConversationCount(context);
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+
+        // the copy of a received message, and a sent one that landed after another app's write
+        TelephonyReconciler.Companion.markOwnSms(context, 11);
+        TelephonyReconciler.Companion.markOwnSms(context, 13);
+        smsRows.add(sms(11, "5555555", "hello from pulse", Telephony.Sms.MESSAGE_TYPE_INBOX));
+        smsRows.add(sms(13, "5555555", "sent from pulse", Telephony.Sms.MESSAGE_TYPE_SENT));
+
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+        assertEquals(conversations, source.getConversationCount(context));
+    }
+
+    @Test
+    public void matchesTheStoredFormOfAMessage() {
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+        int messages = source.getMessages(context, 3).getCount();
+
+        smsRows.add(sms(11, "3333333", "[Web발신]\nHow is the new app coming?", Telephony.Sms.MESSAGE_TYPE_INBOX));
+
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+        assertEquals(messages, source.getMessages(context, 3).getCount());
+    }
+
+    @Test
+    public void movesAStuckMessageToSent() {
+        long now = TimeUtils.INSTANCE.getNow();
+        Message sending = new Message();
+        sending.setType(Message.TYPE_SENDING);
+        sending.setData("on my way");
+        sending.setTimestamp(now);
+        sending.setMimeType("text/plain");
+        long id = source.insertMessage(context, sending, 3, true, false);
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+
+        // still in the outbox, so the mark has to stay behind it
+        smsRows.add(sms(11, "3333333", "on my way", Telephony.Sms.MESSAGE_TYPE_OUTBOX, now));
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+        assertEquals(Message.TYPE_SENDING, source.getMessage(context, id).getType());
+
+        smsRows.clear();
+        smsRows.add(sms(11, "3333333", "on my way", Telephony.Sms.MESSAGE_TYPE_SENT, now));
+        assertTrue(new TelephonyReconciler(context).reconcile().isEmpty());
+        assertEquals(Message.TYPE_SENT, source.getMessage(context, id).getType());
+    }
+
+    private Object[] sms(long id, String address, String body, int type) {
+        return sms(id, address, body, type, 750L);
+    }
+
+    private Object[] sms(long id, String address, String body, int type, long date) {
+        return new Object[]{id, body, date, 1, type, Telephony.Sms.STATUS_NONE, address};
+    }
+}
@@ -0,0 +1,115 @@
+package xyz.klinker.messenger.shared.util.autoreply;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.MimeType;
+import xyz.klinker.messenger.shared.data.Settings;
+import xyz.klinker.messenger.shared.data.model.AutoReply;
+import xyz.klinker.messenger.shared.data.model.Conversation;
+import xyz.klinker.messenger.shared.data.model.Message;
+import xyz.klinker.messenger.shared.util.autoreply.parsers.ContactReplyParser;
+import xyz.klinker.messenger.shared.util.autoreply.parsers.KeywordReplyParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AutoReplyEngineTest extends MessengerRobolectricSuite {
+
+    private Context context = RuntimeEnvironment.application;
+
+    private List<AutoReply> replies = Arrays.asList(
+            reply(AutoReply.TYPE_KEYWORD, "Pizza", "on my way"),
+            reply(AutoReply.TYPE_CONTACT, "+1 (515) 991-1493", "can't talk"),
+            reply(AutoReply.TYPE_KEYWORD, "za", "za!"),
+            reply(AutoReply.TYPE_KEYWORD, "dinner", " "),
+            reply(AutoReply.TYPE_DRIVING, null, "driving"),
+            reply(AutoReply.TYPE_KEYWORD, "pizza tonight", "yes"),
+            reply(AutoReply.TYPE_CONTACT, "5154808532", "busy"));
+
+    @After
+    public void tearDown() {
+        Settings.INSTANCE.setDrivingMode(false);
+    }
+
+    @Test
+    public void matchesTheSameRepliesAsTheParsers() {
+        AutoReplyEngine engine = new AutoReplyEngine(context, replies);
+        String[] numbers = new String[]{"5159911493", "+15159911493", "5154808532", "5154196726", "5154196726, 5159911493"};
+        String[] texts = new String[]{"PIZZA TONIGHT?", "dinner and pizza", "nothing", "", "pizz a"};
+
+        for (String number : numbers) {
+            for (String text : texts) {
+                Conversation conversation = conversation(number);
+                Message message = message(text);
+
+                List<String> expected = new ArrayList<>();
+                for (AutoReplyParser parser : parsers()) {
+                    if (parser.canParse(conversation, message)) {
+                        expected.add(parser.getPattern());
+                    }
+                }
+
+                List<String> actual = new ArrayList<>();
+                for (AutoReplyParser parser : engine.getInstances(conversation, message)) {
+                    actual.add(parser.getPattern());
+                }
+
+                assertEquals(number + ": " + text, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void onlyRepliesWithTheDrivingReplyWhileDriving() {
+        Settings.INSTANCE.setDrivingMode(true);
+
+        List<AutoReplyParser> parsers = new AutoReplyEngine(context, replies)
+                .getInstances(conversation("5159911493"), message("pizza"));
+
+        assertEquals(1, parsers.size());
+        assertSame(null, parsers.get(0).getPattern());
+    }
+
+    private List<AutoReplyParser> parsers() {
+        List<AutoReplyParser> parsers = new ArrayList<>();
+        for (AutoReply reply : replies) {
+            if (reply.getType().equals(AutoReply.TYPE_KEYWORD) && !reply.getResponse().trim().isEmpty()) {
+                parsers.add(new KeywordReplyParser(context, reply));
+            } else if (reply.getType().equals(AutoReply.TYPE_CONTACT)) {
+                parsers.add(new ContactReplyParser(context, reply));
+            }
+        }
+
+        return parsers;
+    }
+
+    private static AutoReply reply(String type, String pattern, String response) {
+        AutoReply reply = new AutoReply();
+        reply.setType(type);
+        reply.setPattern(pattern);
+        reply.setResponse(response);
+        return reply;
+    }
+
+    private static Conversation conversation(String phoneNumbers) {
+        Conversation conversation = new Conversation();
+        conversation.setPhoneNumbers(phoneNumbers);
+        return conversation;
+    }
+
+    private static Message message(String text) {
+        Message message = new Message();
+        message.setData(text);
+        message.setMimeType(MimeType.INSTANCE.getTEXT_PLAIN());
+        return message;
+    }
+}
@@ -1,9 +1,12 @@
 package xyz.klinker.messenger.util
 
+import junit.framework.Assert.assertEquals
 import junit.framework.Assert.assertFalse
 import junit.framework.Assert.assertTrue
 import org.junit.Test
 import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.data.model.Blacklist
+import xyz.klinker.messenger.shared.util.BlacklistMatcher
 import xyz.klinker.messenger.shared.util.BlacklistUtils
 
 class BlacklistUtilsTest : MessengerRobolectricSuite() {
@@ -39,6 +42,42 @@ class BlacklistUtilsTest : MessengerRobolectricSuite() {
         assertTrue(BlacklistUtils.numbersMatch("ABCDEF", "ABCD-EF"))
     }
 
+    @Test
+    fun compiledMatcherAgreesWithNumbersMatch() {
+        val numbers = listOf("5159911493", "+15159911493", "515 991 1493", "+1 (515) 991-1493", "515991-1493",
+                "991-1493", "55544", "655544", "5154224558", "(515) 9911493", "24558", "ABCDEF", "ABCD-EF",
+                "15159911", "59911493", "HP-BHKPOS", "test@klinkerapps.com")
+
+        for (blacklisted in numbers) {
+            val matcher = BlacklistMatcher(listOf(blacklist(blacklisted, null)))
+            for (number in numbers) {
+                assertEquals("$number against $blacklisted", BlacklistUtils.numbersMatch(number, blacklisted),
+                        matcher.matchesNumber(number))
+            }
+        }
+    }
+
+    @Test
+    fun compiledMatcherFindsOverlappingPhrases() {
+        val matcher = BlacklistMatcher(listOf(blacklist(null, "Free Prize"), blacklist(null, "prize money"),
+                blacklist(null, "abcd"), blacklist(null, "bcx")))
+
+        assertTrue(matcher.matchesPhrase("You won a FREE PRIZE!"))
+        assertTrue(matcher.matchesPhrase("claim your prize money"))
+        assertTrue(matcher.matchesPhrase("abcx"))
+        assertFalse(matcher.matchesPhrase("a prize, for free"))
+        assertFalse(matcher.matchesPhrase("abc bcd"))
+        assertFalse(matcher.matchesPhrase(null))
+        assertFalse(matcher.matchesNumber("5159911493"))
+    }
+
+    private fun blacklist(number: String?, phrase: String?): Blacklist {
+        val blacklist = Blacklist()
+        blacklist.phoneNumber = number
+        blacklist.phrase = phrase
+        return blacklist
+    }
+
     @Test
     fun isNullOrBlank() {
         val value1: String? = null
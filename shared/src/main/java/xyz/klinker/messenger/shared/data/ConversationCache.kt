@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import xyz.klinker.messenger.shared.data.model.Conversation
+import java.util.LinkedHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Size-bounded, least recently used cache of conversations, keyed by their id.
+ *
+ * DataSource writes through this on each of its conversation updates, so that the message receive
+ * and notification paths can look up conversation metadata without going back to SQLite. Copies
+ * are stored and handed out, so callers are free to modify whatever they get back.
+ *
+ * Every change moves the cache to a new generation. Rows that were read from the database are
+ * only cached if nothing changed since before they were read, so that a query that races with an
+ * update can't put the old row back in to the cache.
+ */
+class ConversationCache(private val maxSize: Int = DEFAULT_SIZE) {
+
+    private val conversations = object : LinkedHashMap<Long, Conversation>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Conversation>?) = size > maxSize
+    }
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+    private val generation = AtomicLong()
+
+    val hits: Long
+        get() = hitCount.get()
+    val misses: Long
+        get() = missCount.get()
+
+    val size: Int
+        @Synchronized get() = conversations.size
+
+    @Synchronized
+    fun get(conversationId: Long): Conversation? {
+        val conversation = conversations[conversationId]
+
+        return if (conversation != null) {
+            hitCount.incrementAndGet()
+            conversation.copy()
+        } else {
+            missCount.incrementAndGet()
+            null
+        }
+    }
+
+    /**
+     * Take this before querying for a conversation, and hand it to put() with the result.
+     */
+    fun stamp() = generation.get()
+
+    /**
+     * @param stamp what stamp() returned before the conversation was read.
+     * @return false if anything changed since the stamp, in which case nothing is cached.
+     */
+    @Synchronized
+    @JvmOverloads
+    fun put(conversation: Conversation, stamp: Long = generation.get()): Boolean {
+        if (stamp != generation.get()) {
+            return false
+        }
+
+        conversations[conversation.id] = conversation.copy()
+        return true
+    }
+
+    /**
+     * Applies the change to the cached conversation, if there is one. Nothing is loaded when the
+     * conversation isn't already cached, but the generation still moves, since a read for it may
+     * be in flight.
+     */
+    @Synchronized
+    fun update(conversationId: Long, change: (Conversation) -> Unit) {
+        generation.incrementAndGet()
+        val conversation = conversations[conversationId]
+        if (conversation != null) {
+            change(conversation)
+        }
+    }
+
+    @Synchronized
+    fun remove(conversationId: Long) {
+        generation.incrementAndGet()
+        conversations.remove(conversationId)
+    }
+
+    @Synchronized
+    fun clear() {
+        generation.incrementAndGet()
+        conversations.clear()
+    }
+
+    companion object {
+        const val DEFAULT_SIZE = 100
+    }
+}
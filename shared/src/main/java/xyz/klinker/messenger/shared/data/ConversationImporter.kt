@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.data.pojo.ImportTimings
+import xyz.klinker.messenger.shared.data.pojo.PendingBackfill
+import xyz.klinker.messenger.shared.util.MmsBatchResolver
+import xyz.klinker.messenger.shared.util.SmsMmsUtils
+import xyz.klinker.messenger.shared.util.closeSilent
+import xyz.klinker.messenger.shared.util.listener.ProgressUpdateListener
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Imports the conversations from the telephony provider in to Pulse's database, for the first run.
+ *
+ * Reading a conversation from the provider and converting its rows is much slower than writing
+ * them, so that part is spread over a few worker threads. Each worker hands its finished
+ * conversations to the calling thread through a bounded queue, and the calling thread is the only
+ * one that writes, in a single transaction. The queue keeps the workers from getting too far
+ * ahead of the writer on accounts with a lot of history.
+ *
+ * With a message limit below SmsMmsUtils.INITIAL_MESSAGE_LIMIT, only the latest page of each
+ * conversation is imported. The conversations that have more than that are handed back as
+ * PendingBackfill entries, and backfill() brings in the rest of their history later on.
+ */
+class ConversationImporter @JvmOverloads constructor(private val context: Context, private val database: SQLiteDatabase,
+                           private val workers: Int = DEFAULT_WORKERS, private val queueSize: Int = QUEUE_SIZE,
+                           private val messageLimit: Int = SmsMmsUtils.INITIAL_MESSAGE_LIMIT) {
+
+    private val queryNanos = AtomicLong()
+    private val convertNanos = AtomicLong()
+
+    /**
+     * @param pending filled with the conversations that have older messages than the limit let in.
+     */
+    @JvmOverloads
+    fun importConversations(conversations: List<Conversation>, listener: ProgressUpdateListener?,
+                            pending: MutableList<PendingBackfill>? = null): ImportTimings {
+        val start = System.nanoTime()
+        val queue = ArrayBlockingQueue<ImportedConversation>(queueSize)
+        val next = AtomicInteger()
+        val pool = Executors.newFixedThreadPool(workers)
+
+        for (i in 0 until workers) {
+            pool.execute {
+                try {
+                    while (true) {
+                        val index = next.getAndIncrement()
+                        if (index >= conversations.size) {
+                            break
+                        }
+
+                        // the writer takes one result for every conversation, so always hand one back
+                        val imported = try {
+                            read(conversations[index])
+                        } catch (e: Throwable) {
+                            e.printStackTrace()
+                            SKIPPED
+                        }
+
+                        queue.put(imported)
+                    }
+                } catch (e: InterruptedException) {
+                    // the writer failed and shut the pool down
+                }
+            }
+        }
+
+        var messages = 0
+        var writeNanos = 0L
+        var waitNanos = 0L
+
+        database.beginTransaction()
+        try {
+            for (i in conversations.indices) {
+                val waitStart = System.nanoTime()
+                val imported = queue.take()
+                val writeStart = System.nanoTime()
+                waitNanos += writeStart - waitStart
+
+                if (imported.conversation != null) {
+                    for (message in imported.messages) {
+                        database.insert(Message.TABLE, null, message)
+                    }
+
+                    database.insert(Conversation.TABLE, null, imported.conversation)
+                    messages += imported.messages.size
+
+                    if (imported.backfill != null) {
+                        pending?.add(imported.backfill)
+                    }
+                }
+
+                writeNanos += System.nanoTime() - writeStart
+                listener?.onProgressUpdate(i + 1, conversations.size)
+            }
+
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+            pool.shutdownNow()
+        }
+
+        val timings = ImportTimings(conversations.size, messages, queryNanos.get() / NANOS_PER_MILLI,
+                convertNanos.get() / NANOS_PER_MILLI, writeNanos / NANOS_PER_MILLI,
+                waitNanos / NANOS_PER_MILLI, (System.nanoTime() - start) / NANOS_PER_MILLI)
+        Log.v(TAG, timings.toString())
+        return timings
+    }
+
+    /**
+     * Runs on the workers. Conversations that can't be read, or that don't have any messages, come
+     * back without their conversation values, so that the writer can still count them.
+     */
+    private fun read(conversation: Conversation): ImportedConversation {
+        // here we are loading the id from the internal database into the conversation object
+        // but we don't want to use that so we'll just generate a new one.
+        val conversationId = DataSource.generateId()
+
+        val queryStart = System.nanoTime()
+        val cursor = try {
+            SmsMmsUtils.queryConversation(conversation.id, context)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+
+        val convertStart = System.nanoTime()
+        queryNanos.addAndGet(convertStart - queryStart)
+
+        if (cursor == null || cursor.count == 0) {
+            cursor.closeSilent()
+            return SKIPPED
+        }
+
+        val messages = ArrayList<ContentValues>()
+        var latestTimestamp = 0L
+        var latestSnippet: String? = null
+        var oldestTimestamp = Long.MAX_VALUE
+        val hasOlderMessages = cursor.count > messageLimit && messageLimit < SmsMmsUtils.INITIAL_MESSAGE_LIMIT
+
+        try {
+            val resolver = MmsBatchResolver(context)
+            resolver.prefetch(SmsMmsUtils.getMmsIds(cursor, messageLimit))
+
+            if (cursor.moveToFirst()) {
+                do {
+                    for (value in SmsMmsUtils.processMessage(cursor, conversationId, context, resolver)) {
+                        messages.add(value)
+
+                        val timestamp = value.getAsLong(Message.COLUMN_TIMESTAMP)
+                        if (timestamp > latestTimestamp) {
+                            latestTimestamp = timestamp
+                            latestSnippet = value.getAsString(Message.COLUMN_DATA)
+                        }
+
+                        if (timestamp < oldestTimestamp) {
+                            oldestTimestamp = timestamp
+                        }
+                    }
+                } while (cursor.moveToNext() && cursor.position < messageLimit)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            return SKIPPED
+        } finally {
+            cursor.closeSilent()
+            convertNanos.addAndGet(System.nanoTime() - convertStart)
+        }
+
+        val values = ContentValues(18)
+        values.put(Conversation.COLUMN_ID, conversationId)
+        values.put(Conversation.COLUMN_COLOR, conversation.colors.color)
+        values.put(Conversation.COLUMN_COLOR_DARK, conversation.colors.colorDark)
+        values.put(Conversation.COLUMN_COLOR_LIGHT, conversation.colors.colorLight)
+        values.put(Conversation.COLUMN_COLOR_ACCENT, conversation.colors.colorAccent)
+        values.put(Conversation.COLUMN_LED_COLOR, conversation.ledColor)
+        values.put(Conversation.COLUMN_PINNED, conversation.pinned)
+        values.put(Conversation.COLUMN_READ, conversation.read)
+        values.put(Conversation.COLUMN_TITLE, conversation.title)
+        values.put(Conversation.COLUMN_PHONE_NUMBERS, conversation.phoneNumbers)
+        values.put(Conversation.COLUMN_RINGTONE, conversation.ringtoneUri)
+        values.put(Conversation.COLUMN_IMAGE_URI, conversation.imageUri)
+        values.put(Conversation.COLUMN_ID_MATCHER, conversation.idMatcher)
+        values.put(Conversation.COLUMN_MUTE, conversation.mute)
+        values.put(Conversation.COLUMN_ARCHIVED, conversation.archive)
+        values.put(Conversation.COLUMN_FOLDER_ID, conversation.folderId)
+        values.put(Conversation.COLUMN_TIMESTAMP, if (latestTimestamp == 0L) conversation.timestamp else latestTimestamp)
+        values.put(Conversation.COLUMN_SNIPPET, latestSnippet ?: conversation.snippet)
+
+        val backfill = if (hasOlderMessages) PendingBackfill(conversation.id, conversationId, oldestTimestamp) else null
+        return ImportedConversation(values, messages, backfill)
+    }
+
+    /**
+     * Imports the older messages for a conversation that was only partly imported, on the calling
+     * thread. The messages at the boundary timestamp may already be in the database, so those are
+     * checked against the content hash before they are written.
+     *
+     * The older messages are written in one transaction, but the checkpoint in the shared preferences
+     * is only cleared after it commits. If there are already messages from before the boundary, an
+     * earlier run got that far, so every message is checked against the content hash instead.
+     *
+     * @return the number of messages that were written.
+     */
+    fun backfill(backfill: PendingBackfill): Int {
+        val cursor = try {
+            SmsMmsUtils.queryConversation(backfill.threadId, context)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+
+        if (cursor == null || !cursor.moveToFirst()) {
+            cursor.closeSilent()
+            return 0
+        }
+
+        val alreadyWritten = DatabaseUtils.queryNumEntries(database, Message.TABLE,
+                Message.COLUMN_CONVERSATION_ID + "=? AND " + Message.COLUMN_TIMESTAMP + "<?",
+                arrayOf(backfill.conversationId.toString(), backfill.before.toString())) > 0
+
+        val messages = ArrayList<ContentValues>()
+        try {
+            val resolver = MmsBatchResolver(context)
+            resolver.prefetch(SmsMmsUtils.getMmsIds(cursor, SmsMmsUtils.INITIAL_MESSAGE_LIMIT))
+            cursor.moveToFirst()
+
+            do {
+                for (value in SmsMmsUtils.processMessage(cursor, backfill.conversationId, context, resolver)) {
+                    val timestamp = value.getAsLong(Message.COLUMN_TIMESTAMP)
+                    if (timestamp > backfill.before || ((alreadyWritten || timestamp == backfill.before) &&
+                                    DataSource.findMessagesWithContent(context, backfill.conversationId,
+                                            value.getAsString(Message.COLUMN_DATA),
+                                            value.getAsString(Message.COLUMN_MIME_TYPE), timestamp, 0).isNotEmpty())) {
+                        continue
+                    }
+
+                    messages.add(value)
+                }
+            } while (cursor.moveToNext() && cursor.position < SmsMmsUtils.INITIAL_MESSAGE_LIMIT)
+        } finally {
+            cursor.closeSilent()
+        }
+
+        database.beginTransaction()
+        try {
+            for (message in messages) {
+                database.insert(Message.TABLE, null, message)
+            }
+
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+
+        return messages.size
+    }
+
+    private class ImportedConversation(val conversation: ContentValues?, val messages: List<ContentValues>,
+                                       val backfill: PendingBackfill? = null)
+
+    companion object {
+        private const val TAG = "ConversationImporter"
+        private const val QUEUE_SIZE = 32
+        private const val NANOS_PER_MILLI = 1000000L
+
+        private val DEFAULT_WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))
+        private val SKIPPED = ImportedConversation(null, emptyList())
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+/**
+ * A single change that DataSource has made, published on the DataChangeBus so that lists showing
+ * the data can update just the affected item, rather than reloading everything.
+ */
+sealed class DataChange {
+    data class MessageTypeChanged(val messageId: Long, val type: Int) : DataChange()
+
+    /**
+     * The snippet, read state and timestamp that were written to an unarchived conversation.
+     */
+    data class ConversationSnippetChanged(val conversationId: Long, val snippet: String?, val read: Boolean,
+                                          val timestamp: Long) : DataChange()
+}
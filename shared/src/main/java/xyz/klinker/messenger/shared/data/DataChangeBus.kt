@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.os.Handler
+import android.os.Looper
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * In process feed of the changes that DataSource makes. Listeners are always called on the main
+ * thread, since they are generally going to be updating a list.
+ *
+ * Unlike the MessageListUpdatedReceiver and ConversationListUpdatedReceiver broadcasts, these
+ * say exactly what changed, so a list can apply them as a targeted item update.
+ */
+object DataChangeBus {
+
+    interface Listener {
+        fun onDataChanged(change: DataChange)
+    }
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+    private val handler: Handler by lazy { Handler(Looper.getMainLooper()) }
+
+    fun register(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    fun unregister(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    fun publish(change: DataChange) {
+        if (listeners.isEmpty()) {
+            return
+        }
+
+        handler.post {
+            for (listener in listeners) {
+                listener.onDataChanged(change)
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.database.sqlite.SQLiteConstraintException
 import android.database.sqlite.SQLiteDatabase
 import android.graphics.Color
 import android.os.Build
+import android.os.SystemClock
 import android.text.Html
 import android.text.Spanned
 import android.text.format.Formatter
@@ -40,9 +41,14 @@ import xyz.klinker.messenger.api.implementation.ApiUtils
 import xyz.klinker.messenger.api.implementation.BinaryUtils
 import xyz.klinker.messenger.encryption.EncryptionUtils
 import xyz.klinker.messenger.shared.data.model.*
+import xyz.klinker.messenger.shared.data.pojo.ImportTimings
+import xyz.klinker.messenger.shared.data.pojo.PendingBackfill
+import xyz.klinker.messenger.shared.data.pojo.SpaceReclaimed
 import xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver
 import xyz.klinker.messenger.shared.service.NewMessagesCheckService
+import xyz.klinker.messenger.shared.service.jobs.ConversationEnrichmentWork
 import xyz.klinker.messenger.shared.util.*
+import xyz.klinker.messenger.shared.util.autoreply.AutoReplyParserFactory
 import xyz.klinker.messenger.shared.util.listener.ProgressUpdateListener
 
 /**
@@ -62,12 +68,44 @@ object DataSource {
      */
     private val MAX_ID = java.lang.Long.MAX_VALUE / 10000
 
+    /**
+     * Old messages are cleaned up in chunks of this size, pausing in between each of them, so
+     * that a large cleanup doesn't keep everything else off of the database until it finishes.
+     */
+    private const val CLEANUP_CHUNK_SIZE = 500
+    private const val CLEANUP_CHUNK_PAUSE_MS = 50L
+
+    private const val AUTO_VACUUM_INCREMENTAL = 2L
+
     var _database: SQLiteDatabase? = null
     var _dbHelper: DatabaseSQLiteHelper? = null
     var _encryptor: EncryptionUtils? = null
     var _accountId: String? = null
     var _androidDeviceId: String? = null
 
+    /**
+     * Conversations that have recently been read, kept up to date by the write paths below.
+     */
+    val conversationCache = ConversationCache()
+
+    /**
+     * Unread conversations for the launcher badge, kept up to date by the write paths below.
+     */
+    val unreadCounter = UnreadCounter()
+
+    /**
+     * Small, frequent writes go through here, so that the ones coming in from different threads
+     * at the same time share a single commit.
+     */
+    val writer = DatabaseWriter { database(it) }
+
+    /**
+     * Old messages can be moved out of the main table, into this attached database.
+     */
+    val messageArchive = MessageArchive()
+
+    private val recovery = DatabaseRecovery({ database(it) }, { discardConnection(it) })
+
     @Synchronized
     private fun database(context: Context): SQLiteDatabase {
         PerformanceProfiler.logEvent("getting datasource")
@@ -75,6 +113,12 @@ object DataSource {
         if (_database == null) {
             _dbHelper = DatabaseSQLiteHelper(context)
             _database = _dbHelper!!.writableDatabase
+
+            try {
+                messageArchive.attachIfPresent(context, _database!!)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
         }
 
         return _database!!
@@ -107,36 +151,36 @@ object DataSource {
         return _androidDeviceId
     }
 
-    @Synchronized
+    /**
+     * Called after a query fails, before it is retried. If the connection is still healthy, it
+     * is left alone. Otherwise it is discarded, so that the retry gets a new one, and reopened in
+     * the background.
+     */
     fun ensureActionable(context: Context) {
         Log.v(TAG, "ensuring database actionable")
+        recovery.recover(context, _database)
+    }
 
-        // ensure we are closing everything and getting a brand new database connection the
-        // next time we go to use it.
-
-        try {
-            _database?.close()
-        } catch (e: Exception) {
-        }
-
-        try {
-            _dbHelper?.close()
-        } catch (e: Exception) {
+    /**
+     * Closes the given connection, if it is still the one in use. Another thread may have
+     * already replaced it.
+     */
+    @Synchronized
+    private fun discardConnection(database: SQLiteDatabase?) {
+        if (database != null && database !== _database) {
+            return
         }
 
-        _dbHelper = null
-        _database = null
-
-        try {
-            Thread.sleep(1000)
-        } catch (e: Exception) {
-        }
+        closeConnection()
     }
 
     @Synchronized
     fun close(context: Context) {
         Log.v(TAG, "closing database")
+        closeConnection()
+    }
 
+    private fun closeConnection() {
         try {
             _database?.close()
         } catch (e: Exception) {
@@ -149,6 +193,9 @@ object DataSource {
 
         _dbHelper = null
         _database = null
+        clearConversationCaches()
+        BlacklistUtils.invalidate()
+        AutoReplyParserFactory.invalidate()
     }
 
     fun invalidateAccountDetails() {
@@ -157,6 +204,11 @@ object DataSource {
         _androidDeviceId = null
     }
 
+    private fun clearConversationCaches() {
+        conversationCache.clear()
+        unreadCounter.invalidate()
+    }
+
     private fun writeUnreadCount(context: Context) =
             try {
                 UnreadBadger(context).writeCount(getUnreadConversationCount(context))
@@ -172,23 +224,44 @@ object DataSource {
     /**
      * Deletes all data from the tables.
      */
-    fun clearTables(context: Context) =
+    fun clearTables(context: Context) {
+        try {
+            database(context).delete(Message.TABLE, null, null)
+            database(context).delete(Conversation.TABLE, null, null)
+            database(context).delete(Blacklist.TABLE, null, null)
+            database(context).delete(Draft.TABLE, null, null)
+            database(context).delete(ScheduledMessage.TABLE, null, null)
+            database(context).delete(Contact.TABLE, null, null)
+            deleteArchivedMessages(context, null, null)
+
+            clearConversationCaches()
+            BlacklistUtils.invalidate()
+        } catch (e: Exception) {
+            ensureActionable(context)
+
+            database(context).delete(Message.TABLE, null, null)
+            database(context).delete(Conversation.TABLE, null, null)
+            database(context).delete(Blacklist.TABLE, null, null)
+            database(context).delete(Draft.TABLE, null, null)
+            database(context).delete(ScheduledMessage.TABLE, null, null)
+            database(context).delete(Contact.TABLE, null, null)
+            deleteArchivedMessages(context, null, null)
+
+            clearConversationCaches()
+            BlacklistUtils.invalidate()
+        }
+    }
+
+    /**
+     * Runs a small write on the writer thread, waiting for it to be committed along with any
+     * other writes that were queued at the same time.
+     */
+    private fun <T> write(context: Context, write: (SQLiteDatabase) -> T): T =
             try {
-                database(context).delete(Message.TABLE, null, null)
-                database(context).delete(Conversation.TABLE, null, null)
-                database(context).delete(Blacklist.TABLE, null, null)
-                database(context).delete(Draft.TABLE, null, null)
-                database(context).delete(ScheduledMessage.TABLE, null, null)
-                database(context).delete(Contact.TABLE, null, null)
+                writer.write(context, write)
             } catch (e: Exception) {
                 ensureActionable(context)
-
-                database(context).delete(Message.TABLE, null, null)
-                database(context).delete(Conversation.TABLE, null, null)
-                database(context).delete(Blacklist.TABLE, null, null)
-                database(context).delete(Draft.TABLE, null, null)
-                database(context).delete(ScheduledMessage.TABLE, null, null)
-                database(context).delete(Contact.TABLE, null, null)
+                writer.write(context, write)
             }
 
     /**
@@ -202,13 +275,17 @@ object DataSource {
      *
      * @param sql the sql statement.
      */
-    fun execSql(context: Context, sql: String) =
-            try {
-                database(context).execSQL(sql)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).execSQL(sql)
-            }
+    fun execSql(context: Context, sql: String) {
+        // we can't tell which conversations a raw statement touches
+        clearConversationCaches()
+
+        try {
+            database(context).execSQL(sql)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).execSQL(sql)
+        }
+    }
 
     /**
      * Execute a raw sql query on the database.
@@ -412,9 +489,9 @@ object DataSource {
         }
 
         if (cursor.moveToFirst()) {
+            val mapper = Contact.Mapper(cursor)
             do {
-                val contact = Contact()
-                contact.fillFromCursor(cursor)
+                val contact = mapper.map()
                 contacts.add(contact)
             } while (cursor.moveToNext())
         }
@@ -457,9 +534,9 @@ object DataSource {
         }
 
         if (cursor.moveToFirst()) {
+            val mapper = Contact.Mapper(cursor)
             do {
-                val contact = Contact()
-                contact.fillFromCursor(cursor)
+                val contact = mapper.map()
                 contacts.add(contact)
             } while (cursor.moveToNext())
         }
@@ -590,77 +667,35 @@ object DataSource {
      *
      * @param conversations the list of conversations. See SmsMmsUtils.queryConversations().
      * @param context       the application context.
+     * @param messageLimit  the number of messages to import for each conversation.
+     * @param pending       filled with the conversations that had more messages than the limit.
+     * @return how long each phase of the import took.
      */
+    @JvmOverloads
     fun insertConversations(conversations: List<Conversation>, context: Context,
-                            listener: ProgressUpdateListener?) {
-        beginTransaction(context)
-
-        for (i in conversations.indices) {
-            val conversation = conversations[i]
-
-            val values = ContentValues(16)
-
-            // here we are loading the id from the internal database into the conversation object
-            // but we don't want to use that so we'll just generate a new one.
-            val conversationId = generateId()
-            values.put(Conversation.COLUMN_ID, conversationId)
-            values.put(Conversation.COLUMN_COLOR, conversation.colors.color)
-            values.put(Conversation.COLUMN_COLOR_DARK, conversation.colors.colorDark)
-            values.put(Conversation.COLUMN_COLOR_LIGHT, conversation.colors.colorLight)
-            values.put(Conversation.COLUMN_COLOR_ACCENT, conversation.colors.colorAccent)
-            values.put(Conversation.COLUMN_LED_COLOR, conversation.ledColor)
-            values.put(Conversation.COLUMN_PINNED, conversation.pinned)
-            values.put(Conversation.COLUMN_READ, conversation.read)
-            values.put(Conversation.COLUMN_TITLE, conversation.title)
-            values.put(Conversation.COLUMN_PHONE_NUMBERS, conversation.phoneNumbers)
-            values.put(Conversation.COLUMN_SNIPPET, conversation.snippet)
-            values.put(Conversation.COLUMN_RINGTONE, conversation.ringtoneUri)
-            values.put(Conversation.COLUMN_IMAGE_URI, conversation.imageUri)
-            values.put(Conversation.COLUMN_ID_MATCHER, conversation.idMatcher)
-            values.put(Conversation.COLUMN_MUTE, conversation.mute)
-            values.put(Conversation.COLUMN_ARCHIVED, conversation.archive)
-            values.put(Conversation.COLUMN_FOLDER_ID, conversation.folderId)
-
-            val messages = SmsMmsUtils.queryConversation(conversation.id, context) ?: continue
-
-            if (messages.count == 0) {
-                deleteConversation(context, conversationId, false)
-                messages.closeSilent()
-                continue
-            }
-
-            var latestTimestamp = 0L
-            var latestSnippet: String? = null;
-            if (messages.moveToFirst()) {
-                do {
-                    val valuesList = SmsMmsUtils.processMessage(messages, conversationId, context)
-                    for (value in valuesList) {
-                        database(context).insert(Message.TABLE, null, value)
-
-                        if (value.getAsLong(Message.COLUMN_TIMESTAMP) > latestTimestamp) {
-                            latestTimestamp = value.getAsLong(Message.COLUMN_TIMESTAMP)
-                            latestSnippet = value.getAsString(Message.COLUMN_DATA)
-                        }
-                    }
-                } while (messages.moveToNext() && messages.position < SmsMmsUtils.INITIAL_MESSAGE_LIMIT)
-            }
-
-            values.put(Conversation.COLUMN_TIMESTAMP, if (latestTimestamp == 0L) conversation.timestamp else latestTimestamp)
-            values.put(Conversation.COLUMN_SNIPPET, latestSnippet ?: conversation.snippet)
-
-            try {
-                database(context).insert(Conversation.TABLE, null, values)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).insert(Conversation.TABLE, null, values)
-            }
+                            listener: ProgressUpdateListener?, messageLimit: Int = SmsMmsUtils.INITIAL_MESSAGE_LIMIT,
+                            pending: MutableList<PendingBackfill>? = null): ImportTimings {
+        val importer = ConversationImporter(context, database(context), messageLimit = messageLimit)
+        val timings = importer.importConversations(conversations, listener, pending)
+        unreadCounter.invalidate()
+        return timings
+    }
 
-            messages.closeSilent()
-            listener?.onProgressUpdate(i + 1, conversations.size)
+    /**
+     * Imports the rest of the history for a conversation that insertConversations() only brought
+     * in the latest page of.
+     *
+     * @return the number of messages that were written.
+     */
+    fun backfillConversation(context: Context, backfill: PendingBackfill): Int {
+        if (getConversation(context, backfill.conversationId) == null) {
+            // deleted since the first page was imported
+            return 0
         }
 
-        setTransactionSuccessful(context)
-        endTransaction(context)
+        val written = ConversationImporter(context, database(context)).backfill(backfill)
+        unreadCounter.invalidate()
+        return written
     }
 
     /**
@@ -709,6 +744,7 @@ object DataSource {
 
         setTransactionSuccessful(context)
         endTransaction(context)
+        unreadCounter.invalidate()
     }
 
     /**
@@ -743,6 +779,11 @@ object DataSource {
         values.put(Conversation.COLUMN_ARCHIVED, conversation.archive)
         values.put(Conversation.COLUMN_PRIVATE, conversation.private)
 
+        // some of the columns are left to their database defaults, so let the next read fill the cache
+        conversationCache.remove(conversation.id)
+        unreadCounter.setRead(conversation.id, conversation.read, conversation.archive)
+        unreadCounter.setMuted(conversation.id, conversation.mute)
+
         if (useApi) {
             ApiUtils.addConversation(context, accountId(context), conversation.id, conversation.colors.color,
                     conversation.colors.colorDark, conversation.colors.colorLight, conversation.colors.colorAccent,
@@ -772,9 +813,9 @@ object DataSource {
 
         try {
             if (cursor.moveToFirst()) {
+                val mapper = Conversation.Mapper(cursor)
                 do {
-                    val c = Conversation()
-                    c.fillFromCursor(cursor)
+                    val c = mapper.map()
                     conversations.add(c)
                 } while (cursor.moveToNext())
             }
@@ -794,12 +835,12 @@ object DataSource {
      */
     fun getUnarchivedConversations(context: Context): Cursor {
         return try {
-            database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ARCHIVED + "=? AND " + Conversation.COLUMN_PRIVATE + "=?", arrayOf("0", "0"), null, null,
+            database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_ARCHIVED + "=? AND " + Conversation.COLUMN_PRIVATE + "=?", arrayOf("0", "0"), null, null,
                     Conversation.COLUMN_PINNED + " desc, " + Conversation.COLUMN_TIMESTAMP + " desc"
             )
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ARCHIVED + "=? AND " + Conversation.COLUMN_PRIVATE + "=?", arrayOf("0", "0"), null, null,
+            database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_ARCHIVED + "=? AND " + Conversation.COLUMN_PRIVATE + "=?", arrayOf("0", "0"), null, null,
                     Conversation.COLUMN_PINNED + " desc, " + Conversation.COLUMN_TIMESTAMP + " desc"
             )
         }
@@ -844,10 +885,10 @@ object DataSource {
      */
     fun getPinnedConversations(context: Context): Cursor =
             try {
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PINNED + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PINNED + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PINNED + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PINNED + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             }
 
     /**
@@ -864,10 +905,10 @@ object DataSource {
      */
     fun getArchivedConversations(context: Context): Cursor =
             try {
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ARCHIVED + "=1 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_ARCHIVED + "=1 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ARCHIVED + "=1 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_ARCHIVED + "=1 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             }
 
 
@@ -885,10 +926,10 @@ object DataSource {
      */
     fun getPrivateConversations(context: Context): Cursor =
             try {
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PRIVATE + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PRIVATE + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PRIVATE + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PRIVATE + "=1", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             }
 
     /**
@@ -898,10 +939,10 @@ object DataSource {
      */
     fun getUnreadNonPrivateConversations(context: Context): Cursor =
             try {
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_READ + "=0 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_READ + "=0 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_READ + "=0 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_READ + "=0 AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             }
 
 
@@ -925,10 +966,10 @@ object DataSource {
      */
     fun getFolderConversations(context: Context, folderId: Long): Cursor =
             try {
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PRIVATE + "=0 AND " + Conversation.COLUMN_FOLDER_ID + "=" + folderId, null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PRIVATE + "=0 AND " + Conversation.COLUMN_FOLDER_ID + "=" + folderId, null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Conversation.TABLE, null, Conversation.COLUMN_PRIVATE + "=0 AND " + Conversation.COLUMN_FOLDER_ID + "=" + folderId, null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
+                database(context).query(Conversation.TABLE, Conversation.LIST_PROJECTION, Conversation.COLUMN_PRIVATE + "=0 AND " + Conversation.COLUMN_FOLDER_ID + "=" + folderId, null, null, null, Conversation.COLUMN_TIMESTAMP + " desc")
             }
 
     /**
@@ -977,23 +1018,54 @@ object DataSource {
             }
 
     /**
-     * Get the count of unread conversations in the database
+     * Get the count of unread conversations in the database. This comes from the in memory
+     * counter, which only goes back to the database when it has been invalidated.
      */
     fun getUnreadConversationCount(context: Context): Int {
-        val cursor = getUnreadConversations(context)
+        if (!unreadCounter.isLoaded) {
+            return loadUnreadCounter(context)
+        }
 
-        var count = 0
-        if (cursor.moveToFirst()) {
-            val muteIndex = cursor.getColumnIndex(Conversation.COLUMN_MUTE)
+        return unreadCounter.count
+    }
+
+    /**
+     * Reconciles the counter against the conversation table. If a conversation changed while it was
+     * being read, the counter is left unloaded for the next read, and what was just read is used.
+     *
+     * @return the number of unread conversations that are not muted.
+     */
+    private fun loadUnreadCounter(context: Context): Int {
+        val projection = arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_READ,
+                Conversation.COLUMN_ARCHIVED, Conversation.COLUMN_MUTE)
+        val selection = "(" + Conversation.COLUMN_READ + "=0 and " + Conversation.COLUMN_ARCHIVED +
+                "=0) or " + Conversation.COLUMN_MUTE + "=1"
+
+        val stamp = unreadCounter.stamp()
+        val cursor = try {
+            database(context).query(Conversation.TABLE, projection, selection, null, null, null, null)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).query(Conversation.TABLE, projection, selection, null, null, null, null)
+        }
+
+        val unread = ArrayList<Long>()
+        val muted = ArrayList<Long>()
 
+        if (cursor.moveToFirst()) {
             do {
-                val muted = cursor.getInt(muteIndex) == 1
-                count += if (muted) 0 else 1
+                val id = cursor.getLong(0)
+                if (cursor.getInt(1) == 0 && cursor.getInt(2) == 0) unread.add(id)
+                if (cursor.getInt(3) == 1) muted.add(id)
             } while (cursor.moveToNext())
         }
 
         cursor.closeSilent()
-        return count
+        return if (unreadCounter.reconcile(unread, muted, stamp)) {
+            unreadCounter.count
+        } else {
+            unread.count { !muted.contains(it) }
+        }
     }
 
     fun getUnreadConversationsAsList(context: Context): List<Conversation> {
@@ -1001,9 +1073,9 @@ object DataSource {
         val conversations = ArrayList<Conversation>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Conversation.Mapper(cursor)
             do {
-                val conversation = Conversation()
-                conversation.fillFromCursor(cursor)
+                val conversation = mapper.map()
 
                 conversations.add(conversation)
             } while (cursor.moveToNext())
@@ -1042,9 +1114,9 @@ object DataSource {
         val conversations = ArrayList<Conversation>()
 
         if (cursor != null && cursor.moveToFirst()) {
+            val mapper = Conversation.Mapper(cursor)
             do {
-                val conversation = Conversation()
-                conversation.fillFromCursor(cursor)
+                val conversation = mapper.map()
 
                 conversations.add(conversation)
             } while (cursor.moveToNext() && conversations.size < count)
@@ -1061,6 +1133,12 @@ object DataSource {
      * @return the conversation.
      */
     fun getConversation(context: Context, conversationId: Long): Conversation? {
+        val cached = conversationCache.get(conversationId)
+        if (cached != null) {
+            return cached
+        }
+
+        val stamp = conversationCache.stamp()
         val cursor = try {
             database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ID + "=?",
                     arrayOf(java.lang.Long.toString(conversationId)), null, null, null)
@@ -1075,6 +1153,8 @@ object DataSource {
                 val conversation = Conversation()
                 conversation.fillFromCursor(cursor)
                 cursor.close()
+
+                conversationCache.put(conversation, stamp)
                 conversation
             } else {
                 cursor.closeSilent()
@@ -1117,6 +1197,9 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        deleteArchivedMessages(context, Message.COLUMN_CONVERSATION_ID + "=?",
+                arrayOf(java.lang.Long.toString(conversationId)))
+
         try {
             database(context).delete(Conversation.TABLE, Conversation.COLUMN_ID + "=?",
                     arrayOf(java.lang.Long.toString(conversationId)))
@@ -1126,6 +1209,9 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        conversationCache.remove(conversationId)
+        unreadCounter.remove(conversationId)
+
         if (conversation != null) {
             Thread { SmsMmsUtils.deleteConversation(context, conversation.phoneNumbers!!) }.start()
         }
@@ -1171,6 +1257,12 @@ object DataSource {
         }
 
         if (updated > 0) {
+            conversationCache.update(conversationId) {
+                it.archive = archive
+                it.read = true
+            }
+            unreadCounter.setRead(conversationId, true)
+
             if (useApi) {
                 if (archive) {
                     ApiUtils.archiveConversation(accountId(context), conversationId)
@@ -1204,6 +1296,10 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            conversationCache.update(conversationId) { it.folderId = folderId }
+        }
+
         if (updated > 0 && useApi) {
             if (folderId == -1L) {
                 ApiUtils.removeConversationFromFolder(accountId(context), conversationId)
@@ -1224,6 +1320,19 @@ object DataSource {
      */
     @JvmOverloads fun updateConversation(context: Context, conversationId: Long, read: Boolean, timestamp: Long,
                            snippet: String?, snippetMime: String?, archive: Boolean, useApi: Boolean = true) {
+        writeConversationUpdate(context, conversationId, read, timestamp, snippet, snippetMime, archive, useApi)?.invoke()
+    }
+
+    /**
+     * Writes the row for updateConversation, without the cache, api and badge updates. Those are
+     * handed back to be run once the write is committed, so that a batch that gets rolled back
+     * doesn't leave them behind.
+     *
+     * @return null if the conversation wasn't updated.
+     */
+    private fun writeConversationUpdate(context: Context, conversationId: Long, read: Boolean, timestamp: Long,
+                                        snippet: String?, snippetMime: String?, archive: Boolean,
+                                        useApi: Boolean): (() -> Unit)? {
         var snippet = snippet
         val values = ContentValues(4)
         values.put(Conversation.COLUMN_READ, read)
@@ -1253,7 +1362,23 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
-        if (updated > 0) {
+        if (updated == 0) {
+            return null
+        }
+
+        return {
+            conversationCache.update(conversationId) {
+                it.read = read
+                it.snippet = snippet
+                it.timestamp = timestamp
+                it.archive = archive
+            }
+            unreadCounter.setRead(conversationId, read, archive)
+
+            if (!archive) {
+                DataChangeBus.publish(DataChange.ConversationSnippetChanged(conversationId, snippet, read, timestamp))
+            }
+
             if (useApi) ApiUtils.updateConversationSnippet(accountId(context), conversationId,
                     read, archive, timestamp, snippet, encryptor(context))
 
@@ -1291,6 +1416,11 @@ object DataSource {
         }
 
         if (updated > 0) {
+            conversationCache.update(conversationId) {
+                it.snippet = snippet
+                it.timestamp = timestamp
+            }
+
             ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, snippet, true)
 
             if (useApi) {
@@ -1333,6 +1463,28 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversation.id)))
         }
 
+        conversationCache.update(conversation.id) {
+            it.pinned = conversation.pinned
+            it.title = conversation.title
+            it.ringtoneUri = conversation.ringtoneUri
+            it.colors.color = conversation.colors.color
+            it.colors.colorDark = conversation.colors.colorDark
+            it.colors.colorLight = conversation.colors.colorLight
+            it.colors.colorAccent = conversation.colors.colorAccent
+            it.ledColor = conversation.ledColor
+            it.mute = conversation.mute
+            it.read = conversation.read
+            it.archive = conversation.archive
+            it.private = conversation.private
+
+            if (conversation.simSubscriptionId != null) {
+                it.simSubscriptionId = if (conversation.simSubscriptionId == -1) null else conversation.simSubscriptionId
+            }
+        }
+
+        unreadCounter.setRead(conversation.id, conversation.read, conversation.archive)
+        unreadCounter.setMuted(conversation.id, conversation.mute)
+
         if (useApi) {
             ApiUtils.updateConversation(accountId(context), conversation.id, conversation.colors.color,
                     conversation.colors.colorDark, conversation.colors.colorLight, conversation.colors.colorAccent,
@@ -1361,6 +1513,10 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId), title))
         }
 
+        if (updated > 0) {
+            conversationCache.update(conversationId) { it.title = title }
+        }
+
         if (updated > 0 && useApi) {
             ApiUtils.updateConversationTitle(accountId(context), conversationId, title, encryptor(context))
         }
@@ -1382,9 +1538,100 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            conversationCache.update(conversationId) { it.imageUri = imageUri }
+        }
+
         // no need to update the API, since image uris are local
     }
 
+    /**
+     * Fills in the details for a conversation that was created with placeholders when its first
+     * message came in. Only the columns that still hold the placeholder values are replaced, so
+     * that a rename or color change from the user in the meantime is left alone.
+     *
+     * @param placeholder the conversation as it was inserted.
+     * @param colors      null to keep the colors that the conversation was created with.
+     * @return the conversation with the new details, or null if nothing was changed.
+     */
+    @JvmOverloads fun enrichConversation(context: Context, placeholder: Conversation, title: String, imageUri: String?,
+                                         colors: ColorSet?, useApi: Boolean = true): Conversation? {
+        val values = ContentValues(6)
+
+        // read and write in one transaction, so nothing can change the row in between
+        beginTransaction(context)
+        val conversation = try {
+            val cursor = database(context).query(Conversation.TABLE, null, Conversation.COLUMN_ID + "=?",
+                    arrayOf(java.lang.Long.toString(placeholder.id)), null, null, null)
+            if (!cursor.moveToFirst()) {
+                cursor.closeSilent()
+                return null
+            }
+
+            val current = Conversation()
+            current.fillFromCursor(cursor)
+            cursor.closeSilent()
+
+            if (title.isNotEmpty() && current.title == placeholder.title && title != current.title) {
+                values.put(Conversation.COLUMN_TITLE, title)
+            }
+
+            if (imageUri != null && current.imageUri == placeholder.imageUri && imageUri != current.imageUri) {
+                values.put(Conversation.COLUMN_IMAGE_URI, imageUri)
+            }
+
+            if (colors != null && sameColors(current.colors, placeholder.colors) && !sameColors(colors, current.colors)) {
+                values.put(Conversation.COLUMN_COLOR, colors.color)
+                values.put(Conversation.COLUMN_COLOR_DARK, colors.colorDark)
+                values.put(Conversation.COLUMN_COLOR_LIGHT, colors.colorLight)
+                values.put(Conversation.COLUMN_COLOR_ACCENT, colors.colorAccent)
+            }
+
+            if (values.size() == 0 || database(context).update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
+                            arrayOf(java.lang.Long.toString(placeholder.id))) == 0) {
+                return null
+            }
+
+            setTransactionSuccessful(context)
+            current
+        } finally {
+            endTransaction(context)
+        }
+
+        val conversationId = conversation.id
+        val titleChanged = values.containsKey(Conversation.COLUMN_TITLE)
+        val imageChanged = values.containsKey(Conversation.COLUMN_IMAGE_URI)
+        val colorsChanged = values.containsKey(Conversation.COLUMN_COLOR)
+
+        if (titleChanged) conversation.title = title
+        if (imageChanged) conversation.imageUri = imageUri
+        if (colorsChanged) conversation.colors = colors!!
+
+        conversationCache.update(conversationId) {
+            if (titleChanged) it.title = title
+            if (imageChanged) it.imageUri = imageUri
+            if (colorsChanged) it.colors = colors!!
+        }
+
+        // image uris are local, so only the title and colors go to the api
+        if (useApi && (titleChanged || colorsChanged)) {
+            ApiUtils.updateConversation(accountId(context), conversationId,
+                    color = if (colorsChanged) colors!!.color else null,
+                    colorDark = if (colorsChanged) colors!!.colorDark else null,
+                    colorLight = if (colorsChanged) colors!!.colorLight else null,
+                    colorAccent = if (colorsChanged) colors!!.colorAccent else null,
+                    ledColor = null, pinned = null, read = null, timestamp = null,
+                    title = if (titleChanged) title else null, snippet = null, ringtone = null, mute = null,
+                    archive = null, privateNotifications = null, encryptionUtils = encryptor(context))
+        }
+
+        return conversation
+    }
+
+    private fun sameColors(first: ColorSet, second: ColorSet) = first.color == second.color &&
+            first.colorDark == second.colorDark && first.colorLight == second.colorLight &&
+            first.colorAccent == second.colorAccent
+
     /**
      * Gets the number of conversations in the database.
      */
@@ -1529,57 +1776,74 @@ object DataSource {
      * Gets all messages for a given conversation.
      *
      * @param conversationId the conversation id to find messages for.
+     * @param includeArchive whether to include the messages that have been moved into the archive.
+     *                       The message list does, so that it can scroll back through all of them.
      * @return a cursor with all messages.
      */
-    fun getMessages(context: Context, conversationId: Long): Cursor =
+    @JvmOverloads fun getMessages(context: Context, conversationId: Long, includeArchive: Boolean = false): Cursor =
             try {
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
-                        arrayOf(java.lang.Long.toString(conversationId)), null, null,
-                        Message.COLUMN_TIMESTAMP + " asc")
+                database(context).query(messageArchive.source(database(context), includeArchive), null,
+                        Message.COLUMN_CONVERSATION_ID + "=?", arrayOf(java.lang.Long.toString(conversationId)),
+                        null, null, Message.COLUMN_TIMESTAMP + " asc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
-                        arrayOf(java.lang.Long.toString(conversationId)), null, null,
-                        Message.COLUMN_TIMESTAMP + " asc")
+                database(context).query(messageArchive.source(database(context), includeArchive), null,
+                        Message.COLUMN_CONVERSATION_ID + "=?", arrayOf(java.lang.Long.toString(conversationId)),
+                        null, null, Message.COLUMN_TIMESTAMP + " asc")
+            }
+
+    /**
+     * Whether the conversation has messages in the archive, so that the message list only reads
+     * through it when there is something to find.
+     */
+    fun hasArchivedMessages(context: Context, conversationId: Long): Boolean =
+            try {
+                messageArchive.hasMessages(database(context), conversationId)
+            } catch (e: Exception) {
+                ensureActionable(context)
+                messageArchive.hasMessages(database(context), conversationId)
             }
 
     /**
      * Gets a limited number of messages for a given conversation.
      *
      * @param conversationId the conversation id to find messages for.
+     * @param includeArchive whether to include the messages that have been moved into the archive.
      * @return a cursor with all messages.
      */
-    fun getMessageCursorWithLimit(context: Context, conversationId: Long, limit: Int): Cursor {
-        val numberOfEntries = DatabaseUtils.queryNumEntries(database(context), Message.TABLE,
+    @JvmOverloads fun getMessageCursorWithLimit(context: Context, conversationId: Long, limit: Int,
+                                                includeArchive: Boolean = false): Cursor {
+        val table = messageArchive.source(database(context), includeArchive)
+        val numberOfEntries = DatabaseUtils.queryNumEntries(database(context), table,
                 Message.COLUMN_CONVERSATION_ID + "=?", arrayOf(java.lang.Long.toString(conversationId)))
 
         return if (numberOfEntries > limit) {
             try {
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
+                database(context).query(table, null, Message.COLUMN_CONVERSATION_ID + "=?",
                         arrayOf(java.lang.Long.toString(conversationId)), null, null,
                         Message.COLUMN_TIMESTAMP + " asc", (numberOfEntries - limit).toString() + "," + limit)
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
+                database(context).query(table, null, Message.COLUMN_CONVERSATION_ID + "=?",
                         arrayOf(java.lang.Long.toString(conversationId)), null, null,
                         Message.COLUMN_TIMESTAMP + " asc", (numberOfEntries - limit).toString() + "," + limit)
             }
         } else {
-            getMessages(context, conversationId)
+            getMessages(context, conversationId, includeArchive)
         }
     }
 
     /**
-     * Gets a single message from the database.
+     * Gets a single message from the database, or from the archive if it has been moved there.
      */
     fun getMessage(context: Context, messageId: Long): Message? {
         val cursor = try {
-            database(context).query(Message.TABLE, null, Message.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(messageId)), null, null, null)
+            database(context).query(messageArchive.source(database(context), true), null, Message.COLUMN_ID + "=?",
+                    arrayOf(java.lang.Long.toString(messageId)), null, null, null, "1")
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Message.TABLE, null, Message.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(messageId)), null, null, null)
+            database(context).query(messageArchive.source(database(context), true), null, Message.COLUMN_ID + "=?",
+                    arrayOf(java.lang.Long.toString(messageId)), null, null, null, "1")
         }
 
         return if (cursor.moveToFirst()) {
@@ -1645,21 +1909,14 @@ object DataSource {
     }
 
     /**
-     * Gets all messages in the database where mime type is not text/plain.
+     * Gets the latest attachments in the database, leaving out text and link previews.
      */
     fun getAllMediaMessages(context: Context, limit: Int): Cursor {
-        val selection =
-                Message.COLUMN_MIME_TYPE + "!=? AND " +
-                Message.COLUMN_MIME_TYPE + "!=? AND " +
-                Message.COLUMN_MIME_TYPE + "!=? AND " +
-                Message.COLUMN_MIME_TYPE + "!=? AND " +
-                Message.COLUMN_MIME_TYPE + "!=?"
-        val selectionArgs = arrayOf(MimeType.TEXT_PLAIN, MimeType.MEDIA_ARTICLE, MimeType.MEDIA_YOUTUBE_V2, MimeType.MEDIA_TWITTER, MimeType.MEDIA_MAP)
         return try {
-            database(context).query(Message.TABLE, null, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc LIMIT " + limit)
+            database(context).query(Message.TABLE, null, Message.ATTACHMENT_SELECTION, null, null, null, Message.COLUMN_TIMESTAMP + " desc LIMIT " + limit)
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Message.TABLE, null, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc LIMIT " + limit)
+            database(context).query(Message.TABLE, null, Message.ATTACHMENT_SELECTION, null, null, null, Message.COLUMN_TIMESTAMP + " desc LIMIT " + limit)
         }
     }
 
@@ -1685,23 +1942,20 @@ object DataSource {
     }
 
     /**
-     * Gets all messages for a conversation where the mime type is not text/plain.
+     * Gets the images, videos, and audio for a conversation that have already been downloaded,
+     * including the ones that have been archived.
      */
     fun getMediaMessages(context: Context, conversationId: Long): List<Message> {
         val cursor = try {
-            database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=? AND (" +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'image/%' OR " +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'video/%' OR " +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'audio/%') AND " +
+            database(context).query(messageArchive.source(database(context), true), null, Message.COLUMN_CONVERSATION_ID + "=? AND " +
+                    Message.GALLERY_SELECTION + " AND " +
                     Message.COLUMN_DATA + " NOT LIKE 'firebase %'",
                     arrayOf(java.lang.Long.toString(conversationId)), null, null,
                     Message.COLUMN_TIMESTAMP + " asc")
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=? AND (" +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'image/%' OR " +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'video/%' OR " +
-                    Message.COLUMN_MIME_TYPE + " LIKE 'audio/%') AND " +
+            database(context).query(messageArchive.source(database(context), true), null, Message.COLUMN_CONVERSATION_ID + "=? AND " +
+                    Message.GALLERY_SELECTION + " AND " +
                     Message.COLUMN_DATA + " NOT LIKE 'firebase %'",
                     arrayOf(java.lang.Long.toString(conversationId)), null, null,
                     Message.COLUMN_TIMESTAMP + " asc")
@@ -1710,9 +1964,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
                 messages.add(message)
             } while (cursor.moveToNext())
         }
@@ -1772,9 +2026,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
 
                 messages.add(message)
             } while (cursor.moveToNext())
@@ -1792,9 +2046,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor.moveToLast()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
                 messages.add(message)
             } while (cursor.moveToPrevious())
         }
@@ -1811,9 +2065,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor.moveToLast()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
                 messages.add(message)
             } while (cursor.moveToPrevious() && messages.size < count)
         }
@@ -1833,14 +2087,14 @@ object DataSource {
                 null
             } else {
                 try {
-                    database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
+                    database(context).query(messageArchive.source(database(context), true) + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
                             arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
                             Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
                                     Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Message.COLUMN_TIMESTAMP + " desc")
                 } catch (e: Exception) {
                     ensureActionable(context)
                     try {
-                        database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
+                        database(context).query(messageArchive.source(database(context), true) + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
                                 arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
                                 Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
                                         Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Message.COLUMN_TIMESTAMP + " desc")
@@ -1855,9 +2109,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor != null && cursor.moveToFirst()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
 
                 if (!receivedOnly || message.type == Message.TYPE_RECEIVED) {
                     messages.add(message)
@@ -1880,14 +2134,14 @@ object DataSource {
                 null
             } else {
                 try {
-                    database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
+                    database(context).query(messageArchive.source(database(context), true) + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
                             arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
                             Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
                                     Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND c._id=" + conversationId, null, null, null, Message.COLUMN_TIMESTAMP + " desc")
                 } catch (e: Exception) {
                     ensureActionable(context)
                     try {
-                        database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
+                        database(context).query(messageArchive.source(database(context), true) + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
                                 arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
                                 Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
                                         Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND c._id=" + conversationId, null, null, null, Message.COLUMN_TIMESTAMP + " desc")
@@ -1903,9 +2157,9 @@ object DataSource {
         val messages = ArrayList<Message>()
 
         if (cursor != null && cursor.moveToFirst()) {
+            val mapper = Message.Mapper(cursor)
             do {
-                val message = Message()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
                 messages.add(message)
             } while (cursor.moveToNext() && messages.size < amount)
         }
@@ -1942,15 +2196,15 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Message.COLUMN_TYPE, type)
 
-        try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_ID + "=? AND " + Message.COLUMN_TYPE + "<>? AND " + Message.COLUMN_TYPE + "<>?",
-                    arrayOf(java.lang.Long.toString(messageId), Integer.toString(Message.TYPE_RECEIVED), Integer.toString(Message.TYPE_DELIVERED)))
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).update(Message.TABLE, values, Message.COLUMN_ID + "=? AND " + Message.COLUMN_TYPE + "<>? AND " + Message.COLUMN_TYPE + "<>?",
+        val updated = write(context) {
+            it.update(Message.TABLE, values, Message.COLUMN_ID + "=? AND " + Message.COLUMN_TYPE + "<>? AND " + Message.COLUMN_TYPE + "<>?",
                     arrayOf(java.lang.Long.toString(messageId), Integer.toString(Message.TYPE_RECEIVED), Integer.toString(Message.TYPE_DELIVERED)))
         }
 
+        if (updated > 0) {
+            DataChangeBus.publish(DataChange.MessageTypeChanged(messageId, type))
+        }
+
         if (useApi) {
             ApiUtils.updateMessageType(accountId(context), messageId, type)
         }
@@ -1966,12 +2220,8 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Message.COLUMN_TIMESTAMP, timestamp)
 
-        try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(messageId)))
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).update(Message.TABLE, values, Message.COLUMN_ID + "=?",
+        write(context) {
+            it.update(Message.TABLE, values, Message.COLUMN_ID + "=?",
                     arrayOf(java.lang.Long.toString(messageId)))
         }
 
@@ -1985,10 +2235,13 @@ object DataSource {
      *
      * @param messageId the id of the message to update.
      * @param data      the new data string.
+     * @param mimeType  the mime type of the message, only plain text gets render hints.
      */
-    fun updateMessageData(context: Context, messageId: Long, data: String) {
-        val values = ContentValues(1)
+    fun updateMessageData(context: Context, messageId: Long, data: String, mimeType: String?) {
+        val values = ContentValues(3)
         values.put(Message.COLUMN_DATA, data)
+        values.put(Message.COLUMN_CONTENT_HASH, Message.contentHash(data))
+        values.put(Message.COLUMN_RENDER_HINTS, MessageTextAnalyzer.analyze(mimeType, data))
 
         try {
             database(context).update(Message.TABLE, values, Message.COLUMN_ID + "=?",
@@ -2004,6 +2257,45 @@ object DataSource {
         //       anyways.
     }
 
+    /**
+     * Finds the messages in a conversation that have the same text as the given one, and were
+     * sent within the window on either side of the timestamp. This is a lookup on the content hash
+     * index, so it can be used to check for duplicates without loading the conversation.
+     *
+     * The data should be in the form that it is stored in, see SmsMmsUtils#storedSms. Messages
+     * that were older than 30 days when the hash column was added never got one, so rows without
+     * a hash are compared on their text instead.
+     */
+    fun findMessagesWithContent(context: Context, conversationId: Long, data: String?, mimeType: String?,
+                                timestamp: Long, window: Long): List<Message> {
+        val selection = Message.COLUMN_CONVERSATION_ID + "=? AND (" + Message.COLUMN_CONTENT_HASH + "=? OR " +
+                Message.COLUMN_CONTENT_HASH + " IS NULL) AND " + Message.COLUMN_TIMESTAMP + " BETWEEN ? AND ?"
+        val selectionArgs = arrayOf(conversationId.toString(), Message.contentHash(data).toString(),
+                (timestamp - window).toString(), (timestamp + window).toString())
+
+        val cursor = try {
+            database(context).query(Message.TABLE, null, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc")
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).query(Message.TABLE, null, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc")
+        }
+
+        val normalized = Message.normalizeContent(data)
+        val messages = ArrayList<Message>()
+        if (cursor.moveToFirst()) {
+            val mapper = Message.Mapper(cursor)
+            do {
+                val message = mapper.map()
+                if (message.mimeType == mimeType && Message.normalizeContent(message.data) == normalized) {
+                    messages.add(message)
+                }
+            } while (cursor.moveToNext())
+        }
+
+        cursor.closeSilent()
+        return messages
+    }
+
     /**
      * Inserts a new sent message after finding the conversation id.
      *
@@ -2041,8 +2333,14 @@ object DataSource {
      * @param phoneNumbers the phone numbers to look up by conversation.id_matcher column.
      * @return the conversation id that the message was inserted into.
      */
-    fun insertMessage(message: Message, phoneNumbers: String, context: Context, useApi: Boolean = true): Long =
-            insertMessage(context, message, updateOrCreateConversation(phoneNumbers, message, context, useApi), false, useApi)
+    fun insertMessage(message: Message, phoneNumbers: String, context: Context, useApi: Boolean = true): Long {
+        val committed = ArrayList<() -> Unit>()
+        val conversationId = insertMessage(context, message,
+                updateOrCreateConversation(phoneNumbers, message, context, committed, useApi), false, useApi)
+
+        committed.forEach { it() }
+        return conversationId
+    }
 
     /**
      * Checks whether or not a conversation exists for this string of phone numbers. If so, the
@@ -2109,32 +2407,38 @@ object DataSource {
      *
      * @param phoneNumbers the phone number to match the conversation with.
      * @param message      the message to use to initialize a conversation if needed.
+     * @param committed    collects the work to start once the message has been written, so that it
+     *                     is never started from inside of the caller's transaction.
      * @return the conversation id to use.
      */
-    private fun updateOrCreateConversation(phoneNumbers: String, message: Message, context: Context, useApi: Boolean = true): Long {
+    private fun updateOrCreateConversation(phoneNumbers: String, message: Message, context: Context,
+                                           committed: MutableList<() -> Unit>, useApi: Boolean = true): Long {
         val phoneNumbers = SmsMmsUtils.stripDuplicatePhoneNumbers(when {
             phoneNumbers.endsWith(", ") -> phoneNumbers.substring(0, phoneNumbers.length - 2)
             phoneNumbers.endsWith(",") -> phoneNumbers.substring(0, phoneNumbers.length - 1)
             else -> phoneNumbers
         })
 
+        // the full row is loaded here so that it can be cached for the rest of the receive path
         val matcher = SmsMmsUtils.createIdMatcher(phoneNumbers)
+        val stamp = conversationCache.stamp()
         val cursor = try {
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
+            database(context).query(Conversation.TABLE, null,
                     matcher.whereClause, matcher.allMatchers, null, null, null)
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
+            database(context).query(Conversation.TABLE, null,
                     matcher.whereClause, matcher.allMatchers, null, null, null)
         }
 
         val conversationId: Long
-        message.data = message.data?.replace("[Web발신]\n", "")
+        message.data = SmsMmsUtils.stripWebSenderPrefix(message.data)
 
         if (cursor.moveToFirst()) {
-            conversationId = cursor.getLong(0)
+            val existing = Conversation.Mapper(cursor).map()
+            conversationCache.put(existing, stamp)
+
+            conversationId = existing.id
             val snippet = if (message.type == Message.TYPE_SENT || message.type == Message.TYPE_SENDING)
                 context.getString(R.string.you) + ": " + message.data else message.data
 
@@ -2157,20 +2461,23 @@ object DataSource {
                 conversation.snippet = ""
             }
 
+            // only what is already cached or stored locally goes in to the new row, so that the
+            // message can be inserted and notified without waiting on the contacts provider. The
+            // real name and photo are filled in by the ConversationEnrichmentWork afterwards.
             conversation.ringtoneUri = null
             conversation.phoneNumbers = phoneNumbers
-            conversation.title = ContactUtils.findContactNames(phoneNumbers, context)
-            conversation.imageUri = ContactUtils.findImageUri(phoneNumbers, context)
+            conversation.title = ContactUtils.findCachedContactNames(phoneNumbers)
+            conversation.imageUri = if (phoneNumbers.contains(",")) null else ContactLookupCache.peek(phoneNumbers)?.photoUri
             conversation.idMatcher = matcher.default
             conversation.mute = false
             conversation.archive = false
             conversation.ledColor = Color.WHITE
             conversation.simSubscriptionId = -1
             conversation.folderId = -1
-
             ImageUtils.fillConversationColors(conversation, context)
 
             conversationId = insertConversation(context, conversation, useApi)
+            committed.add { ConversationEnrichmentWork.start(context, conversation, useApi) }
         }
 
         return conversationId
@@ -2187,25 +2494,8 @@ object DataSource {
     @JvmOverloads fun insertMessage(context: Context, message: Message, conversationId: Long,
                                     returnMessageId: Boolean = false, useApi: Boolean = true): Long {
         message.conversationId = conversationId
-
-        val values = ContentValues(12)
-
-        if (message.id <= 0) {
-            message.id = generateId()
-        }
-
-        values.put(Message.COLUMN_ID, message.id)
-        values.put(Message.COLUMN_CONVERSATION_ID, conversationId)
-        values.put(Message.COLUMN_TYPE, message.type)
-        values.put(Message.COLUMN_DATA, message.data)
-        values.put(Message.COLUMN_TIMESTAMP, message.timestamp)
-        values.put(Message.COLUMN_MIME_TYPE, message.mimeType)
-        values.put(Message.COLUMN_READ, message.read)
-        values.put(Message.COLUMN_SEEN, message.seen)
-        values.put(Message.COLUMN_FROM, message.from)
-        values.put(Message.COLUMN_COLOR, message.color)
-        values.put(Message.COLUMN_SIM_NUMBER, message.simPhoneNumber)
-        values.put(Message.COLUMN_SENT_DEVICE, message.sentDeviceId)
+        message.data = SmsMmsUtils.stripWebSenderPrefix(message.data)
+        val values = newMessageValues(message)
 
         val id = try {
             database(context).insert(Message.TABLE, null, values)
@@ -2227,17 +2517,141 @@ object DataSource {
 
         if (message.type != Message.TYPE_MEDIA) {
             updateConversation(context, conversationId, message.read, message.timestamp,
-                    if (message.type == Message.TYPE_SENT || message.type == Message.TYPE_SENDING)
-                        context.getString(R.string.you) + ": " + message.data
-                    else message.data,
-                    message.mimeType, false, useApi)
+                    conversationSnippet(context, message), message.mimeType, false, useApi)
 
-            MessageInsertionMetadataHelper(context).process(message)
+            ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_METADATA) { MessageInsertionMetadataHelper(context).process(message) }
         }
 
         return if (returnMessageId) id else conversationId
     }
 
+    /**
+     * Inserts a batch of new messages, without previously having their conversation ids. Messages
+     * are grouped by their phone numbers and each group is matched to, or creates, a conversation
+     * a single time.
+     *
+     * @param messages     the messages to insert.
+     * @param phoneNumbers the phone numbers for each of the messages, in the same order.
+     * @return the ids of the conversations that the messages were inserted into.
+     */
+    @JvmOverloads fun insertMessages(context: Context, messages: List<Message>, phoneNumbers: List<String>,
+                                     useApi: Boolean = true): Set<Long> {
+        val groups = messages.indices.groupBy { phoneNumbers[it] }
+        val committed = ArrayList<() -> Unit>()
+
+        for ((numbers, indices) in groups) {
+            val newest = indices.map { messages[it] }.maxBy { it.timestamp }!!
+            val conversationId = findConversationId(context, numbers)
+                    ?: updateOrCreateConversation(numbers, newest, context, committed, useApi)
+
+            for (i in indices) {
+                messages[i].conversationId = conversationId
+            }
+        }
+
+        val inserted = insertMessageBatch(context, messages, useApi)
+        committed.forEach { it() }
+        return inserted
+    }
+
+    /**
+     * Inserts a batch of new messages that already have their conversation ids, in a single
+     * transaction. Unlike inserting them one at a time, each conversation that was touched is
+     * only updated once, with the newest of its messages, and the metadata processing is handed
+     * the whole batch.
+     *
+     * @param messages the messages to insert.
+     * @return the ids of the conversations that the messages were inserted into. Conversations
+     * whose messages all failed to insert are left out.
+     */
+    @JvmOverloads fun insertMessageBatch(context: Context, messages: List<Message>, useApi: Boolean = true): Set<Long> {
+        if (messages.isEmpty()) {
+            return emptySet()
+        }
+
+        val inserted = ArrayList<Message>()
+        val committed = ArrayList<() -> Unit>()
+
+        beginTransaction(context)
+
+        try {
+            for (message in messages) {
+                message.data = SmsMmsUtils.stripWebSenderPrefix(message.data)
+                val values = newMessageValues(message)
+
+                val id = try {
+                    database(context).insert(Message.TABLE, null, values)
+                } catch (e: Exception) {
+                    ensureActionable(context)
+                    database(context).insert(Message.TABLE, null, values)
+                }
+
+                if (id != -1L) {
+                    inserted.add(message)
+                }
+            }
+
+            // messages that failed to insert shouldn't show up in the conversation's snippet
+            val conversations = inserted.filter { it.type != Message.TYPE_MEDIA }.groupBy { it.conversationId }
+            for ((conversationId, conversationMessages) in conversations) {
+                val newest = conversationMessages.maxBy { it.timestamp }!!
+                val sideEffects = writeConversationUpdate(context, conversationId, conversationMessages.all { it.read },
+                        newest.timestamp, conversationSnippet(context, newest), newest.mimeType, false, useApi)
+                if (sideEffects != null) {
+                    committed.add(sideEffects)
+                }
+            }
+
+            setTransactionSuccessful(context)
+        } finally {
+            endTransaction(context)
+        }
+
+        committed.forEach { it() }
+
+        if (useApi) {
+            for (message in inserted) {
+                ApiUtils.addMessage(context, accountId(context), message.id, message.conversationId, message.type, message.data,
+                        message.timestamp, message.mimeType, message.read, message.seen, message.from,
+                        message.color, message.sentDeviceId.toString(), message.simPhoneNumber, encryptor(context))
+            }
+        }
+
+        MessageInsertionMetadataHelper(context).process(inserted.filter { it.type != Message.TYPE_MEDIA })
+        return inserted.mapTo(LinkedHashSet()) { it.conversationId }
+    }
+
+    private fun newMessageValues(message: Message): ContentValues {
+        if (message.id <= 0) {
+            message.id = generateId()
+        }
+
+        val values = ContentValues(15)
+        values.put(Message.COLUMN_ID, message.id)
+        values.put(Message.COLUMN_CONVERSATION_ID, message.conversationId)
+        values.put(Message.COLUMN_TYPE, message.type)
+        values.put(Message.COLUMN_DATA, message.data)
+        values.put(Message.COLUMN_TIMESTAMP, message.timestamp)
+        values.put(Message.COLUMN_MIME_TYPE, message.mimeType)
+        values.put(Message.COLUMN_READ, message.read)
+        values.put(Message.COLUMN_SEEN, message.seen)
+        values.put(Message.COLUMN_FROM, message.from)
+        values.put(Message.COLUMN_COLOR, message.color)
+        values.put(Message.COLUMN_SIM_NUMBER, message.simPhoneNumber)
+        values.put(Message.COLUMN_SENT_DEVICE, message.sentDeviceId)
+        values.put(Message.COLUMN_MEDIA_KIND, Message.mediaKind(message.mimeType))
+        values.put(Message.COLUMN_CONTENT_HASH, Message.contentHash(message.data))
+
+        message.renderHints = MessageTextAnalyzer.analyze(message.mimeType, message.data)
+        values.put(Message.COLUMN_RENDER_HINTS, message.renderHints)
+        return values
+    }
+
+    private fun conversationSnippet(context: Context, message: Message) =
+            if (message.type == Message.TYPE_SENT || message.type == Message.TYPE_SENDING)
+                context.getString(R.string.you) + ": " + message.data
+            else message.data
+
     /**
      * Inserts a new message list into the database. This also updates the conversation with the latest
      * data.
@@ -2248,28 +2662,9 @@ object DataSource {
         beginTransaction(context)
 
         for (i in messages.indices) {
-            val message = messages[i]
-
-            val values = ContentValues(11)
-
-            if (message.id <= 0) {
-                message.id = generateId()
-            }
+            val values = newMessageValues(messages[i])
 
-            values.put(Message.COLUMN_ID, message.id)
-            values.put(Message.COLUMN_CONVERSATION_ID, message.conversationId)
-            values.put(Message.COLUMN_TYPE, message.type)
-            values.put(Message.COLUMN_DATA, message.data)
-            values.put(Message.COLUMN_TIMESTAMP, message.timestamp)
-            values.put(Message.COLUMN_MIME_TYPE, message.mimeType)
-            values.put(Message.COLUMN_READ, message.read)
-            values.put(Message.COLUMN_SEEN, message.seen)
-            values.put(Message.COLUMN_FROM, message.from)
-            values.put(Message.COLUMN_COLOR, message.color)
-            values.put(Message.COLUMN_SIM_NUMBER, message.simPhoneNumber)
-            values.put(Message.COLUMN_SENT_DEVICE, message.sentDeviceId)
-
-            val id = try {
+            try {
                 database(context).insert(Message.TABLE, null, values)
             } catch (e: Exception) {
                 ensureActionable(context)
@@ -2297,7 +2692,7 @@ object DataSource {
      * Deletes a message with the given id.
      */
     fun deleteMessage(context: Context, messageId: Long, useApi: Boolean = true): Int {
-        val deleted = try {
+        var deleted = try {
             database(context).delete(Message.TABLE, Message.COLUMN_ID + "=?",
                     arrayOf(java.lang.Long.toString(messageId)))
         } catch (e: Exception) {
@@ -2306,6 +2701,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(messageId)))
         }
 
+        deleted += deleteArchivedMessages(context, Message.COLUMN_ID + "=?", arrayOf(java.lang.Long.toString(messageId)))
+
         NewMessagesCheckService.writeLastRun(context)
 
         if (useApi) {
@@ -2316,20 +2713,34 @@ object DataSource {
     }
 
     /**
-     * Deletes messages and conversations older than the given timestamp
+     * Deletes messages and conversations older than the given timestamp. Messages are deleted a
+     * chunk at a time, so the database is free for other work in between the chunks.
      */
     fun cleanupOldMessages(context: Context, timestamp: Long, useApi: Boolean = true): Int {
-        val deleted = try {
-            database(context).delete(Message.TABLE, Message.COLUMN_TIMESTAMP + "<?",
-                    arrayOf(java.lang.Long.toString(timestamp)))
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).delete(Message.TABLE, Message.COLUMN_TIMESTAMP + "<?",
-                    arrayOf(java.lang.Long.toString(timestamp)))
-        }
+        val chunk = Message.COLUMN_ID + " in (select " + Message.COLUMN_ID + " from " + Message.TABLE +
+                " where " + Message.COLUMN_TIMESTAMP + "<? limit " + CLEANUP_CHUNK_SIZE + ")"
+        val args = arrayOf(java.lang.Long.toString(timestamp))
+
+        var deleted = 0
+        do {
+            val deletedInChunk = try {
+                database(context).delete(Message.TABLE, chunk, args)
+            } catch (e: Exception) {
+                ensureActionable(context)
+                database(context).delete(Message.TABLE, chunk, args)
+            }
+
+            deleted += deletedInChunk
+            if (deletedInChunk == CLEANUP_CHUNK_SIZE) {
+                Thread.sleep(CLEANUP_CHUNK_PAUSE_MS)
+            }
+        } while (deletedInChunk == CLEANUP_CHUNK_SIZE)
+
+        deleted += deleteArchivedMessages(context, Message.COLUMN_TIMESTAMP + "<?", args)
 
         database(context).delete(Conversation.TABLE, Conversation.COLUMN_TIMESTAMP + "<?",
                 arrayOf(java.lang.Long.toString(timestamp)))
+        clearConversationCaches()
 
         if (deleted > 0 && useApi) {
             ApiUtils.cleanupMessages(accountId(context), timestamp)
@@ -2342,7 +2753,7 @@ object DataSource {
      * Deletes messages and conversations older than the given timestamp
      */
     fun cleanupOldMessagesInConversation(context: Context, conversationId: Long, timestamp: Long, useApi: Boolean = true): Int {
-        val deleted = try {
+        var deleted = try {
             database(context).delete(Message.TABLE, Message.COLUMN_TIMESTAMP + "<? AND " + Message.COLUMN_CONVERSATION_ID + "=?",
                     arrayOf(java.lang.Long.toString(timestamp), java.lang.Long.toString(conversationId)))
         } catch (e: Exception) {
@@ -2351,6 +2762,9 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(timestamp), java.lang.Long.toString(conversationId)))
         }
 
+        deleted += deleteArchivedMessages(context, Message.COLUMN_TIMESTAMP + "<? AND " + Message.COLUMN_CONVERSATION_ID + "=?",
+                arrayOf(java.lang.Long.toString(timestamp), java.lang.Long.toString(conversationId)))
+
         if (deleted > 0 && useApi) {
             ApiUtils.cleanupConversationMessages(accountId(context), conversationId, timestamp)
         }
@@ -2359,37 +2773,117 @@ object DataSource {
     }
 
     /**
-     * Marks a conversation and all messages inside of it as read and seen.
+     * Moves messages older than the given timestamp out of the main message table and into the
+     * archive, a chunk at a time. Conversations are left alone.
      *
-     * @param conversationId the conversation id to mark.
+     * @return the number of messages that were moved.
+     */
+    fun archiveOldMessages(context: Context, timestamp: Long): Int {
+        val database = database(context)
+        messageArchive.attach(context, database)
+
+        var archived = 0
+        do {
+            database.beginTransaction()
+            val archivedInChunk = try {
+                val moved = messageArchive.moveOlderThan(database, timestamp, CLEANUP_CHUNK_SIZE)
+                database.setTransactionSuccessful()
+                moved
+            } finally {
+                database.endTransaction()
+            }
+
+            archived += archivedInChunk
+            if (archivedInChunk == CLEANUP_CHUNK_SIZE) {
+                Thread.sleep(CLEANUP_CHUNK_PAUSE_MS)
+            }
+        } while (archivedInChunk == CLEANUP_CHUNK_SIZE)
+
+        return archived
+    }
+
+    private fun deleteArchivedMessages(context: Context, selection: String?, args: Array<String>?): Int {
+        val database = database(context)
+        return if (messageArchive.isAttached(database)) {
+            database.delete(MessageArchive.ALIAS + "." + Message.TABLE, selection, args)
+        } else {
+            0
+        }
+    }
+
+    /**
+     * Gives the pages that have been freed up by deletes back to the file system.
+     *
+     * Databases that were created before incremental auto vacuum was turned on need a full vacuum
+     * to be converted. That rewrites the whole file, so it is only done when the caller says that
+     * the device is idle and charging. Until then, nothing is reclaimed for those databases.
+     *
+     * @param convert whether a database without incremental auto vacuum can be converted now.
+     * @return the number of bytes that the database file shrunk by and how long it took.
      */
-    @JvmOverloads fun readConversation(context: Context, conversationId: Long, useApi: Boolean = true) {
-        var values = ContentValues(2)
-        values.put(Message.COLUMN_READ, true)
-        values.put(Message.COLUMN_SEEN, true)
+    @JvmOverloads fun reclaimFreeSpace(context: Context, convert: Boolean = false): SpaceReclaimed {
+        val start = SystemClock.elapsedRealtime()
+        val pageSize = pragma(context, "page_size")
+        val initialPageCount = pragma(context, "page_count")
 
-        var updated = try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_CONVERSATION_ID + "=?",
-                    arrayOf(java.lang.Long.toString(conversationId)))
+        try {
+            if (pragma(context, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                if (!convert) {
+                    return SpaceReclaimed(0, SystemClock.elapsedRealtime() - start)
+                }
+
+                database(context).execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                database(context).execSQL("VACUUM")
+            } else {
+                // the pragma frees a page for each step, so the cursor needs to be read to the end
+                val cursor = database(context).rawQuery("PRAGMA incremental_vacuum", null)
+                while (cursor.moveToNext()) { }
+                cursor.closeSilent()
+            }
         } catch (e: Exception) {
             e.printStackTrace()
-            ensureActionable(context)
-            database(context).update(Message.TABLE, values, Message.COLUMN_CONVERSATION_ID + "=?",
-                    arrayOf(java.lang.Long.toString(conversationId)))
         }
 
-        values = ContentValues(1)
-        values.put(Conversation.COLUMN_READ, true)
+        val reclaimed = (initialPageCount - pragma(context, "page_count")) * pageSize
+        return SpaceReclaimed(reclaimed, SystemClock.elapsedRealtime() - start)
+    }
 
-        updated += try {
-            database(context).update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(conversationId)))
+    private fun pragma(context: Context, name: String): Long {
+        val cursor = try {
+            database(context).rawQuery("PRAGMA $name", null)
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(conversationId)))
+            database(context).rawQuery("PRAGMA $name", null)
+        }
+
+        val value = if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+        cursor.closeSilent()
+        return value
+    }
+
+    /**
+     * Marks a conversation and all messages inside of it as read and seen.
+     *
+     * @param conversationId the conversation id to mark.
+     */
+    @JvmOverloads fun readConversation(context: Context, conversationId: Long, useApi: Boolean = true) {
+        val messageValues = ContentValues(2)
+        messageValues.put(Message.COLUMN_READ, true)
+        messageValues.put(Message.COLUMN_SEEN, true)
+
+        val conversationValues = ContentValues(1)
+        conversationValues.put(Conversation.COLUMN_READ, true)
+
+        val updated = write(context) {
+            it.update(Message.TABLE, messageValues, Message.COLUMN_CONVERSATION_ID + "=?",
+                    arrayOf(java.lang.Long.toString(conversationId))) +
+                    it.update(Conversation.TABLE, conversationValues, Conversation.COLUMN_ID + "=?",
+                            arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        conversationCache.update(conversationId) { it.read = true }
+        unreadCounter.setRead(conversationId, true)
+
         if (updated > 0 && useApi) {
             ApiUtils.readConversation(accountId(context), androidDeviceId(context), conversationId)
         }
@@ -2413,15 +2907,16 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Conversation.COLUMN_READ, false)
 
-        val updated = try {
-            database(context).update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
-                    arrayOf(java.lang.Long.toString(conversationId)))
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
+        val updated = write(context) {
+            it.update(Conversation.TABLE, values, Conversation.COLUMN_ID + "=?",
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        conversationCache.update(conversationId) { it.read = false }
+
+        // whether the conversation is archived isn't known here, so count it again on the next read
+        unreadCounter.invalidate()
+
         if (updated > 0 && useApi) {
             ApiUtils.updateConversation(accountId(context), conversationId, color = null,
                     colorDark = null, colorLight = null, colorAccent = null, ledColor = null, pinned = null,
@@ -2463,6 +2958,11 @@ object DataSource {
                     arrayOf())
         }
 
+        for (id in conversationIds) {
+            conversationCache.update(id) { it.read = true }
+            unreadCounter.setRead(id, true)
+        }
+
         Log.v("Data Source", "updated: " + updated)
         if (updated > 0) {
             if (useApi) {
@@ -2491,12 +2991,8 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Message.COLUMN_SEEN, 1)
 
-        try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_CONVERSATION_ID + "=? AND " +
-                    Message.COLUMN_SEEN + "=0", arrayOf(java.lang.Long.toString(conversationId)))
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).update(Message.TABLE, values, Message.COLUMN_CONVERSATION_ID + "=? AND " +
+        write(context) {
+            it.update(Message.TABLE, values, Message.COLUMN_CONVERSATION_ID + "=? AND " +
                     Message.COLUMN_SEEN + "=0", arrayOf(java.lang.Long.toString(conversationId)))
         }
 
@@ -2512,11 +3008,7 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Message.COLUMN_SEEN, 1)
 
-        try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_SEEN + "=0", null)
-        } catch (e: Exception) {
-            ensureActionable(context)
-        }
+        write(context) { it.update(Message.TABLE, values, Message.COLUMN_SEEN + "=0", null) }
 
         if (useApi) {
             ApiUtils.seenConversations(accountId(context))
@@ -2530,12 +3022,7 @@ object DataSource {
         val values = ContentValues(1)
         values.put(Message.COLUMN_SEEN, 1)
 
-        try {
-            database(context).update(Message.TABLE, values, Message.COLUMN_SEEN + "=0", null)
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).update(Message.TABLE, values, Message.COLUMN_SEEN + "=0", null)
-        }
+        write(context) { it.update(Message.TABLE, values, Message.COLUMN_SEEN + "=0", null) }
 
         if (useApi) {
             ApiUtils.seenConversations(accountId(context))
@@ -2558,20 +3045,32 @@ object DataSource {
             }
 
     /**
-     * Gets all message in the database not marked as seen.
+     * Gets all message in the database not marked as seen, with the columns that are needed for
+     * notifications.
      *
      * @return a cursor of all unseen messages.
      */
     fun getUnseenMessages(context: Context): Cursor =
             try {
-                database(context).query(Message.TABLE, null, Message.COLUMN_SEEN + "=0", null, null, null,
+                database(context).query(Message.TABLE, Message.NOTIFICATION_PROJECTION, Message.COLUMN_SEEN + "=0", null, null, null,
                         Message.COLUMN_TIMESTAMP + " asc")
             } catch (e: Exception) {
                 ensureActionable(context)
-                database(context).query(Message.TABLE, null, Message.COLUMN_SEEN + "=0", null, null, null,
+                database(context).query(Message.TABLE, Message.NOTIFICATION_PROJECTION, Message.COLUMN_SEEN + "=0", null, null, null,
                         Message.COLUMN_TIMESTAMP + " asc")
             }
 
+    /**
+     * Gets the number of messages in the database not marked as seen.
+     */
+    fun getUnseenMessageCount(context: Context): Int =
+            try {
+                DatabaseUtils.queryNumEntries(database(context), Message.TABLE, Message.COLUMN_SEEN + "=0").toInt()
+            } catch (e: Exception) {
+                ensureActionable(context)
+                DatabaseUtils.queryNumEntries(database(context), Message.TABLE, Message.COLUMN_SEEN + "=0").toInt()
+            }
+
     /**
      * Inserts a draft into the database with the given parameters.
      */
@@ -2666,9 +3165,9 @@ object DataSource {
         val drafts = ArrayList<Draft>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Draft.Mapper(cursor)
             do {
-                val draft = Draft()
-                draft.fillFromCursor(cursor)
+                val draft = mapper.map()
                 drafts.add(draft)
             } while (cursor.moveToNext())
         }
@@ -2728,9 +3227,9 @@ object DataSource {
         val blacklists = ArrayList<Blacklist>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Blacklist.Mapper(cursor)
             do {
-                val blacklist = Blacklist()
-                blacklist.fillFromCursor(cursor)
+                val blacklist = mapper.map()
 
                 blacklists.add(blacklist)
             } while (cursor.moveToNext())
@@ -2765,6 +3264,8 @@ object DataSource {
             database(context).insert(Blacklist.TABLE, null, values)
         }
 
+        BlacklistUtils.invalidate()
+
         if (useApi) {
             ApiUtils.addBlacklist(accountId(context), blacklist.id, blacklist.phoneNumber, blacklist.phrase, encryptor(context))
         }
@@ -2783,6 +3284,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(id)))
         }
 
+        BlacklistUtils.invalidate()
+
         if (useApi) {
             ApiUtils.deleteBlacklist(accountId(context), id)
         }
@@ -2809,9 +3312,9 @@ object DataSource {
         val scheduledMessages = ArrayList<ScheduledMessage>()
 
         if (cursor.moveToFirst()) {
+            val mapper = ScheduledMessage.Mapper(cursor)
             do {
-                val message = ScheduledMessage()
-                message.fillFromCursor(cursor)
+                val message = mapper.map()
 
                 scheduledMessages.add(message)
             } while (cursor.moveToNext())
@@ -2922,9 +3425,9 @@ object DataSource {
         val templates = ArrayList<Template>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Template.Mapper(cursor)
             do {
-                val template = Template()
-                template.fillFromCursor(cursor)
+                val template = mapper.map()
 
                 templates.add(template)
             } while (cursor.moveToNext())
@@ -3023,9 +3526,9 @@ object DataSource {
         val autoReplies = ArrayList<AutoReply>()
 
         if (cursor.moveToFirst()) {
+            val mapper = AutoReply.Mapper(cursor)
             do {
-                val autoReply = AutoReply()
-                autoReply.fillFromCursor(cursor)
+                val autoReply = mapper.map()
 
                 autoReplies.add(autoReply)
             } while (cursor.moveToNext())
@@ -3055,12 +3558,15 @@ object DataSource {
                     autoReply.pattern!!, autoReply.response!!, encryptor(context))
         }
 
-        return try {
+        val id = try {
             database(context).insert(AutoReply.TABLE, null, values)
         } catch (e: Exception) {
             ensureActionable(context)
             database(context).insert(AutoReply.TABLE, null, values)
         }
+
+        AutoReplyParserFactory.invalidate()
+        return id
     }
 
     /**
@@ -3085,6 +3591,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(autoReply.id)))
         }
 
+        AutoReplyParserFactory.invalidate()
+
         if (useApi) {
             ApiUtils.updateAutoReply(accountId(context), autoReply.id, autoReply.type!!,
                     autoReply.pattern!!, autoReply.response!!, encryptor(context))
@@ -3104,6 +3612,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(id)))
         }
 
+        AutoReplyParserFactory.invalidate()
+
         if (useApi) {
             ApiUtils.deleteAutoReply(accountId(context), id)
         }
@@ -3130,9 +3640,9 @@ object DataSource {
         val folders = ArrayList<Folder>()
 
         if (cursor.moveToFirst()) {
+            val mapper = Folder.Mapper(cursor)
             do {
-                val folder = Folder()
-                folder.fillFromCursor(cursor)
+                val folder = mapper.map()
 
                 folders.add(folder)
             } while (cursor.moveToNext())
@@ -3224,6 +3734,7 @@ object DataSource {
 
         val values = ContentValues(1)
         values.put(Conversation.COLUMN_FOLDER_ID, -1)
+        clearConversationCaches()
 
         try {
             database(context).update(Conversation.TABLE, values, Conversation.COLUMN_FOLDER_ID + "=?",
@@ -3258,9 +3769,9 @@ object DataSource {
         val requests = ArrayList<RetryableRequest>()
 
         if (cursor.moveToFirst()) {
+            val mapper = RetryableRequest.Mapper(cursor)
             do {
-                val request = RetryableRequest()
-                request.fillFromCursor(cursor)
+                val request = mapper.map()
 
                 requests.add(request)
             } while (cursor.moveToNext())
@@ -3325,6 +3836,7 @@ object DataSource {
      */
     @VisibleForTesting
     fun forceCloseImmediate() {
+        clearConversationCaches()
         _dbHelper?.close()
     }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.content.Context
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Decides what to do with the database connection after a query against it has failed.
+ *
+ * Most failures are about the one statement (a constraint, a bad cursor window) and the
+ * connection is still fine, so it is left open and nothing else that is using it is affected.
+ * When the connection itself is broken, it is discarded and reopened in the background, backing
+ * off between attempts, so no caller has to sit and wait for it while holding up everyone else.
+ */
+class DatabaseRecovery(private val open: (Context) -> SQLiteDatabase,
+                       private val discard: (SQLiteDatabase?) -> Unit) {
+
+    private val reopening = AtomicBoolean(false)
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "database-recovery").apply { isDaemon = true }
+    }
+
+    /**
+     * Checks the connection that a query failed on. Returns true if it had to be discarded.
+     */
+    fun recover(context: Context, database: SQLiteDatabase?): Boolean {
+        if (isHealthy(database)) {
+            return false
+        }
+
+        Log.v(TAG, "database connection is unhealthy, reopening it")
+        discard(database)
+
+        if (reopening.compareAndSet(false, true)) {
+            val appContext = context.applicationContext ?: context
+            executor.execute {
+                try {
+                    reopen(appContext)
+                } finally {
+                    reopening.set(false)
+                }
+            }
+        }
+
+        return true
+    }
+
+    fun isHealthy(database: SQLiteDatabase?) = try {
+        database != null && database.isOpen && DatabaseUtils.longForQuery(database, "SELECT 1", null) == 1L
+    } catch (e: Exception) {
+        false
+    }
+
+    private fun reopen(context: Context) {
+        var backoff = INITIAL_BACKOFF_MS
+
+        for (attempt in 1..MAX_ATTEMPTS) {
+            val database = try {
+                open(context)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                null
+            }
+
+            if (isHealthy(database)) {
+                Log.v(TAG, "database reopened after $attempt attempt(s)")
+                return
+            }
+
+            discard(database)
+
+            try {
+                Thread.sleep(backoff)
+            } catch (e: InterruptedException) {
+                return
+            }
+
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS)
+        }
+
+        Log.e(TAG, "unable to reopen the database after $MAX_ATTEMPTS attempts")
+    }
+
+    companion object {
+        private const val TAG = "DatabaseRecovery"
+
+        private const val MAX_ATTEMPTS = 5
+        private const val INITIAL_BACKOFF_MS = 50L
+        private const val MAX_BACKOFF_MS = 1000L
+    }
+}
@@ -22,6 +22,8 @@ import android.database.sqlite.SQLiteOpenHelper
 import android.graphics.Color
 
 import xyz.klinker.messenger.shared.data.model.*
+import xyz.klinker.messenger.shared.util.TimeUtils
+import xyz.klinker.messenger.shared.util.closeSilent
 
 /**
  * Handles creating and updating databases.
@@ -31,6 +33,15 @@ class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABAS
     private val tables = arrayOf(Contact(), Conversation(), Message(), Draft(), ScheduledMessage(),
             Blacklist(), Template(), Folder(), AutoReply(), RetryableRequest())
 
+    override fun onConfigure(db: SQLiteDatabase) {
+        // this only takes effect for a new database. Existing ones are converted by
+        // DataSource#reclaimFreeSpace, the first time it runs while the device is idle and charging.
+        try {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+        } catch (e: Exception) {
+        }
+    }
+
     override fun onCreate(db: SQLiteDatabase) {
         for (table in tables) {
             db.execSQL(table.getCreateStatement())
@@ -171,6 +182,69 @@ class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABAS
                 e.printStackTrace()
             }
         }
+
+        if (oldVersion < 19) {
+            try {
+                db.execSQL("create index if not exists timestamp_message_index on ${Message.TABLE} (${Message.COLUMN_TIMESTAMP});")
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+
+        if (oldVersion < 20) {
+            try {
+                db.execSQL("ALTER TABLE message ADD COLUMN media_kind integer not null default 0")
+                db.execSQL(Message.MEDIA_KIND_BACKFILL)
+                db.execSQL("create index if not exists gallery_message_index on ${Message.TABLE} (${Message.COLUMN_CONVERSATION_ID}, ${Message.COLUMN_TIMESTAMP}) where ${Message.GALLERY_SELECTION};")
+                db.execSQL("create index if not exists attachment_message_index on ${Message.TABLE} (${Message.COLUMN_TIMESTAMP}) where ${Message.ATTACHMENT_SELECTION};")
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+
+        if (oldVersion < 21) {
+            try {
+                db.execSQL("ALTER TABLE message ADD COLUMN content_hash integer")
+                db.execSQL("create index if not exists content_hash_message_index on ${Message.TABLE} (${Message.COLUMN_CONVERSATION_ID}, ${Message.COLUMN_CONTENT_HASH}, ${Message.COLUMN_TIMESTAMP});")
+                backfillContentHashes(db, TimeUtils.now - TimeUtils.DAY * 30)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+
+        if (oldVersion < 22) {
+            try {
+                // older messages are left at 0, and get checked when they are shown, like they always have been
+                db.execSQL("ALTER TABLE message ADD COLUMN render_hints integer not null default 0")
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    /**
+     * The hash has to be computed here instead of in sql, so only the last 30 days get one, to keep
+     * the upgrade quick for large databases. Older rows are left with a null hash, and
+     * DataSource#findMessagesWithContent falls back to comparing their text.
+     */
+    private fun backfillContentHashes(db: SQLiteDatabase, since: Long) {
+        val cursor = db.query(Message.TABLE, arrayOf(Message.COLUMN_ID, Message.COLUMN_DATA),
+                Message.COLUMN_TIMESTAMP + ">?", arrayOf(since.toString()), null, null, null)
+        val update = db.compileStatement("UPDATE ${Message.TABLE} SET ${Message.COLUMN_CONTENT_HASH}=? WHERE ${Message.COLUMN_ID}=?")
+
+        db.beginTransaction()
+        try {
+            while (cursor.moveToNext()) {
+                update.bindLong(1, Message.contentHash(cursor.getString(1)))
+                update.bindLong(2, cursor.getLong(0))
+                update.executeUpdateDelete()
+            }
+
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+            cursor.closeSilent()
+        }
     }
 
     fun onDrop(db: SQLiteDatabase) {
@@ -182,7 +256,7 @@ class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABAS
     companion object {
 
         private const val DATABASE_NAME = "messenger.db"
-        private const val DATABASE_VERSION = 18
+        private const val DATABASE_VERSION = 22
 
     }
 
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.Log
+import xyz.klinker.messenger.shared.data.pojo.WriterStats
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Owns the small writes to the database, running them on a single thread.
+ *
+ * Writes that are queued within a few milliseconds of each other are committed together, in one
+ * transaction (group commit), so a burst of receipts, read states and status updates from
+ * different threads costs one sync to disk instead of one for each of them. Callers get a future
+ * that completes once their write is committed.
+ *
+ * If one write in a group fails, the group is rolled back and each write is retried on its own,
+ * so the failure only reaches the caller that caused it.
+ */
+class DatabaseWriter(private val open: (Context) -> SQLiteDatabase,
+                     private val windowMillis: Long = WINDOW_MS, private val maxBatch: Int = MAX_BATCH) {
+
+    private val queue = LinkedBlockingQueue<PendingWrite<*>>()
+    private val latencies = LongArray(LATENCY_SAMPLES)
+    private val startedAt = SystemClock.elapsedRealtime()
+
+    private var writes = 0L
+    private var commits = 0L
+
+    private val thread: Thread by lazy {
+        Thread({ run() }, "database-writer").apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    /**
+     * Queues a write. The returned future completes with the write's result once it is committed.
+     *
+     * The write can be run more than once if its group needs to be retried, so it should only
+     * touch the database that it is given.
+     */
+    fun <T> submit(context: Context, write: (SQLiteDatabase) -> T): Future<T> {
+        val pending = PendingWrite(context.applicationContext ?: context, write)
+
+        val database = open(pending.context)
+        if (Thread.currentThread() == thread || database.inTransaction()) {
+            // this thread already holds a transaction, so the writer thread couldn't get the
+            // connection until it finished. The write joins that transaction instead.
+            try {
+                pending.run(database)
+                pending.complete()
+            } catch (e: Throwable) {
+                pending.fail(e)
+            }
+        } else {
+            queue.put(pending)
+        }
+
+        return pending
+    }
+
+    /**
+     * Queues a write and waits for it to be committed. Errors from the write are thrown here.
+     */
+    fun <T> write(context: Context, write: (SQLiteDatabase) -> T): T {
+        try {
+            return submit(context, write).get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    @Synchronized
+    fun stats(): WriterStats {
+        val elapsed = Math.max(1L, SystemClock.elapsedRealtime() - startedAt)
+        val samples = latencies.copyOf(Math.min(writes, LATENCY_SAMPLES.toLong()).toInt())
+        samples.sort()
+
+        val p99 = if (samples.isEmpty()) 0L else samples[Math.min(samples.size - 1, samples.size * 99 / 100)]
+        return WriterStats(writes, commits, commits * 1000.0 / elapsed, p99)
+    }
+
+    private fun run() {
+        val batch = ArrayList<PendingWrite<*>>(maxBatch)
+
+        while (true) {
+            batch.add(queue.take())
+
+            val deadline = SystemClock.elapsedRealtime() + windowMillis
+            while (batch.size < maxBatch) {
+                val remaining = deadline - SystemClock.elapsedRealtime()
+                val next = if (remaining > 0) queue.poll(remaining, TimeUnit.MILLISECONDS) else queue.poll()
+                next ?: break
+                batch.add(next)
+            }
+
+            commit(batch)
+            batch.clear()
+        }
+    }
+
+    private fun commit(batch: List<PendingWrite<*>>) {
+        try {
+            val database = open(batch[0].context)
+            database.beginTransaction()
+            try {
+                batch.forEach { it.run(database) }
+                database.setTransactionSuccessful()
+            } finally {
+                database.endTransaction()
+            }
+
+            record(batch, 1)
+        } catch (e: Throwable) {
+            if (batch.size == 1) {
+                batch[0].fail(e)
+                record(batch, 0)
+                return
+            }
+
+            Log.v(TAG, "group of ${batch.size} writes failed, retrying them one at a time")
+            for (pending in batch) {
+                commit(listOf(pending))
+            }
+
+            return
+        }
+
+        batch.forEach { it.complete() }
+    }
+
+    @Synchronized
+    private fun record(batch: List<PendingWrite<*>>, commitCount: Int) {
+        val now = SystemClock.elapsedRealtime()
+        for (pending in batch) {
+            latencies[(writes % LATENCY_SAMPLES).toInt()] = now - pending.queuedAt
+            writes++
+        }
+
+        commits += commitCount
+        if (commitCount > 0 && commits % LOG_EVERY_COMMITS == 0L) {
+            Log.v(TAG, stats().toString())
+        }
+    }
+
+    private class PendingWrite<T>(val context: Context, private val write: (SQLiteDatabase) -> T) : Future<T> {
+
+        val queuedAt = SystemClock.elapsedRealtime()
+
+        private val done = CountDownLatch(1)
+        private var result: T? = null
+        private var error: Throwable? = null
+
+        fun run(database: SQLiteDatabase) {
+            result = write(database)
+        }
+
+        fun complete() = done.countDown()
+
+        fun fail(e: Throwable) {
+            error = e
+            done.countDown()
+        }
+
+        override fun get(): T {
+            done.await()
+            return value()
+        }
+
+        override fun get(timeout: Long, unit: TimeUnit): T {
+            if (!done.await(timeout, unit)) {
+                throw TimeoutException()
+            }
+
+            return value()
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun value(): T {
+            if (error != null) {
+                throw ExecutionException(error)
+            }
+
+            return result as T
+        }
+
+        override fun isDone() = done.count == 0L
+        override fun isCancelled() = false
+        override fun cancel(mayInterruptIfRunning: Boolean) = false
+    }
+
+    companion object {
+        private const val TAG = "DatabaseWriter"
+
+        private const val WINDOW_MS = 4L
+        private const val MAX_BATCH = 64
+        private const val LATENCY_SAMPLES = 512
+        private const val LOG_EVERY_COMMITS = 500L
+    }
+}
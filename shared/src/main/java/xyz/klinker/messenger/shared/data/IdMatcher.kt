@@ -8,8 +8,13 @@ class IdMatcher(val fiveLetter: String, val sevenLetter: String, val sevenLetter
 
     val allMatchers = arrayOf(fiveLetter, sevenLetter, sevenLetterNoFormatting, eightLetter, default, tenLetter)
 
-    // Remember to update DataSourceTest#findConversationByNumbers
-    val whereClause = Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=? OR " +
+    val whereClause: String
+        get() = WHERE_CLAUSE
+
+    companion object {
+        // Remember to update DataSourceTest#findConversationByNumbers
+        const val WHERE_CLAUSE = Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=? OR " +
                 Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=? OR " +
                 Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=?"
+    }
 }
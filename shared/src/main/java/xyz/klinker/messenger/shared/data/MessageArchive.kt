@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.content.Context
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.closeSilent
+
+/**
+ * Cold storage for old messages, kept in a separate database file that is attached to the main
+ * connection.
+ *
+ * Moving old messages out of the main message table keeps the table, its indexes and the cursors
+ * that the conversation list, message list and notifications read from small. Search and loading
+ * older messages can still union the archive in, through [source].
+ *
+ * The archive table is created from the main table's schema, and any columns that were added to
+ * the main table since are added to the archive when it is attached, so the two always line up.
+ */
+class MessageArchive(private val fileName: String = FILE_NAME) {
+
+    private var attachedTo: SQLiteDatabase? = null
+    private var columns: String = "*"
+
+    /**
+     * Whether the archive is attached to the given connection.
+     */
+    @Synchronized
+    fun isAttached(database: SQLiteDatabase) = attachedTo === database && database.isOpen
+
+    /**
+     * Attaches the archive, if a previous run has created one. This can't be done inside of a
+     * transaction.
+     */
+    @Synchronized
+    fun attachIfPresent(context: Context, database: SQLiteDatabase) {
+        if (context.getDatabasePath(fileName).exists()) {
+            attach(context, database)
+        }
+    }
+
+    /**
+     * Attaches the archive to the connection, creating it if it doesn't exist yet. This can't be
+     * done inside of a transaction.
+     */
+    @Synchronized
+    fun attach(context: Context, database: SQLiteDatabase) {
+        if (isAttached(database)) {
+            return
+        }
+
+        val file = context.getDatabasePath(fileName)
+        file.parentFile?.mkdirs()
+
+        database.execSQL("ATTACH DATABASE ? AS $ALIAS", arrayOf(file.absolutePath))
+        createTable(database)
+        INDEXES.forEach { database.execSQL(it) }
+
+        columns = tableColumns(database, "main").joinToString(", ")
+        attachedTo = database
+    }
+
+    /**
+     * Returns the table that message queries should read from. When the archive is attached and
+     * asked for, this is the union of the main and archived messages.
+     */
+    fun source(database: SQLiteDatabase, includeArchive: Boolean): String =
+            if (includeArchive && isAttached(database)) {
+                "(select $columns from main.${Message.TABLE} union all select $columns from $ALIAS.${Message.TABLE})"
+            } else {
+                Message.TABLE
+            }
+
+    /**
+     * Whether any of the conversation's messages have been moved in to the archive.
+     */
+    fun hasMessages(database: SQLiteDatabase, conversationId: Long): Boolean =
+            isAttached(database) && DatabaseUtils.longForQuery(database,
+                    "select exists(select 1 from $ALIAS.${Message.TABLE} where ${Message.COLUMN_CONVERSATION_ID}=?)",
+                    arrayOf(conversationId.toString())) == 1L
+
+    /**
+     * Moves up to [limit] messages older than the timestamp from the main table into the archive.
+     * Should be called inside of a transaction, so a message is never in both places, or neither.
+     *
+     * @return the number of messages that were moved.
+     */
+    fun moveOlderThan(database: SQLiteDatabase, timestamp: Long, limit: Int): Int {
+        val args = arrayOf(java.lang.Long.toString(timestamp))
+        val chunk = "${Message.COLUMN_ID} in (select ${Message.COLUMN_ID} from main.${Message.TABLE} " +
+                "where ${Message.COLUMN_TIMESTAMP}<? order by ${Message.COLUMN_TIMESTAMP} limit $limit)"
+
+        database.execSQL("insert or replace into $ALIAS.${Message.TABLE} ($columns) " +
+                "select $columns from main.${Message.TABLE} where $chunk", args)
+        return database.delete("main.${Message.TABLE}", chunk, args)
+    }
+
+    private fun createTable(database: SQLiteDatabase) {
+        val cursor = database.rawQuery("select sql from main.sqlite_master where type='table' and name=?",
+                arrayOf(Message.TABLE))
+        val schema = if (cursor.moveToFirst()) cursor.getString(0) else null
+        cursor.closeSilent()
+
+        if (schema == null) {
+            return
+        }
+
+        database.execSQL(schema.replaceFirst(CREATE_TABLE, "CREATE TABLE IF NOT EXISTS $ALIAS.${Message.TABLE}"))
+
+        // the main table may have had columns added since the archive was created
+        val archived = tableColumns(database, ALIAS)
+        val cursorInfo = database.rawQuery("PRAGMA main.table_info(${Message.TABLE})", null)
+        while (cursorInfo.moveToNext()) {
+            val name = cursorInfo.getString(cursorInfo.getColumnIndex("name"))
+            if (!archived.contains(name)) {
+                database.execSQL("ALTER TABLE $ALIAS.${Message.TABLE} ADD COLUMN $name " +
+                        cursorInfo.getString(cursorInfo.getColumnIndex("type")))
+            }
+        }
+
+        cursorInfo.closeSilent()
+    }
+
+    private fun tableColumns(database: SQLiteDatabase, schema: String): List<String> {
+        val cursor = database.rawQuery("PRAGMA $schema.table_info(${Message.TABLE})", null)
+        val columns = mutableListOf<String>()
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(cursor.getColumnIndex("name")))
+        }
+
+        cursor.closeSilent()
+        return columns
+    }
+
+    companion object {
+        const val ALIAS = "archive"
+        private const val FILE_NAME = "archive.db"
+
+        private val CREATE_TABLE = Regex("CREATE TABLE\\s+\"?${Message.TABLE}\"?", RegexOption.IGNORE_CASE)
+
+        private val INDEXES = arrayOf(
+                "create index if not exists $ALIAS.archive_conversation_id_message_index on ${Message.TABLE} " +
+                        "(${Message.COLUMN_CONVERSATION_ID}, ${Message.COLUMN_TIMESTAMP});",
+                "create index if not exists $ALIAS.archive_timestamp_message_index on ${Message.TABLE} (${Message.COLUMN_TIMESTAMP});",
+                "create index if not exists $ALIAS.archive_gallery_message_index on ${Message.TABLE} " +
+                        "(${Message.COLUMN_CONVERSATION_ID}, ${Message.COLUMN_TIMESTAMP}) where ${Message.GALLERY_SELECTION};"
+        )
+    }
+}
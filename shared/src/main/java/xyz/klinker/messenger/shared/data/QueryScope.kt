@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.os.Handler
+import android.os.Looper
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.LifecycleObserver
+import androidx.lifecycle.OnLifecycleEvent
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs DataSource queries for the UI on a small, shared pool of threads and hands the results
+ * back on the main thread, instead of starting a new thread for every load.
+ *
+ * Loads are keyed. Starting a load for a key drops the one that came before it, so a burst of
+ * refreshes only delivers the newest result, and results that were queued but not started yet
+ * never run at all. When the lifecycle that the scope is tied to is destroyed, pending loads are
+ * cancelled and anything still in flight is dropped.
+ *
+ * The scope itself should only be used from the main thread.
+ */
+class QueryScope(lifecycle: Lifecycle? = null) : LifecycleObserver {
+
+    private val generations = HashMap<String, Int>()
+    private val pending = HashMap<String, Future<*>>()
+    private var cancelled = false
+
+    init {
+        if (lifecycle?.currentState == Lifecycle.State.DESTROYED) {
+            cancelled = true
+        } else {
+            lifecycle?.addObserver(this)
+        }
+    }
+
+    /**
+     * Runs the query on the database threads and gives the result to [onResult], on the main
+     * thread, unless a newer load for the same key has started or the scope has been cancelled.
+     * Results that are dropped are handed to [onDiscarded], so that cursors can be closed.
+     */
+    @JvmOverloads
+    fun <T> load(key: String, query: () -> T, onResult: (T) -> Unit, onDiscarded: ((T) -> Unit)? = null) {
+        if (cancelled) {
+            return
+        }
+
+        pending.remove(key)?.cancel(false)
+
+        val generation = (generations[key] ?: 0) + 1
+        generations[key] = generation
+
+        pending[key] = DATABASE.submit {
+            val result = try {
+                query()
+            } catch (e: Exception) {
+                e.printStackTrace()
+                return@submit
+            }
+
+            MAIN.post {
+                if (!cancelled && generations[key] == generation) {
+                    pending.remove(key)
+                    onResult(result)
+                } else {
+                    onDiscarded?.invoke(result)
+                }
+            }
+        }
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+    fun cancel() {
+        cancelled = true
+
+        for (future in pending.values) {
+            future.cancel(false)
+        }
+
+        pending.clear()
+    }
+
+    companion object {
+
+        private const val DATABASE_THREADS = 2
+
+        private val MAIN: Handler by lazy { Handler(Looper.getMainLooper()) }
+
+        /**
+         * Reads for the UI. These are bounded, so that rapid refreshes can't pile up threads.
+         */
+        private val DATABASE: ExecutorService = Executors.newFixedThreadPool(DATABASE_THREADS, threadFactory("database"))
+
+        /**
+         * Fire and forget work that doesn't need to come back to the UI, such as archiving a
+         * conversation that was swiped away. It runs in order, on a single thread.
+         */
+        private val IO: ExecutorService = Executors.newSingleThreadExecutor(threadFactory("io"))
+
+        @JvmStatic
+        fun background(work: () -> Unit) {
+            IO.execute {
+                try {
+                    work()
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+            }
+        }
+
+        private fun threadFactory(name: String): ThreadFactory {
+            val count = AtomicInteger()
+            return ThreadFactory { runnable ->
+                Thread(runnable, "query-$name-${count.incrementAndGet()}").apply { isDaemon = true }
+            }
+        }
+    }
+}
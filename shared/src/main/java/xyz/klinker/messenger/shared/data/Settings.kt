@@ -70,6 +70,7 @@ object Settings {
     var repeatNotifications: Long = 0
     var delayedSendingTimeout: Long = 0
     var cleanupMessagesTimeout: Long = 0
+    var archiveMessagesTimeout: Long = 0
     var ringtone: String? = null
     var fontSize: String? = null
     var themeColorString: String? = null
@@ -262,6 +263,17 @@ object Settings {
             else -> this.cleanupMessagesTimeout = -1
         }
 
+        when (sharedPrefs.getString(context.getString(R.string.pref_archive_messages), "never")) {
+            "never" -> this.archiveMessagesTimeout = -1
+            "one_week" -> this.archiveMessagesTimeout = TimeUtils.DAY * 7
+            "two_weeks" -> this.archiveMessagesTimeout = TimeUtils.DAY * 14
+            "one_month" -> this.archiveMessagesTimeout = TimeUtils.DAY * 30
+            "three_months" -> this.archiveMessagesTimeout = TimeUtils.DAY * 90
+            "six_months" -> this.archiveMessagesTimeout = TimeUtils.YEAR / 2
+            "one_year" -> this.archiveMessagesTimeout = TimeUtils.YEAR
+            else -> this.archiveMessagesTimeout = -1
+        }
+
         when (sharedPrefs.getString(context.getString(R.string.pref_keyboard_layout), "default")) {
             "default" -> this.keyboardLayout = KeyboardLayout.DEFAULT
             "send" -> this.keyboardLayout = KeyboardLayout.SEND
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+/**
+ * In memory count of the unread, un-muted conversations that are shown on the launcher badge.
+ *
+ * The counter starts out unloaded and is reconciled against the database the first time that it
+ * is needed. After that, DataSource keeps it up to date from its conversation writes, so that a
+ * burst of incoming messages doesn't have to re-count the conversation table for each of them.
+ * Anything that changes the table in a way that can't be followed (bulk inserts, raw sql,
+ * reopening the database) should invalidate it, so that the next read reconciles again.
+ *
+ * Like the ConversationCache, every change moves the counter to a new generation, so that a
+ * reconcile that was read before a change can't overwrite it with the old state.
+ */
+class UnreadCounter {
+
+    private val unread = HashSet<Long>()
+    private val muted = HashSet<Long>()
+    private var generation = 0L
+
+    var isLoaded = false
+        @Synchronized get
+        private set
+
+    /**
+     * The number of unread conversations that are not muted. Only meaningful once loaded.
+     */
+    val count: Int
+        @Synchronized get() = unread.count { !muted.contains(it) }
+
+    /**
+     * Should be taken before the database is read for a reconcile.
+     */
+    @Synchronized
+    fun stamp() = generation
+
+    /**
+     * Replaces the current state with what was found in the database.
+     *
+     * @param unreadIds the conversations that are unread and not archived.
+     * @param mutedIds the conversations that are muted.
+     * @param stamp what stamp() returned before the database was read.
+     * @return false if the counter changed since the stamp was taken, in which case the ids are
+     * dropped and the counter stays unloaded.
+     */
+    @Synchronized
+    fun reconcile(unreadIds: Collection<Long>, mutedIds: Collection<Long>, stamp: Long): Boolean {
+        if (stamp != generation) {
+            return false
+        }
+
+        unread.clear()
+        unread.addAll(unreadIds)
+        muted.clear()
+        muted.addAll(mutedIds)
+        isLoaded = true
+        return true
+    }
+
+    /**
+     * Records the read state of a conversation. Archived conversations do not count as unread.
+     */
+    @Synchronized
+    fun setRead(conversationId: Long, read: Boolean, archived: Boolean = false) {
+        generation++
+        if (read || archived) {
+            unread.remove(conversationId)
+        } else {
+            unread.add(conversationId)
+        }
+    }
+
+    @Synchronized
+    fun setMuted(conversationId: Long, mute: Boolean) {
+        generation++
+        if (mute) {
+            muted.add(conversationId)
+        } else {
+            muted.remove(conversationId)
+        }
+    }
+
+    @Synchronized
+    fun remove(conversationId: Long) {
+        generation++
+        unread.remove(conversationId)
+        muted.remove(conversationId)
+    }
+
+    @Synchronized
+    fun invalidate() {
+        generation++
+        unread.clear()
+        muted.clear()
+        isLoaded = false
+    }
+}
@@ -27,14 +27,7 @@ class AutoReply : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_TYPE -> this.type = cursor.getString(i)
-                COLUMN_PATTERN -> this.pattern = cursor.getString(i)
-                COLUMN_RESPONSE -> this.response = cursor.getString(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -50,6 +43,26 @@ class AutoReply : DatabaseTable {
         }
     }
 
+    /**
+     * Reads auto replies from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<AutoReply>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val type = indexOf(COLUMN_TYPE)
+        private val pattern = indexOf(COLUMN_PATTERN)
+        private val response = indexOf(COLUMN_RESPONSE)
+
+        override fun newInstance() = AutoReply()
+
+        override fun fill(item: AutoReply) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (type != -1) item.type = cursor.getString(type)
+            if (pattern != -1) item.pattern = cursor.getString(pattern)
+            if (response != -1) item.response = cursor.getString(response)
+        }
+    }
+
     companion object {
 
         const val TABLE = "auto_reply"
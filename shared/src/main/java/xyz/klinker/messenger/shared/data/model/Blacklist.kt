@@ -40,13 +40,7 @@ class Blacklist : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_PHONE_NUMBER -> this.phoneNumber = cursor.getString(i)
-                COLUMN_PHRASE -> this.phrase = cursor.getString(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -62,6 +56,24 @@ class Blacklist : DatabaseTable {
         }
     }
 
+    /**
+     * Reads blacklists from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Blacklist>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val phoneNumber = indexOf(COLUMN_PHONE_NUMBER)
+        private val phrase = indexOf(COLUMN_PHRASE)
+
+        override fun newInstance() = Blacklist()
+
+        override fun fill(item: Blacklist) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (phoneNumber != -1) item.phoneNumber = cursor.getString(phoneNumber)
+            if (phrase != -1) item.phrase = cursor.getString(phrase)
+        }
+    }
+
     companion object {
 
         const val TABLE = "blacklist"
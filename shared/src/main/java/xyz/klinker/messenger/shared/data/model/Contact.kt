@@ -40,19 +40,7 @@ open class Contact : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_PHONE_NUMBER -> this.phoneNumber = cursor.getString(i)
-                COLUMN_ID_MATCHER -> this.idMatcher = cursor.getString(i)
-                COLUMN_NAME -> this.name = cursor.getString(i)
-                COLUMN_TYPE -> this.type = cursor.getInt(i)
-                COLUMN_COLOR -> this.colors.color = cursor.getInt(i)
-                COLUMN_COLOR_DARK -> this.colors.colorDark = cursor.getInt(i)
-                COLUMN_COLOR_LIGHT -> this.colors.colorLight = cursor.getInt(i)
-                COLUMN_COLOR_ACCENT -> this.colors.colorAccent = cursor.getInt(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -70,6 +58,36 @@ open class Contact : DatabaseTable {
         }
     }
 
+    /**
+     * Reads contacts from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Contact>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val phoneNumber = indexOf(COLUMN_PHONE_NUMBER)
+        private val idMatcher = indexOf(COLUMN_ID_MATCHER)
+        private val name = indexOf(COLUMN_NAME)
+        private val type = indexOf(COLUMN_TYPE)
+        private val color = indexOf(COLUMN_COLOR)
+        private val colorDark = indexOf(COLUMN_COLOR_DARK)
+        private val colorLight = indexOf(COLUMN_COLOR_LIGHT)
+        private val colorAccent = indexOf(COLUMN_COLOR_ACCENT)
+
+        override fun newInstance() = Contact()
+
+        override fun fill(item: Contact) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (phoneNumber != -1) item.phoneNumber = cursor.getString(phoneNumber)
+            if (idMatcher != -1) item.idMatcher = cursor.getString(idMatcher)
+            if (name != -1) item.name = cursor.getString(name)
+            if (type != -1) item.type = cursor.getInt(type)
+            if (color != -1) item.colors.color = cursor.getInt(color)
+            if (colorDark != -1) item.colors.colorDark = cursor.getInt(colorDark)
+            if (colorLight != -1) item.colors.colorLight = cursor.getInt(colorLight)
+            if (colorAccent != -1) item.colors.colorAccent = cursor.getInt(colorAccent)
+        }
+    }
+
     companion object {
 
         const val TABLE = "contact"
@@ -81,30 +81,7 @@ class Conversation : DatabaseTable {
     override fun getIndexStatements() = INDEXES
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_COLOR -> this.colors.color = cursor.getInt(i)
-                COLUMN_COLOR_DARK -> this.colors.colorDark = cursor.getInt(i)
-                COLUMN_COLOR_LIGHT -> this.colors.colorLight = cursor.getInt(i)
-                COLUMN_COLOR_ACCENT -> this.colors.colorAccent = cursor.getInt(i)
-                COLUMN_LED_COLOR -> this.ledColor = cursor.getInt(i)
-                COLUMN_PINNED -> this.pinned = cursor.getInt(i) == 1
-                COLUMN_READ -> this.read = cursor.getInt(i) == 1
-                COLUMN_TIMESTAMP -> this.timestamp = cursor.getLong(i)
-                COLUMN_TITLE -> this.title = cursor.getString(i)
-                COLUMN_PHONE_NUMBERS -> this.phoneNumbers = cursor.getString(i)
-                COLUMN_SNIPPET -> this.snippet = cursor.getString(i)
-                COLUMN_RINGTONE -> this.ringtoneUri = cursor.getString(i)
-                COLUMN_IMAGE_URI -> this.imageUri = cursor.getString(i)
-                COLUMN_ID_MATCHER -> this.idMatcher = cursor.getString(i)
-                COLUMN_MUTE -> this.mute = cursor.getInt(i) == 1
-                COLUMN_ARCHIVED -> this.archive = cursor.getInt(i) == 1
-                COLUMN_PRIVATE -> this.private = cursor.getInt(i) == 1
-                COLUMN_SIM_SUBSCRIPTION_ID -> this.simSubscriptionId = if (cursor.getInt(i) == -1) null else cursor.getInt(i)
-                COLUMN_FOLDER_ID -> this.folderId = cursor.getLong(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     fun fillFromContactGroupCursor(context: Context, cursor: Cursor) {
@@ -142,6 +119,29 @@ class Conversation : DatabaseTable {
         this.idMatcher = utils.decrypt(this.idMatcher)
     }
 
+    fun copy(): Conversation = Conversation().also {
+        it.id = id
+        it.colors.color = colors.color
+        it.colors.colorDark = colors.colorDark
+        it.colors.colorLight = colors.colorLight
+        it.colors.colorAccent = colors.colorAccent
+        it.ledColor = ledColor
+        it.pinned = pinned
+        it.read = read
+        it.timestamp = timestamp
+        it.title = title
+        it.phoneNumbers = phoneNumbers
+        it.snippet = snippet
+        it.ringtoneUri = ringtoneUri
+        it.imageUri = imageUri
+        it.idMatcher = idMatcher
+        it.mute = mute
+        it.archive = archive
+        it.private = private
+        it.simSubscriptionId = simSubscriptionId
+        it.folderId = folderId
+    }
+
     fun toContact(): Contact = Contact().apply {
         this.phoneNumber = this@Conversation.phoneNumbers?.replace(", ", ",")
         this.idMatcher = this@Conversation.idMatcher
@@ -151,6 +151,58 @@ class Conversation : DatabaseTable {
         this.id = DataSource.generateId()
     }
 
+    /**
+     * Reads conversations from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Conversation>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val color = indexOf(COLUMN_COLOR)
+        private val colorDark = indexOf(COLUMN_COLOR_DARK)
+        private val colorLight = indexOf(COLUMN_COLOR_LIGHT)
+        private val colorAccent = indexOf(COLUMN_COLOR_ACCENT)
+        private val ledColor = indexOf(COLUMN_LED_COLOR)
+        private val pinned = indexOf(COLUMN_PINNED)
+        private val read = indexOf(COLUMN_READ)
+        private val timestamp = indexOf(COLUMN_TIMESTAMP)
+        private val title = indexOf(COLUMN_TITLE)
+        private val phoneNumbers = indexOf(COLUMN_PHONE_NUMBERS)
+        private val snippet = indexOf(COLUMN_SNIPPET)
+        private val ringtone = indexOf(COLUMN_RINGTONE)
+        private val imageUri = indexOf(COLUMN_IMAGE_URI)
+        private val idMatcher = indexOf(COLUMN_ID_MATCHER)
+        private val mute = indexOf(COLUMN_MUTE)
+        private val archive = indexOf(COLUMN_ARCHIVED)
+        private val privateNotifications = indexOf(COLUMN_PRIVATE)
+        private val simSubscriptionId = indexOf(COLUMN_SIM_SUBSCRIPTION_ID)
+        private val folderId = indexOf(COLUMN_FOLDER_ID)
+
+        override fun newInstance() = Conversation()
+
+        override fun fill(item: Conversation) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (color != -1) item.colors.color = cursor.getInt(color)
+            if (colorDark != -1) item.colors.colorDark = cursor.getInt(colorDark)
+            if (colorLight != -1) item.colors.colorLight = cursor.getInt(colorLight)
+            if (colorAccent != -1) item.colors.colorAccent = cursor.getInt(colorAccent)
+            if (ledColor != -1) item.ledColor = cursor.getInt(ledColor)
+            if (pinned != -1) item.pinned = cursor.getInt(pinned) == 1
+            if (read != -1) item.read = cursor.getInt(read) == 1
+            if (timestamp != -1) item.timestamp = cursor.getLong(timestamp)
+            if (title != -1) item.title = cursor.getString(title)
+            if (phoneNumbers != -1) item.phoneNumbers = cursor.getString(phoneNumbers)
+            if (snippet != -1) item.snippet = cursor.getString(snippet)
+            if (ringtone != -1) item.ringtoneUri = cursor.getString(ringtone)
+            if (imageUri != -1) item.imageUri = cursor.getString(imageUri)
+            if (idMatcher != -1) item.idMatcher = cursor.getString(idMatcher)
+            if (mute != -1) item.mute = cursor.getInt(mute) == 1
+            if (archive != -1) item.archive = cursor.getInt(archive) == 1
+            if (privateNotifications != -1) item.private = cursor.getInt(privateNotifications) == 1
+            if (simSubscriptionId != -1) item.simSubscriptionId = if (cursor.getInt(simSubscriptionId) == -1) null else cursor.getInt(simSubscriptionId)
+            if (folderId != -1) item.folderId = cursor.getLong(folderId)
+        }
+    }
+
     companion object {
 
         const val TABLE = "conversation"
@@ -177,6 +229,17 @@ class Conversation : DatabaseTable {
         const val COLUMN_FOLDER_ID = "folder_id" // created in database v12
 
         val INDEXES = arrayOf("create index if not exists folder_id_conversation_index on $TABLE ($COLUMN_FOLDER_ID);")
+
+        /**
+         * The columns that the conversation lists, widget and share targets display. Notification
+         * settings and the id matcher are left out, so conversations read with this should be
+         * loaded again, in full, before being written back with updateConversationSettings.
+         */
+        @JvmField
+        val LIST_PROJECTION = arrayOf(COLUMN_ID, COLUMN_COLOR, COLUMN_COLOR_DARK, COLUMN_COLOR_LIGHT,
+                COLUMN_COLOR_ACCENT, COLUMN_PINNED, COLUMN_READ, COLUMN_TIMESTAMP, COLUMN_TITLE,
+                COLUMN_PHONE_NUMBERS, COLUMN_SNIPPET, COLUMN_IMAGE_URI, COLUMN_MUTE, COLUMN_ARCHIVED,
+                COLUMN_PRIVATE, COLUMN_FOLDER_ID)
         private const val DATABASE_CREATE = "create table if not exists " +
                 TABLE + " (" +
                 COLUMN_ID + " integer primary key, " +
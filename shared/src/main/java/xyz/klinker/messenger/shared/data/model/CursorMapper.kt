@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data.model
+
+import android.database.Cursor
+
+/**
+ * Fills a model from a cursor, using column positions that are resolved a single time for the
+ * cursor. Looking up every column name on every row is wasteful for the list and sync loops,
+ * so create one of these per cursor and reuse it for each row.
+ *
+ * Columns that are not in the cursor's projection resolve to -1 and are skipped.
+ */
+abstract class CursorMapper<T : DatabaseTable>(val cursor: Cursor) {
+
+    protected fun indexOf(column: String) = cursor.getColumnIndex(column)
+
+    abstract fun newInstance(): T
+
+    /**
+     * Fills the given item from the cursor's current row. The item can be reused between rows.
+     */
+    abstract fun fill(item: T)
+
+    /**
+     * Creates a new item from the cursor's current row.
+     */
+    fun map(): T {
+        val item = newInstance()
+        fill(item)
+        return item
+    }
+}
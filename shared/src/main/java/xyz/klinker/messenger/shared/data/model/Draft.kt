@@ -45,14 +45,7 @@ class Draft : DatabaseTable {
     override fun getIndexStatements() = INDEXES
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_CONVERSATION_ID -> this.conversationId = cursor.getLong(i)
-                COLUMN_DATA -> this.data = cursor.getString(i)
-                COLUMN_MIME_TYPE -> this.mimeType = cursor.getString(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -68,6 +61,26 @@ class Draft : DatabaseTable {
         }
     }
 
+    /**
+     * Reads drafts from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Draft>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val conversationId = indexOf(COLUMN_CONVERSATION_ID)
+        private val data = indexOf(COLUMN_DATA)
+        private val mimeType = indexOf(COLUMN_MIME_TYPE)
+
+        override fun newInstance() = Draft()
+
+        override fun fill(item: Draft) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (conversationId != -1) item.conversationId = cursor.getLong(conversationId)
+            if (data != -1) item.data = cursor.getString(data)
+            if (mimeType != -1) item.mimeType = cursor.getString(mimeType)
+        }
+    }
+
     companion object {
 
         const val TABLE = "draft"
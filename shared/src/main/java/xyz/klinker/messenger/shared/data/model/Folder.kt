@@ -46,16 +46,7 @@ class Folder : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_NAME -> this.name = cursor.getString(i)
-                COLUMN_COLOR -> this.colors.color = cursor.getInt(i)
-                COLUMN_COLOR_DARK -> this.colors.colorDark = cursor.getInt(i)
-                COLUMN_COLOR_LIGHT -> this.colors.colorLight = cursor.getInt(i)
-                COLUMN_COLOR_ACCENT -> this.colors.colorAccent = cursor.getInt(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -69,6 +60,30 @@ class Folder : DatabaseTable {
         }
     }
 
+    /**
+     * Reads folders from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Folder>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val name = indexOf(COLUMN_NAME)
+        private val color = indexOf(COLUMN_COLOR)
+        private val colorDark = indexOf(COLUMN_COLOR_DARK)
+        private val colorLight = indexOf(COLUMN_COLOR_LIGHT)
+        private val colorAccent = indexOf(COLUMN_COLOR_ACCENT)
+
+        override fun newInstance() = Folder()
+
+        override fun fill(item: Folder) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (name != -1) item.name = cursor.getString(name)
+            if (color != -1) item.colors.color = cursor.getInt(color)
+            if (colorDark != -1) item.colors.colorDark = cursor.getInt(colorDark)
+            if (colorLight != -1) item.colors.colorLight = cursor.getInt(colorLight)
+            if (colorAccent != -1) item.colors.colorAccent = cursor.getInt(colorAccent)
+        }
+    }
+
     companion object {
 
         const val TABLE = "folder"
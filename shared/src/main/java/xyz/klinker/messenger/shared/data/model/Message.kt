@@ -20,6 +20,7 @@ import android.database.Cursor
 
 import xyz.klinker.messenger.api.entity.MessageBody
 import xyz.klinker.messenger.shared.data.DatabaseSQLiteHelper
+import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.encryption.EncryptionUtils
 
 /**
@@ -40,6 +41,7 @@ class Message : DatabaseTable {
     var simPhoneNumber: String? = null
     var sentDeviceId = -1L
     var nullableConvoTitle: String? = null
+    var renderHints: Int = 0
 
     constructor()
     constructor(body: MessageBody) {
@@ -65,27 +67,7 @@ class Message : DatabaseTable {
     override fun getIndexStatements() = INDEXES
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_CONVERSATION_ID -> this.conversationId = cursor.getLong(i)
-                COLUMN_TYPE -> this.type = cursor.getInt(i)
-                COLUMN_DATA -> this.data = cursor.getString(i)
-                COLUMN_TIMESTAMP -> this.timestamp = cursor.getLong(i)
-                COLUMN_MIME_TYPE -> this.mimeType = cursor.getString(i)
-                COLUMN_READ -> this.read = cursor.getInt(i) == 1
-                COLUMN_SEEN -> this.seen = cursor.getInt(i) == 1
-                COLUMN_FROM -> this.from = cursor.getString(i)
-                COLUMN_SIM_NUMBER -> this.simPhoneNumber = cursor.getString(i)
-                COLUMN_SENT_DEVICE -> this.sentDeviceId = cursor.getLong(i)
-                JOIN_COLUMN_CONVO_TITLE -> this.nullableConvoTitle = cursor.getString(i)
-                COLUMN_COLOR -> try {
-                    this.color = Integer.parseInt(cursor.getString(i))
-                } catch (e: NumberFormatException) {
-                    this.color = null
-                }
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -106,6 +88,50 @@ class Message : DatabaseTable {
         }
     }
 
+    /**
+     * Reads messages from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Message>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val conversationId = indexOf(COLUMN_CONVERSATION_ID)
+        private val type = indexOf(COLUMN_TYPE)
+        private val data = indexOf(COLUMN_DATA)
+        private val timestamp = indexOf(COLUMN_TIMESTAMP)
+        private val mimeType = indexOf(COLUMN_MIME_TYPE)
+        private val read = indexOf(COLUMN_READ)
+        private val seen = indexOf(COLUMN_SEEN)
+        private val from = indexOf(COLUMN_FROM)
+        private val simNumber = indexOf(COLUMN_SIM_NUMBER)
+        private val sentDevice = indexOf(COLUMN_SENT_DEVICE)
+        private val convoTitle = indexOf(JOIN_COLUMN_CONVO_TITLE)
+        private val color = indexOf(COLUMN_COLOR)
+        private val renderHints = indexOf(COLUMN_RENDER_HINTS)
+
+        override fun newInstance() = Message()
+
+        override fun fill(item: Message) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (conversationId != -1) item.conversationId = cursor.getLong(conversationId)
+            if (type != -1) item.type = cursor.getInt(type)
+            if (data != -1) item.data = cursor.getString(data)
+            if (timestamp != -1) item.timestamp = cursor.getLong(timestamp)
+            if (mimeType != -1) item.mimeType = cursor.getString(mimeType)
+            if (read != -1) item.read = cursor.getInt(read) == 1
+            if (seen != -1) item.seen = cursor.getInt(seen) == 1
+            if (from != -1) item.from = cursor.getString(from)
+            if (simNumber != -1) item.simPhoneNumber = cursor.getString(simNumber)
+            if (sentDevice != -1) item.sentDeviceId = cursor.getLong(sentDevice)
+            if (convoTitle != -1) item.nullableConvoTitle = cursor.getString(convoTitle)
+            if (renderHints != -1) item.renderHints = cursor.getInt(renderHints)
+            if (color != -1) item.color = try {
+                Integer.parseInt(cursor.getString(color))
+            } catch (e: NumberFormatException) {
+                null
+            }
+        }
+    }
+
     companion object {
 
         const val TABLE = "message"
@@ -122,6 +148,9 @@ class Message : DatabaseTable {
         const val COLUMN_COLOR = "color"
         const val COLUMN_SIM_NUMBER = "sim_phone_number" // added with v7 of database
         const val COLUMN_SENT_DEVICE = "sent_device" // added with v10 of database
+        const val COLUMN_MEDIA_KIND = "media_kind" // added with v20 of database
+        const val COLUMN_CONTENT_HASH = "content_hash" // added with v21 of database
+        const val COLUMN_RENDER_HINTS = "render_hints" // added with v22 of database
 
         // not in this table, but used in a join statement for searches
         private const val JOIN_COLUMN_CONVO_TITLE = "convo_title"
@@ -139,10 +168,107 @@ class Message : DatabaseTable {
                 COLUMN_FROM + " text, " +
                 COLUMN_COLOR + " integer, " +
                 COLUMN_SIM_NUMBER + " text, " +
-                COLUMN_SENT_DEVICE + " integer" +
+                COLUMN_SENT_DEVICE + " integer, " +
+                COLUMN_MEDIA_KIND + " integer not null default $MEDIA_KIND_NONE, " +
+                COLUMN_CONTENT_HASH + " integer, " +
+                COLUMN_RENDER_HINTS + " integer not null default 0" +
                 ");"
 
-        private val INDEXES = arrayOf("create index if not exists conversation_id_message_index on $TABLE ($COLUMN_CONVERSATION_ID);")
+        /**
+         * The columns that are needed to build notifications for unseen messages.
+         */
+        @JvmField
+        val NOTIFICATION_PROJECTION = arrayOf(COLUMN_ID, COLUMN_CONVERSATION_ID, COLUMN_DATA,
+                COLUMN_MIME_TYPE, COLUMN_TIMESTAMP, COLUMN_FROM, COLUMN_RENDER_HINTS)
+
+        private val INDEXES = arrayOf(
+                "create index if not exists conversation_id_message_index on $TABLE ($COLUMN_CONVERSATION_ID);",
+                "create index if not exists timestamp_message_index on $TABLE ($COLUMN_TIMESTAMP);",
+                "create index if not exists gallery_message_index on $TABLE ($COLUMN_CONVERSATION_ID, $COLUMN_TIMESTAMP) where $GALLERY_SELECTION;",
+                "create index if not exists attachment_message_index on $TABLE ($COLUMN_TIMESTAMP) where $ATTACHMENT_SELECTION;",
+                "create index if not exists content_hash_message_index on $TABLE ($COLUMN_CONVERSATION_ID, $COLUMN_CONTENT_HASH, $COLUMN_TIMESTAMP);"
+        )
+
+        const val MEDIA_KIND_NONE = 0
+        const val MEDIA_KIND_IMAGE = 1
+        const val MEDIA_KIND_VIDEO = 2
+        const val MEDIA_KIND_AUDIO = 3
+        const val MEDIA_KIND_OTHER = 4
+
+        // these need to match the where clauses of the partial indexes exactly, for sqlite to use them
+        const val GALLERY_SELECTION = "$COLUMN_MEDIA_KIND in ($MEDIA_KIND_IMAGE, $MEDIA_KIND_VIDEO, $MEDIA_KIND_AUDIO)"
+        const val ATTACHMENT_SELECTION = "$COLUMN_MEDIA_KIND != $MEDIA_KIND_NONE"
+
+        /**
+         * Classifies a mime type for the media_kind column. Link previews are stored as their own
+         * mime types, but they are still text messages, so they don't count as media.
+         */
+        @JvmStatic
+        fun mediaKind(mimeType: String?) = when {
+            mimeType == null -> MEDIA_KIND_NONE
+            mimeType.startsWith("image/", true) -> MEDIA_KIND_IMAGE
+            mimeType.startsWith("video/", true) -> MEDIA_KIND_VIDEO
+            mimeType.startsWith("audio/", true) -> MEDIA_KIND_AUDIO
+            mimeType == MimeType.TEXT_PLAIN || mimeType == MimeType.MEDIA_ARTICLE ||
+                    mimeType == MimeType.MEDIA_YOUTUBE_V2 || mimeType == MimeType.MEDIA_TWITTER ||
+                    mimeType == MimeType.MEDIA_MAP -> MEDIA_KIND_NONE
+            else -> MEDIA_KIND_OTHER
+        }
+
+        /**
+         * Trims the message and collapses any runs of whitespace, so that the same text that was
+         * saved by the telephony provider, the server, and Pulse will compare equal.
+         */
+        @JvmStatic
+        fun normalizeContent(data: String?): String {
+            if (data == null) {
+                return ""
+            }
+
+            val builder = StringBuilder(data.length)
+            var lastWasSpace = false
+            for (c in data.trim()) {
+                if (c.isWhitespace()) {
+                    if (!lastWasSpace) {
+                        builder.append(' ')
+                    }
+
+                    lastWasSpace = true
+                } else {
+                    builder.append(c)
+                    lastWasSpace = false
+                }
+            }
+
+            return builder.toString()
+        }
+
+        /**
+         * 64 bit FNV-1a hash of the normalized message, for the content_hash column. Matches
+         * still need to be compared against the text itself, since different messages can collide.
+         */
+        @JvmStatic
+        fun contentHash(data: String?): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (c in normalizeContent(data)) {
+                hash = hash xor c.toLong()
+                hash *= 0x100000001b3L
+            }
+
+            return hash
+        }
+
+        /**
+         * Back-fills the media_kind column for rows that were written before it existed. This
+         * mirrors [mediaKind].
+         */
+        val MEDIA_KIND_BACKFILL = "update $TABLE set $COLUMN_MEDIA_KIND = case " +
+                "when $COLUMN_MIME_TYPE like 'image/%' then $MEDIA_KIND_IMAGE " +
+                "when $COLUMN_MIME_TYPE like 'video/%' then $MEDIA_KIND_VIDEO " +
+                "when $COLUMN_MIME_TYPE like 'audio/%' then $MEDIA_KIND_AUDIO " +
+                "when $COLUMN_MIME_TYPE in ('${MimeType.TEXT_PLAIN}', '${MimeType.MEDIA_ARTICLE}', " +
+                "'${MimeType.MEDIA_YOUTUBE_V2}', '${MimeType.MEDIA_TWITTER}', '${MimeType.MEDIA_MAP}') then $MEDIA_KIND_NONE " +
+                "else $MEDIA_KIND_OTHER end"
 
         const val TYPE_RECEIVED = 0
         const val TYPE_SENT = 1
@@ -44,14 +44,7 @@ class RetryableRequest : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_TYPE -> this.type = cursor.getInt(i)
-                COLUMN_DATA_ID -> this.dataId = cursor.getLong(i)
-                COLUMN_ERROR_TIMESTAMP -> this.errorTimestamp = cursor.getLong(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -62,6 +55,26 @@ class RetryableRequest : DatabaseTable {
         // we aren't uploading this table at all.
     }
 
+    /**
+     * Reads retryable requests from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<RetryableRequest>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val type = indexOf(COLUMN_TYPE)
+        private val dataId = indexOf(COLUMN_DATA_ID)
+        private val errorTimestamp = indexOf(COLUMN_ERROR_TIMESTAMP)
+
+        override fun newInstance() = RetryableRequest()
+
+        override fun fill(item: RetryableRequest) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (type != -1) item.type = cursor.getInt(type)
+            if (dataId != -1) item.dataId = cursor.getLong(dataId)
+            if (errorTimestamp != -1) item.errorTimestamp = cursor.getLong(errorTimestamp)
+        }
+    }
+
     companion object {
 
         const val TABLE = "retryable_request"
@@ -51,17 +51,7 @@ class ScheduledMessage : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_TITLE -> this.title = cursor.getString(i)
-                COLUMN_TO -> this.to = cursor.getString(i)
-                COLUMN_DATA -> this.data = cursor.getString(i)
-                COLUMN_MIME_TYPE -> this.mimeType = cursor.getString(i)
-                COLUMN_TIMESTAMP -> this.timestamp = cursor.getLong(i)
-                COLUMN_REPEAT -> this.repeat = cursor.getInt(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -81,6 +71,32 @@ class ScheduledMessage : DatabaseTable {
         }
     }
 
+    /**
+     * Reads scheduled messages from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<ScheduledMessage>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val title = indexOf(COLUMN_TITLE)
+        private val to = indexOf(COLUMN_TO)
+        private val data = indexOf(COLUMN_DATA)
+        private val mimeType = indexOf(COLUMN_MIME_TYPE)
+        private val timestamp = indexOf(COLUMN_TIMESTAMP)
+        private val repeat = indexOf(COLUMN_REPEAT)
+
+        override fun newInstance() = ScheduledMessage()
+
+        override fun fill(item: ScheduledMessage) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (title != -1) item.title = cursor.getString(title)
+            if (to != -1) item.to = cursor.getString(to)
+            if (data != -1) item.data = cursor.getString(data)
+            if (mimeType != -1) item.mimeType = cursor.getString(mimeType)
+            if (timestamp != -1) item.timestamp = cursor.getLong(timestamp)
+            if (repeat != -1) item.repeat = cursor.getInt(repeat)
+        }
+    }
+
     companion object {
 
         const val TABLE = "scheduled_message"
@@ -42,12 +42,7 @@ class Template : DatabaseTable {
     override fun getIndexStatements() = emptyArray<String>()
 
     override fun fillFromCursor(cursor: Cursor) {
-        for (i in 0 until cursor.columnCount) {
-            when (cursor.getColumnName(i)) {
-                COLUMN_ID -> this.id = cursor.getLong(i)
-                COLUMN_TEXT -> this.text = cursor.getString(i)
-            }
-        }
+        Mapper(cursor).fill(this)
     }
 
     override fun encrypt(utils: EncryptionUtils) {
@@ -61,6 +56,22 @@ class Template : DatabaseTable {
         }
     }
 
+    /**
+     * Reads templates from a cursor with the column positions resolved once, up front.
+     */
+    class Mapper(cursor: Cursor) : CursorMapper<Template>(cursor) {
+
+        private val id = indexOf(COLUMN_ID)
+        private val text = indexOf(COLUMN_TEXT)
+
+        override fun newInstance() = Template()
+
+        override fun fill(item: Template) {
+            if (id != -1) item.id = cursor.getLong(id)
+            if (text != -1) item.text = cursor.getString(text)
+        }
+    }
+
     companion object {
 
         const val TABLE = "template"
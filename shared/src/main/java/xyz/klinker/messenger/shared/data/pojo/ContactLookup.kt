@@ -0,0 +1,15 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+/**
+ * What the contacts provider has for a phone number. A null name means that the number isn't in
+ * the user's contacts.
+ */
+data class ContactLookup(val name: String?, val contactId: Long?, val photoUri: String?) {
+
+    val found: Boolean
+        get() = name != null
+
+    companion object {
+        val NOT_FOUND = ContactLookup(null, null, null)
+    }
+}
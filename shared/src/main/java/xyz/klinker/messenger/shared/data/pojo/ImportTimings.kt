@@ -0,0 +1,7 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+/**
+ * The query and convert times are added up over all of the import workers, the rest are wall time.
+ */
+data class ImportTimings(val conversations: Int, val messages: Int, val queryMillis: Long, val convertMillis: Long,
+                         val writeMillis: Long, val writerWaitMillis: Long, val totalMillis: Long)
@@ -0,0 +1,3 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+data class MmsPart(val id: String, val mimeType: String?, val data: String?, val text: String?)
@@ -1,3 +1,4 @@
 package xyz.klinker.messenger.shared.data.pojo
 
-data class NotificationMessage(var id: Long, var data: String, var mimeType: String, var timestamp: Long, var from: String?)
\ No newline at end of file
+data class NotificationMessage @JvmOverloads constructor(var id: Long, var data: String, var mimeType: String, var timestamp: Long,
+                                                         var from: String?, var renderHints: Int = 0)
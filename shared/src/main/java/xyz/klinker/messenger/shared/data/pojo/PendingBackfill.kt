@@ -0,0 +1,23 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+/**
+ * A conversation whose messages from before the given timestamp haven't been imported yet.
+ *
+ * @param threadId       the conversation's id in the telephony provider.
+ * @param conversationId the conversation's id in Pulse's database.
+ */
+data class PendingBackfill(val threadId: Long, val conversationId: Long, val before: Long) {
+
+    fun serialize() = "$threadId:$conversationId:$before"
+
+    companion object {
+        fun deserialize(value: String): PendingBackfill? {
+            val parts = value.split(":")
+            return try {
+                PendingBackfill(parts[0].toLong(), parts[1].toLong(), parts[2].toLong())
+            } catch (e: Exception) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,3 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+data class SpaceReclaimed(val bytes: Long, val millis: Long)
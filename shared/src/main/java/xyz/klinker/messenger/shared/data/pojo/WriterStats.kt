@@ -0,0 +1,3 @@
+package xyz.klinker.messenger.shared.data.pojo
+
+data class WriterStats(val writes: Long, val commits: Long, val commitsPerSecond: Double, val p99Millis: Long)
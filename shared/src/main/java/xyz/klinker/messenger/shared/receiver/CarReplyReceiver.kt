@@ -17,7 +17,6 @@ import xyz.klinker.messenger.shared.service.ReplyService
 import xyz.klinker.messenger.shared.util.DualSimUtils
 import xyz.klinker.messenger.shared.util.SendUtils
 import xyz.klinker.messenger.shared.util.TimeUtils
-import xyz.klinker.messenger.shared.util.closeSilent
 
 class CarReplyReceiver : BroadcastReceiver() {
 
@@ -65,8 +64,7 @@ class CarReplyReceiver : BroadcastReceiver() {
 
         // cancel the notification we just replied to or
         // if there are no more notifications, cancel the summary as well
-        val unseenMessages = DataSource.getUnseenMessages(context)
-        if (unseenMessages.count <= 0) {
+        if (DataSource.getUnseenMessageCount(context) <= 0) {
             NotificationManagerCompat.from(context).cancelAll()
         } else {
             NotificationManagerCompat.from(context).cancel(conversationId.toInt())
@@ -76,8 +74,6 @@ class CarReplyReceiver : BroadcastReceiver() {
                 Account.deviceId,
                 conversationId)
 
-        unseenMessages.closeSilent()
-
         ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, context.getString(R.string.you) + ": " + reply, true)
         MessageListUpdatedReceiver.sendBroadcast(context, conversationId)
     }
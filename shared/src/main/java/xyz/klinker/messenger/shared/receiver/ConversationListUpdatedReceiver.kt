@@ -22,10 +22,13 @@ import android.content.Intent
 import android.content.IntentFilter
 import android.util.Log
 
+import xyz.klinker.messenger.shared.data.ColorSet
+import xyz.klinker.messenger.shared.data.DataChange
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.FeatureFlags
 import xyz.klinker.messenger.shared.data.SectionType
 import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.pojo.ConversationUpdateInfo
 import xyz.klinker.messenger.shared.data.pojo.ReorderType
 import xyz.klinker.messenger.shared.shared_interfaces.IConversationListFragment
@@ -58,10 +61,57 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
         }
 
         val conversationId = intent.getLongExtra(EXTRA_CONVERSATION_ID, -1)
+        if (intent.getBooleanExtra(EXTRA_REFRESH, false)) {
+            refreshConversation(intent, conversationId)
+            return
+        }
+
         val snippet = intent.getStringExtra(EXTRA_SNIPPET)
         val title = intent.getStringExtra(EXTRA_TITLE)
-        val read = intent.getBooleanExtra(EXTRA_READ, false)
+        val read = if (intent.hasExtra(EXTRA_READ)) intent.getBooleanExtra(EXTRA_READ, false) else null
+
+        updateConversation(context, conversationId, snippet, title, read, TimeUtils.now)
+    }
+
+    /**
+     * Applies a snippet change that DataSource published on the DataChangeBus. A conversation that is
+     * already in the list is updated in place, unless the change is newer than what the list is
+     * showing, in which case it is moved up the same way as for a broadcast.
+     */
+    fun onSnippetChanged(context: Context, change: DataChange.ConversationSnippetChanged) {
+        if (!fragment.isFragmentAdded || change.snippet == null) {
+            return
+        }
+
+        val adapter = fragment.adapter ?: return
+        val item = adapter.conversations.firstOrNull { it.id == change.conversationId }
 
+        try {
+            if (item != null && change.timestamp <= item.timestamp) {
+                val adapterPosition = adapter.findPositionForConversationId(change.conversationId)
+                if (adapterPosition == -1 || fragment.expandedId == change.conversationId || shouldIgnoreSnippet(change.snippet)) {
+                    return
+                }
+
+                item.snippet = change.snippet
+                item.read = change.read
+                adapter.notifyItemChanged(adapterPosition)
+            } else {
+                updateConversation(context, change.conversationId, change.snippet, null, change.read, change.timestamp)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * Moves the conversation to the top of the list, below the pinned section, with the new values.
+     *
+     * @param read null to leave the read state alone.
+     */
+    @Throws(Exception::class)
+    private fun updateConversation(context: Context, conversationId: Long, snippet: String?, title: String?,
+                                   read: Boolean?, timestamp: Long) {
         if (conversationId == -1L || fragment.expandedId == conversationId || shouldIgnoreSnippet(snippet)) {
             return
         }
@@ -100,11 +150,11 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
                     adapter.conversations[position].snippet = snippet
                     
                     if (!Settings.showConversationCategories) {
-                        adapter.conversations[position].timestamp = TimeUtils.now
+                        adapter.conversations[position].timestamp = timestamp
                     }
                 }
 
-                if (intent.hasExtra(EXTRA_READ)) {
+                if (read != null) {
                     adapter.conversations[position].read = read
                 }
 
@@ -123,11 +173,11 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
                     conversation.snippet = snippet
 
                     if (!Settings.showConversationCategories) {
-                        conversation.timestamp = TimeUtils.now
+                        conversation.timestamp = timestamp
                     }
                 }
 
-                if (intent.hasExtra(EXTRA_READ)) {
+                if (read != null) {
                     conversation.read = read
                 }
 
@@ -167,9 +217,35 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
         }
     }
 
-    fun shouldIgnoreSnippet(snippet: String?) = if (snippet!!.contains("img.youtube.com")) {
-        true
-    } else snippet.contains("{") && snippet.contains("}")
+    /**
+     * Copies the title, image and colors from the broadcast in to the conversation in the list,
+     * without moving it.
+     */
+    private fun refreshConversation(intent: Intent, conversationId: Long) {
+        val adapter = fragment.adapter ?: return
+        val adapterPosition = adapter.findPositionForConversationId(conversationId)
+        val item = adapter.conversations.firstOrNull { it.id == conversationId }
+        val colors = intent.getIntArrayExtra(EXTRA_COLORS)
+
+        if (adapterPosition == -1 || item == null || colors == null || colors.size != 4) {
+            return
+        }
+
+        item.title = intent.getStringExtra(EXTRA_TITLE)
+        item.imageUri = intent.getStringExtra(EXTRA_IMAGE_URI)
+        item.colors = ColorSet()
+        item.colors.color = colors[0]
+        item.colors.colorDark = colors[1]
+        item.colors.colorLight = colors[2]
+        item.colors.colorAccent = colors[3]
+        adapter.notifyItemChanged(adapterPosition)
+    }
+
+    fun shouldIgnoreSnippet(snippet: String?) = when {
+        snippet == null -> false
+        snippet.contains("img.youtube.com") -> true
+        else -> snippet.contains("{") && snippet.contains("}")
+    }
 
     companion object {
 
@@ -178,6 +254,9 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
         private const val EXTRA_SNIPPET = "snippet"
         private const val EXTRA_TITLE = "title"
         private const val EXTRA_READ = "read"
+        private const val EXTRA_REFRESH = "refresh"
+        private const val EXTRA_IMAGE_URI = "image_uri"
+        private const val EXTRA_COLORS = "colors"
 
         /**
          * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
@@ -218,6 +297,23 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
             Log.v("conversation_broadcast", "broadcasting new title: $title")
         }
 
+        /**
+         * Lets the list know that the title, image or colors for a conversation have changed in the
+         * database, without it being moved to the top. The new values are sent along, so that the
+         * list doesn't have to read them back on the main thread.
+         */
+        fun sendRefreshBroadcast(context: Context?, conversation: Conversation) {
+            val intent = Intent(ACTION_UPDATED)
+            intent.putExtra(EXTRA_CONVERSATION_ID, conversation.id)
+            intent.putExtra(EXTRA_REFRESH, true)
+            intent.putExtra(EXTRA_TITLE, conversation.title)
+            intent.putExtra(EXTRA_IMAGE_URI, conversation.imageUri)
+            intent.putExtra(EXTRA_COLORS, intArrayOf(conversation.colors.color, conversation.colors.colorDark,
+                    conversation.colors.colorLight, conversation.colors.colorAccent))
+            context?.sendBroadcast(intent)
+            Log.v("conversation_broadcast", "broadcasting refresh for ${conversation.id}")
+        }
+
         /**
          * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
          */
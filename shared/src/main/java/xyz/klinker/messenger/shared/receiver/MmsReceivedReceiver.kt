@@ -16,6 +16,7 @@
 
 package xyz.klinker.messenger.shared.receiver
 
+import android.content.ContentUris
 import android.content.Context
 import android.database.Cursor
 import android.net.Uri
@@ -69,11 +70,27 @@ class MmsReceivedReceiver : com.klinker.android.send_message.MmsReceivedReceiver
         }
     }
 
+    /**
+     * The trace starts here, so it doesn't include the time that the library spent downloading
+     * the mms.
+     */
     private fun handleMms(context: Context, uri: Uri, lastMessage: Cursor) {
-        val nullableOrBlankBodyText = insertMms(context, uri, lastMessage)
+        try {
+            TelephonyReconciler.markOwnMms(context, ContentUris.parseId(uri))
+        } catch (e: Exception) {
+        }
+
+        val trace = ReceiveLatencyTracer.begin(ReceiveLatencyTracer.Source.MMS)
+        trace.attach()
 
-        if (!ignoreNotification) {
-            Notifier(context).notify()
+        try {
+            val nullableOrBlankBodyText = ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_INSERT) { insertMms(context, uri, lastMessage) }
+
+            if (!ignoreNotification) {
+                Notifier(context).notify()
+            }
+        } finally {
+            trace.detach()
         }
     }
 
@@ -105,7 +122,7 @@ class MmsReceivedReceiver : com.klinker.android.send_message.MmsReceivedReceiver
             message.simPhoneNumber = if (DualSimUtils.availableSims.isEmpty()) null else to
             message.sentDeviceId = -1L
 
-            if (BlacklistUtils.isBlacklisted(context, from, message.data)) {
+            if (ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_BLACKLIST) { BlacklistUtils.isBlacklisted(context, from, message.data) }) {
                 return null
             }
 
@@ -59,13 +59,12 @@ class MmsSentReceiver : com.klinker.android.send_message.MmsSentReceiver() {
             for (values in mmsParts) {
                 val messages = DataSource.searchMessages(context, values.getAsLong(Message.COLUMN_TIMESTAMP)!!)
                 if (messages.moveToFirst()) {
+                    val mapper = Message.Mapper(messages)
                     do {
-                        val m = Message()
-                        m.fillFromCursor(messages)
+                        val m = mapper.map()
 
                         if (m.type == Message.TYPE_SENDING) {
                             DataSource.updateMessageType(context, m.id, Message.TYPE_SENT)
-                            MessageListUpdatedReceiver.sendBroadcast(context, m.conversationId)
                         }
                     } while (messages.moveToNext())
                 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.receiver
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.util.Log
+
+import xyz.klinker.messenger.shared.util.ReceiveLatencyTracer
+
+/**
+ * Dumps the receive latency traces over adb. The receiver is guarded by the DUMP permission, which
+ * the shell has, but other apps can't get:
+ *
+ * adb shell am broadcast -n xyz.klinker.messenger/xyz.klinker.messenger.shared.receiver.ReceiveLatencyDumpReceiver
+ *
+ * The dump comes back as the result data of the broadcast, and is written to logcat under the
+ * ReceiveLatency tag. Add --ez reset true to clear the traces for this version afterwards.
+ */
+class ReceiveLatencyDumpReceiver : BroadcastReceiver() {
+
+    override fun onReceive(context: Context, intent: Intent) {
+        val dump = ReceiveLatencyTracer.dump()
+        dump.lines().forEach { Log.i(TAG, it) }
+
+        if (intent.getBooleanExtra(EXTRA_RESET, false)) {
+            ReceiveLatencyTracer.reset()
+        }
+
+        resultData = dump
+    }
+
+    companion object {
+        private const val TAG = "ReceiveLatency"
+        private const val EXTRA_RESET = "reset"
+    }
+}
@@ -83,10 +83,6 @@ class SmsDeliveredReceiver : DeliveredReceiver() {
             if (messages != null && messages.moveToFirst()) {
                 val id = messages.getLong(0)
                 source.updateMessageType(context, id, if (error) Message.TYPE_ERROR else Message.TYPE_DELIVERED)
-
-                val conversationId = messages
-                        .getLong(messages.getColumnIndex(Message.COLUMN_CONVERSATION_ID))
-                MessageListUpdatedReceiver.sendBroadcast(context, conversationId)
             } else {
                 val conversationId = source.findConversationId(context, address)
                 if (conversationId != null) {
@@ -94,7 +90,6 @@ class SmsDeliveredReceiver : DeliveredReceiver() {
                     for (m in conversationMessages) {
                         if ((m.type == Message.TYPE_SENT || m.type == Message.TYPE_SENDING) && timestampsMatch(m.timestamp, time)) {
                             source.updateMessageType(context, m.id, if (error) Message.TYPE_ERROR else Message.TYPE_DELIVERED)
-                            MessageListUpdatedReceiver.sendBroadcast(context, conversationId)
                         }
                     }
                 }
@@ -34,9 +34,15 @@ class SmsReceivedReceiver : BroadcastReceiver() {
 
 //        SmsReceivedService.start(context, intent)
 //        val result = goAsync()
+        val trace = ReceiveLatencyTracer.begin(ReceiveLatencyTracer.Source.SMS)
         Thread {
             lastReceived = TimeUtils.now
-            SmsReceivedHandler(context).newSmsRecieved(intent)
+            trace.attach()
+            try {
+                SmsReceivedHandler(context).newSmsRecieved(intent)
+            } finally {
+                trace.detach()
+            }
 //            result.finish()
         }.start()
     }
@@ -44,10 +50,14 @@ class SmsReceivedReceiver : BroadcastReceiver() {
     companion object {
         var lastReceived = 0L
 
+        /**
+         * A message is only a duplicate if it matches the latest one in the conversation. The same
+         * text can legitimately come in again after something else was said in between.
+         */
         fun shouldSaveMessage(context: Context, message: Message, phoneNumbers: String): Boolean {
             val conversationId = DataSource.findConversationId(context, phoneNumbers) ?: return true
             val databaseMessage = DataSource.getLatestMessage(context, conversationId) ?: return true
-            val isSameMessage = databaseMessage.data == message.data
+            val isSameMessage = databaseMessage.data == SmsMmsUtils.stripWebSenderPrefix(message.data)
             val isSameType = databaseMessage.type == message.type
             val areTimestampsClose = Math.abs(message.timestamp - databaseMessage.timestamp) < TimeUtils.MINUTE * 3
 
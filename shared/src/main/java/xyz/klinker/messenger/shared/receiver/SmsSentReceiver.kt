@@ -112,18 +112,11 @@ open class SmsSentReceiver : SentReceiver() {
                 }
 
                 if (!markedAsSent) {
-                    val conversationIds = HashSet<Long>()
-
                     for (m in messageList) {
                         if (m.type == Message.TYPE_SENDING) {
                             source.updateMessageType(context, m.id, if (error) Message.TYPE_ERROR else Message.TYPE_SENT)
-                            conversationIds.add(m.conversationId)
                         }
                     }
-
-                    for (id in conversationIds) {
-                        MessageListUpdatedReceiver.sendBroadcast(context, id)
-                    }
                 }
             }
 
@@ -136,8 +129,6 @@ open class SmsSentReceiver : SentReceiver() {
     private fun markMessage(source: DataSource, context: Context, error: Boolean, messageId: Long, conversationId: Long, data: String?) {
         source.updateMessageType(context, messageId, if (error) Message.TYPE_ERROR else Message.TYPE_SENT)
 
-        MessageListUpdatedReceiver.sendBroadcast(context, conversationId)
-
         val resend = Intent(context, ResendFailedMessage::class.java)
         resend.putExtra(ResendFailedMessage.EXTRA_MESSAGE_ID, messageId)
         resend.flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
@@ -189,18 +180,12 @@ open class SmsSentReceiver : SentReceiver() {
             // this is a hack, since we are not storing the id of the messages in the shared database.
 
             val messageList = DataSource.getNumberOfMessages(context, 10)
-            val conversationIds = mutableSetOf<Long>()
 
             messageList.forEach {
                 if (it.type == Message.TYPE_SENDING) {
                     DataSource.updateMessageType(context, it.id, Message.TYPE_SENT)
-                    conversationIds.add(it.conversationId)
                 }
             }
-
-            conversationIds.forEach {
-                MessageListUpdatedReceiver.sendBroadcast(context, it)
-            }
         }
     }
 }
@@ -9,7 +9,6 @@ import xyz.klinker.messenger.api.implementation.ApiUtils
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.model.Message
-import xyz.klinker.messenger.shared.util.CursorUtil
 import xyz.klinker.messenger.shared.util.UnreadBadger
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 
@@ -41,15 +40,12 @@ class NotificationDeleteReceiver : BroadcastReceiver() {
 
             // cancel the notification we just replied to or
             // if there are no more notifications, cancel the summary as well
-            val unseenMessages = DataSource.getUnseenMessages(context)
-            if (unseenMessages.count <= 0) {
+            if (DataSource.getUnseenMessageCount(context) <= 0) {
                 NotificationManagerCompat.from(context).cancelAll()
             } else {
                 NotificationManagerCompat.from(context).cancel(conversationId.toInt())
             }
 
-            CursorUtil.closeSilent(unseenMessages)
-
             ApiUtils.dismissNotification(Account.accountId,
                     Account.deviceId,
                     conversationId)
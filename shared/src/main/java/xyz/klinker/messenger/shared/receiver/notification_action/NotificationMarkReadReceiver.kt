@@ -8,7 +8,6 @@ import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.api.implementation.ApiUtils
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.util.UnreadBadger
-import xyz.klinker.messenger.shared.util.closeSilent
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 
 open class NotificationMarkReadReceiver : BroadcastReceiver() {
@@ -33,9 +32,8 @@ open class NotificationMarkReadReceiver : BroadcastReceiver() {
 
                 // cancel the notification we just replied to or
                 // if there are no more notifications, cancel the summary as well
-                val unseenMessages = DataSource.getUnseenMessages(context)
                 try {
-                    if (unseenMessages.count <= 0) {
+                    if (DataSource.getUnseenMessageCount(context) <= 0) {
                         NotificationManagerCompat.from(context).cancelAll()
                     } else {
                         NotificationManagerCompat.from(context).cancel(conversationId.toInt())
@@ -44,8 +42,6 @@ open class NotificationMarkReadReceiver : BroadcastReceiver() {
                     // not posted by this user
                 }
 
-                unseenMessages.closeSilent()
-
                 ApiUtils.dismissNotification(Account.accountId,
                         Account.deviceId,
                         conversationId)
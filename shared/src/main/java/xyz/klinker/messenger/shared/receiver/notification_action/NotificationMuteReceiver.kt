@@ -8,7 +8,6 @@ import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.api.implementation.ApiUtils
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.util.UnreadBadger
-import xyz.klinker.messenger.shared.util.closeSilent
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 
 class NotificationMuteReceiver : BroadcastReceiver() {
@@ -28,15 +27,12 @@ class NotificationMuteReceiver : BroadcastReceiver() {
 
             // cancel the notification we just replied to or
             // if there are no more notifications, cancel the summary as well
-            val unseenMessages = DataSource.getUnseenMessages(context)
-            if (unseenMessages.count <= 0) {
+            if (DataSource.getUnseenMessageCount(context) <= 0) {
                 NotificationManagerCompat.from(context).cancelAll()
             } else {
                 NotificationManagerCompat.from(context).cancel(conversationId.toInt())
             }
 
-            unseenMessages.closeSilent()
-
             ApiUtils.dismissNotification(Account.accountId, Account.deviceId, conversationId)
             xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver.Companion.sendBroadcast(context, conversationId, if (conversation == null) "" else conversation.snippet, true)
 
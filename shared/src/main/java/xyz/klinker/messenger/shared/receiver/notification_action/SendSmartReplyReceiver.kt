@@ -19,7 +19,6 @@ import xyz.klinker.messenger.shared.service.ReplyService
 import xyz.klinker.messenger.shared.util.DualSimUtils
 import xyz.klinker.messenger.shared.util.SendUtils
 import xyz.klinker.messenger.shared.util.TimeUtils
-import xyz.klinker.messenger.shared.util.closeSilent
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 
 class SendSmartReplyReceiver : BroadcastReceiver() {
@@ -61,8 +60,7 @@ class SendSmartReplyReceiver : BroadcastReceiver() {
 
         // cancel the notification we just replied to or
         // if there are no more notifications, cancel the summary as well
-        val unseenMessages = DataSource.getUnseenMessages(context)
-        if (unseenMessages.count <= 0) {
+        if (DataSource.getUnseenMessageCount(context) <= 0) {
             try {
                 NotificationManagerCompat.from(context).cancelAll()
             } catch (e: SecurityException) {
@@ -73,8 +71,6 @@ class SendSmartReplyReceiver : BroadcastReceiver() {
 
         ApiUtils.dismissNotification(Account.accountId, Account.deviceId, conversationId)
 
-        unseenMessages.closeSilent()
-
         ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, context.getString(R.string.you) + ": " + reply, true)
         MessageListUpdatedReceiver.sendBroadcast(context, conversationId)
         MessengerAppWidgetProvider.refreshWidget(context)
@@ -451,9 +451,9 @@ class ApiDownloadService : Service() {
                 else
                     media.count
                 var processing = 0
+                val mapper = Message.Mapper(media)
                 do {
-                    val message = Message()
-                    message.fillFromCursor(media)
+                    val message = mapper.map()
                     processing++
 
                     val file = File(filesDir,
@@ -464,7 +464,7 @@ class ApiDownloadService : Service() {
                     ApiUtils.downloadFileFromFirebase(Account.accountId, file, message.id, encryptionUtils, FirebaseDownloadCallback {
                         completedMediaDownloads++
 
-                        DataSource.updateMessageData(this@ApiDownloadService, message.id, Uri.fromFile(file).toString())
+                        DataSource.updateMessageData(this@ApiDownloadService, message.id, Uri.fromFile(file).toString(), message.mimeType)
                         builder.setProgress(mediaCount, completedMediaDownloads, false)
 
                         if (completedMediaDownloads >= mediaCount) {
@@ -107,9 +107,9 @@ open class ApiUploadService : Service() {
             val messages = ArrayList<MessageBody>()
             var firebaseNumber = 0
 
+            val mapper = Message.Mapper(cursor)
             do {
-                val m = Message()
-                m.fillFromCursor(cursor)
+                val m = mapper.map()
 
                 // instead of sending the URI, we'll upload these images to firebase and retrieve
                 // them on another device based on account id and message id.
@@ -162,9 +162,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val conversations = arrayOfNulls<ConversationBody>(cursor.count)
 
+            val mapper = Conversation.Mapper(cursor)
             do {
-                val c = Conversation()
-                c.fillFromCursor(cursor)
+                val c = mapper.map()
                 c.encrypt(encryptionUtils!!)
                 val conversation = ConversationBody(c.id, c.colors.color,
                         c.colors.colorDark, c.colors.colorLight, c.colors.colorAccent, c.ledColor, c.pinned,
@@ -211,9 +211,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val blacklists = arrayOfNulls<BlacklistBody>(cursor.count)
 
+            val mapper = Blacklist.Mapper(cursor)
             do {
-                val b = Blacklist()
-                b.fillFromCursor(cursor)
+                val b = mapper.map()
                 b.encrypt(encryptionUtils!!)
                 val blacklist = BlacklistBody(b.id, b.phoneNumber, b.phrase)
 
@@ -246,9 +246,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val messages = arrayOfNulls<ScheduledMessageBody>(cursor.count)
 
+            val mapper = ScheduledMessage.Mapper(cursor)
             do {
-                val m = ScheduledMessage()
-                m.fillFromCursor(cursor)
+                val m = mapper.map()
                 m.encrypt(encryptionUtils!!)
                 val message = ScheduledMessageBody(m.id, m.to, m.data,
                         m.mimeType, m.timestamp, m.title, m.repeat)
@@ -282,9 +282,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val drafts = arrayOfNulls<DraftBody>(cursor.count)
 
+            val mapper = Draft.Mapper(cursor)
             do {
-                val d = Draft()
-                d.fillFromCursor(cursor)
+                val d = mapper.map()
                 d.encrypt(encryptionUtils!!)
                 val draft = DraftBody(d.id, d.conversationId, d.data, d.mimeType)
 
@@ -317,9 +317,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val templates = arrayOfNulls<TemplateBody>(cursor.count)
 
+            val mapper = Template.Mapper(cursor)
             do {
-                val t = Template()
-                t.fillFromCursor(cursor)
+                val t = mapper.map()
                 t.encrypt(encryptionUtils!!)
                 val template = TemplateBody(t.id, t.text)
 
@@ -352,9 +352,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val folders = arrayOfNulls<FolderBody>(cursor.count)
 
+            val mapper = Folder.Mapper(cursor)
             do {
-                val f = Folder()
-                f.fillFromCursor(cursor)
+                val f = mapper.map()
                 f.encrypt(encryptionUtils!!)
                 val folder = FolderBody(f.id, f.name, f.colors.color, f.colors.colorDark, f.colors.colorLight, f.colors.colorAccent)
 
@@ -387,9 +387,9 @@ open class ApiUploadService : Service() {
         if (cursor.moveToFirst()) {
             val replies = arrayOfNulls<AutoReplyBody>(cursor.count)
 
+            val mapper = AutoReply.Mapper(cursor)
             do {
-                val r = AutoReply()
-                r.fillFromCursor(cursor)
+                val r = mapper.map()
                 r.encrypt(encryptionUtils!!)
                 val reply = AutoReplyBody(r.id, r.type, r.pattern, r.response)
 
@@ -454,9 +454,9 @@ open class ApiUploadService : Service() {
         val media = DataSource.getAllMediaMessages(this, NUM_MEDIA_TO_UPLOAD)
         if (media.moveToFirst()) {
             val mediaCount = if (media.count < NUM_MEDIA_TO_UPLOAD) media.count else NUM_MEDIA_TO_UPLOAD
+            val mapper = Message.Mapper(media)
             do {
-                val message = Message()
-                message.fillFromCursor(media)
+                val message = mapper.map()
 
                 Log.v(TAG, "started uploading " + message.id)
 
@@ -515,9 +515,9 @@ open class ApiUploadService : Service() {
             if (cursor.moveToFirst()) {
                 val contacts = ArrayList<ContactBody>()
 
+                val mapper = Contact.Mapper(cursor)
                 do {
-                    val c = Contact()
-                    c.fillFromCursor(cursor)
+                    val c = mapper.map()
                     c.encrypt(encryptionUtils)
 
                     val contact = if (c.type != null) {
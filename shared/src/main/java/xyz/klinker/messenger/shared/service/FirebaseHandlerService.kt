@@ -95,7 +95,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     "removed_account" -> removeAccount(json, context)
                     "updated_account" -> updatedAccount(json, context)
                     "cleaned_account" -> cleanAccount(json, context)
-                    "added_message" -> addMessage(json, context, encryptionUtils)
+                    "added_message" -> addMessageTraced(json, context, encryptionUtils)
                     "update_message_type" -> updateMessageType(json, context)
                     "updated_message" -> updateMessage(json, context)
                     "removed_message" -> removeMessage(json, context)
@@ -186,6 +186,18 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
             }
         }
 
+        @Throws(JSONException::class)
+        private fun addMessageTraced(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?) {
+            val trace = ReceiveLatencyTracer.begin(ReceiveLatencyTracer.Source.FIREBASE)
+            trace.attach()
+
+            try {
+                addMessage(json, context, encryptionUtils)
+            } finally {
+                trace.detach()
+            }
+        }
+
         @Throws(JSONException::class)
         private fun addMessage(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?) {
             val id = getLong(json, "id")
@@ -243,7 +255,9 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     return
                 }
 
-                val messageId = DataSource.insertMessage(context, message, message.conversationId, true, false)
+                val messageId = ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_INSERT) {
+                    DataSource.insertMessage(context, message, message.conversationId, true, false)
+                }
                 Log.v(TAG, "added message")
 
                 if (messageId == -1L) {
@@ -334,7 +348,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
 
             val callback = FirebaseDownloadCallback {
                 message.data = Uri.fromFile(file).toString()
-                DataSource.updateMessageData(context, message.id, message.data!!)
+                DataSource.updateMessageData(context, message.id, message.data!!, message.mimeType)
                 MessageListUpdatedReceiver.sendBroadcast(context, message.conversationId)
 
                 val conversation = if (Account.primary && isSending) {
@@ -417,11 +431,6 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
             val type = json.getInt("message_type")
             DataSource.updateMessageType(context, id, type, false)
 
-            val message = DataSource.getMessage(context, id)
-            if (message != null) {
-                MessageListUpdatedReceiver.sendBroadcast(context, message)
-            }
-
             Log.v(TAG, "updated message type")
         }
 
@@ -32,7 +32,6 @@ import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
 import xyz.klinker.messenger.shared.util.DualSimUtils
 import xyz.klinker.messenger.shared.util.SendUtils
 import xyz.klinker.messenger.shared.util.TimeUtils
-import xyz.klinker.messenger.shared.util.closeSilent
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 
 /**
@@ -88,8 +87,7 @@ class ReplyService : IntentService("Reply Service") {
 
         // cancel the notification we just replied to or
         // if there are no more notifications, cancel the summary as well
-        val unseenMessages = DataSource.getUnseenMessages(this)
-        if (unseenMessages.count <= 0) {
+        if (DataSource.getUnseenMessageCount(this) <= 0) {
             try {
                 NotificationManagerCompat.from(this).cancelAll()
             } catch (e: SecurityException) {
@@ -116,8 +114,6 @@ class ReplyService : IntentService("Reply Service") {
                 Account.deviceId,
                 conversationId)
 
-        unseenMessages.closeSilent()
-
         ConversationListUpdatedReceiver.sendBroadcast(this, conversationId, getString(R.string.you) + ": " + reply, true)
         MessageListUpdatedReceiver.sendBroadcast(this, conversationId)
         MessengerAppWidgetProvider.refreshWidget(this)
@@ -1,6 +1,11 @@
 package xyz.klinker.messenger.shared.service.jobs
 
 import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.os.BatteryManager
+import android.os.PowerManager
+import android.util.Log
 import androidx.work.*
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.Settings
@@ -12,15 +17,43 @@ class CleanupOldMessagesWork(private val context: Context, params: WorkerParamet
     override fun doWork(): Result {
         val timeout = Settings.cleanupMessagesTimeout
         if (timeout > 0) {
-            DataSource.cleanupOldMessages(context, TimeUtils.now - timeout)
+            val start = TimeUtils.now
+            val deleted = DataSource.cleanupOldMessages(context, TimeUtils.now - timeout)
+            Log.v(TAG, "deleted $deleted messages in ${TimeUtils.now - start} ms")
         }
 
+        val archiveAfter = Settings.archiveMessagesTimeout
+        if (archiveAfter > 0) {
+            val start = TimeUtils.now
+            val archived = DataSource.archiveOldMessages(context, TimeUtils.now - archiveAfter)
+            Log.v(TAG, "archived $archived messages in ${TimeUtils.now - start} ms")
+        }
+
+        val reclaimed = DataSource.reclaimFreeSpace(context, isIdleAndCharging())
+        Log.v(TAG, "reclaimed ${reclaimed.bytes} bytes in ${reclaimed.millis} ms")
+
         scheduleNextRun(context)
         return Result.success()
     }
 
+    /**
+     * Converting an old database to incremental vacuum rewrites the whole file, so that is put
+     * off until a night where the screen is off and the phone is plugged in.
+     */
+    private fun isIdleAndCharging(): Boolean {
+        val battery = context.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false
+        }
+
+        val power = context.getSystemService(Context.POWER_SERVICE) as PowerManager?
+        return power != null && !power.isInteractive
+    }
+
     companion object {
 
+        private const val TAG = "CleanupOldMessagesWork"
+
         fun scheduleNextRun(context: Context) {
             val time = TimeUtils.millisUntilHourInTheNextDay(3)
             val work = OneTimeWorkRequest.Builder(CleanupOldMessagesWork::class.java)
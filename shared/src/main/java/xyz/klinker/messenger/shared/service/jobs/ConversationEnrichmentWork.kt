@@ -0,0 +1,101 @@
+package xyz.klinker.messenger.shared.service.jobs
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import xyz.klinker.messenger.shared.data.ColorSet
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.QueryScope
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver
+import xyz.klinker.messenger.shared.util.ContactUtils
+import xyz.klinker.messenger.shared.util.ImageUtils
+
+/**
+ * New conversations are created with whatever name and photo are already cached, and the colors
+ * that are saved for the contact, so that the first message can be written and notified without
+ * waiting on the contacts provider. This looks up the real name and photo afterwards, and the
+ * colors again in case the contact was only saved since, then updates the row and the
+ * conversation list.
+ *
+ * The placeholder values are handed to the work, so that only the columns that still hold them
+ * are replaced.
+ */
+class ConversationEnrichmentWork(private val context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        val conversationId = inputData.getLong(ARG_CONVERSATION_ID, -1L)
+        val colors = inputData.getIntArray(ARG_COLORS)
+        if (conversationId == -1L || colors == null || colors.size != 4) {
+            return Result.success()
+        }
+
+        val placeholder = Conversation()
+        placeholder.id = conversationId
+        placeholder.phoneNumbers = inputData.getString(ARG_PHONE_NUMBERS)
+        placeholder.title = inputData.getString(ARG_TITLE)
+        placeholder.imageUri = inputData.getString(ARG_IMAGE_URI)
+        placeholder.colors = ColorSet()
+        placeholder.colors.color = colors[0]
+        placeholder.colors.colorDark = colors[1]
+        placeholder.colors.colorLight = colors[2]
+        placeholder.colors.colorAccent = colors[3]
+
+        enrich(context, placeholder, inputData.getBoolean(ARG_USE_API, true))
+        return Result.success()
+    }
+
+    companion object {
+
+        private const val TAG = "ConversationEnrichment"
+        private const val JOB_ID = "conversation-enrichment-"
+        private const val ARG_CONVERSATION_ID = "arg_conversation_id"
+        private const val ARG_PHONE_NUMBERS = "arg_phone_numbers"
+        private const val ARG_TITLE = "arg_title"
+        private const val ARG_IMAGE_URI = "arg_image_uri"
+        private const val ARG_COLORS = "arg_colors"
+        private const val ARG_USE_API = "arg_use_api"
+
+        /**
+         * There are no constraints on the work, so it is run as soon as the receive path lets go.
+         *
+         * @param placeholder the conversation as it was inserted.
+         */
+        fun start(context: Context, placeholder: Conversation, useApi: Boolean) {
+            val data = Data.Builder()
+                    .putLong(ARG_CONVERSATION_ID, placeholder.id)
+                    .putString(ARG_PHONE_NUMBERS, placeholder.phoneNumbers)
+                    .putString(ARG_TITLE, placeholder.title)
+                    .putString(ARG_IMAGE_URI, placeholder.imageUri)
+                    .putIntArray(ARG_COLORS, intArrayOf(placeholder.colors.color, placeholder.colors.colorDark,
+                            placeholder.colors.colorLight, placeholder.colors.colorAccent))
+                    .putBoolean(ARG_USE_API, useApi)
+                    .build()
+            val work = OneTimeWorkRequest.Builder(ConversationEnrichmentWork::class.java)
+                    .setInputData(data)
+                    .build()
+
+            try {
+                WorkManager.getInstance().enqueueUniqueWork(JOB_ID + placeholder.id, ExistingWorkPolicy.KEEP, work)
+            } catch (e: IllegalStateException) {
+                // work manager hasn't been initialized in this process, so do it off of the
+                // receive path instead
+                QueryScope.background { enrich(context, placeholder, useApi) }
+            }
+        }
+
+        private fun enrich(context: Context, placeholder: Conversation, useApi: Boolean) {
+            val numbers = placeholder.phoneNumbers ?: return
+
+            val title = ContactUtils.findContactNames(numbers, context)
+            val imageUri = ContactUtils.findImageUri(numbers, context)
+            val colors = ImageUtils.findContactColors(numbers, context)
+
+            val conversation = DataSource.enrichConversation(context, placeholder, title, imageUri, colors, useApi)
+            if (conversation != null) {
+                Log.v(TAG, "filled in the details for conversation ${conversation.id}")
+                ConversationListUpdatedReceiver.sendRefreshBroadcast(context, conversation)
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package xyz.klinker.messenger.shared.service.jobs
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.pojo.PendingBackfill
+import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
+import xyz.klinker.messenger.shared.service.ApiUploadService
+import xyz.klinker.messenger.shared.util.TimeUtils
+
+/**
+ * The second half of the first run import. InitialLoadActivity only brings in the latest page of
+ * each conversation, so that the user gets in to the app quickly. This brings in the rest of their
+ * history in the background.
+ *
+ * The conversations that are left are kept in the shared preferences, and each one is removed as
+ * soon as it is written, so if the work gets stopped, the next run picks up where it left off. A
+ * conversation that was written right before the work was stopped is checked for duplicates when it
+ * runs again.
+ */
+class HistoryBackfillWork(private val context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        val start = TimeUtils.now
+        val preferences = Settings.getSharedPrefs(context)
+        val pending = preferences.getStringSet(PREF_PENDING, emptySet())!!.toMutableSet()
+
+        for (entry in pending.toList()) {
+            if (isStopped) {
+                return Result.retry()
+            }
+
+            val backfill = PendingBackfill.deserialize(entry)
+            if (backfill != null) {
+                val written = DataSource.backfillConversation(context, backfill)
+                if (written > 0) {
+                    MessageListUpdatedReceiver.sendBroadcast(context, backfill.conversationId)
+                }
+            }
+
+            pending.remove(entry)
+            preferences.edit().putStringSet(PREF_PENDING, HashSet(pending)).commit()
+        }
+
+        if (preferences.getBoolean(PREF_UPLOAD_WHEN_DONE, false)) {
+            preferences.edit().remove(PREF_UPLOAD_WHEN_DONE).commit()
+            ApiUploadService.start(context)
+        }
+
+        Log.v(TAG, "finished the history backfill in ${TimeUtils.now - start} ms")
+        return Result.success()
+    }
+
+    companion object {
+
+        private const val TAG = "HistoryBackfillWork"
+        private const val JOB_ID = "history-backfill"
+        private const val PREF_PENDING = "history_backfill_pending"
+        private const val PREF_UPLOAD_WHEN_DONE = "history_backfill_upload"
+
+        /**
+         * @param uploadWhenDone start the ApiUploadService once the whole history is in the database,
+         *                       instead of uploading only the first page. The account
+         *                       isn't usable on other devices until then, so the work doesn't wait
+         *                       for the battery in that case.
+         */
+        fun start(context: Context, pending: List<PendingBackfill>, uploadWhenDone: Boolean) {
+            Settings.getSharedPrefs(context).edit()
+                    .putStringSet(PREF_PENDING, pending.map { it.serialize() }.toHashSet())
+                    .putBoolean(PREF_UPLOAD_WHEN_DONE, uploadWhenDone)
+                    .commit()
+
+            val constraints = Constraints.Builder()
+                    .setRequiresBatteryNotLow(!uploadWhenDone)
+                    .build()
+            val work = OneTimeWorkRequest.Builder(HistoryBackfillWork::class.java)
+                    .setConstraints(constraints)
+                    .build()
+
+            WorkManager.getInstance().enqueueUniqueWork(JOB_ID, ExistingWorkPolicy.KEEP, work)
+        }
+    }
+}
@@ -29,6 +29,7 @@ import xyz.klinker.messenger.shared.data.pojo.NotificationConversation
 import xyz.klinker.messenger.shared.service.jobs.RepeatNotificationJob
 import xyz.klinker.messenger.shared.service.notification.conversation.NotificationConversationProvider
 import xyz.klinker.messenger.shared.util.MockableDataSourceWrapper
+import xyz.klinker.messenger.shared.util.ReceiveLatencyTracer
 import xyz.klinker.messenger.shared.util.TimeUtils
 import xyz.klinker.messenger.shared.widget.MessengerAppWidgetProvider
 import java.util.*
@@ -65,14 +66,17 @@ class Notifier(private val context: Context) {
             return
         }
 
-        val conversations = query.getUnseenConversations(dataSource)
+        val conversations = ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_NOTIFY_QUERY) {
+            query.getUnseenConversations(dataSource)
+        }
+
         if (conversations.isNotEmpty()) {
             val conversation = conversations.first()
             if (conversation.mute || NotificationConstants.CONVERSATION_ID_OPEN == conversation.id) {
                 return
             }
 
-            notifyLatestConversation(conversation)
+            notifyLatestConversation(conversation, ReceiveLatencyTracer.current())
             notifySummary(conversations)
 
             applyRepeat()
@@ -82,7 +86,18 @@ class Notifier(private val context: Context) {
         }
     }
 
-    private fun notifyLatestConversation(conversation: NotificationConversation) {
+    /**
+     * @param trace the receive trace for the message that caused this notification, if there is
+     * one. It is finished once the notification is posted, which can be on a different thread when
+     * smart replies are turned on.
+     */
+    private fun notifyLatestConversation(conversation: NotificationConversation, trace: ReceiveLatencyTracer.Trace?) {
+        val start = System.nanoTime()
+        val posted = {
+            trace?.record(ReceiveLatencyTracer.SPAN_NOTIFY_POST, System.nanoTime() - start)
+            trace?.finish()
+        }
+
         val messages = conversation.getFirebaseSmartReplyConversation().asReversed()
         if (Settings.notificationActions.contains(NotificationAction.SMART_REPLY) && messages.isNotEmpty()) {
             try {
@@ -91,14 +106,18 @@ class Notifier(private val context: Context) {
                         .addOnSuccessListener { result ->
                             val suggestions = result.suggestions/*.filter { it.confidence > 0.2 }*/
                             conversationNotifier.giveConversationNotification(conversation, suggestions)
+                            posted()
                         }.addOnFailureListener {
                             conversationNotifier.giveConversationNotification(conversation)
+                            posted()
                         }
             } catch (e: Exception) {
                 conversationNotifier.giveConversationNotification(conversation)
+                posted()
             }
         } else {
             conversationNotifier.giveConversationNotification(conversation)
+            posted()
         }
     }
 
@@ -23,13 +23,19 @@ class NotificationUnreadConversationQuery(private val context: Context) {
         val keys = mutableListOf<Long>()
 
         if (unseenMessages.moveToFirst()) {
+            val mapper = Message.Mapper(unseenMessages)
+            val message = Message()
+
             do {
-                val conversationId = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_CONVERSATION_ID))
-                val id = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_ID))
-                val data = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_DATA))
-                val mimeType = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_MIME_TYPE))
-                val timestamp = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_TIMESTAMP))
-                val from = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_FROM))
+                mapper.fill(message)
+
+                val conversationId = message.conversationId
+                val id = message.id
+                val data = message.data
+                val mimeType = message.mimeType
+                val timestamp = message.timestamp
+                val from = message.from
+                val renderHints = message.renderHints
 
                 if (!MimeType.isExpandedMedia(mimeType)) {
                     val conversationIndex = keys.indexOf(conversationId)
@@ -75,7 +81,7 @@ class NotificationUnreadConversationQuery(private val context: Context) {
                         conversation = conversations[conversationIndex]
                     }
 
-                    conversation?.messages?.add(NotificationMessage(id, data, mimeType, timestamp, from))
+                    conversation?.messages?.add(NotificationMessage(id, data, mimeType, timestamp, from, renderHints))
                 }
             } while (unseenMessages.moveToNext())
         }
@@ -70,8 +70,13 @@ class NotificationConversationProvider(private val service: Context, private val
         val wearableExtender = wearableHelper.buildExtender(conversation)
 
         if (!conversation.privateNotification) {
+            val latest = conversation.messages[0]
             val otp = try {
-                OneTimePasswordParser.getOtp(conversation.messages[0].data)
+                if (MessageTextAnalyzer.isAnalyzed(latest.renderHints) && !MessageTextAnalyzer.has(latest.renderHints, MessageTextAnalyzer.OTP)) {
+                    null
+                } else {
+                    OneTimePasswordParser.getOtp(latest.data)
+                }
             } catch (e: Exception) {
                 null
             }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import xyz.klinker.messenger.shared.data.model.Blacklist
+
+/**
+ * The blacklist, compiled so that checking an incoming message doesn't depend on how many rules
+ * the user has.
+ *
+ * Numbers are matched the same way as BlacklistUtils.numbersMatch(): the shorter of the two
+ * numbers decides how many of the trailing digits have to be the same. The blacklisted numbers are
+ * stored as those suffixes, in hash sets split up by the length of the number that they came
+ * from, so an incoming number only needs a few lookups.
+ *
+ * The phrases are built in to an Aho-Corasick automaton, which finds whether any of them are in
+ * the message in a single pass over its lowercased text.
+ */
+class BlacklistMatcher(blacklists: List<Blacklist>) {
+
+    private val exactNumbers = HashSet<String>()
+    private val tenDigits = HashSet<String>()
+    private val eightDigitsFromShort = HashSet<String>()
+    private val eightDigits = HashSet<String>()
+    private val sevenDigitsFromShort = HashSet<String>()
+    private val sevenDigits = HashSet<String>()
+    private val shortNumbers = HashMap<Int, HashSet<String>>()
+
+    private val phrases = KeywordAutomaton()
+
+    init {
+        for ((index, blacklist) in blacklists.withIndex()) {
+            val number = blacklist.phoneNumber
+            if (!number.isNullOrBlank()) {
+                addNumber(number)
+            }
+
+            val phrase = blacklist.phrase
+            if (!phrase.isNullOrBlank()) {
+                phrases.add(phrase.toLowerCase(), index)
+            }
+        }
+
+        phrases.build()
+    }
+
+    val isEmpty: Boolean
+        get() = exactNumbers.isEmpty() && phrases.isEmpty
+
+    fun matchesNumber(incoming: String): Boolean {
+        if (exactNumbers.contains(incoming)) {
+            return true
+        }
+
+        val number = PhoneNumberUtils.clearFormattingAndStripStandardReplacements(incoming)
+        val length = number.length
+
+        return when {
+            length >= 10 -> tenDigits.contains(suffix(number, 10)) ||
+                    eightDigitsFromShort.contains(suffix(number, 8)) ||
+                    sevenDigitsFromShort.contains(suffix(number, 7))
+            length >= 8 -> eightDigits.contains(suffix(number, 8)) ||
+                    sevenDigitsFromShort.contains(suffix(number, 7))
+            length == 7 -> sevenDigits.contains(suffix(number, 7))
+            else -> shortNumbers[length]?.contains(suffix(number, 5)) == true
+        }
+    }
+
+    fun matchesPhrase(text: String?): Boolean {
+        return text != null && !phrases.isEmpty && phrases.containsAny(text.toLowerCase())
+    }
+
+    private fun addNumber(blacklisted: String) {
+        exactNumbers.add(blacklisted)
+
+        val number = PhoneNumberUtils.clearFormattingAndStripStandardReplacements(blacklisted)
+        val length = number.length
+
+        if (length >= 10) tenDigits.add(suffix(number, 10))
+        if (length >= 8) eightDigits.add(suffix(number, 8))
+        if (length in 8..9) eightDigitsFromShort.add(suffix(number, 8))
+        if (length >= 7) sevenDigits.add(suffix(number, 7))
+        if (length == 7) sevenDigitsFromShort.add(suffix(number, 7))
+        if (length < 7) shortNumbers.getOrPut(length) { HashSet() }.add(suffix(number, 5))
+    }
+
+    /**
+     * The same suffix that SmsMmsUtils.createIdMatcher() uses for each of its matchers.
+     */
+    private fun suffix(number: String, digits: Int) = when {
+        number.contains("@") -> number
+        number.length >= digits -> number.substring(number.length - digits)
+        else -> number
+    }
+}
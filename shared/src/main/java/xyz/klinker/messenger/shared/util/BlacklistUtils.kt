@@ -20,42 +20,64 @@ import android.content.Context
 import android.util.Log
 
 import xyz.klinker.messenger.shared.data.DataSource
-import xyz.klinker.messenger.shared.data.model.Blacklist
 
 /**
  * Helper for checking whether or not a contact is blacklisted.
  */
 object BlacklistUtils {
 
+    @Volatile
+    private var matcher: BlacklistMatcher? = null
+    private var version = 0
+
     fun isBlacklisted(context: Context, incomingNumber: String, incomingText: String?): Boolean {
-        val source = DataSource
-        val cursor = source.getBlacklists(context)
-
-        val numberIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHONE_NUMBER)
-        val phraseIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHRASE)
-
-        if (cursor.moveToFirst()) {
-            do {
-                val blacklistedNumber = cursor.getString(numberIndex)
-                if (!blacklistedNumber.isNullOrBlank() && numbersMatch(incomingNumber, blacklistedNumber)) {
-                    Log.v("Blacklist", "$incomingNumber matched phone number blacklist: $blacklistedNumber")
-                    CursorUtil.closeSilent(cursor)
-                    return true
-                }
-
-                val blacklistedPhrase = cursor.getString(phraseIndex)
-                if (!blacklistedPhrase.isNullOrBlank() && incomingText?.toLowerCase()?.contains(blacklistedPhrase.toLowerCase()) == true) {
-                    Log.v("Blacklist", "$incomingText matched phrase blacklist: $incomingText")
-                    CursorUtil.closeSilent(cursor)
-                    return true
-                }
-            } while (cursor.moveToNext())
+        val matcher = getMatcher(context)
+        if (matcher.isEmpty) {
+            return false
+        }
+
+        if (matcher.matchesNumber(incomingNumber)) {
+            Log.v("Blacklist", "$incomingNumber matched phone number blacklist")
+            return true
+        }
+
+        if (matcher.matchesPhrase(incomingText)) {
+            Log.v("Blacklist", "$incomingText matched phrase blacklist")
+            return true
         }
 
-        cursor.closeSilent()
         return false
     }
 
+    /**
+     * Should be called whenever the blacklist table changes, so that the matcher is compiled again
+     * for the next message.
+     */
+    @Synchronized
+    fun invalidate() {
+        version++
+        matcher = null
+    }
+
+    private fun getMatcher(context: Context): BlacklistMatcher {
+        val cached = matcher
+        if (cached != null) {
+            return cached
+        }
+
+        val compiledVersion = synchronized(this) { version }
+        val compiled = BlacklistMatcher(DataSource.getBlacklistsAsList(context))
+
+        synchronized(this) {
+            // don't keep it if the blacklist changed while it was being compiled
+            if (version == compiledVersion) {
+                matcher = compiled
+            }
+        }
+
+        return compiled
+    }
+
     fun numbersMatch(number: String, blacklisted: String): Boolean {
         if (number == blacklisted) {
             // some countries get spam from lettered number (HP-BHKPOS)
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.database.ContentObserver
+import android.net.Uri
+import android.provider.ContactsContract
+import android.util.LruCache
+import xyz.klinker.messenger.shared.data.pojo.ContactLookup
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers what the contacts provider said about a phone number, so that ContactUtils doesn't
+ * have to query it again every time a message comes in from the same person.
+ *
+ * One lookup fills in the name, contact id and photo for a number. Numbers that aren't in the
+ * contacts are cached as well, since those are most of the lookups for short codes and spam.
+ * Everything is dropped whenever anything in the contacts provider changes. If there is no way to
+ * watch for those changes (before the contacts permission is granted), nothing is cached.
+ *
+ * Every invalidation moves the cache to a new generation, and a lookup is only cached if the
+ * generation didn't move while the provider was being queried, so that a change that raced with
+ * the query can't leave the old contact cached.
+ */
+object ContactLookupCache {
+
+    private const val MAX_ENTRIES = 500
+
+    private val cache = LruCache<String, ContactLookup>(MAX_ENTRIES)
+    private val negativeHits = AtomicLong()
+    private val generation = AtomicLong()
+    @Volatile private var observer: ContentObserver? = null
+
+    val hits: Long
+        get() = cache.hitCount().toLong()
+    val misses: Long
+        get() = cache.missCount().toLong()
+    val hitRate: Double
+        get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+
+    /**
+     * @throws Exception if the provider can't be queried. Those aren't cached, so the next call
+     *                   tries again.
+     */
+    fun lookup(context: Context, number: String): ContactLookup {
+        if (observer == null) {
+            // the permission may have been granted since the last try
+            register(context)
+            if (observer == null) {
+                return query(context, number)
+            }
+        }
+
+        val key = PhoneNumberUtils.clearFormatting(number)
+        val cached = cache.get(key)
+        if (cached != null) {
+            if (!cached.found) {
+                negativeHits.incrementAndGet()
+            }
+
+            return cached
+        }
+
+        val stamp = generation.get()
+        val lookup = query(context, number)
+        synchronized(cache) {
+            if (stamp == generation.get()) {
+                cache.put(key, lookup)
+            }
+        }
+
+        return lookup
+    }
+
+    /**
+     * @return what is already cached for the number, without going to the provider on a miss.
+     */
+    fun peek(number: String): ContactLookup? =
+            if (observer == null) null else cache.get(PhoneNumberUtils.clearFormatting(number))
+
+    fun invalidate() {
+        synchronized(cache) {
+            generation.incrementAndGet()
+            cache.evictAll()
+        }
+    }
+
+    fun describe(): String {
+        return "contact lookups: ${cache.size()} cached, $hits hits (${negativeHits.get()} negative), " +
+                "$misses misses, ${String.format(Locale.US, "%.1f", hitRate * 100)}% hit rate"
+    }
+
+    /**
+     * Drops the cache whenever the user's contacts change. This is tried again on the next lookup
+     * if it fails.
+     */
+    @Synchronized
+    fun register(context: Context) {
+        if (observer != null) {
+            return
+        }
+
+        val observer = object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean) {
+                invalidate()
+            }
+        }
+
+        try {
+            context.applicationContext.contentResolver
+                    .registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, observer)
+            invalidate()
+            this.observer = observer
+        } catch (e: Exception) {
+            // without the contacts permission, we can't tell when they change
+        }
+    }
+
+    /**
+     * The phone lookup matches on the whole number. If that doesn't find anything, longer numbers
+     * get a second try against the phone filter, which matches on part of the number.
+     */
+    private fun query(context: Context, number: String): ContactLookup {
+        var cursor = context.contentResolver.query(
+                Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number)),
+                arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME, ContactsContract.PhoneLookup._ID,
+                        ContactsContract.PhoneLookup.PHOTO_THUMBNAIL_URI), null, null, null)
+
+        try {
+            if (cursor != null && cursor.moveToFirst()) {
+                return ContactLookup(cursor.getString(0), cursor.getLong(1),
+                        cursor.getString(2)?.replace("/photo", ""))
+            } else if (ContactUtils.useContentFilterQuery(number)) {
+                cursor.closeSilent()
+                cursor = context.contentResolver.query(
+                        Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI, Uri.encode(number)),
+                        arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME, ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
+                                ContactsContract.Contacts.PHOTO_THUMBNAIL_URI), null, null, null)
+
+                if (cursor != null && cursor.moveToFirst()) {
+                    return ContactLookup(cursor.getString(0), cursor.getLong(1), cursor.getString(2))
+                }
+            }
+        } finally {
+            cursor.closeSilent()
+        }
+
+        return ContactLookup.NOT_FOUND
+    }
+}
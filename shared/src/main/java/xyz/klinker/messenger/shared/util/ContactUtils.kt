@@ -206,40 +206,17 @@ object ContactUtils {
             val origin = number[i]
 
             try {
-                var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                        Uri.encode(origin))
-
-                var phonesCursor = context.contentResolver
-                        .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
-
-                if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                    names += ", " + phonesCursor.getString(0).replace(",".toRegex(), "")
-                } else if (useContentFilterQuery(origin)) {
-                    phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
-                            Uri.encode(origin))
+                val lookup = ContactLookupCache.lookup(context, origin)
 
-                    phonesCursor = context.contentResolver
-                            .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
-
-                    names += if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                        ", " + phonesCursor.getString(0).replace(",".toRegex(), "")
-                    } else {
-                        try {
-                            ", " + PhoneNumberUtils.format(number[i])!!
-                        } catch (e: Exception) {
-                            ", " + number
-                        }
-                    }
+                names += if (lookup.name != null) {
+                    ", " + lookup.name.replace(",".toRegex(), "")
                 } else {
-                    names += try {
+                    try {
                         ", " + PhoneNumberUtils.format(number[i])!!
                     } catch (e: Exception) {
                         ", " + number
                     }
-
                 }
-
-                phonesCursor?.closeSilent()
             } catch (e: Exception) {
                 e.printStackTrace()
             }
@@ -254,38 +231,31 @@ object ContactUtils {
 
     }
 
+    /**
+     * The same as findContactNames, but only uses the names that are already in the
+     * ContactLookupCache. Numbers that haven't been looked up yet are formatted instead, so this
+     * never queries the contacts provider.
+     */
+    fun findCachedContactNames(numbers: String?): String {
+        if (numbers == null) {
+            return ""
+        }
+
+        return numbers.split(", ").filter { it.isNotEmpty() }.joinToString(", ") {
+            ContactLookupCache.peek(it)?.name?.replace(",", "")
+                    ?: try { PhoneNumberUtils.format(it) ?: it } catch (e: Exception) { it }
+        }
+    }
+
     /**
      * Gets an id for the contact so that you can view that contact directly in the contacts app.
      */
     @Throws(NoSuchElementException::class)
     fun findContactId(number: String, context: Context): Int {
         try {
-            var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                    Uri.encode(number))
-
-            var phonesCursor = context.contentResolver
-                    .query(phoneUri, arrayOf(ContactsContract.PhoneLookup._ID), null, null, null)
-
-            if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                val id = phonesCursor.getInt(0)
-                phonesCursor.close()
-                return id
-            } else if (useContentFilterQuery(number)) {
-                phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
-                        Uri.encode(number))
-
-                phonesCursor = context.contentResolver
-                        .query(phoneUri, arrayOf(ContactsContract.CommonDataKinds.Phone.CONTACT_ID), null, null, null)
-
-                if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                    val id = phonesCursor.getInt(0)
-                    phonesCursor.close()
-                    return id
-                } else if (phonesCursor != null) {
-                    phonesCursor.close()
-                }
-            } else if (phonesCursor != null) {
-                phonesCursor.close()
+            val contactId = ContactLookupCache.lookup(context, number).contactId
+            if (contactId != null) {
+                return contactId.toInt()
             }
         } catch (e: IllegalArgumentException) {
             e.printStackTrace()
@@ -312,6 +282,13 @@ object ContactUtils {
 
         if (number == null || number.split(", ".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray().size > 1) {
             return null
+        } else if (!forceTryFilterQuery) {
+            return try {
+                ContactLookupCache.lookup(context, number).photoUri
+            } catch (e: Exception) {
+                e.printStackTrace()
+                null
+            }
         } else {
             var phonesCursor: Cursor? = null
 
@@ -622,7 +599,7 @@ object ContactUtils {
         }
     }
 
-    private fun useContentFilterQuery(number: String): Boolean {
+    internal fun useContentFilterQuery(number: String): Boolean {
         return  number.length > MATCH_NUMBERS_WITH_SIZE_GREATER_THAN && numericCharactersOnly(number)
     }
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import xyz.klinker.messenger.shared.data.IdMatcher
+import java.util.*
+
+/**
+ * Builds the IdMatcher for SmsMmsUtils.createIdMatcher().
+ *
+ * This works on the characters of the numbers directly, instead of splitting and replacing with
+ * regular expressions, since it runs for every message that gets inserted and every conversation
+ * lookup. A single number, which is the usual case, doesn't need any lists or sorting at all.
+ *
+ * The output has to stay exactly the same as it always has been, since the matchers are stored
+ * in the database. SmsMmsUtilsTest compares it against the original implementation.
+ */
+object IdMatcherBuilder {
+
+    fun build(phoneNumbers: String): IdMatcher {
+        val count = countNumbers(phoneNumbers)
+        if (count == 0) {
+            return IdMatcher("", "", "", "", "", "")
+        } else if (count == 1) {
+            val number = stripSeparators(firstNumber(phoneNumbers))
+            val noFormatting = clearFormatting(number)
+            return IdMatcher(suffix(number, 5), suffix(number, 7), suffix(noFormatting, 7),
+                    suffix(number, 8), suffix(noFormatting, 8), suffix(number, 10))
+        }
+
+        val five = arrayOfNulls<String>(count)
+        val seven = arrayOfNulls<String>(count)
+        val sevenNoFormatting = arrayOfNulls<String>(count)
+        val eight = arrayOfNulls<String>(count)
+        val eightNoFormatting = arrayOfNulls<String>(count)
+        val ten = arrayOfNulls<String>(count)
+
+        var start = 0
+        for (i in 0 until count) {
+            var end = phoneNumbers.indexOf(SEPARATOR, start)
+            if (end == -1) {
+                end = phoneNumbers.length
+            }
+
+            val number = stripSeparators(phoneNumbers.substring(start, end))
+            val noFormatting = clearFormatting(number)
+            five[i] = suffix(number, 5)
+            seven[i] = suffix(number, 7)
+            sevenNoFormatting[i] = suffix(noFormatting, 7)
+            eight[i] = suffix(number, 8)
+            eightNoFormatting[i] = suffix(noFormatting, 8)
+            ten[i] = suffix(number, 10)
+
+            start = end + SEPARATOR.length
+        }
+
+        return IdMatcher(join(five), join(seven), join(sevenNoFormatting), join(eight),
+                join(eightNoFormatting), join(ten))
+    }
+
+    /**
+     * The number of entries that splitting on ", " gives, without the empty ones at the end.
+     */
+    private fun countNumbers(phoneNumbers: String): Int {
+        var count = 0
+        var nonEmpty = 0
+        var start = 0
+
+        while (true) {
+            val end = phoneNumbers.indexOf(SEPARATOR, start)
+            count++
+
+            if (end == -1) {
+                if (start < phoneNumbers.length) {
+                    nonEmpty = count
+                }
+
+                return nonEmpty
+            }
+
+            if (end > start) {
+                nonEmpty = count
+            }
+
+            start = end + SEPARATOR.length
+        }
+    }
+
+    private fun firstNumber(phoneNumbers: String): String {
+        val end = phoneNumbers.indexOf(SEPARATOR)
+        return if (end == -1) phoneNumbers else phoneNumbers.substring(0, end)
+    }
+
+    /**
+     * Removes the dashes, spaces and slashes.
+     */
+    private fun stripSeparators(number: String): String {
+        var separators = 0
+        for (c in number) {
+            if (c == '-' || c == ' ' || c == '/') {
+                separators++
+            }
+        }
+
+        if (separators == 0) {
+            return number
+        }
+
+        val chars = CharArray(number.length - separators)
+        var index = 0
+        for (c in number) {
+            if (c != '-' && c != ' ' && c != '/') {
+                chars[index++] = c
+            }
+        }
+
+        return String(chars)
+    }
+
+    /**
+     * Gives the same result as PhoneNumberUtils.clearFormatting(), but only falls back to it for
+     * the numbers that it would actually change.
+     */
+    private fun clearFormatting(number: String): String {
+        var hasLetter = false
+        var hasLineBreak = false
+        var alreadyClear = true
+
+        for (c in number) {
+            when {
+                c in 'a'..'z' || c in 'A'..'Z' -> hasLetter = true
+                c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029' -> hasLineBreak = true
+            }
+
+            if (c !in '0'..'9' && c != '+' && c != '*' && c != '#') {
+                alreadyClear = false
+            }
+        }
+
+        return when {
+            // the original checks this with .*[a-zA-Z].*, which doesn't match across lines
+            hasLetter && !hasLineBreak -> number
+            alreadyClear -> number
+            else -> PhoneNumberUtils.clearFormatting(number)
+        }
+    }
+
+    private fun suffix(number: String, digits: Int) = when {
+        number.indexOf('@') != -1 -> number
+        number.length > digits -> number.substring(number.length - digits)
+        else -> number
+    }
+
+    private fun join(matchers: Array<String?>): String {
+        Arrays.sort(matchers)
+
+        var length = 0
+        for (matcher in matchers) {
+            length += matcher!!.length
+        }
+
+        val builder = StringBuilder(length)
+        for (matcher in matchers) {
+            builder.append(matcher)
+        }
+
+        return builder.toString()
+    }
+
+    private const val SEPARATOR = ", "
+}
@@ -121,16 +121,8 @@ object ImageUtils {
      * @param context      the current context.
      */
     fun fillConversationColors(conversation: Conversation, context: Context) {
-        if (conversation.phoneNumbers!!.contains(",")) {
-            conversation.colors = ColorUtils.getRandomMaterialColor(context)
-        } else {
-            val contact = DataSource.getContact(context, conversation.phoneNumbers!!)
-            if (contact != null) {
-                conversation.colors = contact.colors
-            } else {
-                conversation.colors = ColorUtils.getRandomMaterialColor(context)
-            }
-        }
+        conversation.colors = findContactColors(conversation.phoneNumbers, context)
+                ?: ColorUtils.getRandomMaterialColor(context)
 //        if (conversation.imageUri == null) {
 //            conversation.colors = ColorUtils.getRandomMaterialColor(context)
 //        } else {
@@ -146,6 +138,19 @@ object ImageUtils {
 //        }
     }
 
+    /**
+     * Gets the colors that the user has for a single contact.
+     *
+     * @return null for group conversations, or if the number isn't one of the user's contacts.
+     */
+    fun findContactColors(phoneNumbers: String?, context: Context): ColorSet? {
+        if (phoneNumbers == null || phoneNumbers.contains(",")) {
+            return null
+        }
+
+        return DataSource.getContact(context, phoneNumbers)?.colors
+    }
+
     /**
      * Gets the correct colors for a contact based on their image.
      *
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import java.util.*
+
+/**
+ * An Aho-Corasick automaton, for finding which of a set of keywords show up in a piece of text
+ * with a single pass over it, no matter how many keywords there are.
+ *
+ * Each keyword is added with an id. Call build() once all of them have been added, and before
+ * searching. The matching is exact, so lowercase the keywords and the text first for a case
+ * insensitive search.
+ */
+class KeywordAutomaton {
+
+    private val transitions = arrayListOf(HashMap<Char, Int>())
+    private val failures = arrayListOf(0)
+    private val outputs = arrayListOf(BitSet())
+
+    val isEmpty: Boolean
+        get() = transitions.size == 1 && outputs[0].isEmpty
+
+    fun add(keyword: String, id: Int) {
+        var state = 0
+        for (c in keyword) {
+            var next = transitions[state][c]
+            if (next == null) {
+                next = transitions.size
+                transitions[state][c] = next
+                transitions.add(HashMap())
+                failures.add(0)
+                outputs.add(BitSet())
+            }
+
+            state = next
+        }
+
+        outputs[state].set(id)
+    }
+
+    /**
+     * Links each state to the longest suffix of it that is also in the automaton, breadth first,
+     * so that the states further down can pick up the keywords that end at their suffixes.
+     */
+    fun build() {
+        val queue = ArrayDeque<Int>()
+        for (child in transitions[0].values) {
+            outputs[child].or(outputs[0])
+            queue.add(child)
+        }
+
+        while (queue.isNotEmpty()) {
+            val state = queue.poll()
+            for ((c, next) in transitions[state]) {
+                var failure = failures[state]
+                while (failure != 0 && transitions[failure][c] == null) {
+                    failure = failures[failure]
+                }
+
+                val target = transitions[failure][c]
+                failures[next] = if (target != null && target != next) target else 0
+                outputs[next].or(outputs[failures[next]])
+                queue.add(next)
+            }
+        }
+    }
+
+    fun containsAny(text: String): Boolean {
+        if (!outputs[0].isEmpty) {
+            return true
+        }
+
+        var state = 0
+        for (c in text) {
+            state = step(state, c)
+            if (!outputs[state].isEmpty) {
+                return true
+            }
+        }
+
+        return false
+    }
+
+    /**
+     * @return the ids of all of the keywords that are in the text.
+     */
+    fun findAll(text: String): BitSet {
+        val found = BitSet()
+        found.or(outputs[0])
+
+        var state = 0
+        for (c in text) {
+            state = step(state, c)
+            found.or(outputs[state])
+        }
+
+        return found
+    }
+
+    private fun step(from: Int, c: Char): Int {
+        var state = from
+        while (state != 0 && transitions[state][c] == null) {
+            state = failures[state]
+        }
+
+        return transitions[state][c] ?: 0
+    }
+}
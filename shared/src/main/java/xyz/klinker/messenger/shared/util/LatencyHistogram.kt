@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import java.util.Arrays
+
+/**
+ * Counts latencies in to buckets that grow by a quarter each, from 1 ms up to ten minutes, so that
+ * any number of samples fit in a fixed amount of memory and can be saved as a short string.
+ * Percentiles come back as the upper bound of the bucket that they fall in, which is within 25%
+ * of the real value.
+ */
+class LatencyHistogram private constructor(private val counts: LongArray) {
+
+    constructor() : this(LongArray(BOUNDS.size + 1))
+
+    val count: Long
+        @Synchronized get() = counts.sum()
+
+    @Synchronized
+    fun record(millis: Long) {
+        counts[bucket(millis)]++
+    }
+
+    /**
+     * @param percentile between 0 and 1.
+     * @return the latency that the given share of the samples were at or under, -1 if there aren't
+     * any samples, or Long.MAX_VALUE if it is past the last bucket.
+     */
+    @Synchronized
+    fun percentile(percentile: Double): Long {
+        val total = counts.sum()
+        if (total == 0L) {
+            return -1
+        }
+
+        val target = Math.max(1L, Math.ceil(percentile * total).toLong())
+        var seen = 0L
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= target) {
+                return if (i < BOUNDS.size) BOUNDS[i] else Long.MAX_VALUE
+            }
+        }
+
+        return Long.MAX_VALUE
+    }
+
+    @Synchronized
+    fun clear() {
+        counts.fill(0)
+    }
+
+    @Synchronized
+    fun serialize() = counts.joinToString(",")
+
+    companion object {
+
+        private const val MAX_MILLIS = 10 * 60 * 1000L
+
+        // the inclusive upper bound of each bucket, anything over the last one goes in to an extra bucket
+        private val BOUNDS: LongArray = run {
+            val bounds = ArrayList<Long>()
+            var bound = 1L
+            while (bound < MAX_MILLIS) {
+                bounds.add(bound)
+                bound = Math.max(bound + 1, Math.ceil(bound * 1.25).toLong())
+            }
+
+            bounds.add(MAX_MILLIS)
+            bounds.toLongArray()
+        }
+
+        private fun bucket(millis: Long): Int {
+            val index = Arrays.binarySearch(BOUNDS, Math.max(0L, millis))
+            return if (index >= 0) index else -index - 1
+        }
+
+        /**
+         * @return null if the string wasn't written by serialize(), or was written with different buckets.
+         */
+        fun deserialize(serialized: String?): LatencyHistogram? {
+            val parts = serialized?.split(",") ?: return null
+            if (parts.size != BOUNDS.size + 1) {
+                return null
+            }
+
+            return try {
+                LatencyHistogram(parts.map { it.toLong() }.toLongArray())
+            } catch (e: NumberFormatException) {
+                null
+            }
+        }
+    }
+}
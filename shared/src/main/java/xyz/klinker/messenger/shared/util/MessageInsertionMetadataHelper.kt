@@ -38,6 +38,27 @@ class MessageInsertionMetadataHelper(private val context: Context) {
         }
     }
 
+    /**
+     * Processes a batch of inserted messages, looking up each of their conversations only once.
+     */
+    fun process(messages: List<Message>) {
+        if (messages.isEmpty() || !shouldProcessOnThisDevice()) {
+            return
+        }
+
+        for ((conversationId, conversationMessages) in messages.groupBy { it.conversationId }) {
+            val conversation = try {
+                DataSource.getConversation(context, conversationId)
+            } catch (e: Exception) {
+                null
+            } ?: continue
+
+            for (message in conversationMessages) {
+                process(message, conversation)
+            }
+        }
+    }
+
     private fun process(message: Message, conversation: Conversation) {
         if (message.mimeType == MimeType.TEXT_PLAIN && canProcessMedia(message)) {
             MediaParserService.start(context, message)
@@ -53,6 +74,11 @@ class MessageInsertionMetadataHelper(private val context: Context) {
     }
 
     private fun canProcessMedia(message: Message): Boolean {
+        // the previews all come from a link, so there is nothing to look for if the analyzer didn't see one
+        if (MessageTextAnalyzer.isAnalyzed(message.renderHints) && !MessageTextAnalyzer.has(message.renderHints, MessageTextAnalyzer.LINK)) {
+            return false
+        }
+
         val parser = MediaParserService.createParser(context, message)
         return if (parser == null || (!Settings.internalBrowser && parser is ArticleParser)) {
             false
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.util.Patterns
+import xyz.klinker.messenger.shared.data.MimeType
+
+/**
+ * Works out what the text of a message contains when it is written to the database, so that the
+ * message list and the notifications don't have to run every pattern against it again each time
+ * that it is shown. The result is a set of flags for the render_hints column.
+ *
+ * The text is walked once up front to count the characters that each pattern depends on. A url
+ * always has a '.', an email always has an '@', and a phone number always has at least four
+ * digits, so most messages never get to the expensive patterns at all. The patterns themselves
+ * are the same ones that the rest of the app uses, so a message is only flagged when those would
+ * have found something.
+ *
+ * A value of 0 means that the message was never analyzed (it was written before the column
+ * existed, or it isn't text), and the callers need to fall back to checking the text themselves.
+ */
+object MessageTextAnalyzer {
+
+    const val ANALYZED = 1
+    const val LINK = 1 shl 1
+    const val EMAIL = 1 shl 2
+    const val PHONE = 1 shl 3
+    const val EMOJI_ONLY = 1 shl 4
+    const val OTP = 1 shl 5
+
+    private const val MIN_PHONE_DIGITS = 4
+
+    /**
+     * Only plain text messages are analyzed, everything else is left at 0.
+     */
+    fun analyze(mimeType: String?, text: String?) = if (mimeType == MimeType.TEXT_PLAIN) analyze(text) else 0
+
+    fun analyze(text: String?): Int {
+        if (text == null) {
+            return ANALYZED
+        }
+
+        var dots = false
+        var ats = false
+        var digits = 0
+        for (c in text) {
+            when {
+                c in '0'..'9' -> digits++
+                c == '.' -> dots = true
+                c == '@' -> ats = true
+            }
+        }
+
+        var hints = ANALYZED
+        if (dots && Regex.WEB_URL.matcher(text).find()) {
+            hints = hints or LINK
+        }
+
+        if (dots && ats && Patterns.EMAIL_ADDRESS.matcher(text).find()) {
+            hints = hints or EMAIL
+        }
+
+        if (digits >= MIN_PHONE_DIGITS && Regex.PHONE.matcher(text).find()) {
+            hints = hints or PHONE
+        }
+
+        if (digits > 0 && OneTimePasswordParser.getOtp(text) != null) {
+            hints = hints or OTP
+        }
+
+        if (isOnlyEmojis(text)) {
+            hints = hints or EMOJI_ONLY
+        }
+
+        return hints
+    }
+
+    fun isAnalyzed(hints: Int) = (hints and ANALYZED) != 0
+
+    fun has(hints: Int, flag: Int) = (hints and flag) != 0
+
+    /**
+     * Matches removing every [Regex.EMOJI] from the text and being left with nothing, without
+     * building the new string. Those ranges are U+1F000 to U+1F7FF, which are a surrogate pair
+     * with a 0xD83C or 0xD83D high half, and U+2600 to U+27FF.
+     */
+    fun isOnlyEmojis(text: String): Boolean {
+        if (text.isEmpty()) {
+            return false
+        }
+
+        var i = 0
+        while (i < text.length) {
+            val c = text[i]
+            if (c in '\u2600'..'\u27ff') {
+                i++
+            } else if ((c == '\ud83c' || c == '\ud83d') && i + 1 < text.length && text[i + 1] in '\udc00'..'\udfff') {
+                i += 2
+            } else {
+                return false
+            }
+        }
+
+        return true
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.net.Uri
+import xyz.klinker.messenger.shared.data.pojo.MmsPart
+
+/**
+ * Looks up what SmsMmsUtils.processMessage needs for a group of mms ahead of time, so that it
+ * doesn't have to go back to the provider for every message.
+ *
+ * The parts for a whole chunk of mms come back from one IN (...) query. The provider only gives
+ * out an mms' addresses underneath that message, so the sender still takes a query per message,
+ * but the contact lookup for it is only done once for each distinct number. In a group
+ * conversation, that is one lookup per member, instead of one for every message.
+ *
+ * This isn't thread safe. Use one resolver per thread.
+ */
+class MmsBatchResolver(private val context: Context, private val chunkSize: Int = CHUNK_SIZE) {
+
+    private val parts = HashMap<Long, List<MmsPart>>()
+    private val senders = HashMap<Long, String>()
+    private val recipients = HashMap<Long, String>()
+    private val contactNames = HashMap<String, String>()
+
+    /**
+     * Queries the parts for all of the given mms, a chunk at a time.
+     */
+    fun prefetch(mmsIds: List<Long>) {
+        for (chunk in mmsIds.filter { !parts.containsKey(it) }.chunked(chunkSize)) {
+            val found = SmsMmsUtils.queryMmsParts(context, chunk)
+            for (id in chunk) {
+                parts[id] = found[id] ?: emptyList()
+            }
+        }
+    }
+
+    /**
+     * @return the parts for the mms, or null if they weren't prefetched.
+     */
+    fun parts(mmsId: Long): List<MmsPart>? {
+        return parts[mmsId]
+    }
+
+    fun from(mmsId: Long): String {
+        return senders.getOrPut(mmsId) { SmsMmsUtils.getMmsFrom(Uri.parse("content://mms/$mmsId"), context) }
+    }
+
+    /**
+     * Reads the recipients from the mms' addresses, instead of loading its whole pdu.
+     */
+    fun to(mmsId: Long): String {
+        return recipients.getOrPut(mmsId) { SmsMmsUtils.getMmsRecipients(mmsId, context) }
+    }
+
+    fun contactNames(number: String): String {
+        return contactNames.getOrPut(number) { ContactUtils.findContactNames(number, context) }
+    }
+
+    /**
+     * Drops the parts, senders and recipients that have been looked up, but keeps the contact names, since
+     * those are likely to come up again in the next batch.
+     */
+    fun clearParts() {
+        parts.clear()
+        senders.clear()
+        recipients.clear()
+    }
+
+    companion object {
+        // keeps the IN (...) clause well below sqlite's limit on the size of a statement
+        private const val CHUNK_SIZE = 200
+    }
+}
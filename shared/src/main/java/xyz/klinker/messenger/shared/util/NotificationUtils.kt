@@ -30,8 +30,7 @@ object NotificationUtils {
                 } catch (e: Exception) {
                 }
 
-                val cursor = DataSource.getUnseenMessages(context)
-                if (cursor.count == 0) {
+                if (DataSource.getUnseenMessageCount(context) == 0) {
                     // all messages are seen
                     val manager = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
 
@@ -41,8 +40,6 @@ object NotificationUtils {
                         // not the right permissions. Changed user account maybe
                     }
                 }
-
-                cursor.closeSilent()
             }.start()
         }
     }
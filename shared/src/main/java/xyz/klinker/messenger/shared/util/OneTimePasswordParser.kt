@@ -1,6 +1,10 @@
 package xyz.klinker.messenger.shared.util
 
-private class OtpMatcher(val regex: String, val captureGroup: Int, val validationRegex: String? = null)
+// the patterns are compiled once, when the parser is first used, rather than for every message
+private class OtpMatcher(regex: String, val captureGroup: Int, validationRegex: String? = null) {
+    val regex = regex.toRegex()
+    val validationRegex = validationRegex?.toRegex()
+}
 
 object OneTimePasswordParser {
 
@@ -45,15 +49,19 @@ object OneTimePasswordParser {
     )
 
     fun getOtp(text: String): String? {
+        // every code has at least one digit in it
+        if (text.none { it in '0'..'9' }) {
+            return null
+        }
+
         matchers.forEach {
-            val regex = it.regex.toRegex()
-            val matchResult = regex.find(text)
+            val matchResult = it.regex.find(text)
 
             if (matchResult != null) {
                 val groups = matchResult.groupValues
                 if (groups.size >= it.captureGroup) {
                     val code = groups[it.captureGroup]
-                    if (it.validationRegex == null || it.validationRegex.toRegex().matches(code)) {
+                    if (it.validationRegex == null || it.validationRegex.matches(code)) {
                         return code
                     }
                 }
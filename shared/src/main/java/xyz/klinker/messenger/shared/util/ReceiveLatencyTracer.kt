@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.content.pm.PackageManager
+import android.util.Log
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Times how long it takes from a message reaching the app to its notification being posted, and
+ * where that time goes along the way.
+ *
+ * A trace is started where a message comes in (the sms receiver, the mms receiver, or the
+ * added_message operation from firebase), and attached to the thread that handles it. The steps
+ * along the way wrap themselves in span(), which is a no-op on threads without a trace, so the
+ * same code can be shared with everything else that inserts messages. Only traces that end with a
+ * notification are kept. Muted conversations, duplicates and blacklisted messages are dropped.
+ *
+ * Finished traces go in to a ring buffer of the most recent ones, and in to a histogram for the
+ * total of each source and for each span. The histograms are saved, and start over with each new
+ * version of the app, so that the percentiles can be compared from release to release. Spans can
+ * be nested, so the spans don't have to add up to the total.
+ *
+ * Dump the results from the about screen, by tapping on the device info, or over adb with
+ * ReceiveLatencyDumpReceiver.
+ */
+object ReceiveLatencyTracer {
+
+    const val SPAN_BLACKLIST = "blacklist"
+    const val SPAN_INSERT = "insert"
+    const val SPAN_METADATA = "metadata"
+    const val SPAN_NOTIFY_QUERY = "notify_query"
+    const val SPAN_NOTIFY_POST = "notify_post"
+
+    private const val TAG = "ReceiveLatency"
+    private const val RECENT_TRACES = 64
+    private const val PREF_VERSION = "receive_latency_version"
+    private const val PREF_SINCE = "receive_latency_since"
+    private const val PREF_HISTOGRAM = "receive_latency_histogram_"
+    private const val NANOS_PER_MILLI = 1000000L
+
+    enum class Source { SMS, MMS, FIREBASE }
+
+    private val attached = ThreadLocal<Trace>()
+    private val recent = arrayOfNulls<Record>(RECENT_TRACES)
+    private var next = 0
+    private val totals = TreeMap<String, LatencyHistogram>()
+    private val spans = TreeMap<String, LatencyHistogram>()
+
+    private var preferences: SharedPreferences? = null
+    private var version: String? = null
+    private var since = 0L
+
+    /**
+     * Loads the histograms that were saved for this version of the app, and saves them as traces
+     * finish from now on. Without this, the tracer still works, it just only keeps the results
+     * in memory.
+     */
+    @Synchronized
+    fun register(context: Context) {
+        if (preferences != null) {
+            return
+        }
+
+        val currentVersion = try {
+            val info = context.packageManager.getPackageInfo(context.packageName, 0)
+            "${info.versionName} (${info.versionCode})"
+        } catch (e: PackageManager.NameNotFoundException) {
+            "unknown"
+        }
+
+        val prefs = context.getSharedPreferences("receive_latency", Context.MODE_PRIVATE)
+        if (prefs.getString(PREF_VERSION, null) != currentVersion) {
+            prefs.edit().clear()
+                    .putString(PREF_VERSION, currentVersion)
+                    .putLong(PREF_SINCE, TimeUtils.now)
+                    .apply()
+        }
+
+        for ((key, value) in prefs.all) {
+            if (key.startsWith(PREF_HISTOGRAM) && value is String) {
+                val histogram = LatencyHistogram.deserialize(value) ?: continue
+                val name = key.substring(PREF_HISTOGRAM.length)
+                if (name.startsWith("total_")) {
+                    totals[name.substring("total_".length)] = histogram
+                } else {
+                    spans[name] = histogram
+                }
+            }
+        }
+
+        preferences = prefs
+        version = currentVersion
+        since = prefs.getLong(PREF_SINCE, TimeUtils.now)
+    }
+
+    /**
+     * Starts a trace. Call Trace.attach() on the thread that is going to handle the message.
+     */
+    fun begin(source: Source) = Trace(source)
+
+    fun current(): Trace? = attached.get()
+
+    /**
+     * Times the block as part of the trace on this thread, if there is one.
+     */
+    inline fun <T> span(name: String, block: () -> T): T {
+        val trace = current() ?: return block()
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            trace.record(name, System.nanoTime() - start)
+        }
+    }
+
+    @Synchronized
+    private fun finished(trace: Trace, totalNanos: Long, spanNanos: Map<String, Long>) {
+        val totalMillis = totalNanos / NANOS_PER_MILLI
+        val spanMillis = spanNanos.mapValues { it.value / NANOS_PER_MILLI }
+
+        recent[next] = Record(TimeUtils.now, trace.source, totalMillis, spanMillis)
+        next = (next + 1) % RECENT_TRACES
+
+        val source = trace.source.name.toLowerCase(Locale.US)
+        val edit = preferences?.edit()
+        record(totals, source, totalMillis, edit, "total_$source")
+        for ((name, millis) in spanMillis) {
+            record(spans, name, millis, edit, name)
+        }
+
+        edit?.apply()
+        Log.v(TAG, "$source: $totalMillis ms, $spanMillis")
+    }
+
+    private fun record(histograms: MutableMap<String, LatencyHistogram>, name: String, millis: Long,
+                       edit: SharedPreferences.Editor?, key: String) {
+        val histogram = histograms.getOrPut(name) { LatencyHistogram() }
+        histogram.record(millis)
+        edit?.putString(PREF_HISTOGRAM + key, histogram.serialize())
+    }
+
+    /**
+     * Clears the recent traces and the histograms for this version.
+     */
+    @Synchronized
+    fun reset() {
+        recent.fill(null)
+        next = 0
+        totals.clear()
+        spans.clear()
+        since = TimeUtils.now
+
+        preferences?.edit()?.clear()
+                ?.putString(PREF_VERSION, version)
+                ?.putLong(PREF_SINCE, since)
+                ?.apply()
+    }
+
+    /**
+     * The histograms and recent traces, along with the contact lookup cache's hit rate, since the
+     * contact name lookups are on the same path.
+     */
+    @Synchronized
+    fun dump(): String {
+        val format = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US)
+        val builder = StringBuilder()
+        builder.append("Receive to notification latency")
+        if (version != null) {
+            builder.append(", version ").append(version).append(" since ").append(format.format(Date(since)))
+        }
+
+        builder.append("\n\ntotal\n")
+        appendHistograms(builder, totals)
+        builder.append("\nspans\n")
+        appendHistograms(builder, spans)
+
+        builder.append("\nrecent\n")
+        for (i in 1..RECENT_TRACES) {
+            val record = recent[(next - i + RECENT_TRACES) % RECENT_TRACES] ?: break
+            builder.append(format.format(Date(record.timestamp))).append(' ')
+                    .append(record.source.name.toLowerCase(Locale.US)).append(' ')
+                    .append(record.totalMillis).append(" ms")
+            for ((name, millis) in record.spanMillis) {
+                builder.append(' ').append(name).append('=').append(millis)
+            }
+
+            builder.append('\n')
+        }
+
+        builder.append('\n').append(ContactLookupCache.describe()).append('\n')
+        return builder.toString()
+    }
+
+    private fun appendHistograms(builder: StringBuilder, histograms: Map<String, LatencyHistogram>) {
+        if (histograms.isEmpty()) {
+            builder.append("  none yet\n")
+        }
+
+        for ((name, histogram) in histograms) {
+            builder.append("  ").append(name)
+                    .append(": n=").append(histogram.count)
+                    .append(", p50=").append(describe(histogram.percentile(0.5)))
+                    .append(", p90=").append(describe(histogram.percentile(0.9)))
+                    .append(", p99=").append(describe(histogram.percentile(0.99)))
+                    .append('\n')
+        }
+    }
+
+    private fun describe(millis: Long) = if (millis == Long.MAX_VALUE) "over 10 min" else "<=$millis ms"
+
+    class Trace internal constructor(val source: Source) {
+
+        private val start = System.nanoTime()
+        private val spanNanos = LinkedHashMap<String, Long>()
+        private val finished = AtomicBoolean()
+
+        fun attach() {
+            attached.set(this)
+        }
+
+        /**
+         * Lets go of the trace on this thread. If it never finished, it is dropped.
+         */
+        fun detach() {
+            if (attached.get() === this) {
+                attached.remove()
+            }
+        }
+
+        @Synchronized
+        fun record(name: String, nanos: Long) {
+            spanNanos[name] = (spanNanos[name] ?: 0L) + nanos
+        }
+
+        /**
+         * Ends the trace, once its notification has been posted. This can be called from a
+         * different thread than the one the trace was attached to, and only counts the first time.
+         */
+        fun finish() {
+            if (finished.compareAndSet(false, true)) {
+                val total = System.nanoTime() - start
+                val spans = synchronized(this) { LinkedHashMap(spanNanos) }
+                finished(this, total, spans)
+            }
+        }
+    }
+
+    private class Record(val timestamp: Long, val source: Source, val totalMillis: Long, val spanMillis: Map<String, Long>)
+}
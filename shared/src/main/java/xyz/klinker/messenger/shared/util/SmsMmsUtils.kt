@@ -47,6 +47,7 @@ import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.MmsSettings
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.data.pojo.MmsPart
 import java.text.DecimalFormat
 import java.util.*
 
@@ -57,6 +58,32 @@ object SmsMmsUtils {
     private const val INITIAL_CONVERSATION_LIMIT = 250
     const val INITIAL_MESSAGE_LIMIT = 500
 
+    // some korean carriers put this in front of messages that were sent from the web
+    private const val WEB_SENDER_PREFIX = "[Web발신]\n"
+
+    fun stripWebSenderPrefix(data: String?) = data?.replace(WEB_SENDER_PREFIX, "")
+
+    /**
+     * Texts from an email address come in from a short code, with the address as the first word
+     * of the body. Pulse stores those under the address, with the rest of the body as the message,
+     * and leaves off the web sender prefix. Duplicates have to be looked for with the address and
+     * body that were actually stored.
+     *
+     * @return the address and body, the way that they are stored in Pulse's database.
+     */
+    fun storedSms(address: String, body: String): Pair<String, String> {
+        var address = address
+        var body = body
+
+        if (address.length <= 5 && body.split(" ".toRegex())[0].contains("@")) {
+            // this is a text from an email address.
+            address = body.split(" ".toRegex())[0]
+            body = body.split(" ".toRegex()).drop(1).joinToString(" ")
+        }
+
+        return Pair(PhoneNumberUtils.clearFormatting(address), stripWebSenderPrefix(body.trim { it <= ' ' })!!)
+    }
+
     /**
      * Gets a list of conversations from the internal sms database that is ready to be inserted
      * into our database.
@@ -144,108 +171,7 @@ object SmsMmsUtils {
      * @param phoneNumbers the phone numbers to look for.
      * @return the combined string.
      */
-    fun createIdMatcher(phoneNumbers: String): IdMatcher {
-        val numbers = phoneNumbers.split(", ".toRegex())
-                .dropLastWhile { it.isEmpty() }
-                .map { it.replace("-".toRegex(), "").replace(" ".toRegex(), "").replace("/+".toRegex(), "") }
-
-        val fiveMatchers = ArrayList<String>()
-        val sevenMatchers = ArrayList<String>()
-        val sevenMatchersNoFormatting = ArrayList<String>()
-        val eightMatchers = ArrayList<String>()
-        val eightMatchersNoFormatting = ArrayList<String>()
-        val tenMatchers = ArrayList<String>()
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> fiveMatchers.add(it)
-                it.length >= 5 -> fiveMatchers.add(it.substring(it.length - 5))
-                else -> fiveMatchers.add(it)
-            }
-        }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> sevenMatchers.add(it)
-                it.length >= 7 -> sevenMatchers.add(it.substring(it.length - 7))
-                else -> sevenMatchers.add(it)
-            }
-        }
-
-        numbers.map { PhoneNumberUtils.clearFormatting(it) }
-                .forEach {
-                    when {
-                        it.contains("@") -> sevenMatchersNoFormatting.add(it)
-                        it.length >= 7 -> sevenMatchersNoFormatting.add(it.substring(it.length - 7))
-                        else -> sevenMatchersNoFormatting.add(it)
-                    }
-                }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> eightMatchers.add(it)
-                it.length >= 8 -> eightMatchers.add(it.substring(it.length - 8))
-                else -> eightMatchers.add(it)
-            }
-        }
-
-        numbers.map { PhoneNumberUtils.clearFormatting(it) }
-                .forEach {
-                    when {
-                        it.contains("@") -> eightMatchersNoFormatting.add(it)
-                        it.length >= 8 -> eightMatchersNoFormatting.add(it.substring(it.length - 8))
-                        else -> eightMatchersNoFormatting.add(it)
-                    }
-                }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> tenMatchers.add(it)
-                it.length >= 10 -> tenMatchers.add(it.substring(it.length - 10))
-                else -> tenMatchers.add(it)
-            }
-        }
-
-        Collections.sort(fiveMatchers)
-        Collections.sort(sevenMatchers)
-        Collections.sort(sevenMatchersNoFormatting)
-        Collections.sort(eightMatchers)
-        Collections.sort(eightMatchersNoFormatting)
-        Collections.sort(tenMatchers)
-
-        val sevenBuilder = StringBuilder()
-        for (m in sevenMatchers) {
-            sevenBuilder.append(m)
-        }
-
-        val sevenNoFormattingBuilder = StringBuilder()
-        for (m in sevenMatchersNoFormatting) {
-            sevenNoFormattingBuilder.append(m)
-        }
-
-        val eightBuilder = StringBuilder()
-        for (m in eightMatchers) {
-            eightBuilder.append(m)
-        }
-
-        val eightNoFormattingBuilder = StringBuilder()
-        for (m in eightMatchersNoFormatting) {
-            eightNoFormattingBuilder.append(m)
-        }
-
-        val fiveBuilder = StringBuilder()
-        for (m in fiveMatchers) {
-            fiveBuilder.append(m)
-        }
-
-        val tenBuilder = StringBuilder()
-        for (m in tenMatchers) {
-            tenBuilder.append(m)
-        }
-
-        return IdMatcher(fiveBuilder.toString(), sevenBuilder.toString(), sevenNoFormattingBuilder.toString(),
-                eightBuilder.toString(), eightNoFormattingBuilder.toString(), tenBuilder.toString())
-    }
+    fun createIdMatcher(phoneNumbers: String): IdMatcher = IdMatcherBuilder.build(phoneNumbers)
 
     /**
      * Queries a conversation that is currently in the database and returns a cursor with all of the
@@ -274,9 +200,12 @@ object SmsMmsUtils {
      *
      * @param messages       the cursor holding the message.
      * @param conversationId the conversation id from our own internal database.
+     * @param resolver       parts and senders that were already looked up for a batch of mms.
      * @return the content values to insert into our database.
      */
-    fun processMessage(messages: Cursor, conversationId: Long, context: Context?): List<ContentValues> {
+    @JvmOverloads
+    fun processMessage(messages: Cursor, conversationId: Long, context: Context?,
+                       resolver: MmsBatchResolver? = null): List<ContentValues> {
         if (context == null) {
             return emptyList()
         }
@@ -285,13 +214,16 @@ object SmsMmsUtils {
 
         if (isSms(messages)) {
             if (messages.getString(1) != null) {
-                val message = ContentValues(9)
+                val message = ContentValues(12)
                 message.put(Message.COLUMN_ID, DataSource.generateId())
                 message.put(Message.COLUMN_CONVERSATION_ID, conversationId)
                 message.put(Message.COLUMN_TYPE, getSmsMessageType(messages))
                 message.put(Message.COLUMN_DATA, messages.getString(1).trim { it <= ' ' })
+                message.put(Message.COLUMN_CONTENT_HASH, Message.contentHash(messages.getString(1)))
+                message.put(Message.COLUMN_RENDER_HINTS, MessageTextAnalyzer.analyze(messages.getString(1).trim { it <= ' ' }))
                 message.put(Message.COLUMN_TIMESTAMP, messages.getLong(2))
                 message.put(Message.COLUMN_MIME_TYPE, MimeType.TEXT_PLAIN)
+                message.put(Message.COLUMN_MEDIA_KIND, Message.MEDIA_KIND_NONE)
                 message.put(Message.COLUMN_READ, messages.getInt(3))
                 message.put(Message.COLUMN_SEEN, true)
                 message.put(Message.COLUMN_FROM, null as String?)
@@ -300,64 +232,108 @@ object SmsMmsUtils {
                 values.add(message)
             }
         } else {
-            val uri = Uri.parse("content://mms/" + messages.getLong(0))
-            val number = getMmsFrom(uri, context)
-            val from = ContactUtils.findContactNames(number, context)
-            val mId = "mid=" + messages.getString(0)
+            val mmsId = messages.getLong(0)
+            val number = resolver?.from(mmsId) ?: getMmsFrom(Uri.parse("content://mms/$mmsId"), context)
+            val from = resolver?.contactNames(number) ?: ContactUtils.findContactNames(number, context)
+            val parts = resolver?.parts(mmsId) ?: queryMmsParts(context, listOf(mmsId))[mmsId] ?: emptyList<MmsPart>()
             val type = getMmsMessageType(messages)
 
-            val query = context.contentResolver.query(Uri.parse("content://mms/part"),
-                    arrayOf(Telephony.Mms.Part._ID, Telephony.Mms.Part.CONTENT_TYPE, Telephony.Mms.Part._DATA, Telephony.Mms.Part.TEXT),
-                    mId, null, null)
-
-            if (query != null && query.moveToFirst()) {
-                do {
-                    val partId = query.getString(0)
-                    val mimeType = query.getString(1)
-
-                    if (mimeType != null && MimeType.isSupported(mimeType)) {
-                        val message = ContentValues(9)
-                        message.put(Message.COLUMN_CONVERSATION_ID, conversationId)
-                        message.put(Message.COLUMN_TYPE, type)
-                        message.put(Message.COLUMN_MIME_TYPE, mimeType)
-                        message.put(Message.COLUMN_TIMESTAMP, messages
-                                .getLong(messages.getColumnIndex(Telephony.Sms.DATE)) * 1000)
-                        message.put(Message.COLUMN_READ, messages
-                                .getInt(messages.getColumnIndex(Telephony.Sms.READ)))
-                        message.put(Message.COLUMN_SEEN, true)
-                        message.put(Message.COLUMN_FROM, from)
-//                        message.put(Message.COLUMN_COLOR, null)
-
-                        if (mimeType == MimeType.TEXT_PLAIN) {
-                            val data = query.getString(2)
-                            var text = if (data != null) {
-                                getMmsText(partId, context)
-                            } else {
-                                query.getString(3)
-                            }
-
-                            if (text == null) {
-                                text = ""
-                            }
-
-                            if (text.trim { it <= ' ' }.isNotEmpty()) {
-                                message.put(Message.COLUMN_DATA, text.trim { it <= ' ' })
-                                values.add(message)
-                            }
+            for (part in parts) {
+                val mimeType = part.mimeType
+
+                if (mimeType != null && MimeType.isSupported(mimeType)) {
+                    val message = ContentValues(11)
+                    message.put(Message.COLUMN_CONVERSATION_ID, conversationId)
+                    message.put(Message.COLUMN_TYPE, type)
+                    message.put(Message.COLUMN_MIME_TYPE, mimeType)
+                    message.put(Message.COLUMN_MEDIA_KIND, Message.mediaKind(mimeType))
+                    message.put(Message.COLUMN_TIMESTAMP, messages
+                            .getLong(messages.getColumnIndex(Telephony.Sms.DATE)) * 1000)
+                    message.put(Message.COLUMN_READ, messages
+                            .getInt(messages.getColumnIndex(Telephony.Sms.READ)))
+                    message.put(Message.COLUMN_SEEN, true)
+                    message.put(Message.COLUMN_FROM, from)
+//                    message.put(Message.COLUMN_COLOR, null)
+
+                    if (mimeType == MimeType.TEXT_PLAIN) {
+                        var text = if (part.data != null) {
+                            getMmsText(part.id, context)
                         } else {
-                            message.put(Message.COLUMN_DATA, "content://mms/part/" + partId)
+                            part.text
+                        }
+
+                        if (text == null) {
+                            text = ""
+                        }
+
+                        if (text.trim { it <= ' ' }.isNotEmpty()) {
+                            message.put(Message.COLUMN_DATA, text.trim { it <= ' ' })
+                            message.put(Message.COLUMN_CONTENT_HASH, Message.contentHash(text))
+                            message.put(Message.COLUMN_RENDER_HINTS, MessageTextAnalyzer.analyze(text.trim { it <= ' ' }))
                             values.add(message)
                         }
+                    } else {
+                        message.put(Message.COLUMN_DATA, "content://mms/part/" + part.id)
+                        message.put(Message.COLUMN_CONTENT_HASH, Message.contentHash("content://mms/part/" + part.id))
+                        values.add(message)
                     }
-                } while (query.moveToNext())
+                }
             }
-
-            query.closeSilent()
         }
 
         return values
     }
 
+    /**
+     * Gets the ids of the mms in a cursor of provider messages, so that their parts can be
+     * looked up together. Leaves the cursor before its first row.
+     */
+    fun getMmsIds(messages: Cursor, limit: Int): List<Long> {
+        val ids = ArrayList<Long>()
+        messages.moveToPosition(-1)
+        while (messages.moveToNext() && messages.position < limit) {
+            if (!isSms(messages)) {
+                ids.add(messages.getLong(0))
+            }
+        }
+
+        messages.moveToPosition(-1)
+        return ids
+    }
+
+    /**
+     * Queries the parts for a list of mms in one trip to the provider.
+     *
+     * @return the parts, grouped by the id of the mms that they belong to.
+     */
+    fun queryMmsParts(context: Context, mmsIds: List<Long>): Map<Long, List<MmsPart>> {
+        val parts = HashMap<Long, MutableList<MmsPart>>()
+        if (mmsIds.isEmpty()) {
+            return parts
+        }
+
+        val selection = if (mmsIds.size == 1) {
+            Telephony.Mms.Part.MSG_ID + "=" + mmsIds[0]
+        } else {
+            Telephony.Mms.Part.MSG_ID + " IN (" + mmsIds.joinToString(",") + ")"
+        }
+
+        val query = context.contentResolver.query(Uri.parse("content://mms/part"),
+                arrayOf(Telephony.Mms.Part._ID, Telephony.Mms.Part.CONTENT_TYPE, Telephony.Mms.Part._DATA,
+                        Telephony.Mms.Part.TEXT, Telephony.Mms.Part.MSG_ID),
+                selection, null, null)
+
+        if (query != null && query.moveToFirst()) {
+            do {
+                val part = MmsPart(query.getString(0), query.getString(1), query.getString(2), query.getString(3))
+                parts.getOrPut(query.getLong(4)) { ArrayList() }.add(part)
+            } while (query.moveToNext())
+        }
+
+        query.closeSilent()
+        return parts
+    }
+
     /**
      * Checks whether or not the msg_box column has data in it. If it doesn't, then the message is
      * SMS. If it does, the message is MMS.
@@ -448,6 +424,29 @@ object SmsMmsUtils {
         return ""
     }
 
+    /**
+     * Gets the same numbers as getMmsTo, from a single query on the addresses of the mms.
+     */
+    fun getMmsRecipients(mmsId: Long, context: Context): String {
+        val uri = Telephony.Mms.CONTENT_URI.buildUpon().appendPath(mmsId.toString()).appendPath("addr").build()
+        val cursor = SqliteWrapper.query(context, context.contentResolver, uri,
+                arrayOf(Telephony.Mms.Addr.ADDRESS, Telephony.Mms.Addr.CHARSET),
+                Telephony.Mms.Addr.TYPE + " IN (" + PduHeaders.TO + "," + PduHeaders.CC + ")", null, null)
+
+        val numbers = ArrayList<String>()
+        if (cursor != null && cursor.moveToFirst()) {
+            do {
+                val address = cursor.getString(0)
+                if (!TextUtils.isEmpty(address)) {
+                    numbers.add(EncodedStringValue(cursor.getInt(1), PduPersister.getBytes(address)).string)
+                }
+            } while (cursor.moveToNext())
+        }
+
+        cursor?.closeSilent()
+        return stripDuplicatePhoneNumbers(numbers.joinToString(", "))
+    }
+
     fun getMmsTo(uri: Uri, context: Context?): String {
         val msg: MultimediaMessagePdu
 
@@ -1,5 +1,6 @@
 package xyz.klinker.messenger.shared.util
 
+import android.content.ContentUris
 import android.content.ContentValues
 import android.content.Context
 import android.content.Intent
@@ -18,21 +19,22 @@ import xyz.klinker.messenger.shared.service.notification.Notifier
 
 class SmsReceivedHandler(private val context: Context) {
 
+    private var saved = false
+
     fun newSmsRecieved(intent: Intent?, retry: Boolean = true) {
         if (intent != null) {
-            val latestMessageOne = DataSource.getLatestMessage(context)
+            if (retry) {
+                saved = false
+            }
 
-            val wasBlacklisted = try {
+            try {
                 handle(intent)
             } catch (e: Exception) {
-                false
-//                throw SmsSaveException(e)
-            }
-
-            val latestMessageTwo = DataSource.getLatestMessage(context)
-
-            if (retry && !wasBlacklisted && latestMessageOne?.id == latestMessageTwo?.id) {
-                newSmsRecieved(intent, false)
+                // only try again if the message didn't make it in to the database. Otherwise, the
+                // second try would skip it as a duplicate, and never notify.
+                if (retry && !saved) {
+                    newSmsRecieved(intent, false)
+                }
             }
         }
     }
@@ -63,11 +65,11 @@ class SmsReceivedHandler(private val context: Context) {
             date = sms.timestampMillis
         }
 
-        if (BlacklistUtils.isBlacklisted(context, address, body)) {
+        if (ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_BLACKLIST) { BlacklistUtils.isBlacklisted(context, address, body) }) {
             return true
         }
 
-        val conversationId = insertSms(context, address, body, simSlot)
+        val conversationId = ReceiveLatencyTracer.span(ReceiveLatencyTracer.SPAN_INSERT) { insertSms(context, address, body, simSlot) }
         if (conversationId != -2L) {
             insertInternalSms(context, address, body, date)
         }
@@ -91,7 +93,10 @@ class SmsReceivedHandler(private val context: Context) {
             values.put(Telephony.Sms.DATE_SENT, dateSent)
 
             try {
-                context.contentResolver.insert(Telephony.Sms.Inbox.CONTENT_URI, values)
+                val uri = context.contentResolver.insert(Telephony.Sms.Inbox.CONTENT_URI, values)
+                if (uri != null) {
+                    TelephonyReconciler.markOwnSms(context, ContentUris.parseId(uri))
+                }
             } catch (e: Exception) {
                 e.printStackTrace()
             }
@@ -99,20 +104,11 @@ class SmsReceivedHandler(private val context: Context) {
     }
 
     private fun insertSms(context: Context, address: String, body: String, simSlot: Int): Long {
-        var body = body
-        var address = address
-
-        if (address.length <= 5 && body.split(" ".toRegex())[0].contains("@")) {
-            // this is a text from an email address.
-            address = body.split(" ".toRegex())[0]
-            body = body.split(" ".toRegex()).drop(1).joinToString(" ")
-        }
-
-        address = PhoneNumberUtils.clearFormatting(address)
+        val (address, body) = SmsMmsUtils.storedSms(address, body)
 
         val message = Message()
         message.type = Message.TYPE_RECEIVED
-        message.data = body.trim { it <= ' ' }
+        message.data = body
         message.timestamp = TimeUtils.now
         message.mimeType = MimeType.TEXT_PLAIN
         message.read = false
@@ -147,6 +143,12 @@ class SmsReceivedHandler(private val context: Context) {
                 }
             }
 
+            if (source.getMessage(context, message.id) == null) {
+                throw IllegalStateException("sms was not saved")
+            }
+
+            saved = true
+
             val conversation = source.getConversation(context, conversationId)
             ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, body, NotificationConstants.CONVERSATION_ID_OPEN == conversationId)
             MessageListUpdatedReceiver.sendBroadcast(context, conversationId, message.data, message.type)
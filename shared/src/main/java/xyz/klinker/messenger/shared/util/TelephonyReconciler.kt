@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.database.ContentObserver
+import android.database.Cursor
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.provider.BaseColumns
+import android.provider.Telephony
+import android.util.Log
+import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.QueryScope
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
+import xyz.klinker.messenger.shared.receiver.MmsReceivedReceiver
+import xyz.klinker.messenger.shared.service.ApiDownloadService
+import xyz.klinker.messenger.shared.service.NewMessagesCheckService
+
+/**
+ * Brings messages that other apps wrote to the telephony provider (another sms app, Android Auto,
+ * etc) in to Pulse's database.
+ *
+ * Instead of polling the latest messages by date, this keeps a high-water mark of the provider's
+ * _id for sms and for mms. Each run reads everything past the marks in id order, looks each
+ * message up in Pulse's database through the content hash index, and inserts whatever is missing
+ * as one batch. The marks only move forward once that batch is saved, so a run that fails part
+ * way through is picked up again by the next one.
+ *
+ * Only received mms are brought in. Pulse's own copy of an mms that it sent points at the local
+ * file, rather than at the provider's part, so those can't be matched up by their content. The mms
+ * that Pulse receives itself are written to the provider by the mms library before
+ * MmsReceivedReceiver saves them, so their ids are recorded through #markOwnMms and skipped, the
+ * same as the sms. Otherwise a slow receiver would find the message here already, marked as read,
+ * and never notify for it.
+ *
+ * Pulse writes the copy of each received sms to the provider as well, and that write fires the
+ * same observer. The ids of those rows are recorded through #markOwnSms, so they are skipped, and
+ * the sms mark moves straight past them when nothing else is in between. Everything else is put
+ * in to the same form that Pulse stores it in before it is compared, so that email gateway and
+ * [Web발신] texts match up with the copy that was saved when they came in.
+ *
+ * Sent sms are still matched on their content, since a message that Pulse has stuck as sending is
+ * moved to sent once the provider has it as sent. The sms mark stays behind anything that is
+ * still sending, for up to a day, so that those rows are looked at again after they go out.
+ */
+class TelephonyReconciler(private val context: Context) {
+
+    /**
+     * @return the ids of the conversations that messages were inserted in to.
+     */
+    fun reconcile(): Set<Long> = synchronized(TelephonyReconciler) {
+        if (ApiDownloadService.IS_RUNNING || (Account.exists() && !Account.primary) || Settings.stripUnicode) {
+            return emptySet()
+        }
+
+        val preferences = Settings.getSharedPrefs(context)
+        if (!preferences.contains(PREF_SMS_WATERMARK)) {
+            initializeWatermarks()
+        }
+
+        val conversations = HashSet<Long>()
+        try {
+            conversations.addAll(reconcileSms(preferences.getLong(PREF_SMS_WATERMARK, 0L)))
+            conversations.addAll(reconcileMms(preferences.getLong(PREF_MMS_WATERMARK, 0L)))
+        } catch (e: Exception) {
+            // we can't read the provider without the sms permission
+            e.printStackTrace()
+        }
+
+        NewMessagesCheckService.writeLastRun(context)
+        return conversations
+    }
+
+    private fun reconcileSms(watermark: Long): Set<Long> {
+        val signature = if (Settings.signature.isNullOrEmpty()) "" else "\n" + Settings.signature
+        val ownIds = ownIds(context, PREF_OWN_SMS_IDS)
+        val conversations = HashSet<Long>()
+        var mark = watermark
+        var held = -1L
+
+        do {
+            val messages = ArrayList<Message>()
+            val addresses = ArrayList<String>()
+            val cursor = query(Telephony.Sms.CONTENT_URI, SMS_PROJECTION, mark) ?: break
+            val count = cursor.count
+
+            while (cursor.moveToNext()) {
+                mark = cursor.getLong(0)
+                if (ownIds.contains(mark.toString())) {
+                    continue
+                }
+
+                val type = SmsMmsUtils.getSmsMessageType(cursor)
+                if (type == Message.TYPE_SENDING && held == -1L && cursor.getLong(2) > TimeUtils.now - DUPLICATE_WINDOW) {
+                    // keep the mark behind messages that are still sending, so that they are
+                    // looked at again once they have been sent
+                    held = mark
+                }
+
+                var body = cursor.getString(1) ?: continue
+                if (type != Message.TYPE_RECEIVED && signature.isNotEmpty()) {
+                    // sent messages don't show a signature in the app, but they are written to the
+                    // internal database with one
+                    body = body.replace(signature, "")
+                }
+
+                val stored = SmsMmsUtils.storedSms(cursor.getString(6) ?: continue, body)
+                val address = stored.first
+                body = stored.second
+
+                val message = Message()
+                message.type = type
+                message.data = body
+                message.timestamp = cursor.getLong(2)
+                message.mimeType = MimeType.TEXT_PLAIN
+                message.read = true
+                message.seen = true
+                message.sentDeviceId = if (type != Message.TYPE_RECEIVED && Account.exists()) Account.deviceId!!.toLong() else -1L
+
+                if (!alreadyInDatabase(address, message)) {
+                    messages.add(message)
+                    addresses.add(address)
+                }
+            }
+
+            cursor.closeSilent()
+            conversations.addAll(DataSource.insertMessages(context, messages, addresses))
+
+            val saved = if (held == -1L) mark else held - 1
+            Settings.getSharedPrefs(context).edit()
+                    .putLong(PREF_SMS_WATERMARK, saved)
+                    .putStringSet(PREF_OWN_SMS_IDS, ownIds.filter { it.toLong() > saved }.toSet())
+                    .apply()
+        } while (count == BATCH_SIZE)
+
+        return conversations
+    }
+
+    private fun reconcileMms(watermark: Long): Set<Long> {
+        val ownIds = ownIds(context, PREF_OWN_MMS_IDS)
+        val myNumbers = PhoneNumberUtils.getMyPossiblePhoneNumbers(context)
+        val resolver = MmsBatchResolver(context)
+        val receiver = MmsReceivedReceiver()
+        val conversations = HashSet<Long>()
+        var mark = watermark
+
+        do {
+            val messages = ArrayList<Message>()
+            val addresses = ArrayList<String>()
+            val cursor = query(Telephony.Mms.CONTENT_URI, MMS_PROJECTION, mark) ?: break
+            val count = cursor.count
+
+            resolver.clearParts()
+            resolver.prefetch(SmsMmsUtils.getMmsIds(cursor, BATCH_SIZE))
+
+            while (cursor.moveToNext()) {
+                mark = cursor.getLong(0)
+                if (ownIds.contains(mark.toString()) || cursor.getInt(3) != Telephony.Mms.MESSAGE_BOX_INBOX) {
+                    continue
+                }
+
+                val from = resolver.from(mark)
+                val phoneNumbers = receiver.getPhoneNumbers(from, resolver.to(mark), myNumbers, context)
+                val isGroup = phoneNumbers.contains(",")
+
+                for (value in SmsMmsUtils.processMessage(cursor, -1L, context, resolver)) {
+                    val message = Message()
+                    message.type = Message.TYPE_RECEIVED
+                    message.data = value.getAsString(Message.COLUMN_DATA).trim()
+                    message.timestamp = value.getAsLong(Message.COLUMN_TIMESTAMP)
+                    message.mimeType = value.getAsString(Message.COLUMN_MIME_TYPE)
+                    message.read = true
+                    message.seen = true
+                    message.from = if (isGroup) resolver.contactNames(from) else null
+                    message.sentDeviceId = -1L
+
+                    if (!alreadyInDatabase(phoneNumbers, message)) {
+                        messages.add(message)
+                        addresses.add(phoneNumbers)
+                    }
+                }
+            }
+
+            cursor.closeSilent()
+            conversations.addAll(DataSource.insertMessages(context, messages, addresses))
+            Settings.getSharedPrefs(context).edit()
+                    .putLong(PREF_MMS_WATERMARK, mark)
+                    .putStringSet(PREF_OWN_MMS_IDS, ownIds.filter { it.toLong() > mark }.toSet())
+                    .apply()
+        } while (count == BATCH_SIZE)
+
+        return conversations
+    }
+
+    /**
+     * A message that Pulse sent can get stuck as sending if the sent broadcast never comes back.
+     * Once the provider has it as sent, the copy in Pulse is moved to sent as well.
+     */
+    private fun alreadyInDatabase(phoneNumbers: String, message: Message): Boolean {
+        val conversationId = DataSource.findConversationId(context, phoneNumbers) ?: return false
+        val existing = DataSource.findMessagesWithContent(context, conversationId, message.data, message.mimeType,
+                message.timestamp, DUPLICATE_WINDOW)
+                .firstOrNull { NewMessagesCheckService.typesAreEqual(message.type, it.type) } ?: return false
+
+        if (message.type == Message.TYPE_SENT && existing.type == Message.TYPE_SENDING) {
+            DataSource.updateMessageType(context, existing.id, Message.TYPE_SENT)
+        }
+
+        return true
+    }
+
+    private fun query(uri: Uri, projection: Array<String>, watermark: Long): Cursor? {
+        return context.contentResolver.query(uri, projection, BaseColumns._ID + ">?",
+                arrayOf(watermark.toString()), BaseColumns._ID + " asc limit " + BATCH_SIZE)
+    }
+
+    /**
+     * The first time that this runs, start from the last message that the old timestamp based
+     * check would have looked at. On a new install, that is whatever is in the provider now, since
+     * the initial import has already brought in the history.
+     */
+    private fun initializeWatermarks() {
+        val lastRun = Settings.getSharedPrefs(context).getLong("new_message_check_last_run", 0L)
+
+        val sms = try {
+            highestId(Telephony.Sms.CONTENT_URI, lastRun)
+        } catch (e: Exception) {
+            0L
+        }
+
+        val mms = try {
+            // mms dates are stored in seconds
+            highestId(Telephony.Mms.CONTENT_URI, lastRun / 1000)
+        } catch (e: Exception) {
+            0L
+        }
+
+        Log.v(TAG, "starting telephony watermarks at sms: $sms, mms: $mms")
+        Settings.getSharedPrefs(context).edit()
+                .putLong(PREF_SMS_WATERMARK, sms)
+                .putLong(PREF_MMS_WATERMARK, mms)
+                .apply()
+    }
+
+    private fun highestId(uri: Uri, before: Long): Long {
+        val selection = if (before > 0) Telephony.Sms.DATE + "<=?" else null
+        val args = if (before > 0) arrayOf(before.toString()) else null
+        val cursor = context.contentResolver.query(uri, arrayOf(BaseColumns._ID), selection, args,
+                BaseColumns._ID + " desc limit 1")
+
+        val id = if (cursor != null && cursor.moveToFirst()) cursor.getLong(0) else 0L
+        cursor.closeSilent()
+        return id
+    }
+
+    companion object {
+        private const val TAG = "TelephonyReconciler"
+        private const val PREF_SMS_WATERMARK = "telephony_sms_watermark"
+        private const val PREF_MMS_WATERMARK = "telephony_mms_watermark"
+        private const val PREF_OWN_SMS_IDS = "telephony_own_sms_ids"
+        private const val PREF_OWN_MMS_IDS = "telephony_own_mms_ids"
+        private const val BATCH_SIZE = 500
+        private const val DEBOUNCE_MS = 2000L
+        private val DUPLICATE_WINDOW = TimeUtils.DAY
+
+        private val SMS_PROJECTION = arrayOf(Telephony.Sms._ID, Telephony.Sms.BODY, Telephony.Sms.DATE,
+                Telephony.Sms.READ, Telephony.Sms.TYPE, Telephony.Sms.STATUS, Telephony.Sms.ADDRESS)
+        private val MMS_PROJECTION = arrayOf(Telephony.Mms._ID, Telephony.Mms.DATE, Telephony.Mms.READ,
+                Telephony.Mms.MESSAGE_BOX, Telephony.Mms.MESSAGE_TYPE)
+
+        private var observer: ContentObserver? = null
+
+        /**
+         * Records an sms that Pulse wrote to the provider itself, so that it isn't brought back in.
+         * If it is the next one past the mark, the mark just moves up to it.
+         */
+        fun markOwnSms(context: Context, id: Long) {
+            markOwn(context, id, PREF_SMS_WATERMARK, PREF_OWN_SMS_IDS)
+        }
+
+        /**
+         * Records an mms that Pulse received itself, so that it is left for MmsReceivedReceiver to
+         * save and notify for. This needs to happen before the receiver does anything slow.
+         */
+        fun markOwnMms(context: Context, id: Long) {
+            markOwn(context, id, PREF_MMS_WATERMARK, PREF_OWN_MMS_IDS)
+        }
+
+        private fun markOwn(context: Context, id: Long, watermarkPref: String, ownIdsPref: String) {
+            synchronized(TelephonyReconciler) {
+                val preferences = Settings.getSharedPrefs(context)
+                val watermark = preferences.getLong(watermarkPref, -1L)
+
+                if (watermark != -1L && id == watermark + 1) {
+                    preferences.edit().putLong(watermarkPref, id).apply()
+                } else if (id > watermark) {
+                    preferences.edit().putStringSet(ownIdsPref, ownIds(context, ownIdsPref) + id.toString()).apply()
+                }
+            }
+        }
+
+        private fun ownIds(context: Context, pref: String): Set<String> =
+                HashSet(Settings.getSharedPrefs(context).getStringSet(pref, null) ?: emptySet())
+
+        /**
+         * Watches the telephony provider, and reconciles once it has been quiet for a moment, so
+         * that a burst of writes from another app only causes a single run.
+         */
+        fun register(context: Context) {
+            if (observer != null) {
+                return
+            }
+
+            val appContext = context.applicationContext
+            val handler = Handler(Looper.getMainLooper())
+            val reconcile = Runnable {
+                QueryScope.background {
+                    for (conversationId in TelephonyReconciler(appContext).reconcile()) {
+                        MessageListUpdatedReceiver.sendBroadcast(appContext, conversationId)
+                    }
+                }
+            }
+
+            observer = object : ContentObserver(handler) {
+                override fun onChange(selfChange: Boolean) {
+                    handler.removeCallbacks(reconcile)
+                    handler.postDelayed(reconcile, DEBOUNCE_MS)
+                }
+
+                override fun onChange(selfChange: Boolean, uri: Uri?) {
+                    if (uri != null && isOwnSms(appContext, uri)) {
+                        return
+                    }
+
+                    onChange(selfChange)
+                }
+            }
+
+            try {
+                appContext.contentResolver.registerContentObserver(Uri.parse("content://mms-sms/"), true, observer!!)
+            } catch (e: Exception) {
+                observer = null
+            }
+        }
+
+        private fun isOwnSms(context: Context, uri: Uri): Boolean {
+            if (uri.authority != "sms") {
+                return false
+            }
+
+            val id = uri.lastPathSegment?.toLongOrNull() ?: return false
+            return id <= Settings.getSharedPrefs(context).getLong(PREF_SMS_WATERMARK, -1L) ||
+                    ownIds(context, PREF_OWN_SMS_IDS).contains(id.toString())
+        }
+    }
+}
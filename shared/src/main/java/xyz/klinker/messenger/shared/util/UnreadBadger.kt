@@ -2,7 +2,9 @@ package xyz.klinker.messenger.shared.util
 
 import android.content.Context
 import me.leolin.shortcutbadger.ShortcutBadger
-import xyz.klinker.messenger.shared.data.DataSource
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 class UnreadBadger(private val context: Context?) {
 
@@ -10,8 +12,20 @@ class UnreadBadger(private val context: Context?) {
         writeCount(0)
     }
 
+    /**
+     * Badge writes are debounced, so a burst of incoming messages only updates the launcher
+     * with the last count, once things have settled down. A write that doesn't follow another
+     * one closely, or that clears the badge, goes out right away, so that it isn't lost if the
+     * process is killed after the receiver returns.
+     */
     fun writeCount(newCount: Int) {
-        Thread { shortcutBadger(newCount) }.start()
+        synchronized(UnreadBadger) {
+            pendingWrite?.cancel(false)
+
+            val delay = if (newCount == 0) 0L else Math.max(0L, lastWrite + DEBOUNCE_MS - TimeUtils.now)
+            lastWrite = TimeUtils.now + delay
+            pendingWrite = executor.schedule({ shortcutBadger(newCount) }, delay, TimeUnit.MILLISECONDS)
+        }
     }
 
     private fun shortcutBadger(count: Int) {
@@ -23,4 +37,14 @@ class UnreadBadger(private val context: Context?) {
         }
     }
 
+    companion object {
+        private const val DEBOUNCE_MS = 500L
+
+        private val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "unread-badger").apply { isDaemon = true }
+        }
+
+        private var pendingWrite: ScheduledFuture<*>? = null
+        private var lastWrite = 0L
+    }
 }
@@ -0,0 +1,89 @@
+package xyz.klinker.messenger.shared.util.autoreply
+
+import android.content.Context
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.AutoReply
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.KeywordAutomaton
+import xyz.klinker.messenger.shared.util.SmsMmsUtils
+import xyz.klinker.messenger.shared.util.autoreply.parsers.ContactReplyParser
+import xyz.klinker.messenger.shared.util.autoreply.parsers.DrivingReplyParser
+import xyz.klinker.messenger.shared.util.autoreply.parsers.KeywordReplyParser
+import xyz.klinker.messenger.shared.util.autoreply.parsers.VacationReplyParser
+import java.util.*
+
+/**
+ * The user's auto replies, compiled so that finding the ones for a message doesn't depend on how
+ * many of them there are.
+ *
+ * The contact replies are looked up by the id matcher of their number, and all of the keywords
+ * are found with a single pass over the message's lowercased text. The replies that match come
+ * back in the same order as they are in the database, and give the same results as each parser's
+ * canParse().
+ */
+class AutoReplyEngine(context: Context, replies: List<AutoReply>) {
+
+    private val parsers = replies
+            .filter { !it.response.isNullOrBlank() }
+            .mapNotNull { mapToParser(context, it) }
+
+    private val driving = parsers.firstOrNull { it is DrivingReplyParser }
+    private val vacation = parsers.firstOrNull { it is VacationReplyParser }
+    private val contacts = HashMap<String, MutableList<Int>>()
+    private val keywords = KeywordAutomaton()
+
+    init {
+        for ((index, parser) in parsers.withIndex()) {
+            val pattern = parser.pattern ?: continue
+            when (parser) {
+                is ContactReplyParser -> contacts.getOrPut(SmsMmsUtils.createIdMatcher(pattern).default) { ArrayList() }.add(index)
+                is KeywordReplyParser -> keywords.add(pattern.toLowerCase(), index)
+            }
+        }
+
+        keywords.build()
+    }
+
+    fun getInstances(conversation: Conversation, message: Message): List<AutoReplyParser> {
+        if (driving != null && Settings.drivingMode) {
+            return listOf(driving)
+        }
+
+        if (vacation != null && Settings.vacationMode) {
+            return listOf(vacation)
+        }
+
+        val matches = BitSet()
+
+        val phoneNumbers = conversation.phoneNumbers
+        if (phoneNumbers != null && contacts.isNotEmpty()) {
+            contacts[SmsMmsUtils.createIdMatcher(phoneNumbers).default]?.forEach { matches.set(it) }
+        }
+
+        val data = message.data
+        if (data != null && message.mimeType == MimeType.TEXT_PLAIN && !keywords.isEmpty) {
+            matches.or(keywords.findAll(data.toLowerCase()))
+        }
+
+        val instances = ArrayList<AutoReplyParser>(matches.cardinality())
+        var index = matches.nextSetBit(0)
+        while (index >= 0) {
+            instances.add(parsers[index])
+            index = matches.nextSetBit(index + 1)
+        }
+
+        return instances
+    }
+
+    private fun mapToParser(context: Context, reply: AutoReply): AutoReplyParser? {
+        return when (reply.type) {
+            AutoReply.TYPE_VACATION -> VacationReplyParser(context, reply)
+            AutoReply.TYPE_DRIVING -> DrivingReplyParser(context, reply)
+            AutoReply.TYPE_CONTACT -> ContactReplyParser(context, reply)
+            AutoReply.TYPE_KEYWORD -> KeywordReplyParser(context, reply)
+            else -> null
+        }
+    }
+}
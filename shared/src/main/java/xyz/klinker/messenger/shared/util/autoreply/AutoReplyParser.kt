@@ -9,6 +9,9 @@ import xyz.klinker.messenger.shared.data.model.Message
 
 abstract class AutoReplyParser(protected var context: Context?, protected val reply: AutoReply) {
 
+    val pattern: String?
+        get() = reply.pattern
+
     abstract fun canParse(conversation: Conversation, message: Message): Boolean
 
     fun parse(forMessage: Message): Message? {
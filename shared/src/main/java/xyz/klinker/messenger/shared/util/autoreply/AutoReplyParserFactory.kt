@@ -2,46 +2,48 @@ package xyz.klinker.messenger.shared.util.autoreply
 
 import android.content.Context
 import xyz.klinker.messenger.shared.data.DataSource
-import xyz.klinker.messenger.shared.data.Settings
-import xyz.klinker.messenger.shared.data.model.AutoReply
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
-import xyz.klinker.messenger.shared.util.autoreply.parsers.ContactReplyParser
-import xyz.klinker.messenger.shared.util.autoreply.parsers.DrivingReplyParser
-import xyz.klinker.messenger.shared.util.autoreply.parsers.KeywordReplyParser
-import xyz.klinker.messenger.shared.util.autoreply.parsers.VacationReplyParser
 
 class AutoReplyParserFactory {
 
     fun getInstances(context: Context, conversation: Conversation, message: Message): List<AutoReplyParser> {
-        return buildParsers(context).filter { it.canParse(conversation, message) }
+        return getEngine(context).getInstances(conversation, message)
     }
 
-    private fun buildParsers(context: Context): List<AutoReplyParser> {
-        val parsers = DataSource.getAutoRepliesAsList(context)
-                .filter { it.response!!.isNotBlank() }
-                .mapNotNull { mapToParser(context, it) }
+    companion object {
 
-        val driving = parsers.firstOrNull { it is DrivingReplyParser }
-        if (driving != null && Settings.drivingMode) {
-            return listOf(driving)
-        }
+        @Volatile
+        private var engine: AutoReplyEngine? = null
+        private var version = 0
 
-        val vacation = parsers.firstOrNull { it is VacationReplyParser }
-        if (vacation != null && Settings.vacationMode) {
-            return listOf(vacation)
+        /**
+         * Should be called whenever the auto replies change, so that they are compiled again for
+         * the next message.
+         */
+        @Synchronized
+        fun invalidate() {
+            version++
+            engine = null
         }
 
-        return parsers
-    }
+        private fun getEngine(context: Context): AutoReplyEngine {
+            val cached = engine
+            if (cached != null) {
+                return cached
+            }
+
+            val compiledVersion = synchronized(this) { version }
+            val compiled = AutoReplyEngine(context.applicationContext ?: context, DataSource.getAutoRepliesAsList(context))
+
+            synchronized(this) {
+                // don't keep it if the auto replies changed while they were being compiled
+                if (version == compiledVersion) {
+                    engine = compiled
+                }
+            }
 
-    private fun mapToParser(context: Context, reply: AutoReply): AutoReplyParser? {
-        return when (reply.type) {
-            AutoReply.TYPE_VACATION -> VacationReplyParser(context, reply)
-            AutoReply.TYPE_DRIVING -> DrivingReplyParser(context, reply)
-            AutoReply.TYPE_CONTACT -> ContactReplyParser(context, reply)
-            AutoReply.TYPE_KEYWORD -> KeywordReplyParser(context, reply)
-            else -> null
+            return compiled
         }
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package xyz.klinker.messenger.shared.util.media
 
 import android.content.Context
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 
 import xyz.klinker.messenger.api.implementation.Account
@@ -21,7 +22,8 @@ abstract class MediaParser(protected var context: Context?) {
             matchedText = matcher.group(0)
         }
 
-        return matchedText != null && (ignoreMatcher == null || ignoreMatcher != null && !Pattern.compile(ignoreMatcher).matcher(text).find())
+        val ignore = ignoreMatcher ?: return matchedText != null
+        return matchedText != null && !IGNORE_PATTERNS.getOrPut(ignore) { Pattern.compile(ignore) }.matcher(text).find()
     }
 
     fun parse(forMessage: Message): Message? {
@@ -39,4 +41,9 @@ abstract class MediaParser(protected var context: Context?) {
 
         return if (message.data == null) null else message
     }
+
+    companion object {
+        // a new set of parsers is built for every message, so the patterns are kept here instead
+        private val IGNORE_PATTERNS = ConcurrentHashMap<String, Pattern>()
+    }
 }
@@ -16,7 +16,7 @@ import xyz.klinker.messenger.shared.util.media.MediaParser
 class YoutubeParser(context: Context?) : MediaParser(context) {
 
     override val patternMatcher: Pattern
-        get() = Pattern.compile("(youtu.be\\/[^?\\s]*)|(youtube.com\\/watch\\?v=[^&\\s]*)")
+        get() = PATTERN
 
     override val ignoreMatcher: String?
         get() = "channel|user|playlist"
@@ -53,6 +53,7 @@ class YoutubeParser(context: Context?) : MediaParser(context) {
     }
 
     companion object {
+        private val PATTERN = Pattern.compile("(youtu.be\\/[^?\\s]*)|(youtube.com\\/watch\\?v=[^&\\s]*)")
         private val YOUTUBE_API_REQUEST = "https://www.googleapis.com/youtube/v3/videos" +
                 "?id=<video-id>" +
                 "&key=" + BuildConfig.YOUTUBE_API_KEY +
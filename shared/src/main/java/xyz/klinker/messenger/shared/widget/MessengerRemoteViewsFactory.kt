@@ -49,9 +49,9 @@ class MessengerRemoteViewsFactory(private val context: Context) : RemoteViewsSer
         conversations = ArrayList()
 
         if (items.moveToFirst()) {
+            val mapper = Conversation.Mapper(items)
             do {
-                val conversation = Conversation()
-                conversation.fillFromCursor(items)
+                val conversation = mapper.map()
                 conversations!!.add(conversation)
             } while (items.moveToNext())
         }
@@ -14,6 +14,8 @@ import xyz.klinker.messenger.R
 import xyz.klinker.messenger.adapter.WearableMessageListAdapter
 import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.api.implementation.ApiUtils
+import xyz.klinker.messenger.shared.data.DataChange
+import xyz.klinker.messenger.shared.data.DataChangeBus
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
@@ -42,6 +44,15 @@ class MessageListActivity : AppCompatActivity(), IMessageListFragment {
     }
 
     private var updatedReceiver: MessageListUpdatedReceiver? = null
+    private val dataChangeListener = object : DataChangeBus.Listener {
+        override fun onDataChanged(change: DataChange) {
+            // sent and delivered statuses only come through here. New messages are still loaded
+            // by the MessageListUpdatedReceiver, so they aren't handled twice
+            if (conversation != null && change is DataChange.MessageTypeChanged) {
+                adapter.onMessageTypeChanged(change.messageId, change.type)
+            }
+        }
+    }
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -55,6 +66,7 @@ class MessageListActivity : AppCompatActivity(), IMessageListFragment {
         updatedReceiver = MessageListUpdatedReceiver(this)
         registerReceiver(updatedReceiver,
                 MessageListUpdatedReceiver.intentFilter)
+        DataChangeBus.register(dataChangeListener)
 
         if (conversation == null) {
             finish()
@@ -79,6 +91,7 @@ class MessageListActivity : AppCompatActivity(), IMessageListFragment {
 
     public override fun onDestroy() {
         super.onDestroy()
+        DataChangeBus.unregister(dataChangeListener)
 
         try {
             unregisterReceiver(updatedReceiver)
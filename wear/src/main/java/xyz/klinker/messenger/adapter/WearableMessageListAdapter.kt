@@ -29,6 +29,7 @@ class WearableMessageListAdapter(context: Context, private val manager: LinearLa
     : RecyclerView.Adapter<WearableMessageViewHolder>() {
 
     private val ignoreSendingStatus = true
+    private val typeOverrides = HashMap<Long, Int>()
     private val stylingHelper = MessageListStylingHelper(context)
     private val timestampHeight: Int by lazy { DensityUtil.spToPx(context, Settings.mediumFont + 2) }
 
@@ -169,6 +170,10 @@ class WearableMessageListAdapter(context: Context, private val manager: LinearLa
 
         messages!!.moveToPosition(position)
         var type = messages!!.getInt(messages!!.getColumnIndex(Message.COLUMN_TYPE))
+        if (typeOverrides.isNotEmpty()) {
+            type = typeOverrides[messages!!.getLong(messages!!.getColumnIndex(Message.COLUMN_ID))] ?: type
+        }
+
         if (ignoreSendingStatus && type == Message.TYPE_SENDING) {
             type = Message.TYPE_SENT
         }
@@ -190,6 +195,7 @@ class WearableMessageListAdapter(context: Context, private val manager: LinearLa
 
         CursorUtil.closeSilent(messages)
         messages = newMessages
+        typeOverrides.clear()
 
         if (newMessages == null) {
             return
@@ -219,9 +225,37 @@ class WearableMessageListAdapter(context: Context, private val manager: LinearLa
     fun setCursor(messages: Cursor?) {
         CursorUtil.closeSilent(this.messages)
         this.messages = messages
+        typeOverrides.clear()
         notifyDataSetChanged()
     }
 
+    /**
+     * Applies a new type to a single message, rather than re-querying the whole conversation.
+     */
+    fun onMessageTypeChanged(messageId: Long, type: Int) {
+        val position = findPosition(messageId)
+        if (position != -1) {
+            typeOverrides[messageId] = type
+            notifyItemChanged(position)
+        }
+    }
+
+    private fun findPosition(messageId: Long): Int {
+        val messages = messages ?: return -1
+
+        // status changes are almost always for the latest messages, so search from the bottom
+        val idIndex = messages.getColumnIndex(Message.COLUMN_ID)
+        if (messages.moveToLast()) {
+            do {
+                if (messages.getLong(idIndex) == messageId) {
+                    return messages.position
+                }
+            } while (messages.moveToPrevious())
+        }
+
+        return -1
+    }
+
     private fun setVisible(v: View?) {
         if (v != null && v.visibility != View.VISIBLE) {
             v.visibility = View.VISIBLE